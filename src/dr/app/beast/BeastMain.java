@@ -32,7 +32,9 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.LogWriterQueue;
 import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
 import dr.math.MathUtils;
@@ -58,6 +60,79 @@ public class BeastMain {
     public static final double DEFAULT_DELTA = 1.0;
     public static final int DEFAULT_SWAP_CHAIN_EVERY = 100;
 
+    /**
+     * Makes the copies of a marginal likelihood estimator used to run path steps concurrently by
+     * parsing the BEAST XML file again (with messages turned off and the output files discarded).
+     * The objects of a copy are left out of the sets of all likelihoods, models and parameters.
+     */
+    public static class EstimatorCopyFactory implements MarginalLikelihoodEstimator.CopyFactory {
+
+        public EstimatorCopyFactory(File inputFile, List<String> additionalParsers, boolean verbose,
+                                    boolean parserWarning, boolean strictXML) {
+            this.inputFile = inputFile;
+            this.additionalParsers = additionalParsers;
+            this.verbose = verbose;
+            this.parserWarning = parserWarning;
+            this.strictXML = strictXML;
+        }
+
+        public MarginalLikelihoodEstimator createCopy(int index) {
+            Logger messageLogger = Logger.getLogger("dr");
+            Level level = messageLogger.getLevel();
+
+            // turn off all messages and output files for the copies
+            messageLogger.setLevel(Level.OFF);
+            XMLParser.setParsingCopy(true);
+
+            // parse with the random numbers used the first time so anything random
+            // (e.g., a starting tree) is made in the same way
+            MathUtils.setThreadStream(MathUtils.getSeed());
+            try {
+                XMLParser copyParser = createParser();
+
+                FileReader copyReader = new FileReader(inputFile);
+                try {
+                    MarginalLikelihoodEstimator copy = (MarginalLikelihoodEstimator) copyParser.parse(copyReader, MarginalLikelihoodEstimator.class, index);
+                    if (copy == null) {
+                        throw new RuntimeException("BEAST XML file is missing marginal likelihood estimator " + (index + 1));
+                    }
+                    return copy;
+                } finally {
+                    copyReader.close();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to copy the marginal likelihood estimator: " + e.getMessage(), e);
+            } finally {
+                MathUtils.clearThreadStream();
+                XMLParser.setParsingCopy(false);
+                messageLogger.setLevel(level);
+            }
+        }
+
+        /**
+         * @return a parser for a copy, with the same parsers as the one the file was first parsed with
+         */
+        protected XMLParser createParser() {
+            XMLParser copyParser = new BeastParser(new String[]{inputFile.getName()}, additionalParsers, verbose,
+                    parserWarning, strictXML, version);
+            for (String pluginName : PluginLoader.getAvailablePlugins()) {
+                Plugin plugin = PluginLoader.loadPlugin(pluginName);
+                if (plugin != null) {
+                    for (XMLObjectParser pluginParser : plugin.getParsers()) {
+                        copyParser.addXMLObjectParser(pluginParser);
+                    }
+                }
+            }
+            return copyParser;
+        }
+
+        private final File inputFile;
+        private final List<String> additionalParsers;
+        private final boolean verbose;
+        private final boolean parserWarning;
+        private final boolean strictXML;
+    }
+
     static class BeastConsoleApp extends jam.console.ConsoleApplication {
         XMLParser parser = null;
 
@@ -81,7 +156,7 @@ public class BeastMain {
 
     public BeastMain(File inputFile, BeastConsoleApp consoleApp, int maxErrorCount, final boolean verbose,
                      boolean parserWarning, boolean strictXML, List<String> additionalParsers,
-                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery) {
+                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery, int swapPairCount) {
 
         if (inputFile == null) {
             throw new RuntimeException("Error: no input file specified");
@@ -159,6 +234,11 @@ public class BeastMain {
             // appropriate savers and loaders according to the user's options.
             new BeastCheckpointer();
 
+            // The copies of the chain used by a marginal likelihood estimator to run path steps
+            // concurrently are made by parsing the file again (as for the hot chains of MC3).
+            MarginalLikelihoodEstimator.setCopyFactory(new EstimatorCopyFactory(inputFile, additionalParsers,
+                    verbose, parserWarning, strictXML));
+
             if (!useMC3) {
                 // just parse the file running all threads...
 
@@ -167,7 +247,7 @@ public class BeastMain {
             } else {
                 int chainCount = chainTemperatures.length;
                 MCMC[] chains = new MCMC[chainCount];
-                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery);
+                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery, swapPairCount);
 
                 Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
                 for (int i = 1; i < chainTemperatures.length; i++) {
@@ -205,9 +285,10 @@ public class BeastMain {
                 // restart messages
                 logger.setLevel(Level.ALL);
 
+                // run on this thread (as the single chain MCMC does when parsed) so that
+                // main() doesn't exit before the chains have finished
                 MCMCMC mc3 = new MCMCMC(chains, options);
-                Thread thread = new Thread(mc3);
-                thread.start();
+                mc3.run();
             }
 
         } catch (java.io.IOException ioe) {
@@ -334,6 +415,8 @@ public class BeastMain {
                         new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
+                        new Arguments.Option("log_async", "Write log files on a separate thread"),
+                        new Arguments.IntegerOption("log_queue", 1, Integer.MAX_VALUE, "The number of log lines that can be waiting to be written when using -log_async [default = 64]"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
                         new Arguments.IntegerOption("threads", "The number of computational threads to use (default auto)"),
                         new Arguments.Option("java", "Use Java only, no native implementations"),
@@ -372,12 +455,15 @@ public class BeastMain {
                         new Arguments.RealOption("mc3_delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
                         new Arguments.RealArrayOption("mc3_temperatures", -1, "a comma-separated list of the hot chain temperatures"),
                         new Arguments.IntegerOption("mc3_swap", 1, Integer.MAX_VALUE, "frequency at which chains temperatures will be swapped"),
+                        new Arguments.IntegerOption("mc3_swap_pairs", 1, Integer.MAX_VALUE, "number of pairs of chains for which a swap is attempted each time [default = 1]"),
 
                         new Arguments.StringOption("load_state", "FILENAME", "Specify a filename to load a saved state from"),
                         new Arguments.StringOption("save_stem", "FILENAME", "Specify a stem for the filenames to save states to"),
                         new Arguments.LongOption("save_at", "Specify a state at which to save a state file"),
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
+                        new Arguments.Option("save_text", "Save states in the text format rather than the (smaller and faster) binary format"),
+                        new Arguments.Option("save_uncompressed", "Don't compress states saved in the binary format"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
@@ -454,6 +540,7 @@ public class BeastMain {
         boolean usingMC3 = false;
         double[] chainTemperatures = null;
         int swapChainsEvery = DEFAULT_SWAP_CHAIN_EVERY;
+        int swapPairCount = 1;
 
         if (arguments.hasOption("particles")) {
             System.setProperty("smc.particle_folder", arguments.getStringOption("particles"));
@@ -485,6 +572,14 @@ public class BeastMain {
                 fileNamePrefix = arguments.getStringOption("prefix");
             }
 
+            if (arguments.hasOption("log_async")) {
+                System.setProperty(LogWriterQueue.ASYNC_LOGGING, Boolean.TRUE.toString());
+            }
+
+            if (arguments.hasOption("log_queue")) {
+                System.setProperty(LogWriterQueue.ASYNC_LOGGING_QUEUE, Integer.toString(arguments.getIntegerOption("log_queue")));
+            }
+
             // ============= MC^3 settings =============
 
             int chainCount = 1;
@@ -522,6 +617,10 @@ public class BeastMain {
                 swapChainsEvery = arguments.getIntegerOption("mc3_swap");
             }
 
+            if (arguments.hasOption("mc3_swap_pairs")) {
+                swapPairCount = arguments.getIntegerOption("mc3_swap_pairs");
+            }
+
             usingMC3 = chainCount > 1;
         }
 
@@ -656,6 +755,14 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.SAVE_STEM, stemName);
             }
 
+            if (arguments.hasOption("save_text")) {
+                System.setProperty(BeastCheckpointer.SAVE_STATE_TEXT, Boolean.TRUE.toString());
+            }
+
+            if (arguments.hasOption("save_uncompressed")) {
+                System.setProperty(BeastCheckpointer.SAVE_STATE_COMPRESS, Boolean.FALSE.toString());
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
@@ -875,7 +982,7 @@ public class BeastMain {
 
         try {
             new BeastMain(inputFile, consoleApp, maxErrorCount, verbose, warnings, strictXML, additionalParsers,
-                    usingMC3, chainTemperatures, swapChainsEvery);
+                    usingMC3, chainTemperatures, swapChainsEvery, swapPairCount);
         } catch (RuntimeException rte) {
             // The stack trace here is not useful
 //            rte.printStackTrace(System.err);
@@ -34,12 +34,14 @@ import dr.xml.XMLObjectParser;
 import dr.xml.XMLParser;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.*;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * @author Alexei Drummond
@@ -52,6 +54,10 @@ public class BeastParser extends XMLParser {
     public static final String RELEASE ="release";
     public static final String DEV = "development";
     public static final String PARSER_PROPERTIES_SUFFIX ="_parsers.properties";
+    public static final String PARSER_INDEX_SUFFIX ="_parsers.index";
+    public static final String PARSER_INDEX_FIELD_SEPARATOR = "#";
+    // set -Dparser.index=false to load all the parsers on start up (ignoring the parser indices)
+    public static final String PARSER_INDEX_PROPERTY = "parser.index";
     public String parsers;
 
     public BeastParser(String[] args, List<String> additionalParsers, boolean verbose, boolean parserWarnings, boolean strictXML, Version version) {
@@ -141,66 +147,163 @@ public class BeastParser extends XMLParser {
         if (stream == null) {
             throw new RuntimeException("Parsers file not found: " + parsersFile);
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+        final byte[] bytes = ParserIndexBuilder.readBytes(stream);
+
+        if (!"false".equalsIgnoreCase(System.getProperty(PARSER_INDEX_PROPERTY)) &&
+                loadParserIndex(c, parsersFile, bytes, verbose, parserWarning, canReplace)) {
+            if (verbose) {
+                System.out.println("load " + parsersFile + " index successfully.\n");
+            }
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
         String line = reader.readLine();
 
         while (line != null) {
             if (verbose && line.trim().startsWith("#")) System.out.println(line);
 
             if (line.trim().length() > 0 && !line.trim().startsWith("#")) {
-                try {
-                    if (line.contains("Vector")) {
-                        System.out.println("");
-                    }
-                    Class parser = Class.forName(line);
-                    if (XMLObjectParser.class.isAssignableFrom(parser)) {
-                        // if this class is an XMLObjectParser then create an instance
-                        boolean replaced = addXMLObjectParser((XMLObjectParser) parser.newInstance(), canReplace);
-                        if (verbose) {
-                            System.out.println((replaced ? "Replaced" : "Loaded") + " parser: " + parser.getName());
-                        } else if (parserWarning && replaced) {
-                            System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
-                                    + "which is REPLACING the same parser loaded previously.\n");
-                        }
-                    } else {
-                        boolean parserFound = false;
-                        // otherwise look for a static member which is an instance of XMLObjectParser
-                        Field[] fields = parser.getDeclaredFields();
-                        for (Field field : fields) {
-                            if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
-                                try {
-                                    boolean replaced = addXMLObjectParser((XMLObjectParser) field.get(null), canReplace);
-                                    if (verbose) {
-                                        System.out.println((replaced ? "Replaced" : "Loaded") + " parser: "
-                                                + parser.getName() + "." + field.getName());
-                                    } else if (parserWarning && replaced) {
-                                        System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
-                                                + "which is REPLACING the same parser loaded previously.\n");
-                                    }
-                                } catch (IllegalArgumentException iae) {
-                                    System.err.println("Failed to install parser: " + iae.getMessage());
-                                }
-                                parserFound = true;
-                            }
-                        }
+                loadParser(line, parsersFile, verbose, parserWarning, canReplace);
+            }
+            line = reader.readLine();
+        }
+
+        if (verbose) {
+            System.out.println("load " + parsersFile + " successfully.\n");
+        }
+    }
 
-                        if (!parserFound) {
-                            throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
-                                    "and doesn't contain any static members of this type");
+    /**
+     * Load the parser(s) of a line of a parsers file (logging rather than throwing any failures)
+     */
+    private void loadParser(String line, String parsersFile, boolean verbose, boolean parserWarning, boolean canReplace) {
+        try {
+            if (line.contains("Vector")) {
+                System.out.println("");
+            }
+            Class parser = Class.forName(line);
+            if (XMLObjectParser.class.isAssignableFrom(parser)) {
+                // if this class is an XMLObjectParser then create an instance
+                boolean replaced = addXMLObjectParser((XMLObjectParser) parser.newInstance(), canReplace);
+                if (verbose) {
+                    System.out.println((replaced ? "Replaced" : "Loaded") + " parser: " + parser.getName());
+                } else if (parserWarning && replaced) {
+                    System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
+                            + "which is REPLACING the same parser loaded previously.\n");
+                }
+            } else {
+                boolean parserFound = false;
+                // otherwise look for a static member which is an instance of XMLObjectParser
+                Field[] fields = parser.getDeclaredFields();
+                for (Field field : fields) {
+                    if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                        try {
+                            boolean replaced = addXMLObjectParser((XMLObjectParser) field.get(null), canReplace);
+                            if (verbose) {
+                                System.out.println((replaced ? "Replaced" : "Loaded") + " parser: "
+                                        + parser.getName() + "." + field.getName());
+                            } else if (parserWarning && replaced) {
+                                System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
+                                        + "which is REPLACING the same parser loaded previously.\n");
+                            }
+                        } catch (IllegalArgumentException iae) {
+                            System.err.println("Failed to install parser: " + iae.getMessage());
                         }
+                        parserFound = true;
                     }
+                }
 
-                } catch (Exception e) {
-                    System.err.println("\nFailed to load parser: " + e.getMessage());
-                    System.err.println("line = " + line + "\n");
+                if (!parserFound) {
+                    throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
+                            "and doesn't contain any static members of this type");
                 }
             }
-            line = reader.readLine();
+
+        } catch (Exception e) {
+            System.err.println("\nFailed to load parser: " + e.getMessage());
+            System.err.println("line = " + line + "\n");
         }
+    }
 
-        if (verbose) {
-            System.out.println("load " + parsersFile + " successfully.\n");
+    /**
+     * Add the parsers listed in the index of a parsers file (made by ParserIndexBuilder when BEAST
+     * is built) as deferred parsers so only the classes of the parsers whose elements are used
+     * get loaded.
+     * @param c               BeastParser
+     * @param parsersFile     parser file name, (*.properties)
+     * @param bytes           the contents of the parsers file
+     * @param verbose         verbose
+     * @param parserWarning   parserWarning
+     * @param canReplace      can this new loaded parser to replace old one with the same name
+     * @return                false if there is no index or it was made from a different parsers file
+     * @throws IOException    IOException
+     */
+    private boolean loadParserIndex(Class c, String parsersFile, byte[] bytes, boolean verbose, boolean parserWarning, boolean canReplace) throws IOException {
+        if (!parsersFile.endsWith(PARSER_PROPERTIES_SUFFIX)) {
+            return false;
         }
+        String indexFile = parsersFile.substring(0, parsersFile.length() - PARSER_PROPERTIES_SUFFIX.length()) + PARSER_INDEX_SUFFIX;
+
+        final InputStream stream = c.getResourceAsStream(indexFile);
+        if (stream == null) {
+            return false;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.equals(getParserIndexHeader(parsersFile, bytes))) {
+                if (verbose) {
+                    System.out.println("Ignoring " + indexFile + " as it doesn't match " + parsersFile);
+                }
+                return false;
+            }
+
+            line = reader.readLine();
+            while (line != null) {
+                if (line.length() > 0) {
+                    String[] columns = line.split("\t");
+                    String className = columns[0];
+                    String fieldName = null;
+                    int separator = className.indexOf(PARSER_INDEX_FIELD_SEPARATOR);
+                    if (separator >= 0) {
+                        fieldName = className.substring(separator + 1);
+                        className = className.substring(0, separator);
+                    }
+                    String[] parserNames = Arrays.copyOfRange(columns, 1, columns.length);
+
+                    if (parserNames.length == 0) {
+                        // couldn't be indexed so load it now (reporting why it fails)
+                        loadParser(className, parsersFile, verbose, parserWarning, canReplace);
+                    } else {
+                        try {
+                            boolean replaced = addDeferredXMLObjectParser(parserNames, className, fieldName, canReplace);
+                            if (verbose) {
+                                System.out.println((replaced ? "Replaced" : "Indexed") + " parser: " + columns[0]);
+                            } else if (parserWarning && replaced) {
+                                System.out.println("WARNING: parser - " + columns[0] + " in " + parsersFile +" is duplicated, "
+                                        + "which is REPLACING the same parser loaded previously.\n");
+                            }
+                        } catch (IllegalArgumentException iae) {
+                            System.err.println("Failed to install parser: " + iae.getMessage());
+                        }
+                    }
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return the first line of the index of a parsers file, which has the checksum of the parsers file
+     */
+    static String getParserIndexHeader(String parsersFile, byte[] bytes) {
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length);
+        return "# " + parsersFile + " " + Long.toHexString(checksum.getValue());
     }
 
     @Override
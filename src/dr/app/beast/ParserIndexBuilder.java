@@ -0,0 +1,167 @@
+/*
+ * ParserIndexBuilder.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beast;
+
+import dr.xml.XMLObjectParser;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes the index of a parsers file (e.g., release_parsers.properties) that BeastParser uses to
+ * defer loading the parsers until their elements turn up. This is run when BEAST is built (the
+ * 'parser-index' target) as it has to load every parser class to get their element names.
+ *
+ * The index starts with a header line naming the parsers file and giving its checksum (so an
+ * index that doesn't match the parsers file is ignored) followed by a line for each parser with
+ * its class (and the static field holding it, after a '#', if the class isn't itself a parser)
+ * and then its element names, all separated by tabs.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParserIndexBuilder {
+
+    /**
+     * Index the parsers in a parsers file.
+     *
+     * @param parsersFile the parsers file
+     * @param writer      the writer for the index
+     * @throws IOException if the parsers file can't be read
+     */
+    public static void buildIndex(File parsersFile, Writer writer) throws IOException {
+        byte[] bytes = readBytes(new FileInputStream(parsersFile));
+
+        List<String> entries = new ArrayList<String>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        String line = reader.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#")) {
+                List<String> lineEntries = new ArrayList<String>();
+                try {
+                    Class<?> parser = Class.forName(line);
+                    if (XMLObjectParser.class.isAssignableFrom(parser)) {
+                        lineEntries.add(getEntry(line, null, (XMLObjectParser) parser.getDeclaredConstructor().newInstance()));
+                    } else {
+                        for (Field field : parser.getDeclaredFields()) {
+                            if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                                lineEntries.add(getEntry(line, field.getName(), (XMLObjectParser) field.get(null)));
+                            }
+                        }
+                        if (lineEntries.isEmpty()) {
+                            throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
+                                    "and doesn't contain any static members of this type");
+                        }
+                    }
+                    entries.addAll(lineEntries);
+                } catch (Throwable t) {
+                    // leave the class without element names so BeastParser loads it (and reports the
+                    // failure) on start up as it would without an index
+                    System.err.println("Failed to index parser, " + line + ": " + t);
+                    entries.add(line);
+                }
+            }
+            line = reader.readLine();
+        }
+
+        writer.write(BeastParser.getParserIndexHeader(parsersFile.getName(), bytes));
+        writer.write("\n");
+        for (String entry : entries) {
+            writer.write(entry);
+            writer.write("\n");
+        }
+        writer.flush();
+    }
+
+    private static String getEntry(String className, String fieldName, XMLObjectParser parser) {
+        if (parser == null || parser.getParserNames().length == 0) {
+            throw new IllegalArgumentException(className + (fieldName != null ? "." + fieldName : "") +
+                    " has no parser names");
+        }
+        StringBuilder entry = new StringBuilder(className);
+        if (fieldName != null) {
+            entry.append(BeastParser.PARSER_INDEX_FIELD_SEPARATOR).append(fieldName);
+        }
+        for (String name : parser.getParserNames()) {
+            entry.append("\t").append(name);
+        }
+        return entry.toString();
+    }
+
+    static byte[] readBytes(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Usage: ParserIndexBuilder outputDirectory parsersFile...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ParserIndexBuilder <output directory> <parsers file>...");
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[0]);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can't create output directory: " + outputDirectory);
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            File parsersFile = new File(args[i]);
+            String name = parsersFile.getName();
+            if (!name.endsWith(BeastParser.PARSER_PROPERTIES_SUFFIX)) {
+                throw new IllegalArgumentException("Not a parsers file: " + parsersFile);
+            }
+            File indexFile = new File(outputDirectory,
+                    name.substring(0, name.length() - BeastParser.PARSER_PROPERTIES_SUFFIX.length()) +
+                            BeastParser.PARSER_INDEX_SUFFIX);
+
+            Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+            try {
+                buildIndex(parsersFile, writer);
+            } finally {
+                writer.close();
+            }
+            System.out.println("Indexed " + name + " in " + indexFile);
+        }
+
+        // parsers may have started threads in their static initializers
+        System.exit(0);
+    }
+}
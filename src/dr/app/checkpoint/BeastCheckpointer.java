@@ -25,7 +25,6 @@
 
 package dr.app.checkpoint;
 
-import dr.evolution.tree.NodeRef;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.inference.markovchain.MarkovChain;
@@ -40,8 +39,12 @@ import dr.inference.state.*;
 import dr.math.MathUtils;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A state loader / saver
@@ -61,6 +64,9 @@ public class BeastCheckpointer implements StateLoaderSaver {
     public final static String SAVE_STATE_EVERY = "save.state.every";
     public final static String SAVE_STEM = "save.state.stem";
 
+    public final static String SAVE_STATE_TEXT = "save.state.text";
+    public final static String SAVE_STATE_COMPRESS = "save.state.compress";
+
     public final static String FORCE_RESUME = "force.resume";
 
     private final String loadStateFileName;
@@ -68,12 +74,25 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private final String stemFileName;
 
+    // write the original text format rather than the binary one
+    private final boolean saveText;
+    // gzip the body of binary files
+    private final boolean compress;
+
     private boolean forceResume = false;
 
+    // states saved by the chain listeners are written by this thread so the chain
+    // doesn't have to wait for the file system.
+    private ExecutorService writer = null;
+    private Future<?> pendingWrite = null;
+
     public BeastCheckpointer() {
         loadStateFileName = System.getProperty(LOAD_STATE_FILE, null);
         saveStateFileName = System.getProperty(SAVE_STATE_FILE, null);
 
+        saveText = Boolean.parseBoolean(System.getProperty(SAVE_STATE_TEXT, "false"));
+        compress = Boolean.parseBoolean(System.getProperty(SAVE_STATE_COMPRESS, "true"));
+
         stemFileName = System.getProperty(SAVE_STEM, null);
 
         final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
@@ -139,7 +158,65 @@ public class BeastCheckpointer implements StateLoaderSaver {
             String timeStamp = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(Calendar.getInstance().getTime());
             fileName = (this.saveStateFileName != null ? this.saveStateFileName : "beast_state_" + timeStamp);
         }
-        return writeStateToFile(new File(fileName), state, lnL, markovChain);
+        // take the snapshot now (on the chain's thread) and write it out in the background
+        CheckpointState checkpoint = CheckpointState.capture(markovChain.getSchedule(), state, lnL);
+        writeStateInBackground(new File(fileName), checkpoint);
+        return true;
+    }
+
+    private synchronized void writeStateInBackground(final File file, final CheckpointState checkpoint) {
+        // only one write at a time - if the last one hasn't finished then the chain waits for it
+        waitForPendingWrite();
+
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "checkpoint-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            // BEAST finishes with System.exit() so make sure the last state gets written
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    waitForPendingWrite();
+                }
+            });
+        }
+
+        pendingWrite = writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                writeStateToFile(file, checkpoint);
+            }
+        });
+    }
+
+    /**
+     * Blocks until any state being written in the background has been written.
+     */
+    public synchronized void waitForPendingWrite() {
+        if (pendingWrite != null) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    pendingWrite.get();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    System.err.println("Unable to write state file: " + ee.getCause().getMessage());
+                    break;
+                }
+            }
+            pendingWrite = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Override
@@ -218,152 +295,245 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
-        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        return writeStateToFile(file, CheckpointState.capture(markovChain.getSchedule(), state, lnL));
+    }
 
-        OutputStream fileOut = null;
+    /**
+     * Writes the state to a temporary file in the same directory which is then renamed so a
+     * partially written file never replaces a good one (e.g., if BEAST is killed while writing).
+     */
+    public boolean writeStateToFile(File file, CheckpointState checkpoint) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = null;
         try {
-            fileOut = new FileOutputStream(file);
-            PrintStream out = new PrintStream(fileOut);
+            tempFile = File.createTempFile(file.getName() + ".", ".tmp", directory);
 
-            ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+            OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+            try {
+                if (saveText) {
+                    PrintStream out = new PrintStream(fileOut);
+                    checkpoint.writeText(out);
+                    out.flush();
+                    if (out.checkError()) {
+                        throw new IOException("error writing " + tempFile);
+                    }
+                } else {
+                    checkpoint.writeBinary(fileOut, compress);
+                }
+            } finally {
+                fileOut.close();
+            }
 
-            int[] rngState = MathUtils.getRandomState();
-            out.print("rng");
-            for (int i = 0; i < rngState.length; i++) {
-                out.print("\t");
-                out.print(rngState[i]);
+            try {
+                Files.move(tempFile.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            System.err.println("Unable to write file: " + ioe.getMessage());
+            if (tempFile != null) {
+                tempFile.delete();
             }
-            out.println();
+            return false;
+        }
 
-            out.print("state\t");
-            out.println(state);
+        if (DEBUG) {
+            for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
+                System.err.println(likelihood.getId() + ": " + likelihood.getLogLikelihood());
+            }
+        }
 
-            out.print("lnL\t");
-            out.println(lnL);
+        return true;
+    }
 
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
-                if (!parameter.isImmutable()) {
-                    out.print("parameter");
-                    out.print("\t");
-                    out.print(parameter.getParameterName());
-                    out.print("\t");
-                    out.print(parameter.getDimension());
-                    for (int dim = 0; dim < parameter.getDimension(); dim++) {
-                        out.print("\t");
-                        out.print(parameter.getParameterUntransformedValue(dim));
-                    }
-                }
-                out.print("\n");
+    /**
+     * If the file is in the binary format, converts it to a temporary file in the text format
+     * for code that parses the text format directly.
+     *
+     * @return the text file (which is the original file if it is already text)
+     */
+    protected File getTextStateFile(File file) {
+        try {
+            if (!CheckpointState.isBinary(file)) {
+                return file;
             }
 
-            for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
-                MCMCOperator operator = operatorSchedule.getOperator(i);
-                out.print("operator");
-                out.print("\t");
-                out.print(operator.getOperatorName());
-                out.print("\t");
-                out.print(operator.getAcceptCount());
-                out.print("\t");
-                out.print(operator.getRejectCount());
-                if (operator instanceof AdaptableMCMCOperator) {
-                    out.print("\t");
-                    out.print(((AdaptableMCMCOperator)operator).getAdaptableParameter());
-                }
-                out.println();
+            CheckpointState checkpoint;
+            InputStream in = new FileInputStream(file);
+            try {
+                checkpoint = CheckpointState.readBinary(in);
+            } finally {
+                in.close();
             }
 
-            //check up front if there are any TreeParameterModel objects
-            for (Model model : Model.CONNECTED_MODEL_SET) {
-                if (model instanceof TreeParameterModel) {
-                    //System.out.println("\nDetected TreeParameterModel: " + ((TreeParameterModel) model).toString());
-                    traitModels.add((TreeParameterModel) model);
+            File textFile = File.createTempFile(file.getName() + ".", ".txt");
+            textFile.deleteOnExit();
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(textFile)));
+            checkpoint.writeText(out);
+            out.close();
+            return textFile;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
+    }
+
+    protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
+        return readStateFromFile(file, markovChain.getSchedule(), lnL);
+    }
+
+    /**
+     * Reads a state file in either format into the parameters, operators and trees of the schedule.
+     */
+    public long readStateFromFile(File file, OperatorSchedule operatorSchedule, double[] lnL) {
+        try {
+            if (CheckpointState.isBinary(file)) {
+                CheckpointState checkpoint;
+                InputStream in = new FileInputStream(file);
+                try {
+                    checkpoint = CheckpointState.readBinary(in);
+                } finally {
+                    in.close();
                 }
+                return restoreState(checkpoint, operatorSchedule, lnL);
             }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
 
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+        // otherwise it is a text file (the original format)
+        return readTextStateFromFile(file, operatorSchedule, lnL);
+    }
 
-                if (model instanceof TreeModel) {
-                    out.print("tree");
-                    out.print("\t");
-                    out.println(model.getModelName());
+    private long restoreState(CheckpointState checkpoint, OperatorSchedule operatorSchedule, double[] lnL) {
+        if (lnL != null) {
+            lnL[0] = checkpoint.getLnL();
+        }
 
-                    //replace Newick format by printing general graph structure
-                    //out.println(((TreeModel) model).getNewick());
+        List<CheckpointState.ParameterState> parameterStates = checkpoint.getParameters();
+        if (parameterStates.size() != Parameter.CONNECTED_PARAMETER_SET.size()) {
+            throw new RuntimeException("Number of parameters in state file (" + parameterStates.size() +
+                    ") does not match the number in the model (" + Parameter.CONNECTED_PARAMETER_SET.size() + ")");
+        }
 
-                    out.println("#node height taxon");
-                    int nodeCount = ((TreeModel) model).getNodeCount();
-                    out.println(nodeCount);
-                    for (int i = 0; i < nodeCount; i++) {
-                        out.print(((TreeModel) model).getNode(i).getNumber());
-                        out.print("\t");
-                        out.print(((TreeModel) model).getNodeHeight(((TreeModel) model).getNode(i)));
-                        if (((TreeModel) model).isExternal(((TreeModel) model).getNode(i))) {
-                            out.print("\t");
-                            out.print(((TreeModel) model).getNodeTaxon(((TreeModel) model).getNode(i)).getId());
-                        }
-                        out.println();
-                    }
+        int index = 0;
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            CheckpointState.ParameterState ps = parameterStates.get(index);
+            index++;
 
-                    out.println("#edges");
-                    out.println("#child-node parent-node L/R-child traits");
+            if (ps.values == null) {
+                // immutable
+                continue;
+            }
 
-                    out.println(nodeCount);
-                    for (int i = 0; i < nodeCount; i++) {
-                        NodeRef parent = ((TreeModel) model).getParent(((TreeModel) model).getNode(i));
-                        if (parent != null) {
-                            out.print(((TreeModel) model).getNode(i).getNumber());
-                            out.print("\t");
-                            out.print(((TreeModel) model).getParent(((TreeModel) model).getNode(i)).getNumber());
-                            out.print("\t");
-
-                            if ((((TreeModel) model).getChild(parent, 0) == ((TreeModel) model).getNode(i))) {
-                                //left child
-                                out.print(0);
-                            } else if ((((TreeModel) model).getChild(parent, 1) == ((TreeModel) model).getNode(i))) {
-                                //right child
-                                out.print(1);
-                            } else {
-                                throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
-                            }
+            if (ps.values.length != parameter.getDimension()) {
+                System.err.println("Unable to match state parameter dimension: " + ps.values.length + ", expecting " + parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+            }
 
-                            //only print the TreeParameterModel that matches the TreeModel currently being written
-                            for (TreeParameterModel tpm : traitModels) {
-                                if (model == tpm.getTreeModel()) {
-                                    out.print("\t");
-                                    out.print(tpm.getNodeValue((TreeModel) model, ((TreeModel) model).getNode(i)));
-                                }
-                            }
-                            out.println();
-                        } else {
-                            if (DEBUG) {
-                                System.out.println(((TreeModel) model).getNode(i) + " has no parent.");
+            if (ps.name.equals("branchRates.categories.rootNodeNumber")) {
+                parameter.setParameterValue(0, ps.values[0]);
+            } else {
+                int dimension = Math.min(ps.values.length, parameter.getDimension());
+                for (int dim = 0; dim < dimension; dim++) {
+                    parameter.setParameterUntransformedValue(dim, ps.values[dim]);
+                }
+            }
+        }
+
+        List<CheckpointState.OperatorState> operatorStates = checkpoint.getOperators();
+        if (operatorStates.size() != operatorSchedule.getOperatorCount()) {
+            throw new RuntimeException("Number of operators in state file (" + operatorStates.size() +
+                    ") does not match the number in the model (" + operatorSchedule.getOperatorCount() + ")");
+        }
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            CheckpointState.OperatorState os = operatorStates.get(i);
+            if (!os.name.equals(operator.getOperatorName())) {
+                throw new RuntimeException("Unable to match operator: " + os.name);
+            }
+            operator.setAcceptCount(os.acceptCount);
+            operator.setRejectCount(os.rejectCount);
+            if (operator instanceof AdaptableMCMCOperator) {
+                if (!os.isAdaptable) {
+                    throw new RuntimeException("Coercable operator missing parameter: " + os.name);
+                }
+                ((AdaptableMCMCOperator)operator).setAdaptableParameter(os.adaptableParameter);
+            }
+        }
+
+        // load the tree models last as we get the node heights from the tree (not the parameters which
+        // which may not be associated with the right node
+        Set<String> expectedTreeModelNames = new HashSet<String>();
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeModel) {
+                expectedTreeModelNames.add(model.getModelName());
+            }
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel)model);
+            }
+        }
+
+        for (CheckpointState.TreeState ts : checkpoint.getTrees()) {
+            for (Model model : Model.CONNECTED_MODEL_SET) {
+                if (model instanceof TreeModel && ts.name.equals(model.getModelName())) {
+                    int nodeCount = ts.heights.length;
+
+                    String[] taxaNames = new String[(nodeCount + 1) / 2];
+                    System.arraycopy(ts.taxa, 0, taxaNames, 0, taxaNames.length);
+
+                    // the edges are indexed by the number of the child node
+                    int[] parents = new int[nodeCount];
+                    int[] childOrder = new int[nodeCount];
+                    Arrays.fill(parents, -1);
+                    Arrays.fill(childOrder, -1);
+                    double[][] traitValues = new double[ts.traits.length][nodeCount];
+                    for (int i = 0; i < nodeCount; i++) {
+                        if (ts.parents[i] != -1) {
+                            int node = ts.nodeNumbers[i];
+                            parents[node] = ts.parents[i];
+                            childOrder[node] = ts.childOrder[i];
+                            for (int j = 0; j < ts.traits.length; j++) {
+                                traitValues[j][node] = ts.traits[j][i];
                             }
                         }
                     }
 
-                }
+                    adoptTree((TreeModel) model, parents, ts.heights, childOrder, taxaNames, traitModels, traitValues);
 
+                    expectedTreeModelNames.remove(model.getModelName());
+                }
             }
-
-            out.close();
-            fileOut.close();
-        } catch (IOException ioe) {
-            System.err.println("Unable to write file: " + ioe.getMessage());
-            return false;
         }
 
-        if (DEBUG) {
-            for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
-                System.err.println(likelihood.getId() + ": " + likelihood.getLogLikelihood());
+        if (expectedTreeModelNames.size() > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (String notFoundName : expectedTreeModelNames) {
+                sb.append("Expecting, but unable to match state parameter:" + notFoundName + "\n");
             }
+            throw new RuntimeException("\n" + sb.toString());
         }
 
-        return true;
+        if (checkpoint.getRandomState() != null) {
+            MathUtils.setRandomState(checkpoint.getRandomState());
+        }
+
+        return checkpoint.getState();
     }
 
-    protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
-        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+    private void adoptTree(TreeModel treeModel, int[] parents, double[] nodeHeights, int[] childOrder, String[] taxaNames,
+                           ArrayList<TreeParameterModel> traitModels, double[][] traitValues) {
+        //adopt the loaded tree structure;
+        treeModel.beginTreeEdit();
+        treeModel.adoptTreeStructure(parents, nodeHeights, childOrder, taxaNames);
+        if (traitModels.size() > 0) {
+            System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + treeModel.getId());
+            treeModel.adoptTraitData(parents, traitModels, traitValues, taxaNames);
+        }
+        treeModel.endTreeEdit();
+    }
 
+    private long readTextStateFromFile(File file, OperatorSchedule operatorSchedule, double[] lnL) {
         long state = -1;
 
         ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
@@ -599,14 +769,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                             System.out.println("adopting tree structure");
                         }
 
-                        //adopt the loaded tree structure;
-                        ((TreeModel) model).beginTreeEdit();
-                        ((TreeModel) model).adoptTreeStructure(parents, nodeHeights, childOrder, taxaNames);
-                        if (traitModels.size() > 0) {
-                            System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + ((TreeModel)model).getId());
-                            ((TreeModel) model).adoptTraitData(parents, traitModels, traitValues, taxaNames);
-                        }
-                        ((TreeModel) model).endTreeEdit();
+                        adoptTree((TreeModel) model, parents, nodeHeights, childOrder, taxaNames, traitModels, traitValues);
 
                         expectedTreeModelNames.remove(model.getModelName());
 
@@ -0,0 +1,526 @@
+/*
+ * CheckpointState.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.*;
+
+/**
+ * A snapshot of everything that goes into a checkpoint (the random number generator,
+ * parameter values, operator tuning and tree topologies) copied into primitive arrays
+ * so that it can be written out on another thread while the chain carries on.
+ *
+ * The snapshot can be written in the original tab-delimited text format or in a binary
+ * format. The binary format starts with a magic number and a schema version, the body can
+ * optionally be gzip compressed and ends with a CRC32 checksum of its contents.
+ *
+ * @author Andrew Rambaut
+ * @author Guy Baele
+ */
+public class CheckpointState {
+
+    public static final byte[] MAGIC = {'B', 'E', 'A', 'S', 'T', 'C', 'P', 'T'};
+    public static final int VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 1;
+
+    private int[] rngState;
+    private long state;
+    private double lnL;
+
+    private final List<ParameterState> parameters = new ArrayList<ParameterState>();
+    private final List<OperatorState> operators = new ArrayList<OperatorState>();
+    private final List<TreeState> trees = new ArrayList<TreeState>();
+
+    private CheckpointState() {
+    }
+
+    /**
+     * Takes a copy of the current state. This must be called from the thread running the chain.
+     */
+    public static CheckpointState capture(OperatorSchedule operatorSchedule, long state, double lnL) {
+        CheckpointState checkpoint = new CheckpointState();
+
+        checkpoint.rngState = MathUtils.getRandomState();
+        checkpoint.state = state;
+        checkpoint.lnL = lnL;
+
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            ParameterState ps = new ParameterState();
+            ps.name = parameter.getParameterName();
+            if (!parameter.isImmutable()) {
+                ps.values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < ps.values.length; dim++) {
+                    ps.values[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+            }
+            checkpoint.parameters.add(ps);
+        }
+
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            OperatorState os = new OperatorState();
+            os.name = operator.getOperatorName();
+            os.acceptCount = operator.getAcceptCount();
+            os.rejectCount = operator.getRejectCount();
+            os.isAdaptable = operator instanceof AdaptableMCMCOperator;
+            if (os.isAdaptable) {
+                os.adaptableParameter = ((AdaptableMCMCOperator) operator).getAdaptableParameter();
+            }
+            checkpoint.operators.add(os);
+        }
+
+        List<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeModel) {
+                checkpoint.trees.add(TreeState.capture((TreeModel) model, traitModels));
+            }
+        }
+
+        return checkpoint;
+    }
+
+    public int[] getRandomState() {
+        return rngState;
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public double getLnL() {
+        return lnL;
+    }
+
+    List<ParameterState> getParameters() {
+        return parameters;
+    }
+
+    List<OperatorState> getOperators() {
+        return operators;
+    }
+
+    List<TreeState> getTrees() {
+        return trees;
+    }
+
+    /**
+     * Writes the state in the original text format.
+     */
+    public void writeText(PrintStream out) {
+        out.print("rng");
+        for (int i = 0; i < rngState.length; i++) {
+            out.print("\t");
+            out.print(rngState[i]);
+        }
+        out.println();
+
+        out.print("state\t");
+        out.println(state);
+
+        out.print("lnL\t");
+        out.println(lnL);
+
+        for (ParameterState parameter : parameters) {
+            if (parameter.values != null) {
+                out.print("parameter");
+                out.print("\t");
+                out.print(parameter.name);
+                out.print("\t");
+                out.print(parameter.values.length);
+                for (double value : parameter.values) {
+                    out.print("\t");
+                    out.print(value);
+                }
+            }
+            out.print("\n");
+        }
+
+        for (OperatorState operator : operators) {
+            out.print("operator");
+            out.print("\t");
+            out.print(operator.name);
+            out.print("\t");
+            out.print(operator.acceptCount);
+            out.print("\t");
+            out.print(operator.rejectCount);
+            if (operator.isAdaptable) {
+                out.print("\t");
+                out.print(operator.adaptableParameter);
+            }
+            out.println();
+        }
+
+        for (TreeState tree : trees) {
+            out.print("tree");
+            out.print("\t");
+            out.println(tree.name);
+
+            out.println("#node height taxon");
+            int nodeCount = tree.heights.length;
+            out.println(nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                out.print(tree.nodeNumbers[i]);
+                out.print("\t");
+                out.print(tree.heights[i]);
+                if (tree.taxa[i] != null) {
+                    out.print("\t");
+                    out.print(tree.taxa[i]);
+                }
+                out.println();
+            }
+
+            out.println("#edges");
+            out.println("#child-node parent-node L/R-child traits");
+
+            out.println(nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                if (tree.parents[i] != -1) {
+                    out.print(tree.nodeNumbers[i]);
+                    out.print("\t");
+                    out.print(tree.parents[i]);
+                    out.print("\t");
+                    out.print(tree.childOrder[i]);
+                    for (double[] traitValues : tree.traits) {
+                        out.print("\t");
+                        out.print(traitValues[i]);
+                    }
+                    out.println();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the state in the binary format.
+     *
+     * @param compress whether to gzip the body of the file
+     */
+    public void writeBinary(OutputStream stream, boolean compress) throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        header.write(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(compress ? FLAG_COMPRESSED : 0);
+
+        // the fastest compression level is used as the file is written frequently and most of
+        // the saving in size comes from the binary representation anyway
+        OutputStream body = (compress ? new GZIPOutputStream(stream, 65536) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        } : stream);
+        CheckedOutputStream checked = new CheckedOutputStream(body, new CRC32());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 65536));
+
+        out.writeInt(rngState.length);
+        for (int value : rngState) {
+            out.writeInt(value);
+        }
+        out.writeLong(state);
+        out.writeDouble(lnL);
+
+        out.writeInt(parameters.size());
+        for (ParameterState parameter : parameters) {
+            out.writeUTF(parameter.name);
+            if (parameter.values != null) {
+                out.writeInt(parameter.values.length);
+                for (double value : parameter.values) {
+                    out.writeDouble(value);
+                }
+            } else {
+                // immutable parameters are recorded to keep the order but have no values
+                out.writeInt(-1);
+            }
+        }
+
+        out.writeInt(operators.size());
+        for (OperatorState operator : operators) {
+            out.writeUTF(operator.name);
+            out.writeLong(operator.acceptCount);
+            out.writeLong(operator.rejectCount);
+            out.writeBoolean(operator.isAdaptable);
+            if (operator.isAdaptable) {
+                out.writeDouble(operator.adaptableParameter);
+            }
+        }
+
+        out.writeInt(trees.size());
+        for (TreeState tree : trees) {
+            int nodeCount = tree.heights.length;
+            out.writeUTF(tree.name);
+            out.writeInt(nodeCount);
+            out.writeInt(tree.traits.length);
+            for (int i = 0; i < nodeCount; i++) {
+                out.writeInt(tree.nodeNumbers[i]);
+                out.writeDouble(tree.heights[i]);
+                out.writeInt(tree.parents[i]);
+                out.writeByte(tree.childOrder[i]);
+                out.writeBoolean(tree.taxa[i] != null);
+                if (tree.taxa[i] != null) {
+                    out.writeUTF(tree.taxa[i]);
+                }
+            }
+            for (double[] traitValues : tree.traits) {
+                for (int i = 0; i < nodeCount; i++) {
+                    out.writeDouble(traitValues[i]);
+                }
+            }
+        }
+        out.flush();
+
+        // the checksum itself goes straight to the body so it isn't included in the sum
+        new DataOutputStream(body).writeLong(checked.getChecksum().getValue());
+
+        if (compress) {
+            ((GZIPOutputStream) body).finish();
+        }
+        stream.flush();
+    }
+
+    /**
+     * @return true if the file starts with the magic number of the binary format
+     */
+    public static boolean isBinary(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            int count = 0;
+            while (count < magic.length) {
+                int n = in.read(magic, count, magic.length - count);
+                if (n < 0) {
+                    return false;
+                }
+                count += n;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a state written by writeBinary.
+     */
+    public static CheckpointState readBinary(InputStream stream) throws IOException {
+        DataInputStream header = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        header.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a BEAST binary checkpoint file");
+            }
+        }
+        int version = header.readInt();
+        if (version > VERSION) {
+            throw new IOException("Checkpoint file was written with a newer version of the format (" +
+                    version + ") than this version of BEAST can read (" + VERSION + ")");
+        }
+        int flags = header.readInt();
+
+        InputStream body = ((flags & FLAG_COMPRESSED) != 0 ?
+                new GZIPInputStream(stream, 65536) : new BufferedInputStream(stream, 65536));
+        CheckedInputStream checked = new CheckedInputStream(body, new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+
+        CheckpointState checkpoint = new CheckpointState();
+
+        checkpoint.rngState = new int[in.readInt()];
+        for (int i = 0; i < checkpoint.rngState.length; i++) {
+            checkpoint.rngState[i] = in.readInt();
+        }
+        checkpoint.state = in.readLong();
+        checkpoint.lnL = in.readDouble();
+
+        int parameterCount = in.readInt();
+        for (int i = 0; i < parameterCount; i++) {
+            ParameterState parameter = new ParameterState();
+            parameter.name = in.readUTF();
+            int dimension = in.readInt();
+            if (dimension >= 0) {
+                parameter.values = new double[dimension];
+                for (int dim = 0; dim < dimension; dim++) {
+                    parameter.values[dim] = in.readDouble();
+                }
+            }
+            checkpoint.parameters.add(parameter);
+        }
+
+        int operatorCount = in.readInt();
+        for (int i = 0; i < operatorCount; i++) {
+            OperatorState operator = new OperatorState();
+            operator.name = in.readUTF();
+            operator.acceptCount = in.readLong();
+            operator.rejectCount = in.readLong();
+            operator.isAdaptable = in.readBoolean();
+            if (operator.isAdaptable) {
+                operator.adaptableParameter = in.readDouble();
+            }
+            checkpoint.operators.add(operator);
+        }
+
+        int treeCount = in.readInt();
+        for (int t = 0; t < treeCount; t++) {
+            TreeState tree = new TreeState();
+            tree.name = in.readUTF();
+            int nodeCount = in.readInt();
+            int traitCount = in.readInt();
+            tree.allocate(nodeCount, traitCount);
+            for (int i = 0; i < nodeCount; i++) {
+                tree.nodeNumbers[i] = in.readInt();
+                tree.heights[i] = in.readDouble();
+                tree.parents[i] = in.readInt();
+                tree.childOrder[i] = in.readByte();
+                if (in.readBoolean()) {
+                    tree.taxa[i] = in.readUTF();
+                }
+            }
+            for (int j = 0; j < traitCount; j++) {
+                for (int i = 0; i < nodeCount; i++) {
+                    tree.traits[j][i] = in.readDouble();
+                }
+            }
+            checkpoint.trees.add(tree);
+        }
+
+        long checksum = checked.getChecksum().getValue();
+        long expected = new DataInputStream(body).readLong();
+        if (checksum != expected) {
+            throw new IOException("Checkpoint file is corrupt (checksum mismatch)");
+        }
+
+        return checkpoint;
+    }
+
+    static class ParameterState {
+        String name;
+        // null if the parameter is immutable
+        double[] values;
+    }
+
+    static class OperatorState {
+        String name;
+        long acceptCount;
+        long rejectCount;
+        boolean isAdaptable;
+        double adaptableParameter;
+    }
+
+    /**
+     * The structure of a tree as the arrays expected by TreeModel.adoptTreeStructure. All
+     * the arrays are in the order of TreeModel.getNode(i).
+     */
+    static class TreeState {
+        String name;
+        int[] nodeNumbers;
+        double[] heights;
+        // the taxon id of each external node, null for internal nodes
+        String[] taxa;
+        // the number of each node's parent, -1 for the root
+        int[] parents;
+        // 0 if a left child, 1 if a right child, -1 for the root
+        int[] childOrder;
+        // the values of each TreeParameterModel on the tree [model][node]
+        double[][] traits;
+
+        void allocate(int nodeCount, int traitCount) {
+            nodeNumbers = new int[nodeCount];
+            heights = new double[nodeCount];
+            taxa = new String[nodeCount];
+            parents = new int[nodeCount];
+            childOrder = new int[nodeCount];
+            traits = new double[traitCount][nodeCount];
+        }
+
+        static TreeState capture(TreeModel tree, List<TreeParameterModel> traitModels) {
+            List<TreeParameterModel> treeTraitModels = new ArrayList<TreeParameterModel>();
+            //only include the TreeParameterModels that match this TreeModel
+            for (TreeParameterModel tpm : traitModels) {
+                if (tree == tpm.getTreeModel()) {
+                    treeTraitModels.add(tpm);
+                }
+            }
+
+            TreeState ts = new TreeState();
+            ts.name = tree.getModelName();
+
+            int nodeCount = tree.getNodeCount();
+            ts.allocate(nodeCount, treeTraitModels.size());
+
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                ts.nodeNumbers[i] = node.getNumber();
+                ts.heights[i] = tree.getNodeHeight(node);
+                if (tree.isExternal(node)) {
+                    ts.taxa[i] = tree.getNodeTaxon(node).getId();
+                }
+
+                NodeRef parent = tree.getParent(node);
+                if (parent != null) {
+                    ts.parents[i] = parent.getNumber();
+                    if (tree.getChild(parent, 0) == node) {
+                        //left child
+                        ts.childOrder[i] = 0;
+                    } else if (tree.getChild(parent, 1) == node) {
+                        //right child
+                        ts.childOrder[i] = 1;
+                    } else {
+                        throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                    }
+                    for (int j = 0; j < treeTraitModels.size(); j++) {
+                        ts.traits[j][i] = treeTraitModels.get(j).getNodeValue(tree, node);
+                    }
+                } else {
+                    ts.parents[i] = -1;
+                    ts.childOrder[i] = -1;
+                }
+            }
+            return ts;
+        }
+    }
+}
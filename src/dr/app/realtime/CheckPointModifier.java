@@ -85,7 +85,8 @@ public class CheckPointModifier extends BeastCheckpointer {
         this.traitModels = new ArrayList<TreeParameterModel>();
 
         try {
-            FileReader fileIn = new FileReader(file);
+            // this parses the text format so convert binary state files first
+            FileReader fileIn = new FileReader(getTextStateFile(file));
             BufferedReader in = new BufferedReader(fileIn);
 
             int[] rngState = null;
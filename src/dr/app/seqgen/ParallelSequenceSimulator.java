@@ -0,0 +1,565 @@
+/*
+ * ParallelSequenceSimulator.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.seqgen;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.math.MathUtils;
+import dr.oldevomodel.sitemodel.SiteModel;
+import dr.xml.*;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Simulates replicate alignments of one or more partitions, each given as a SequenceSimulator
+ * (with its own tree, site model, branch rate model, length and optional ancestral sequence),
+ * on a pool of threads. The partitions of a replicate are concatenated in order and each
+ * replicate is written to its own FASTA file as soon as all its partitions are done, so only
+ * the replicates being simulated are held in memory.
+ *
+ * The trees and models are fixed during a call to simulate so the transition probabilities of
+ * each branch are computed once (as cumulative rows to sample from) and shared by all the
+ * replicates. Sites are sent down the tree in blocks and each partition of each replicate
+ * draws from its own random number stream (bound to the worker thread with
+ * MathUtils.setThreadStream), derived from the seed, the replicate and the partition, so the
+ * output does not depend on the number of threads.
+ *
+ * In BEAST XML the parallelSequenceSimulator element runs the simulation when it is parsed, e.g.,
+ * <parallelSequenceSimulator replications="100" fileStem="sim" seed="666" threads="4">
+ *     <partition sequenceLength="1000"><tree idref="tree"/><siteModel idref="siteModel"/></partition>
+ * </parallelSequenceSimulator>
+ *
+ * @author Andrew Rambaut
+ */
+public class ParallelSequenceSimulator {
+
+    // The number of sites simulated down the tree together
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * @param partitions  the partitions, all with the same data type and taxa
+     * @param threadCount the number of threads to simulate on
+     */
+    public ParallelSequenceSimulator(List<SequenceSimulator> partitions, int threadCount) {
+        if (partitions.isEmpty()) {
+            throw new IllegalArgumentException("At least one partition is required");
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be at least 1");
+        }
+        this.partitions = new ArrayList<SequenceSimulator>(partitions);
+        this.threadCount = threadCount;
+
+        SequenceSimulator first = partitions.get(0);
+        dataType = first.m_siteModel.getFrequencyModel().getDataType();
+        Tree tree = first.m_tree;
+        taxonIds = new String[tree.getExternalNodeCount()];
+        taxonIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < taxonIds.length; i++) {
+            taxonIds[i] = tree.getNodeTaxon(tree.getExternalNode(i)).getId();
+            taxonIndices.put(taxonIds[i], i);
+        }
+
+        int siteCount = 0;
+        for (SequenceSimulator partition : partitions) {
+            if (partition.m_siteModel.getFrequencyModel().getDataType().getType() != dataType.getType()) {
+                throw new IllegalArgumentException("Partitions must have the same data type.");
+            }
+            if (partition.m_tree.getExternalNodeCount() != taxonIds.length) {
+                throw new IllegalArgumentException("Partitions must have the same taxa.");
+            }
+            siteCount += partition.m_sequenceLength;
+        }
+        this.siteCount = siteCount;
+
+        codes = new String[dataType.getStateCount()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = dataType.getCode(i);
+        }
+    }
+
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    /**
+     * Simulate replicates 1 to replicateCount, writing replicate r to fileStem_r.fasta.
+     */
+    public void simulate(int replicateCount, long seed, String fileStem) throws IOException {
+        final PartitionData[] data = createPartitionData();
+        final long masterSeed = seed;
+        final String stem = fileStem;
+
+        ExecutorService pool = createPool();
+
+        // bound the number of replicates held in memory at once
+        final Semaphore inFlight = new Semaphore(2 * threadCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        try {
+            for (int r = 0; r < replicateCount && failure.get() == null; r++) {
+                inFlight.acquire();
+
+                final int replicate = r;
+                final short[][] states = new short[taxonIds.length][siteCount];
+                final AtomicInteger remaining = new AtomicInteger(data.length);
+
+                for (final PartitionData partition : data) {
+                    pool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                if (failure.get() == null) {
+                                    partition.simulate(masterSeed, replicate, states);
+                                }
+                            } catch (Throwable t) {
+                                failure.compareAndSet(null, t);
+                            }
+                            if (remaining.decrementAndGet() == 0) {
+                                try {
+                                    if (failure.get() == null) {
+                                        writeFasta(states, stem + "_" + (replicate + 1) + ".fasta");
+                                    }
+                                } catch (Throwable t) {
+                                    failure.compareAndSet(null, t);
+                                } finally {
+                                    inFlight.release();
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sequence simulation interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new RuntimeException("Failed to simulate sequences: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Simulate a single replicate and write it as FASTA. The result is the same as the file
+     * written for this replicate by simulate with the same seed.
+     */
+    public void simulateReplicate(final int replicate, final long seed, Writer writer) throws IOException {
+        final short[][] states = new short[taxonIds.length][siteCount];
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final PartitionData partition : createPartitionData()) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    partition.simulate(seed, replicate, states);
+                    return null;
+                }
+            });
+        }
+
+        // the partitions are simulated on worker threads so the calling thread's stream is untouched
+        ExecutorService pool = createPool();
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sequence simulation interrupted");
+        } catch (ExecutionException ee) {
+            throw new RuntimeException("Failed to simulate sequences: " + ee.getCause().getMessage(), ee.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        writeFasta(states, writer);
+    }
+
+    private ExecutorService createPool() {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sequence-simulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private PartitionData[] createPartitionData() {
+        PartitionData[] data = new PartitionData[partitions.size()];
+        int offset = 0;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new PartitionData(i, partitions.get(i), offset);
+            offset += partitions.get(i).m_sequenceLength;
+        }
+        return data;
+    }
+
+    private void writeFasta(short[][] states, String fileName) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(fileName));
+        try {
+            writeFasta(states, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeFasta(short[][] states, Writer writer) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < taxonIds.length; i++) {
+            builder.setLength(0);
+            builder.append('>').append(taxonIds[i]).append('\n');
+            for (short state : states[i]) {
+                builder.append(codes[state]);
+            }
+            builder.append('\n');
+            writer.write(builder.toString());
+        }
+        writer.flush();
+    }
+
+    /**
+     * The branches of a partition's tree in pre-order with the cumulative transition
+     * probabilities of each, and the other distributions sites are drawn from.
+     */
+    private class PartitionData {
+
+        PartitionData(int index, SequenceSimulator partition, int siteOffset) {
+            this.index = index;
+            this.siteOffset = siteOffset;
+
+            Tree tree = partition.m_tree;
+            stateCount = partition.m_stateCount;
+            categoryCount = partition.m_categoryCount;
+            sequenceLength = partition.m_sequenceLength;
+            nodeCount = tree.getNodeCount();
+
+            cumulativeCategories = cumulate(partition.m_siteModel.getCategoryProportions());
+            cumulativeFrequencies = cumulate(partition.m_siteModel.getFrequencyModel().getFrequencies());
+            rootStates = (partition.ancestralSequence != null ?
+                    partition.sequence2intArray(partition.ancestralSequence) : null);
+
+            root = tree.getRoot().getNumber();
+            order = new int[nodeCount - 1];
+            parents = new int[nodeCount];
+            tipIndices = new int[nodeCount];
+            cumulativeProbabilities = new double[nodeCount][];
+            branchCount = 0;
+
+            double[] probabilities = new double[stateCount * stateCount];
+            addChildren(partition, tree, tree.getRoot(), probabilities);
+        }
+
+        private void addChildren(SequenceSimulator partition, Tree tree, NodeRef node, double[] probabilities) {
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                NodeRef child = tree.getChild(node, i);
+                int number = child.getNumber();
+                order[branchCount++] = number;
+                parents[number] = node.getNumber();
+
+                double[] cumulative = new double[categoryCount * stateCount * stateCount];
+                for (int j = 0; j < categoryCount; j++) {
+                    partition.getTransitionProbabilities(tree, child, j, probabilities);
+                    for (int k = 0; k < stateCount; k++) {
+                        int offset = (j * stateCount + k) * stateCount;
+                        double total = 0.0;
+                        for (int l = 0; l < stateCount; l++) {
+                            total += probabilities[k * stateCount + l];
+                            cumulative[offset + l] = total;
+                        }
+                    }
+                }
+                cumulativeProbabilities[number] = cumulative;
+
+                if (tree.isExternal(child)) {
+                    Integer taxonIndex = taxonIndices.get(tree.getNodeTaxon(child).getId());
+                    if (taxonIndex == null) {
+                        throw new IllegalArgumentException("Partitions must have the same taxa.");
+                    }
+                    tipIndices[number] = taxonIndex;
+                } else {
+                    tipIndices[number] = -1;
+                    addChildren(partition, tree, child, probabilities);
+                }
+            }
+        }
+
+        /**
+         * Simulate the sites of this partition of a replicate into its columns of states, on the
+         * replicate's and partition's own random number stream.
+         */
+        void simulate(long seed, int replicate, short[][] states) {
+            MathUtils.setThreadStream(MathUtils.getStreamSeed(MathUtils.getStreamSeed(seed, replicate), index));
+            try {
+                simulate(states);
+            } finally {
+                MathUtils.clearThreadStream();
+            }
+        }
+
+        private void simulate(short[][] states) {
+            final int[] nodeStates = new int[nodeCount * BLOCK_SIZE];
+            final int[] categories = new int[BLOCK_SIZE];
+
+            for (int start = 0; start < sequenceLength; start += BLOCK_SIZE) {
+                final int length = Math.min(BLOCK_SIZE, sequenceLength - start);
+
+                for (int j = 0; j < length; j++) {
+                    categories[j] = draw(cumulativeCategories, 0, categoryCount);
+                }
+
+                final int rootOffset = root * BLOCK_SIZE;
+                for (int j = 0; j < length; j++) {
+                    nodeStates[rootOffset + j] = (rootStates != null ? rootStates[start + j] :
+                            draw(cumulativeFrequencies, 0, stateCount));
+                }
+
+                for (int b = 0; b < branchCount; b++) {
+                    final int node = order[b];
+                    final int nodeOffset = node * BLOCK_SIZE;
+                    final int parentOffset = parents[node] * BLOCK_SIZE;
+                    final double[] cumulative = cumulativeProbabilities[node];
+
+                    for (int j = 0; j < length; j++) {
+                        int row = (categories[j] * stateCount + nodeStates[parentOffset + j]) * stateCount;
+                        nodeStates[nodeOffset + j] = draw(cumulative, row, stateCount);
+                    }
+
+                    final int tipIndex = tipIndices[node];
+                    if (tipIndex >= 0) {
+                        final short[] sequence = states[tipIndex];
+                        final int offset = siteOffset + start;
+                        for (int j = 0; j < length; j++) {
+                            sequence[offset + j] = (short) nodeStates[nodeOffset + j];
+                        }
+                    }
+                }
+            }
+        }
+
+        final int index;
+        final int siteOffset;
+        final int stateCount;
+        final int categoryCount;
+        final int sequenceLength;
+        final int nodeCount;
+        final int root;
+
+        final double[] cumulativeCategories;
+        final double[] cumulativeFrequencies;
+        final int[] rootStates;
+
+        final int[] order;
+        final int[] parents;
+        final int[] tipIndices;
+        final double[][] cumulativeProbabilities;
+        int branchCount;
+    }
+
+    private static double[] cumulate(double[] pdf) {
+        double[] cumulative = new double[pdf.length];
+        double total = 0.0;
+        for (int i = 0; i < pdf.length; i++) {
+            total += pdf[i];
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    /**
+     * @return the index (from 0 to count - 1) drawn from the unnormalized cumulative
+     * distribution starting at offset
+     */
+    private static int draw(double[] cumulative, int offset, int count) {
+        final double u = MathUtils.nextDouble() * cumulative[offset + count - 1];
+        int i = 0;
+        while (i < count - 1 && u >= cumulative[offset + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    public static final String PARALLEL_SEQUENCE_SIMULATOR = "parallelSequenceSimulator";
+    public static final String PARTITION = "partition";
+    public static final String SEQUENCE_LENGTH = "sequenceLength";
+    public static final String REPLICATIONS = SequenceSimulator.REPLICATIONS;
+    public static final String SEED = "seed";
+    public static final String FILE_STEM = "fileStem";
+    public static final String THREADS = "threads";
+    private static final String THREAD_COUNT_PROPERTY = "thread.count";
+
+    /**
+     * @return BEAST's thread count (as set by -threads) if there is one, otherwise the number of
+     * processors
+     */
+    private static int getDefaultThreadCount() throws XMLParseException {
+        String property = System.getProperty(THREAD_COUNT_PROPERTY);
+        if (property != null) {
+            try {
+                int count = Integer.parseInt(property.trim());
+                if (count > 0) {
+                    return count;
+                }
+            } catch (NumberFormatException nfe) {
+                throw new XMLParseException("Unable to parse '" + THREAD_COUNT_PROPERTY + "' property");
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return PARALLEL_SEQUENCE_SIMULATOR;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+            int replicationCount = xo.getIntegerAttribute(REPLICATIONS);
+            String fileStem = xo.getStringAttribute(FILE_STEM);
+            // by default the replicates follow BEAST's own seed
+            long seed = xo.getAttribute(SEED, MathUtils.getSeed());
+            int threadCount = xo.getAttribute(THREADS, getDefaultThreadCount());
+            if (threadCount < 1) {
+                throw new XMLParseException("The number of threads must be at least 1");
+            }
+
+            List<SequenceSimulator> partitions = new ArrayList<SequenceSimulator>();
+            for (int i = 0; i < xo.getChildCount(); i++) {
+                Object child = xo.getChild(i);
+                if (child instanceof XMLObject && ((XMLObject) child).getName().equals(PARTITION)) {
+                    XMLObject cxo = (XMLObject) child;
+
+                    Tree tree = (Tree) cxo.getChild(Tree.class);
+                    SiteModel siteModel = (SiteModel) cxo.getChild(SiteModel.class);
+                    BranchRateModel rateModel = (BranchRateModel) cxo.getChild(BranchRateModel.class);
+                    Sequence ancestralSequence = (Sequence) cxo.getChild(Sequence.class);
+
+                    if (rateModel == null) {
+                        rateModel = new DefaultBranchRateModel();
+                    }
+
+                    SequenceSimulator partition = new SequenceSimulator(tree, siteModel, rateModel,
+                            cxo.getIntegerAttribute(SEQUENCE_LENGTH));
+                    if (ancestralSequence != null) {
+                        partition.setAncestralSequence(ancestralSequence);
+                    }
+                    partitions.add(partition);
+                }
+            }
+
+            ParallelSequenceSimulator simulator;
+            try {
+                simulator = new ParallelSequenceSimulator(partitions, threadCount);
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException(iae.getMessage());
+            }
+
+            Logger.getLogger("dr.app.seqgen").info("Simulating " + replicationCount + " replicates of " +
+                    simulator.getSiteCount() + " sites on " + threadCount + " threads to " + fileStem +
+                    "_<replicate>.fasta (seed " + seed + ")");
+
+            try {
+                simulator.simulate(replicationCount, seed, fileStem);
+            } catch (IOException ioe) {
+                throw new XMLParseException("Failed to write the simulated sequences: " + ioe.getMessage());
+            }
+
+            return simulator;
+        }
+
+        //************************************************************************
+        // AbstractXMLObjectParser implementation
+        //************************************************************************
+
+        public String getParserDescription() {
+            return "Simulates replicate alignments of one or more partitions on a pool of threads, " +
+                    "writing each replicate to its own FASTA file";
+        }
+
+        public Class getReturnType() {
+            return ParallelSequenceSimulator.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+
+        private XMLSyntaxRule[] rules = new XMLSyntaxRule[]{
+                AttributeRule.newIntegerRule(REPLICATIONS),
+                AttributeRule.newStringRule(FILE_STEM, false,
+                        "replicate r is written to <fileStem>_r.fasta"),
+                AttributeRule.newLongIntegerRule(SEED, true,
+                        "the seed of the replicates' random number streams (by default BEAST's seed)"),
+                AttributeRule.newIntegerRule(THREADS, true,
+                        "the number of threads to simulate on (by default BEAST's thread count or the number of processors)"),
+                new ElementRule(PARTITION, new XMLSyntaxRule[]{
+                        AttributeRule.newIntegerRule(SEQUENCE_LENGTH),
+                        new ElementRule(Tree.class),
+                        new ElementRule(SiteModel.class),
+                        new ElementRule(BranchRateModel.class, true),
+                        new ElementRule(Sequence.class, true)
+                }, "A partition of the alignment, concatenated in order", 1, Integer.MAX_VALUE)
+        };
+    };
+
+    private final List<SequenceSimulator> partitions;
+    private final int threadCount;
+    private final int siteCount;
+
+    private final DataType dataType;
+    private final String[] codes;
+    private final String[] taxonIds;
+    private final Map<String, Integer> taxonIndices;
+}
@@ -84,7 +84,7 @@ public class SequenceSimulator {
      * @param branchRateModel
      * @param sequenceLength: nr of sites to generate
      */
-    SequenceSimulator(Tree tree, SiteModel siteModel, BranchRateModel branchRateModel, int sequenceLength) {
+    public SequenceSimulator(Tree tree, SiteModel siteModel, BranchRateModel branchRateModel, int sequenceLength) {
     	m_tree = tree;
     	m_siteModel = siteModel;
     	m_branchRateModel = branchRateModel;
@@ -108,7 +108,7 @@ public class SequenceSimulator {
 		return new Sequence(m_tree.getNodeTaxon(node), sSeq.toString());
     } // intArray2Sequence
 
-	void setAncestralSequence(Sequence seq) {
+	public void setAncestralSequence(Sequence seq) {
 		ancestralSequence = seq;
 		has_ancestralSequence = true;
 	}
@@ -28,6 +28,7 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.trace.LogFileTraceCache;
 import dr.inference.trace.TraceAnalysis;
 import dr.inference.trace.TraceException;
 import dr.util.Version;
@@ -172,7 +173,7 @@ public class LogAnalyser {
 
     public static void printUsage(Arguments arguments) {
 
-        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [<input-file-name> [<output-file-name>]]");
+        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [-cache] [<input-file-name> [<output-file-name>]]");
         System.out.println();
         System.out.println("  Example: loganalyser test.log");
         System.out.println("  Example: loganalyser -burnin 10000 trees.log out.txt");
@@ -197,6 +198,7 @@ public class LogAnalyser {
                         new Arguments.Option("ess", "use this option to produce ESSs for each trace"),
                         new Arguments.Option("stdErr", "use this option to produce standard Error"),
                         new Arguments.StringOption("marginal", "trace_name", "specify the trace to use to calculate the marginal likelihood"),
+                        new Arguments.Option("cache", "use (or create) a binary cache of each log file to speed up reading it again"),
 //				new Arguments.Option("html", "format output as html"),
 //				new Arguments.Option("svg", "generate svg graphics"),
                         new Arguments.Option("help", "option to print this message")
@@ -225,6 +227,10 @@ public class LogAnalyser {
         boolean stdErr = arguments.hasOption("stdErr");
         boolean shortReport = arguments.hasOption("short");
 
+        if (arguments.hasOption("cache")) {
+            System.setProperty(LogFileTraceCache.TRACE_CACHE, Boolean.TRUE.toString());
+        }
+
         String marginalLikelihood = null;
         if (arguments.hasOption("marginal")) {
             marginalLikelihood = arguments.getStringOption("marginal");
@@ -0,0 +1,409 @@
+/*
+ * ParallelCladeCounter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.tools;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Counts the clades (and the pairs of subclades that make them up) in a stream of trees using
+ * a number of worker threads. The trees are passed in by the thread reading them and handed to
+ * the workers through a bounded queue. Each worker hashes the clades of its trees into its own
+ * map using fixed width long array keys (taxa are indexed in the order of the first tree) and
+ * the maps are merged once all the trees have been added.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParallelCladeCounter {
+
+    /**
+     * Receives the merged clade counts.
+     */
+    public interface CladeHandler {
+        /**
+         * Called once for every clade (including the tips).
+         *
+         * @param bits  the taxa in the clade (indexed in the order of the first tree)
+         * @param count the number of trees the clade was in
+         * @param taxon the taxon if this is a tip, otherwise null
+         */
+        void addClade(BitSet bits, int count, Taxon taxon);
+
+        /**
+         * Called, after all the clades have been added, for each pair of subclades that
+         * made up a clade in any tree. The bits are the same instances given to addClade.
+         */
+        void addSubclades(BitSet bits, BitSet left, BitSet right);
+    }
+
+    public ParallelCladeCounter(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be at least 1");
+        }
+        queue = new ArrayBlockingQueue<Tree>(threadCount * QUEUE_SIZE_PER_THREAD);
+        workers = new Worker[threadCount];
+    }
+
+    /**
+     * Queue a tree to have its clades counted. This will block if the workers are behind.
+     */
+    public void add(Tree tree) {
+        checkError();
+
+        if (taxonList == null) {
+            startWorkers(tree);
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(tree);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        treeCount++;
+    }
+
+    /**
+     * Wait for all the trees to be counted and pass the merged counts to the handler.
+     */
+    public void getClades(CladeHandler handler) {
+        Map<CladeKey, CladeCount> clades = finish();
+        if (clades == null) {
+            return;
+        }
+
+        for (CladeCount clade : clades.values()) {
+            clade.key.bits = BitSet.valueOf(clade.key.words);
+            handler.addClade(clade.key.bits, clade.count, clade.taxon);
+        }
+
+        for (CladeCount clade : clades.values()) {
+            if (clade.subclades != null) {
+                for (CladePair pair : clade.subclades) {
+                    // the keys in the pairs may have come from any of the workers
+                    BitSet left = clades.get(pair.left).key.bits;
+                    BitSet right = clades.get(pair.right).key.bits;
+                    handler.addSubclades(clade.key.bits, left, right);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the tree that defines the taxon indices for the clades (the first tree added)
+     */
+    public TaxonList getTaxonList() {
+        return taxonList;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    private void startWorkers(Tree firstTree) {
+        taxonList = firstTree;
+        taxonIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < firstTree.getTaxonCount(); i++) {
+            taxonIndices.put(firstTree.getTaxonId(i), i);
+        }
+        wordCount = (firstTree.getTaxonCount() + 63) >>> 6;
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            Thread thread = new Thread(workers[i], "clade-counter-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    private Map<CladeKey, CladeCount> finish() {
+        if (taxonList == null) {
+            return null;
+        }
+
+        // one end marker for each worker then wait for them all to finish
+        boolean interrupted = false;
+        int markerCount = 0;
+        while (markerCount < workers.length) {
+            try {
+                queue.put(END_OF_TREES);
+                markerCount++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Worker worker : workers) {
+            while (worker.thread.isAlive()) {
+                try {
+                    worker.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+
+        // merge the other workers' clades into the first
+        Map<CladeKey, CladeCount> clades = workers[0].clades;
+        for (int i = 1; i < workers.length; i++) {
+            for (CladeCount clade : workers[i].clades.values()) {
+                CladeCount existing = clades.get(clade.key);
+                if (existing == null) {
+                    clades.put(clade.key, clade);
+                } else {
+                    existing.count += clade.count;
+                    if (clade.subclades != null) {
+                        if (existing.subclades == null) {
+                            existing.subclades = clade.subclades;
+                        } else {
+                            existing.subclades.addAll(clade.subclades);
+                        }
+                    }
+                }
+            }
+            workers[i].clades = null;
+        }
+        return clades;
+    }
+
+    private void checkError() {
+        for (Worker worker : workers) {
+            if (worker != null && worker.error != null) {
+                if (worker.error instanceof RuntimeException) {
+                    throw (RuntimeException) worker.error;
+                }
+                throw new RuntimeException(worker.error);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        public void run() {
+            try {
+                while (true) {
+                    Tree tree = queue.take();
+                    if (tree == END_OF_TREES) {
+                        return;
+                    }
+                    addClades(tree);
+                }
+            } catch (Throwable t) {
+                error = t;
+                // keep taking trees until the end so the reading thread doesn't block
+                while (true) {
+                    try {
+                        if (queue.take() == END_OF_TREES) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        // carry on until the end
+                    }
+                }
+            }
+        }
+
+        private void addClades(Tree tree) {
+            final int nodeCount = tree.getNodeCount();
+            if (words == null || words.length < nodeCount) {
+                words = new long[nodeCount][wordCount];
+                keys = new CladeKey[nodeCount];
+            }
+            addClades(tree, tree.getRoot());
+        }
+
+        /**
+         * Post-order traversal filling in the bits for each node (indexed by node number) and
+         * adding the clade. Returns the canonical key for the clade.
+         */
+        private CladeKey addClades(Tree tree, NodeRef node) {
+            final int number = node.getNumber();
+            final long[] bits = words[number];
+            Arrays.fill(bits, 0L);
+
+            Taxon taxon = null;
+            if (tree.isExternal(node)) {
+                taxon = tree.getNodeTaxon(node);
+                Integer index = taxonIndices.get(taxon.getId());
+                if (index == null) {
+                    throw new IllegalArgumentException("Taxon, " + taxon.getId() + ", not found in the first tree");
+                }
+                bits[index >>> 6] |= 1L << index;
+            } else {
+                if (tree.getChildCount(node) != 2) {
+                    throw new IllegalArgumentException("TreeAnnotator requires strictly bifurcating trees");
+                }
+                for (int i = 0; i < 2; i++) {
+                    NodeRef child = tree.getChild(node, i);
+                    addClades(tree, child);
+                    final long[] childBits = words[child.getNumber()];
+                    for (int j = 0; j < wordCount; j++) {
+                        bits[j] |= childBits[j];
+                    }
+                }
+            }
+
+            probe.set(bits);
+            CladeCount clade = clades.get(probe);
+            if (clade == null) {
+                clade = new CladeCount(new CladeKey(bits.clone(), probe.hash));
+                clades.put(clade.key, clade);
+            }
+            clade.count++;
+
+            if (taxon != null) {
+                clade.taxon = taxon;
+            } else {
+                CladeKey left = keys[tree.getChild(node, 0).getNumber()];
+                CladeKey right = keys[tree.getChild(node, 1).getNumber()];
+                if (clade.subclades == null) {
+                    clade.subclades = new HashSet<CladePair>();
+                }
+                // order the pair by the lowest taxon index so the same pair is only stored once
+                if (left.firstSetBit() < right.firstSetBit()) {
+                    clade.subclades.add(new CladePair(left, right));
+                } else {
+                    clade.subclades.add(new CladePair(right, left));
+                }
+            }
+
+            keys[number] = clade.key;
+            return clade.key;
+        }
+
+        private final CladeKey probe = new CladeKey(null, 0);
+        private Map<CladeKey, CladeCount> clades = new HashMap<CladeKey, CladeCount>();
+        private long[][] words = null;
+        private CladeKey[] keys = null;
+
+        private Thread thread;
+        private volatile Throwable error = null;
+    }
+
+    /**
+     * The taxa of a clade as a fixed width array of words.
+     */
+    private static final class CladeKey {
+        CladeKey(long[] words, int hash) {
+            this.words = words;
+            this.hash = hash;
+        }
+
+        void set(long[] words) {
+            this.words = words;
+            this.hash = Arrays.hashCode(words);
+        }
+
+        int firstSetBit() {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            CladeKey key = (CladeKey) o;
+            return hash == key.hash && Arrays.equals(words, key.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        long[] words;
+        int hash;
+        BitSet bits = null;
+    }
+
+    private static final class CladePair {
+        CladePair(CladeKey left, CladeKey right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            CladePair pair = (CladePair) o;
+            return left.equals(pair.left) && right.equals(pair.right);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * left.hash + right.hash;
+        }
+
+        final CladeKey left;
+        final CladeKey right;
+    }
+
+    private static final class CladeCount {
+        CladeCount(CladeKey key) {
+            this.key = key;
+        }
+
+        final CladeKey key;
+        int count = 0;
+        Taxon taxon = null;
+        Set<CladePair> subclades = null;
+    }
+
+    private static final int QUEUE_SIZE_PER_THREAD = 4;
+
+    // a marker put on the queue to tell a worker there are no more trees
+    private static final Tree END_OF_TREES = new SimpleTree();
+
+    private final BlockingQueue<Tree> queue;
+    private final Worker[] workers;
+
+    private TaxonList taxonList = null;
+    private Map<String, Integer> taxonIndices = null;
+    private int wordCount;
+    private int treeCount = 0;
+}
@@ -52,6 +52,7 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Marc A. Suchard
@@ -127,6 +128,9 @@ public class TimeSlicer {
     public static final String LONGMIN = "longmin";
     public static final String ICON = "http://maps.google.com/mapfiles/kml/pal4/icon49.png";
     public static final String GRIDSIZE = "gridsize";
+    public static final String KDE = "kde";
+    public static final String THREADS = "threads";
+    public static final String[] kdeModes = {"exact", "fft"};
     public static final double[] BANDWIDTHS = new double[]{1.0,1.0};
     public static final boolean BANDWIDTHLIMIT = true;
     public static final boolean GREATCIRCLEDISTANCE = true;
@@ -142,7 +146,8 @@ public class TimeSlicer {
                       boolean trueNoise, double mrsd, ContourMode contourMode, SliceMode sliceMode,
                       final boolean summarizeRoot, final boolean summarizeTips, Normalization normalize, boolean getSDR, boolean getSNR,
                       String progress, boolean branchNormalization, BranchSet branchset, Set taxaSet, int grid,
-                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString) {
+                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString,
+                      boolean binnedKDE, int threadCount) {
 
         this.traits = traits;
         traitCount = traits.length;
@@ -171,6 +176,8 @@ public class TimeSlicer {
         rateAttributeString = rateString;
 
         gridSize = grid;
+        this.binnedKDE = binnedKDE;
+        this.threadCount = threadCount;
 
         if (progress != null) {
             if (progress.equalsIgnoreCase("true")) {
@@ -368,22 +375,40 @@ public class TimeSlicer {
                 rootElement.addContent(documentElement);
             }
 
-            if (sliceHeights == null) {
-                for (double hpdValue : hpdValues) {
-                    summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValue);
-                }
-            } else {
-                if (outputFormat == OutputFormat.TAB) {
-                    if (mostRecentSamplingDate > 0) {
-                        tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
-                    } else {
-                        tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
-                    }
+            ExecutorService contourPool = null;
+            if (contours && threadCount > 1 && contourMode != ContourMode.R) {
+                // the contours for the slices are made by a pool of threads in advance of writing them
+                contourPool = Executors.newFixedThreadPool(threadCount);
+            }
+
+            try {
+                if (contourPool != null) {
+                    submitSliceContours(contourPool, hpdValues);
                 }
-                for (int i = 0; i < sliceHeights.length; i++) {
+
+                if (sliceHeights == null) {
                     for (double hpdValue : hpdValues) {
-                        summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValue);
+                        summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValue);
                     }
+                } else {
+                    if (outputFormat == OutputFormat.TAB) {
+                        if (mostRecentSamplingDate > 0) {
+                            tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+                        } else {
+                            tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+                        }
+                    }
+                    for (int i = 0; i < sliceHeights.length; i++) {
+                        for (double hpdValue : hpdValues) {
+                            summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValue);
+                        }
+                    }
+                }
+            } finally {
+                if (contourPool != null) {
+                    // stop any contours still being made if summarizing failed so the threads don't keep the JVM running
+                    contourPool.shutdownNow();
+                    sliceContours.clear();
                 }
             }
 
@@ -750,7 +775,7 @@ public class TimeSlicer {
 
                         if (contourElement != null) {
                             String name = "root_hpd" + (hpdValue * 100);
-                            generateContours(name, contourElement, null, y, -1, Double.NaN, Double.NaN, hpdValue);
+                            generateContours(name, contourElement, null, y, -1, -1, Double.NaN, Double.NaN, hpdValue);
                         }
 
                         if (pointsElement != null) {
@@ -835,7 +860,7 @@ public class TimeSlicer {
 
                             if (contourElement != null) {
                                 String name = tipNames.get(tipIndex) + "_hpd";
-                                generateContours(name, contourElement, null, y, -1, Double.NaN, Double.NaN, hpdValue);
+                                generateContours(name, contourElement, null, y, -1, -1, Double.NaN, Double.NaN, hpdValue);
                             }
 
                             if (pointsElement != null) {
@@ -968,17 +993,7 @@ public class TimeSlicer {
                 }
             }
 
-            int count = thisTrait.size();
-//            System.out.println("count = "+count+", dim = "+dim);
-            double[][] y = new double[dim][count];
-            for (int i = 0; i < count; i++) {
-                Trait trait = thisTrait.get(i);
-                double[] value = trait.getValue();
-
-                for (int j = 0; j < dim; j++) {
-                    y[j][i] = value[j];
-                }
-            }
+            double[][] y = getTraitValues(thisTrait);
 //            System.out.println(y.length+"\t"+y[0].length);
 
             if (outputFormat == OutputFormat.XML || outputFormat == OutputFormat.TAB) {
@@ -1045,7 +1060,7 @@ public class TimeSlicer {
 
                 if (contourElement != null) {
                     String name = "" + date + "_hpd" + hpdValue;
-                    generateContours(name, contourElement, traitElement, y, slice, date, sliceValue, hpdValue);
+                    generateContours(name, contourElement, traitElement, y, slice, traitIndex, date, sliceValue, hpdValue);
                 }
 
             }
@@ -1116,24 +1131,84 @@ public class TimeSlicer {
         }
     }
 
-    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, double date, double height, double hpdValue) {
-        //to test how much points are within the polygons
-        double numberOfPointsInPolygons = 0;
-        double totalArea = 0;
+    private double[][] getTraitValues(List<Trait> thisTrait) {
+        int count = thisTrait.size();
+        int dim = thisTrait.get(0).getDim();
+//            System.out.println("count = "+count+", dim = "+dim);
+        double[][] y = new double[dim][count];
+        for (int i = 0; i < count; i++) {
+            Trait trait = thisTrait.get(i);
+            double[] value = trait.getValue();
 
+            for (int j = 0; j < dim; j++) {
+                y[j][i] = value[j];
+            }
+        }
+        return y;
+    }
+
+    private ContourMaker createContourMaker(double[][] y) {
         ContourMaker contourMaker;
         if (contourMode == ContourMode.JAVA)
 //            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
-            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT);
+            contourMaker = new KernelDensityEstimator2D(y[0], y[1], BANDWIDTHLIMIT, binnedKDE);
         else if (contourMode == ContourMode.R)
             contourMaker = new ContourWithR(y[0], y[1], gridSize);
         else if (contourMode == ContourMode.SNYDER)
 //            contourMaker = new ContourWithSynder(y[0], y[1], gridSize);
-            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT);
+            contourMaker = new ContourWithSynder(y[0], y[1], BANDWIDTHLIMIT, binnedKDE);
         else
             throw new RuntimeException("Unimplemented ContourModel!");
+        return contourMaker;
+    }
+
+    /**
+     * Submits a task to make the contours at every HPD level for each bivariate trait in each slice.
+     * The density estimate is made once for all the levels.
+     */
+    private void submitSliceContours(ExecutorService contourPool, final double[] hpdValues) {
+        for (int slice = 0; slice < values.size(); slice++) {
+            List<List<Trait>> thisSlice = values.get(slice);
+            for (int traitIndex = 0; traitIndex < thisSlice.size(); traitIndex++) {
+                List<Trait> thisTrait = thisSlice.get(traitIndex);
+                if (thisTrait.size() > 0 && thisTrait.get(0).isNumber() &&
+                        thisTrait.get(0).isMultivariate() && thisTrait.get(0).getDim() == 2) {
+                    final double[][] y = getTraitValues(thisTrait);
+                    sliceContours.put(slice + "_" + traitIndex, contourPool.submit(new Callable<Map<Double, ContourPath[]>>() {
+                        public Map<Double, ContourPath[]> call() {
+                            ContourMaker contourMaker = createContourMaker(y);
+                            Map<Double, ContourPath[]> paths = new HashMap<Double, ContourPath[]>();
+                            for (double hpdValue : hpdValues) {
+                                paths.put(hpdValue, contourMaker.getContourPaths(hpdValue));
+                            }
+                            return paths;
+                        }
+                    }));
+                }
+            }
+        }
+    }
 
-        ContourPath[] paths = contourMaker.getContourPaths(hpdValue);
+    private ContourPath[] getContourPaths(double[][] y, int slice, int traitIndex, double hpdValue) {
+        Future<Map<Double, ContourPath[]>> future = sliceContours.get(slice + "_" + traitIndex);
+        if (future != null) {
+            try {
+                return future.get().get(hpdValue);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted making contours");
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error making contours: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return createContourMaker(y).getContourPaths(hpdValue);
+    }
+
+    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, int traitIndex, double date, double height, double hpdValue) {
+        //to test how much points are within the polygons
+        double numberOfPointsInPolygons = 0;
+        double totalArea = 0;
+
+        ContourPath[] paths = getContourPaths(y, slice, traitIndex, hpdValue);
         int pathCounter = 1;
         for (ContourPath path : paths) {
 
@@ -1508,7 +1583,9 @@ public class TimeSlicer {
         String line1 = reader1.readLine();
         TreeImporter importer1;
         if (line1.toUpperCase().startsWith("#NEXUS")) {
-            importer1 = new NexusImporter(new FileReader(treeFileName));
+            NexusImporter nexusImporter = new NexusImporter(new FileReader(treeFileName));
+            nexusImporter.setThreadCount(threadCount);
+            importer1 = nexusImporter;
         } else {
             importer1 = new NewickImporter(new FileReader(treeFileName));
         }
@@ -2160,6 +2237,9 @@ public class TimeSlicer {
     private boolean ancient = false;
     private boolean useStyles = true;
     private int gridSize;
+    private boolean binnedKDE;
+    private int threadCount;
+    private final Map<String, Future<Map<Double, ContourPath[]>>> sliceContours = new HashMap<String, Future<Map<Double, ContourPath[]>>>();
     private double latMin;
     private double latMax;
     private double longMin;
@@ -2661,6 +2741,8 @@ public class TimeSlicer {
         double longMin = -Double.MAX_VALUE;
         String rateString = "location.rate";
         Set descendents = null;
+        boolean binnedKDE = false;
+        int threadCount = 1;
 
 //        if (args.length == 0) {
 //          // TODO Make flash GUI
@@ -2713,6 +2795,9 @@ public class TimeSlicer {
                         new Arguments.RealOption(LONGMAX, "specifies the maximum longitude for a child node for a branch to be included in the summary [default=MAX_VALUE]"),
                         new Arguments.RealOption(LONGMIN, "specifies the minimum longitude for a child node for a branch to be included in the summary [default=MIN_VALUE]"),
                         new Arguments.IntegerOption(GRIDSIZE, "the grid size for contouring [default=200]"),
+                        new Arguments.StringOption(KDE, kdeModes, false,
+                                "the kernel density estimate for contouring, summed exactly or binned and smoothed by FFT [default = exact]"),
+                        new Arguments.IntegerOption(THREADS, 1, Integer.MAX_VALUE, "the number of threads used to read the trees and make the slice contours [default = 1]"),
                         new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]")
 
                 });
@@ -2983,6 +3068,15 @@ public class TimeSlicer {
                 grid = arguments.getIntegerOption(GRIDSIZE);
             }
 
+            String kdeString = arguments.getStringOption(KDE);
+            if (kdeString != null && kdeString.compareToIgnoreCase("fft") == 0) {
+                binnedKDE = true;
+            }
+
+            if (arguments.hasOption(THREADS)) {
+                threadCount = arguments.getIntegerOption(THREADS);
+            }
+
 
 
         } catch (Arguments.ArgumentException e) {
@@ -3014,7 +3108,8 @@ public class TimeSlicer {
 
         TimeSlicer timeSlicer = new TimeSlicer(inputFileName, burnin, skipEvery, traitNames, sliceHeights, impute,
                 trueNoise, mrsd, contourMode, sliceMode,summarizeRoot, summarizeTips, normalize, getSDR, getSNR, progress,
-                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString);
+                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString,
+                binnedKDE, threadCount);
         timeSlicer.output(outputFileName, summaryOnly, summarizeRoot, summarizeTips, contours, points, outputFormat, hpdValues, outputFileSDR, outputFileSNR);
 
         System.exit(0);
@@ -124,6 +124,7 @@ public class TreeAnnotator {
      * @param targetTreeFileName
      * @param inputFileName
      * @param outputFileName
+     * @param threadCount the number of threads to read trees and count clades with (if more than 1)
      * @throws IOException
      */
     public TreeAnnotator(final int burninTrees,
@@ -135,7 +136,8 @@ public class TreeAnnotator {
                          Target targetOption,
                          String targetTreeFileName,
                          String inputFileName,
-                         String outputFileName
+                         String outputFileName,
+                         int threadCount
     ) throws IOException {
 
         this.posteriorLimit = posteriorLimit;
@@ -161,8 +163,14 @@ public class TreeAnnotator {
 
         if (targetOption != Target.USER_TARGET_TREE) {
             cladeSystem = new CladeSystem();
+
+            // if using more than one thread, this thread reads the trees and the clades are
+            // counted by worker threads.
+            ParallelCladeCounter cladeCounter = (threadCount > 1 ? new ParallelCladeCounter(threadCount) : null);
+
             FileReader fileReader = new FileReader(inputFileName);
-            TreeImporter importer = new NexusImporter(fileReader, true);
+            NexusImporter importer = new NexusImporter(fileReader, true);
+            importer.setThreadCount(threadCount);
             try {
                 totalTrees = 0;
                 while (importer.hasTree()) {
@@ -189,7 +197,11 @@ public class TreeAnnotator {
                             burnin = totalTrees;
                         }
 
-                        cladeSystem.add(tree, true);
+                        if (cladeCounter != null) {
+                            cladeCounter.add(tree);
+                        } else {
+                            cladeSystem.add(tree, true);
+                        }
 
                         totalTreesUsed += 1;
                     }
@@ -206,6 +218,11 @@ public class TreeAnnotator {
                 return;
             }
             fileReader.close();
+
+            if (cladeCounter != null) {
+                cladeSystem.add(cladeCounter);
+            }
+
             progressStream.println();
             progressStream.println();
 
@@ -264,7 +281,7 @@ public class TreeAnnotator {
             }
             case MAX_CLADE_CREDIBILITY: {
                 progressStream.println("Finding maximum credibility tree...");
-                targetTree = new FlexibleTree(getMCCTree(burnin, cladeSystem, inputFileName));
+                targetTree = new FlexibleTree(getMCCTree(burnin, cladeSystem, inputFileName, threadCount));
                 break;
             }
             case MAX_MARGINAL_CLADE_CREDIBILITY: {
@@ -369,7 +386,7 @@ public class TreeAnnotator {
         }
     }
 
-    private Tree getMCCTree(int burnin, CladeSystem cladeSystem, String inputFileName)
+    private Tree getMCCTree(int burnin, CladeSystem cladeSystem, String inputFileName, int threadCount)
             throws IOException {
 
         Tree bestTree = null;
@@ -384,7 +401,8 @@ public class TreeAnnotator {
 
         int counter = 0;
         int bestTreeNumber = 0;
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        NexusImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        importer.setThreadCount(threadCount);
         try {
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
@@ -526,6 +544,38 @@ public class TreeAnnotator {
             rootClade = cladeMap.get(rootBits);
         }
 
+        /**
+         * adds all the clades counted by a ParallelCladeCounter (waiting for it to finish)
+         */
+        public void add(ParallelCladeCounter cladeCounter) {
+            cladeCounter.getClades(new ParallelCladeCounter.CladeHandler() {
+                public void addClade(BitSet bits, int count, Taxon taxon) {
+                    Clade clade = cladeMap.get(bits);
+                    if (clade == null) {
+                        clade = new Clade(bits);
+                        cladeMap.put(bits, clade);
+                    }
+                    clade.setCount(clade.getCount() + count);
+                    if (taxon != null) {
+                        clade.taxon = taxon;
+                    }
+                }
+
+                public void addSubclades(BitSet bits, BitSet left, BitSet right) {
+                    cladeMap.get(bits).addSubclades(left, right);
+                }
+            });
+
+            if (cladeCounter.getTaxonList() != null) {
+                if (taxonList == null) {
+                    taxonList = cladeCounter.getTaxonList();
+                }
+                BitSet rootBits = new BitSet();
+                rootBits.set(0, taxonList.getTaxonCount());
+                rootClade = cladeMap.get(rootBits);
+            }
+        }
+
         public Clade getRootClade() {
             return rootClade;
         }
@@ -1522,7 +1572,8 @@ public class TreeAnnotator {
                         targetOption,
                         targetTreeFileName,
                         inputFileName,
-                        outputFileName);
+                        outputFileName,
+                        1);
 
             } catch (Exception ex) {
                 System.err.println("Exception: " + ex.getMessage());
@@ -1552,7 +1603,8 @@ public class TreeAnnotator {
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma separated) HPD proportion(s)"),
-                        new Arguments.Option("ess", "compute ess for branch parameters")
+                        new Arguments.Option("ess", "compute ess for branch parameters"),
+                        new Arguments.IntegerOption("threads", 1, Integer.MAX_VALUE, "the number of threads used to read the trees and count the clades [default = 1]")
                 });
 
         try {
@@ -1630,6 +1682,11 @@ public class TreeAnnotator {
             targetTreeFileName = arguments.getStringOption("target");
         }
 
+        int threadCount = 1;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         final String[] args2 = arguments.getLeftoverArguments();
 
         switch (args2.length) {
@@ -1647,7 +1704,7 @@ public class TreeAnnotator {
             }
         }
 
-        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName);
+        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName, threadCount);
 
         System.exit(0);
     }
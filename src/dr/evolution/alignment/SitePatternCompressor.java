@@ -0,0 +1,257 @@
+/*
+ * SitePatternCompressor.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.Sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the sites of a SimpleAlignment into a column for each site with a byte for each
+ * sequence and works out a hash code for each column and whether it would be stripped (an
+ * invariant site of gaps, ambiguities or unknown states). The sequences are read on worker
+ * threads (each thread reading whole sequences) and then the columns are hashed in blocks of sites.
+ *
+ * The hash code of a column is the same as Arrays.hashCode() of the int[] pattern of the site so
+ * it can be looked up with the patterns that are given as int arrays.
+ *
+ * @author Andrew Rambaut
+ */
+final class SitePatternCompressor {
+
+    // the smallest alignment (sequences x sites) worth using more than one thread for
+    private static final long MIN_PARALLEL_SIZE = 1 << 20;
+
+    /**
+     * Pack the given sites of an alignment.
+     *
+     * @return the compressor or null if the alignment doesn't have the plain sequences of a
+     * SimpleAlignment or has states that don't fit in a byte
+     */
+    static SitePatternCompressor pack(SiteList siteList, int[] sites, int siteCount, boolean strip, int threadCount) {
+        if (siteList.getClass() != SimpleAlignment.class || siteList.areUncertain()) {
+            return null;
+        }
+        SimpleAlignment alignment = (SimpleAlignment) siteList;
+        for (int i = 0; i < alignment.getSequenceCount(); i++) {
+            if (alignment.getSequence(i).getClass() != Sequence.class) {
+                return null;
+            }
+        }
+
+        SitePatternCompressor compressor = new SitePatternCompressor(alignment, sites, siteCount, strip);
+        int threads = ((long) siteCount * alignment.getSequenceCount() >= MIN_PARALLEL_SIZE ? threadCount : 1);
+        if (!compressor.compress(threads)) {
+            return null;
+        }
+        return compressor;
+    }
+
+    private SitePatternCompressor(SimpleAlignment alignment, int[] sites, int siteCount, boolean strip) {
+        this.alignment = alignment;
+        this.dataType = alignment.getDataType();
+        this.sites = sites;
+        this.siteCount = siteCount;
+        this.taxonCount = alignment.getSequenceCount();
+        this.strip = strip;
+
+        columns = new byte[siteCount][taxonCount];
+        hashes = new int[siteCount];
+        stripped = new boolean[siteCount];
+    }
+
+    int getSiteCount() {
+        return siteCount;
+    }
+
+    /**
+     * @return true if the site is left out of the patterns
+     */
+    boolean isStripped(int site) {
+        return stripped[site];
+    }
+
+    int getHash(int site) {
+        return hashes[site];
+    }
+
+    /**
+     * @return true if the site has the given pattern
+     */
+    boolean matches(int site, int[] pattern) {
+        byte[] column = columns[site];
+        if (pattern.length != column.length) {
+            return false;
+        }
+        for (int i = 0; i < column.length; i++) {
+            if ((column[i] & 0xFF) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int[] getPattern(int site) {
+        byte[] column = columns[site];
+        int[] pattern = new int[column.length];
+        for (int i = 0; i < column.length; i++) {
+            pattern[i] = column[i] & 0xFF;
+        }
+        return pattern;
+    }
+
+    /**
+     * Drop the column of a site once it is no longer needed.
+     */
+    void release(int site) {
+        columns[site] = null;
+    }
+
+    private boolean compress(int threadCount) {
+        if (threadCount <= 1) {
+            return readSequences(0, taxonCount) && hashSites(0, siteCount);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "site-patterns");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Callable<Boolean>> readers = new ArrayList<Callable<Boolean>>();
+            int taxaPerThread = (taxonCount + threadCount - 1) / threadCount;
+            for (int start = 0; start < taxonCount; start += taxaPerThread) {
+                final int from = start;
+                final int to = Math.min(taxonCount, start + taxaPerThread);
+                readers.add(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return readSequences(from, to);
+                    }
+                });
+            }
+            if (!allTrue(pool.invokeAll(readers))) {
+                return false;
+            }
+
+            List<Callable<Boolean>> hashers = new ArrayList<Callable<Boolean>>();
+            int sitesPerBlock = Math.max(1, (siteCount + threadCount * 4 - 1) / (threadCount * 4));
+            for (int start = 0; start < siteCount; start += sitesPerBlock) {
+                final int from = start;
+                final int to = Math.min(siteCount, start + sitesPerBlock);
+                hashers.add(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return hashSites(from, to);
+                    }
+                });
+            }
+            return allTrue(pool.invokeAll(hashers));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ee) {
+            throw new RuntimeException("Failed to compress the site patterns: " + ee.getCause().getMessage(), ee.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean allTrue(List<Future<Boolean>> futures) throws InterruptedException, ExecutionException {
+        boolean result = true;
+        for (Future<Boolean> future : futures) {
+            result &= future.get();
+        }
+        return result;
+    }
+
+    /**
+     * Read the states of a range of sequences into the columns.
+     *
+     * @return false if a state doesn't fit in a byte
+     */
+    private boolean readSequences(int fromTaxon, int toTaxon) {
+        int gapState = dataType.getGapState();
+        for (int taxon = fromTaxon; taxon < toTaxon; taxon++) {
+            Sequence sequence = alignment.getSequence(taxon);
+            // the states are those of the sequence's own data type as in Sequence.getState()
+            DataType sequenceType = sequence.getDataType();
+            String states = sequence.getSequenceString();
+            int length = states.length();
+            for (int i = 0; i < siteCount; i++) {
+                int site = sites[i];
+                int state = (site >= length ? gapState : sequenceType.getState(states.charAt(site)));
+                if (state < 0 || state > 255) {
+                    return false;
+                }
+                columns[i][taxon] = (byte) state;
+            }
+        }
+        return true;
+    }
+
+    private boolean hashSites(int fromSite, int toSite) {
+        for (int i = fromSite; i < toSite; i++) {
+            byte[] column = columns[i];
+            int hash = 1;
+            int first = column.length > 0 ? column[0] & 0xFF : 0;
+            boolean invariant = true;
+            boolean ambiguous = false;
+            for (byte b : column) {
+                int state = b & 0xFF;
+                hash = 31 * hash + state;
+                if (state != first) {
+                    invariant = false;
+                }
+                if (dataType.isGapState(state) || dataType.isAmbiguousState(state) || dataType.isUnknownState(state)) {
+                    ambiguous = true;
+                }
+            }
+            hashes[i] = hash;
+            stripped[i] = strip && invariant && ambiguous;
+        }
+        return true;
+    }
+
+    private final SimpleAlignment alignment;
+    private final DataType dataType;
+    private final int[] sites;
+    private final int siteCount;
+    private final int taxonCount;
+    private final boolean strip;
+
+    private final byte[][] columns;
+    private final int[] hashes;
+    private final boolean[] stripped;
+}
@@ -281,28 +281,13 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        int site = 0;
-
+        int[] sites = new int[siteCount];
+        int count = 0;
         for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double[][] probs = null;
-
-            if (uncertainSites) {
-                probs = siteList.getUncertainSitePattern(i);
-            }
-
-            if (!strip || !isInvariant(pattern) ||
-                    (!isGapped(pattern) &&
-                            !isAmbiguous(pattern) &&
-                            !isUnknown(pattern))) {
-
-                sitePatternIndices[site] = addPattern(pattern, probs);
-
-            }  else {
-                sitePatternIndices[site] = -1;
-            }
-            site++;
+            sites[count] = i;
+            count++;
         }
+        addSites(sites, count);
     }
 
     /**
@@ -335,19 +320,85 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
 
         invariantCount = 0;
-        int[] pattern;
-
-        int site = 0;
 
+        int[] sites = new int[siteCount];
+        int count = 0;
         for (int i = from; i <= to; i += every) {
-            pattern = siteList.getSitePattern(i);
-
             if (mask[i]) {
+                sites[count] = i;
+                count++;
+            }
+        }
+        addSites(sites, count);
+    }
+
+    /**
+     * Sets the number of threads used to read and hash the sites of large alignments. Unless this
+     * is called the 'site.patterns.threads' property is used or else 'thread.count' (which BEAST's
+     * -threads option sets) or else the number of processors (as it is again after setting a count
+     * less than 1).
+     */
+    public static void setThreadCount(int threadCount) {
+        SitePatterns.threadCount = Math.max(0, threadCount);
+    }
+
+    public static int getThreadCount() {
+        if (threadCount > 0) {
+            return threadCount;
+        }
+        for (String property : new String[]{THREADS_PROPERTY, THREAD_COUNT_PROPERTY}) {
+            String r = System.getProperty(property);
+            if (r != null) {
+                try {
+                    int count = Integer.parseInt(r.trim());
+                    if (count > 0) {
+                        return count;
+                    }
+                } catch (NumberFormatException exception) {
+                    throw new RuntimeException("Unable to parse '" + property + "' environmental property");
+                }
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * adds the patterns of the given sites of the site list in order. The sites of a
+     * plain alignment are packed into byte columns and hashed on worker threads and then
+     * looked up in a hash index of the patterns so far.
+     */
+    private void addSites(int[] sites, int count) {
+        if (unique) {
+            createPatternIndex();
+        }
+
+        SitePatternCompressor compressor = SitePatternCompressor.pack(siteList, sites, count, strip, getThreadCount());
+
+        if (compressor != null) {
+            for (int site = 0; site < count; site++) {
+                if (compressor.isStripped(site)) {
+                    sitePatternIndices[site] = -1;
+                } else {
+                    int hash = compressor.getHash(site);
+                    int index = (unique ? findPattern(compressor, site, hash) : -1);
+                    if (index >= 0) {
+                        weights[index] += 1;
+                    } else {
+                        index = addPattern(compressor.getPattern(site), hash, 1, null);
+                    }
+                    sitePatternIndices[site] = index;
+                }
+                compressor.release(site);
+            }
+        } else {
+            for (int site = 0; site < count; site++) {
+                int i = sites[site];
+                int[] pattern = siteList.getSitePattern(i);
+
                 if (!strip || !isInvariant(pattern) ||
                         (!isGapped(pattern) &&
                                 !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))
-                        ) {
+                                !isUnknown(pattern))) {
 
                     double[][] probs = null;
                     if (uncertainSites) {
@@ -355,14 +406,16 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
                     }
                     sitePatternIndices[site] = addPattern(pattern, probs);
 
-                }  else {
+                } else {
                     sitePatternIndices[site] = -1;
                 }
-                site++;
             }
         }
-    }
 
+        // the index is only needed while the patterns are being added
+        patternTable = null;
+        patternHashes = null;
+    }
 
     /**
      * adds a pattern to the pattern list
@@ -379,16 +432,26 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      * @return the index of the pattern in the pattern list
      */
     private int addPattern(int[] pattern, int weight, double[][] uncertainty) {
+        int hash = Arrays.hashCode(pattern);
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (unique && comparePatterns(patterns[i], pattern)) {
-
-                weights[i] += weight;
-                return i;
+        if (unique) {
+            int index = findPattern(pattern, hash);
+            if (index >= 0) {
+                weights[index] += weight;
+                return index;
             }
         }
 
+        return addPattern(pattern, hash, weight, uncertainty);
+    }
+
+    /**
+     * adds a pattern that isn't already in the pattern list
+     *
+     * @return the index of the pattern in the pattern list
+     */
+    private int addPattern(int[] pattern, int hash, int weight, double[][] uncertainty) {
+
         if (isInvariant(pattern)) {
             invariantCount += weight;
         }
@@ -416,9 +479,82 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
         patternCount++;
 
+        if (unique) {
+            indexPattern(index, hash);
+        }
+
         return index;
     }
 
+    /**
+     * creates a hash index of the patterns with room for the whole pattern list and adds
+     * any patterns already in the list to it
+     */
+    private void createPatternIndex() {
+        int size = 16;
+        while (size < patterns.length * 2) {
+            size <<= 1;
+        }
+        patternTable = new int[size];
+        Arrays.fill(patternTable, -1);
+        patternHashes = new int[patterns.length];
+        for (int i = 0; i < patternCount; i++) {
+            indexPattern(i, Arrays.hashCode(patterns[i]));
+        }
+    }
+
+    private void indexPattern(int index, int hash) {
+        if (patternTable == null) {
+            // this will index all the patterns including this one
+            createPatternIndex();
+            return;
+        }
+        patternHashes[index] = hash;
+        int mask = patternTable.length - 1;
+        int slot = spread(hash) & mask;
+        while (patternTable[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        patternTable[slot] = index;
+    }
+
+    /**
+     * @return the index of the pattern in the pattern list or -1 if it isn't there
+     */
+    private int findPattern(int[] pattern, int hash) {
+        if (patternTable == null) {
+            createPatternIndex();
+        }
+        int mask = patternTable.length - 1;
+        int slot = spread(hash) & mask;
+        int index;
+        while ((index = patternTable[slot]) != -1) {
+            if (patternHashes[index] == hash && comparePatterns(patterns[index], pattern)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findPattern(SitePatternCompressor compressor, int site, int hash) {
+        int mask = patternTable.length - 1;
+        int slot = spread(hash) & mask;
+        int index;
+        while ((index = patternTable[slot]) != -1) {
+            if (patternHashes[index] == hash && compressor.matches(site, patterns[index])) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
     /**
      * @return true if the pattern is invariant
      */
@@ -729,6 +865,16 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     protected String id = null;
 
+    public static final String THREADS_PROPERTY = "site.patterns.threads";
+    private static final String THREAD_COUNT_PROPERTY = "thread.count";
+
+    // set by setThreadCount, otherwise 0 and the count is taken from the properties when the patterns are made
+    private static int threadCount = 0;
+
+    // a hash index of the patterns (open addressing into the pattern list) while they are being added
+    private int[] patternTable = null;
+    private int[] patternHashes = null;
+
     /**
      * @return the id.
      */
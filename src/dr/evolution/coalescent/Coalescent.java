@@ -122,6 +122,44 @@ public class Coalescent implements MultivariateFunction, Units {
         return logL;
     }
 
+    /**
+     * Calculates the term of the log likelihood for one interval (the terms of
+     * calculateLogLikelihood() summed over the intervals). This allows the terms of
+     * intervals that haven't changed to be kept.
+     *
+     * @param startTime    the time of the start of the interval (relative to the first event)
+     * @param duration     the length of the interval
+     * @param lineageCount the number of lineages in the interval
+     * @param type         the type of event at the end of the interval
+     * @return the log likelihood of the interval (or negative infinity if it is impossible)
+     */
+    public static double calculateIntervalLogLikelihood(double startTime, double duration, int lineageCount, IntervalType type,
+                                                        DemographicFunction demographicFunction, double threshold) {
+
+        final double finishTime = startTime + duration;
+
+        final double intervalArea = demographicFunction.getIntegral(startTime, finishTime);
+        if( intervalArea == 0 && duration != 0 ) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double logL = -Binomial.choose2(lineageCount) * intervalArea;
+
+        if (type == IntervalType.COALESCENT) {
+
+            final double demographicAtCoalPoint = demographicFunction.getDemographic(finishTime);
+
+            // reject the interval if the value at the end is many orders of magnitude different to the mean
+            if( duration == 0.0 || demographicAtCoalPoint * (intervalArea/duration) >= threshold ) {
+                logL -= Math.log(demographicAtCoalPoint);
+            } else {
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        return logL;
+    }
+
     /**
      * Calculates the log likelihood of this set of coalescent intervals,
      * using an analytical integration over theta.
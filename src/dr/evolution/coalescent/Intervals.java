@@ -53,10 +53,36 @@ public class Intervals implements IntervalList {
         intervalsKnown = false;
     }
 
+    /**
+     * Copy the events as well as the intervals so that the events can then be updated with
+     * updateEventTime().
+     */
+    public void copyEventsAndIntervals(Intervals source) {
+        copyIntervals(source);
+
+        for (int i = 0; i < source.eventCount; i++) {
+            events[i].time = source.events[i].time;
+            events[i].type = source.events[i].type;
+            events[i].info = source.events[i].info;
+            events[i].node = source.events[i].node;
+        }
+        if (source.eventOfNode != null) {
+            if (eventOfNode == null) {
+                eventOfNode = new int[source.eventOfNode.length];
+            }
+            System.arraycopy(source.eventOfNode, 0, eventOfNode, 0, eventOfNode.length);
+        } else {
+            eventOfNode = null;
+        }
+        firstChangedInterval = source.firstChangedInterval;
+        lastChangedInterval = source.lastChangedInterval;
+    }
+
     public void copyIntervals(Intervals source) {
         intervalsKnown = source.intervalsKnown;
         eventCount = source.eventCount;
         sampleCount = source.sampleCount;
+        intervalCount = source.intervalCount;
 
         //don't copy the actual events..
         /*
@@ -76,19 +102,38 @@ public class Intervals implements IntervalList {
         intervalsKnown = false;
         eventCount = 0;
         sampleCount = 0;
+        if (eventOfNode != null) {
+            Arrays.fill(eventOfNode, -1);
+        }
     }
 
     public void addSampleEvent(double time) {
+        addSampleEvent(time, -1);
+    }
+
+    /**
+     * Add a sample event for a node of a tree (so its time can be changed with updateEventTime()).
+     */
+    public void addSampleEvent(double time, int node) {
         events[eventCount].time = time;
         events[eventCount].type = IntervalType.SAMPLE;
+        events[eventCount].node = node;
         eventCount++;
         sampleCount++;
         intervalsKnown = false;
     }
 
     public void addCoalescentEvent(double time) {
+        addCoalescentEvent(time, -1);
+    }
+
+    /**
+     * Add a coalescent event for a node of a tree (so its time can be changed with updateEventTime()).
+     */
+    public void addCoalescentEvent(double time, int node) {
         events[eventCount].time = time;
         events[eventCount].type = IntervalType.COALESCENT;
+        events[eventCount].node = node;
         eventCount++;
         intervalsKnown = false;
     }
@@ -97,6 +142,7 @@ public class Intervals implements IntervalList {
         events[eventCount].time = time;
         events[eventCount].type = IntervalType.MIGRATION;
         events[eventCount].info = destination;
+        events[eventCount].node = -1;
         eventCount++;
         intervalsKnown = false;
     }
@@ -104,6 +150,7 @@ public class Intervals implements IntervalList {
     public void addNothingEvent(double time) {
         events[eventCount].time = time;
         events[eventCount].type = IntervalType.NOTHING;
+        events[eventCount].node = -1;
         eventCount++;
         intervalsKnown = false;
     }
@@ -155,6 +202,129 @@ public class Intervals implements IntervalList {
         return true;
     }
 
+    /**
+     * @param node the number of a node given when its event was added
+     * @return true if there is an event for the node
+     */
+    public boolean hasEvent(int node) {
+        if (!intervalsKnown) calculateIntervals();
+        return node >= 0 && eventOfNode != null && node < eventOfNode.length && eventOfNode[node] >= 0;
+    }
+
+    /**
+     * @return the time of the event of a node
+     */
+    public double getEventTime(int node) {
+        if (!intervalsKnown) calculateIntervals();
+        return events[eventOfNode[node]].time;
+    }
+
+    /**
+     * Change the time of the event of a node. If the intervals are known, the event is moved to its
+     * new place in the order and only the intervals between its old and new places are
+     * recalculated (these are then included in the range of changed intervals).
+     *
+     * @param node the number of a node given when its event was added
+     * @param time the new time
+     */
+    public void updateEventTime(int node, double time) {
+        if (!intervalsKnown) {
+            // the events haven't been sorted yet so just find it
+            for (int i = 0; i < eventCount; i++) {
+                if (events[i].node == node) {
+                    events[i].time = time;
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("No event for node " + node);
+        }
+
+        int oldPosition = eventOfNode[node];
+        Event event = events[oldPosition];
+        if (event.time == time) {
+            return;
+        }
+        event.time = time;
+
+        // move the event down or up the order
+        int position = oldPosition;
+        while (position > 0 && events[position - 1].compareTo(event) > 0) {
+            setEvent(position, events[position - 1]);
+            position--;
+        }
+        while (position < eventCount - 1 && events[position + 1].compareTo(event) < 0) {
+            setEvent(position, events[position + 1]);
+            position++;
+        }
+        setEvent(position, event);
+
+        int first = Math.min(oldPosition, position);
+        int last = Math.max(oldPosition, position);
+
+        if (events[0].type != IntervalType.SAMPLE) {
+            throw new IllegalArgumentException("First event is not a sample event");
+        }
+
+        if (first == 0) {
+            // the intervals start from the first event so all their start times have changed
+            calculateIntervals(1, eventCount - 1);
+            addChangedIntervals(0, intervalCount - 1);
+        } else {
+            // the intervals that end at the events that have moved and the one after them
+            int lastEvent = Math.min(last + 1, eventCount - 1);
+            calculateIntervals(first, lastEvent);
+            addChangedIntervals(first - 1, lastEvent - 1);
+        }
+    }
+
+    /**
+     * @return the start time of an interval (relative to the time of the first event)
+     */
+    public double getIntervalStartTime(int i) {
+        if (!intervalsKnown) calculateIntervals();
+        return events[i].time - events[0].time;
+    }
+
+    /**
+     * The range of the intervals that have changed since clearChangedIntervals() was called (all of
+     * them if they have been calculated from scratch).
+     *
+     * @return the first changed interval (or -1 if none have changed)
+     */
+    public int getFirstChangedInterval() {
+        if (!intervalsKnown) calculateIntervals();
+        return firstChangedInterval;
+    }
+
+    /**
+     * @return the last changed interval (or -1 if none have changed)
+     */
+    public int getLastChangedInterval() {
+        if (!intervalsKnown) calculateIntervals();
+        return lastChangedInterval;
+    }
+
+    public void clearChangedIntervals() {
+        firstChangedInterval = -1;
+        lastChangedInterval = -1;
+    }
+
+    private void addChangedIntervals(int first, int last) {
+        if (firstChangedInterval < 0 || first < firstChangedInterval) {
+            firstChangedInterval = first;
+        }
+        if (last > lastChangedInterval) {
+            lastChangedInterval = last;
+        }
+    }
+
+    private void setEvent(int position, Event event) {
+        events[position] = event;
+        if (event.node >= 0) {
+            eventOfNode[event.node] = position;
+        }
+    }
+
     private void calculateIntervals() {
 
         if (eventCount < 2) {
@@ -167,12 +337,49 @@ public class Intervals implements IntervalList {
             throw new IllegalArgumentException("First event is not a sample event");
         }
 
+        for (int i = 0; i < eventCount; i++) {
+            int node = events[i].node;
+            if (node >= 0) {
+                if (eventOfNode == null || node >= eventOfNode.length) {
+                    int[] newEventOfNode = new int[Math.max(node + 1, events.length)];
+                    Arrays.fill(newEventOfNode, -1);
+                    if (eventOfNode != null) {
+                        System.arraycopy(eventOfNode, 0, newEventOfNode, 0, eventOfNode.length);
+                    }
+                    eventOfNode = newEventOfNode;
+                }
+                eventOfNode[node] = i;
+            }
+        }
+
         intervalCount = eventCount - 1;
 
-        double lastTime = events[0].time;
+        calculateIntervals(1, eventCount - 1);
+
+        firstChangedInterval = 0;
+        lastChangedInterval = intervalCount - 1;
+
+        intervalsKnown = true;
+    }
+
+    /**
+     * Calculate the intervals that end at the given range of the sorted events.
+     */
+    private void calculateIntervals(int firstEvent, int lastEvent) {
 
         int lineages = 1;
-        for (int i = 1; i < eventCount; i++) {
+        if (firstEvent > 1) {
+            // the lineages after the event at the start of the first interval
+            lineages = lineageCounts[firstEvent - 2];
+            if (intervalTypes[firstEvent - 2] == IntervalType.SAMPLE) {
+                lineages++;
+            } else if (intervalTypes[firstEvent - 2] == IntervalType.COALESCENT) {
+                lineages--;
+            }
+        }
+
+        double lastTime = events[firstEvent - 1].time;
+        for (int i = firstEvent; i <= lastEvent; i++) {
 
             intervals[i - 1] = events[i].time - lastTime;
             intervalTypes[i - 1] = events[i].type;
@@ -184,7 +391,6 @@ public class Intervals implements IntervalList {
             }
             lastTime = events[i].time;
         }
-        intervalsKnown = true;
     }
 
     private Units.Type units = Units.Type.GENERATIONS;
@@ -226,6 +432,11 @@ public class Intervals implements IntervalList {
          */
         int info;
 
+        /**
+         * The number of the node of the tree for the event (or -1 if not known)
+         */
+        int node = -1;
+
     }
 
     private Event[] events;
@@ -238,4 +449,10 @@ public class Intervals implements IntervalList {
     private IntervalType[] intervalTypes;
     //private int[] destinations;
     private int intervalCount = 0;
+
+    // the position of the event of each node in the sorted events
+    private int[] eventOfNode = null;
+
+    private int firstChangedInterval = -1;
+    private int lastChangedInterval = -1;
 }
\ No newline at end of file
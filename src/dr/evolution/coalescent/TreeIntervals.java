@@ -30,6 +30,7 @@ import dr.evolution.tree.Tree;
 import dr.util.HeapSort;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -68,6 +69,40 @@ public class TreeIntervals implements IntervalList {
         intervalsKnown = false;
     }
 
+    /**
+     * Specifies that the height of a node has changed but nothing else about the tree. When the
+     * intervals are next used, the node is moved to its new place in the order of the nodes and
+     * only the intervals between its old and new places are recalculated (rather than sorting all
+     * the nodes again). This is only done if adjacent events are not merged (a negative
+     * multifurcation limit, the default), otherwise all the intervals are recalculated.
+     */
+    public void setNodeHeightChanged(NodeRef node) {
+        if (!intervalsKnown || multifurcationLimit >= 0.0) {
+            intervalsKnown = false;
+            return;
+        }
+        final int nodeNumber = node.getNumber();
+        if (!heightChanged[nodeNumber]) {
+            heightChanged[nodeNumber] = true;
+            changedNodes[changedNodeCount] = nodeNumber;
+            changedNodeCount++;
+        }
+    }
+
+    /**
+     * Specifies that the topology of the tree and any of the node heights may have changed but
+     * not the number of nodes. When the intervals are next used, the nodes whose heights have
+     * changed are moved as for setNodeHeightChanged().
+     */
+    public void setTreeChanged() {
+        if (!intervalsKnown || multifurcationLimit >= 0.0) {
+            intervalsKnown = false;
+            return;
+        }
+        checkAllNodes = true;
+        lineagesKnown = false;
+    }
+
     /**
      * Sets the limit for which adjacent events are merged.
      *
@@ -87,9 +122,7 @@ public class TreeIntervals implements IntervalList {
      * get number of intervals
      */
     public int getIntervalCount() {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         return intervalCount;
     }
 
@@ -97,9 +130,7 @@ public class TreeIntervals implements IntervalList {
      * Gets an interval.
      */
     public double getInterval(int i) {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         if (i >= intervalCount) throw new IllegalArgumentException();
         return intervals[i];
     }
@@ -110,9 +141,7 @@ public class TreeIntervals implements IntervalList {
      * earlier samples are come across.
      */
     public int getLineageCount(int i) {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         if (i >= intervalCount) throw new IllegalArgumentException();
         return lineageCounts[i];
     }
@@ -123,6 +152,7 @@ public class TreeIntervals implements IntervalList {
      */
     public final List getLineages(int interval) {
 
+        checkLineages();
         if (lineages[interval] == null) {
 
             List<Object> lines = new ArrayList<Object>();
@@ -140,9 +170,7 @@ public class TreeIntervals implements IntervalList {
      * Returns the number coalescent events in an interval
      */
     public int getCoalescentEvents(int i) {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         if (i >= intervalCount) throw new IllegalArgumentException();
         if (i < intervalCount - 1) {
             return lineageCounts[i] - lineageCounts[i + 1];
@@ -155,9 +183,7 @@ public class TreeIntervals implements IntervalList {
      * Returns the type of interval observed.
      */
     public IntervalType getIntervalType(int i) {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         if (i >= intervalCount) throw new IllegalArgumentException();
         int numEvents = getCoalescentEvents(i);
 
@@ -167,6 +193,7 @@ public class TreeIntervals implements IntervalList {
     }
 
     public NodeRef getCoalescentNode(int interval) {
+        checkLineages();
         if (getIntervalType(interval) == IntervalType.COALESCENT) {
             if (lineagesRemoved[interval] != null) {
                 if (lineagesAdded[interval].size() == 1) {
@@ -182,9 +209,7 @@ public class TreeIntervals implements IntervalList {
      */
     public double getTotalDuration() {
 
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         double height = 0.0;
         for (int j = 0; j < intervalCount; j++) {
             height += intervals[j];
@@ -198,9 +223,7 @@ public class TreeIntervals implements IntervalList {
      * subsequent interval)
      */
     public boolean isBinaryCoalescent() {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         for (int i = 0; i < intervalCount; i++) {
             if (getCoalescentEvents(i) > 0) {
                 if (getCoalescentEvents(i) != 1) return false;
@@ -216,9 +239,7 @@ public class TreeIntervals implements IntervalList {
      * subsequent interval)
      */
     public boolean isCoalescentOnly() {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         for (int i = 0; i < intervalCount; i++) {
             if (getCoalescentEvents(i) < 1) return false;
         }
@@ -226,6 +247,27 @@ public class TreeIntervals implements IntervalList {
         return true;
     }
 
+    /**
+     * Makes sure the intervals are up to date with the tree.
+     */
+    private void checkIntervals() {
+        if (!intervalsKnown) {
+            calculateIntervals();
+        } else if (changedNodeCount > 0 || checkAllNodes) {
+            updateIntervals();
+        }
+    }
+
+    /**
+     * Makes sure the lineages added and removed in each interval are up to date with the tree.
+     */
+    private void checkLineages() {
+        checkIntervals();
+        if (!lineagesKnown) {
+            calculateIntervals();
+        }
+    }
+
     /**
      * Recalculates all the intervals for the given tree.
      */
@@ -233,21 +275,35 @@ public class TreeIntervals implements IntervalList {
 
         int nodeCount = tree.getNodeCount();
 
-        times = new double[nodeCount];
-        int[] childCounts = new int[nodeCount];
+        if (times == null || times.length != nodeCount) {
+            times = new double[nodeCount];
+            childCounts = new int[nodeCount];
+            indices = new int[nodeCount];
+            positions = new int[nodeCount];
+            heightChanged = new boolean[nodeCount];
+            changedNodes = new int[nodeCount];
+        }
 
         collectTimes(tree, times, childCounts);
 
-        indices = new int[nodeCount];
-
         HeapSort.sort(times, indices);
 
+        for (int i = 0; i < nodeCount; i++) {
+            positions[indices[i]] = i;
+        }
+        clearChangedNodes();
+
         if (intervals == null || intervals.length != nodeCount) {
             intervals = new double[nodeCount];
             lineageCounts = new int[nodeCount];
             lineagesAdded = new List[nodeCount];
             lineagesRemoved = new List[nodeCount];
             lineages = new List[nodeCount];
+        } else {
+            // the lists are added to below so empty them first
+            Arrays.fill(lineagesAdded, null);
+            Arrays.fill(lineagesRemoved, null);
+            Arrays.fill(lineages, null);
         }
 
         // start is the time of the first tip
@@ -322,6 +378,167 @@ public class TreeIntervals implements IntervalList {
         }
 
         intervalsKnown = true;
+        lineagesKnown = true;
+        firstChangedInterval = 0;
+        lastChangedInterval = intervalCount - 1;
+    }
+
+    /**
+     * Moves the nodes whose heights have changed to their new places in the order and
+     * recalculates the intervals between the old and new places. This relies on there being an
+     * interval for each node (i.e., interval i ends with the event of the node at indices[i]).
+     */
+    private void updateIntervals() {
+
+        final int nodeCount = times.length;
+
+        if (tree.getNodeCount() != nodeCount || intervalCount != nodeCount) {
+            // the nodes have been added or removed, or some nodes (with a single child) have no
+            // interval of their own
+            calculateIntervals();
+            return;
+        }
+
+        int first = nodeCount;
+        int last = -1;
+
+        if (checkAllNodes) {
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                if (tree.getChildCount(node) != childCounts[i]) {
+                    // the number of lineages changes differently at this node
+                    calculateIntervals();
+                    return;
+                }
+                double height = tree.getNodeHeight(node);
+                if (height != times[i]) {
+                    int oldPosition = positions[i];
+                    int position = moveNode(i, height);
+                    first = Math.min(first, Math.min(oldPosition, position));
+                    last = Math.max(last, Math.max(oldPosition, position));
+                }
+            }
+        } else {
+            for (int i = 0; i < changedNodeCount; i++) {
+                int nodeNumber = changedNodes[i];
+                int oldPosition = positions[nodeNumber];
+                int position = moveNode(nodeNumber, tree.getNodeHeight(tree.getNode(nodeNumber)));
+                first = Math.min(first, Math.min(oldPosition, position));
+                last = Math.max(last, Math.max(oldPosition, position));
+            }
+        }
+        clearChangedNodes();
+
+        if (last < 0) {
+            return;
+        }
+
+        if (childCounts[indices[0]] != 0) {
+            // the first event is not a sample so leave it to the full calculation to deal with
+            calculateIntervals();
+            return;
+        }
+
+        // the interval after the last moved node also starts at a different time
+        final int lastInterval = Math.min(last + 1, nodeCount - 1);
+
+        // the lineages before the first moved node are the same
+        int numLines = lineageCounts[first];
+        for (int i = first; i <= lastInterval; i++) {
+            final int nodeIndex = indices[i];
+            final int childCount = childCounts[nodeIndex];
+
+            intervals[i] = (i == 0 ? 0.0 : times[nodeIndex] - times[indices[i - 1]]);
+            lineageCounts[i] = numLines;
+
+            if (lineagesKnown) {
+                lineagesAdded[i] = null;
+                lineagesRemoved[i] = null;
+                if (childCount == 0) {
+                    addLineage(i, tree.getNode(nodeIndex));
+                } else {
+                    final NodeRef parent = tree.getNode(nodeIndex);
+                    for (int j = 0; j < childCount; j++) {
+                        removeLineage(i, tree.getChild(parent, j));
+                    }
+                    addLineage(i, parent);
+                }
+            }
+
+            if (childCount == 0) {
+                numLines += 1;
+            } else {
+                numLines -= (childCount - 1);
+            }
+        }
+
+        // the lineages of an interval are collected from all the ones before it
+        Arrays.fill(lineages, first, intervalCount, null);
+
+        if (firstChangedInterval < 0 || first < firstChangedInterval) {
+            firstChangedInterval = first;
+        }
+        if (lastInterval > lastChangedInterval) {
+            lastChangedInterval = lastInterval;
+        }
+    }
+
+    /**
+     * Moves a node up or down the order to the place for its new height.
+     *
+     * @return the new place of the node
+     */
+    private int moveNode(int nodeNumber, double height) {
+        times[nodeNumber] = height;
+
+        int position = positions[nodeNumber];
+        while (position > 0 && times[indices[position - 1]] > height) {
+            indices[position] = indices[position - 1];
+            positions[indices[position]] = position;
+            position--;
+        }
+        while (position < indices.length - 1 && times[indices[position + 1]] < height) {
+            indices[position] = indices[position + 1];
+            positions[indices[position]] = position;
+            position++;
+        }
+        indices[position] = nodeNumber;
+        positions[nodeNumber] = position;
+
+        return position;
+    }
+
+    private void clearChangedNodes() {
+        for (int i = 0; i < changedNodeCount; i++) {
+            heightChanged[changedNodes[i]] = false;
+        }
+        changedNodeCount = 0;
+        checkAllNodes = false;
+    }
+
+    /**
+     * The range of the intervals that have changed since clearChangedIntervals() was called (all of
+     * them if they have been calculated from scratch). If only node heights have changed, these are
+     * the intervals between the old and new places of the nodes.
+     *
+     * @return the first changed interval (or -1 if none have changed)
+     */
+    public int getFirstChangedInterval() {
+        checkIntervals();
+        return firstChangedInterval;
+    }
+
+    /**
+     * @return the last changed interval (or -1 if none have changed)
+     */
+    public int getLastChangedInterval() {
+        checkIntervals();
+        return lastChangedInterval;
+    }
+
+    public void clearChangedIntervals() {
+        firstChangedInterval = -1;
+        lastChangedInterval = -1;
     }
 
     /**
@@ -331,9 +548,7 @@ public class TreeIntervals implements IntervalList {
      * @return start time
      */
     public double getIntervalTime(int i) {
-        if (!intervalsKnown) {
-            calculateIntervals();
-        }
+        checkIntervals();
         return times[indices[i]];
     }
 
@@ -386,6 +601,8 @@ public class TreeIntervals implements IntervalList {
      */
     public void storeState() {
         if (intervalsKnown) {
+            // move any nodes whose heights have changed so there are none left over to restore
+            checkIntervals();
 
             if (storedIntervals == null) {
                 storedIntervals = new double[intervals.length];
@@ -400,13 +617,22 @@ public class TreeIntervals implements IntervalList {
             if (storedTimes == null) {
                 storedTimes = new double[times.length];
             }
+            if (storedPositions == null) {
+                storedPositions = new int[positions.length];
+                storedChildCounts = new int[childCounts.length];
+            }
             }
             System.arraycopy(intervals, 0, storedIntervals, 0, intervals.length);
             System.arraycopy(lineageCounts, 0, storedLineageCounts, 0, lineageCounts.length);
             if (superStore) {
             System.arraycopy(indices, 0, storedIndices, 0, indices.length);
             System.arraycopy(times, 0, storedTimes, 0, times.length);
+            System.arraycopy(positions, 0, storedPositions, 0, positions.length);
+            System.arraycopy(childCounts, 0, storedChildCounts, 0, childCounts.length);
             }
+            storedIntervalCount = intervalCount;
+            storedFirstChangedInterval = firstChangedInterval;
+            storedLastChangedInterval = lastChangedInterval;
         }
 
         storedIntervalsKnown = intervalsKnown;
@@ -432,7 +658,22 @@ public class TreeIntervals implements IntervalList {
             tmp2 = storedIndices;
             storedIndices = indices;
             indices = tmp2;
+
+            tmp2 = storedPositions;
+            storedPositions = positions;
+            positions = tmp2;
+
+            tmp2 = storedChildCounts;
+            storedChildCounts = childCounts;
+            childCounts = tmp2;
             }
+            intervalCount = storedIntervalCount;
+            firstChangedInterval = storedFirstChangedInterval;
+            lastChangedInterval = storedLastChangedInterval;
+
+            // the lineages are not stored so they will be collected again if they are needed
+            lineagesKnown = false;
+            clearChangedNodes();
         }
     }
 
@@ -456,6 +697,23 @@ public class TreeIntervals implements IntervalList {
     private double[] times;
     private double[] storedTimes;
 
+    /**
+     * The place of each node in indices and the number of children of each node.
+     */
+    private int[] positions;
+    private int[] storedPositions;
+    private int[] childCounts;
+    private int[] storedChildCounts;
+
+    /**
+     * The nodes whose heights have changed since the intervals were last updated (or whether all
+     * the nodes should be checked).
+     */
+    private boolean[] heightChanged;
+    private int[] changedNodes;
+    private int changedNodeCount = 0;
+    private boolean checkAllNodes = false;
+
     /**
      * The tree.
      */
@@ -481,6 +739,12 @@ public class TreeIntervals implements IntervalList {
     private List[] lineages;
 
     private int intervalCount = 0;
+    private int storedIntervalCount = 0;
+
+    private int firstChangedInterval = -1;
+    private int lastChangedInterval = -1;
+    private int storedFirstChangedInterval = -1;
+    private int storedLastChangedInterval = -1;
 
     /**
      * are the intervals known?
@@ -488,6 +752,11 @@ public class TreeIntervals implements IntervalList {
     private boolean intervalsKnown = false;
     private boolean storedIntervalsKnown;
 
+    /**
+     * are the lineages added and removed in each interval known?
+     */
+    private boolean lineagesKnown = false;
+
     private double multifurcationLimit = -1.0;
 
     private static final boolean superStore = true;
@@ -45,6 +45,13 @@ import dr.util.Attributable;
 import java.awt.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -272,6 +279,27 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
     private Tree nextTree = null;
     private final String[] lastToken = new String[1];
 
+    // the number of trees that can be read ahead of the one being delivered for each thread
+    private static final int TREES_PER_THREAD = 4;
+
+    private int threadCount = 1;
+    private ThreadPoolExecutor treePool = null;
+    private final LinkedList<Future<Tree>> pendingTrees = new LinkedList<Future<Tree>>();
+    private boolean isTreesBlockFinished = false;
+
+    /**
+     * Set the number of threads used to parse the trees read by hasTree() and importNextTree().
+     * If this is more than 1 then this thread only splits the TREES block into the text of each
+     * tree and the trees are parsed by worker threads. They are still returned in the order they
+     * are in the file. Comments to be written out (i.e., [!...]) within the trees are not passed to
+     * the comment writer.
+     *
+     * @param threadCount the number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
     /**
      * import a single tree.
      */
@@ -318,10 +346,15 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
             if (!isReadingTreesBlock) return false;
 
             translationList = readTranslationList(taxonList[0], lastToken);
+            isTreesBlockFinished = false;
         }
 
         if (nextTree == null) {
-            nextTree = readNextTree(translationList, lastToken, null);
+            if (threadCount > 1) {
+                nextTree = readNextTreeInParallel(translationList, lastToken);
+            } else {
+                nextTree = readNextTree(translationList, lastToken, null);
+            }
         }
 
         return (nextTree != null);
@@ -1036,6 +1069,131 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         }
     }
 
+    /**
+     * Returns the next tree parsed by the worker threads, first handing out the text of as many of
+     * the following trees as can be read ahead.
+     */
+    private Tree readNextTreeInParallel(final HashMap<String, Taxon> translationList, String[] lastToken) throws ImportException, IOException {
+        if (treePool == null) {
+            treePool = new ThreadPoolExecutor(threadCount, threadCount, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NexusImporter");
+                    // an importer that isn't read to the end shouldn't keep the program running
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            treePool.allowCoreThreadTimeOut(true);
+        }
+
+        while (!isTreesBlockFinished && pendingTrees.size() < threadCount * TREES_PER_THREAD) {
+            submitNextTree(translationList, lastToken);
+        }
+
+        if (pendingTrees.isEmpty()) {
+            treePool.shutdown();
+            treePool = null;
+            return null;
+        }
+
+        try {
+            return pendingTrees.removeFirst().get();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted while reading trees");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof ImportException) {
+                throw (ImportException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Reads the text of the next TREE command and hands it to a worker thread to be parsed. Errors
+     * are handed out as well so that they are reported after any trees before them.
+     */
+    private void submitNextTree(final HashMap<String, Taxon> translationList, String[] lastToken) throws IOException {
+        String token = lastToken[0];
+        final String treeText;
+
+        if (token.equalsIgnoreCase("UTREE") || token.equalsIgnoreCase("TREE")) {
+            treeText = readTreeText();
+            try {
+                lastToken[0] = readToken(";");
+            } catch (EOFException e) {
+                isTreesBlockFinished = true;
+            }
+        } else {
+            isTreesBlockFinished = true;
+            if (token.equalsIgnoreCase("ENDBLOCK") || token.equalsIgnoreCase("END")) {
+                return;
+            }
+            treeText = null;
+        }
+
+        final String command = token;
+        pendingTrees.add(treePool.submit(new Callable<Tree>() {
+            public Tree call() throws Exception {
+                if (treeText == null) {
+                    throw new BadFormatException("Unknown command '" + command + "' in TREES block");
+                }
+                NexusImporter importer = new NexusImporter(new StringReader(treeText), ignoreMetaComments);
+                String[] treeToken = new String[]{importer.readToken(";")};
+                return importer.readNextTree(translationList, treeToken, null);
+            }
+        }));
+    }
+
+    /**
+     * Reads the rest of a TREE command, up to and including the closing ';', without parsing it.
+     * Semicolons within comments or quoted labels don't end the command. The text is returned as
+     * a complete TREE command (followed by an END so the parsing stops cleanly).
+     */
+    private String readTreeText() throws IOException {
+        StringBuilder text = new StringBuilder("TREE ");
+
+        // a comment between the TREE token and the label will have been read already
+        String comment = getLastMetaComment();
+        if (comment != null) {
+            text.append("[&").append(comment).append("] ");
+            clearLastMetaComment();
+        }
+
+        int depth = 0;
+        char quote = '\0';
+        try {
+            char ch;
+            do {
+                ch = read();
+                text.append(ch);
+                if (quote != '\0') {
+                    if (ch == quote) {
+                        quote = '\0';
+                    }
+                } else if (ch == '[') {
+                    depth++;
+                } else if (ch == ']') {
+                    depth--;
+                } else if (depth == 0 && (ch == '\'' || ch == '"')) {
+                    quote = ch;
+                }
+            } while (depth > 0 || quote != '\0' || ch != ';');
+        } catch (EOFException e) {
+            // the file is truncated so return what there is and let the parser deal with it
+            return text.toString();
+        }
+
+        return text.append("\nEND;").toString();
+    }
+
     /**
      * Reads a branch in. This could be a node or a tip (calls readNode or readTip
      * accordingly). It then reads the branch length and SimpleNode that will
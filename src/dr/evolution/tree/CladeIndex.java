@@ -0,0 +1,555 @@
+/*
+ * CladeIndex.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of the clades of a sample of trees and the number of times each clade has been seen
+ * and seen as the child of each parent clade (the conditional clade counts).
+ *
+ * Each clade is given an integer id when it is first seen and its taxa are kept as the words of
+ * a bit set (as BitSet.toLongArray() gives them) in one shared array so that clades can be found
+ * without creating BitSets or Clade objects. The counts of the parent/child pairs are kept in a
+ * hash table keyed on the pair of ids and the children of each parent are linked together in the
+ * order they were first seen.
+ *
+ * Trees can be added while other threads are looking up clades. Only clades of two or more taxa
+ * are counted.
+ *
+ * @author Andrew Rambaut
+ */
+public class CladeIndex {
+
+    public CladeIndex() {
+        this(1024);
+    }
+
+    /**
+     * @param initialCapacity the number of clades to make room for to start with
+     */
+    public CladeIndex(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+
+        cladeTable = createTable(capacity);
+        keyStart = new int[capacity + 1];
+        keyWords = new long[capacity * 2];
+        cladeHashes = new int[capacity];
+        cladeSizes = new int[capacity];
+        cladeCounts = new int[capacity];
+        cladeHeights = new double[capacity];
+        firstChildPair = new int[capacity];
+        lastChildPair = new int[capacity];
+
+        pairTable = createTable(capacity);
+        pairParents = new int[capacity];
+        pairChildren = new int[capacity];
+        pairCounts = new int[capacity];
+        pairHeights = new double[capacity];
+        nextChildPair = new int[capacity];
+    }
+
+    /**
+     * Count the clades of a tree and the clades that are the children of each clade.
+     *
+     * @param tree     the tree
+     * @param taxonMap the index of each taxon in the clades or null to use the numbers of the tips
+     */
+    public void addTree(Tree tree, Map<String, Integer> taxonMap) {
+        int nodeCount = tree.getNodeCount();
+        int maxIndex = tree.getExternalNodeCount() - 1;
+        if (taxonMap != null) {
+            for (int index : taxonMap.values()) {
+                maxIndex = Math.max(maxIndex, index);
+            }
+        }
+        int wordCount = (maxIndex >> 6) + 1;
+
+        lock.writeLock().lock();
+        try {
+            if (nodeWords == null || nodeWords.length < nodeCount || nodeWords[0].length < wordCount) {
+                nodeWords = new long[nodeCount][wordCount];
+            }
+            addClades(tree, tree.getRoot(), taxonMap, wordCount);
+            treeCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the id of the clade with the given taxa or -1 if it hasn't been seen
+     */
+    public int getCladeId(BitSet bits) {
+        long[] words = bits.toLongArray();
+        lock.readLock().lock();
+        try {
+            return findClade(words, words.length, hashWords(words, words.length));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of trees added
+     */
+    public long getTreeCount() {
+        lock.readLock().lock();
+        try {
+            return treeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of different clades seen
+     */
+    public int getCladeCount() {
+        lock.readLock().lock();
+        try {
+            return cladeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of different parent/child pairs of clades seen
+     */
+    public int getConditionalCladeCount() {
+        lock.readLock().lock();
+        try {
+            return pairCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of times a clade has been seen (0 if the id is -1)
+     */
+    public int getSampleCount(int cladeId) {
+        if (cladeId < 0) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            return cladeCounts[cladeId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the height of the clade when it was last seen
+     */
+    public double getHeight(int cladeId) {
+        lock.readLock().lock();
+        try {
+            return cladeHeights[cladeId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of taxa in the clade
+     */
+    public int getSize(int cladeId) {
+        lock.readLock().lock();
+        try {
+            return cladeSizes[cladeId];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BitSet getBits(int cladeId) {
+        lock.readLock().lock();
+        try {
+            return getBitsUnlocked(cladeId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of times the child clade has been seen as a child of the parent clade
+     * (0 if either id is -1)
+     */
+    public int getConditionalSampleCount(int parentId, int childId) {
+        if (parentId < 0 || childId < 0) {
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            int pair = findPair(parentId, childId);
+            return (pair >= 0 ? pairCounts[pair] : 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the child clades seen for a parent clade in the order they were first seen or null
+     * if the parent clade hasn't been seen with any children of two or more taxa
+     */
+    public Children getChildren(int parentId) {
+        if (parentId < 0) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int childCount = 0;
+            for (int pair = firstChildPair[parentId]; pair != -1; pair = nextChildPair[pair]) {
+                childCount++;
+            }
+            if (childCount == 0) {
+                return null;
+            }
+
+            Children children = new Children(childCount);
+            int i = 0;
+            for (int pair = firstChildPair[parentId]; pair != -1; pair = nextChildPair[pair]) {
+                int child = pairChildren[pair];
+                children.ids[i] = child;
+                children.bits[i] = getBitsUnlocked(child);
+                children.sizes[i] = cladeSizes[child];
+                children.counts[i] = pairCounts[pair];
+                children.heights[i] = pairHeights[pair];
+                i++;
+            }
+            return children;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A copy of the child clades of a parent clade and their conditional counts.
+     */
+    public static final class Children {
+        Children(int count) {
+            ids = new int[count];
+            bits = new BitSet[count];
+            sizes = new int[count];
+            counts = new int[count];
+            heights = new double[count];
+        }
+
+        public int getCount() {
+            return ids.length;
+        }
+
+        /**
+         * @return the position of the clade in the children or -1 if it isn't one
+         */
+        public int indexOf(int cladeId) {
+            if (cladeId >= 0) {
+                for (int i = 0; i < ids.length; i++) {
+                    if (ids[i] == cladeId) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        public BitSet getBits(int i) {
+            return bits[i];
+        }
+
+        public int getSize(int i) {
+            return sizes[i];
+        }
+
+        public int getSampleCount(int i) {
+            return counts[i];
+        }
+
+        public double getHeight(int i) {
+            return heights[i];
+        }
+
+        private final int[] ids;
+        private final BitSet[] bits;
+        private final int[] sizes;
+        private final int[] counts;
+        private final double[] heights;
+    }
+
+    /**
+     * Adds the clades below a node (and the node's own clade) leaving its taxa in nodeWords.
+     *
+     * @return the id of the node's clade or -1 if it is a tip
+     */
+    private int addClades(Tree tree, NodeRef node, Map<String, Integer> taxonMap, int wordCount) {
+        long[] words = nodeWords[node.getNumber()];
+        Arrays.fill(words, 0, wordCount, 0L);
+
+        if (tree.isExternal(node)) {
+            int index = (taxonMap != null ? taxonMap.get(tree.getNodeTaxon(node).getId()) : node.getNumber());
+            words[index >> 6] |= 1L << index;
+            return -1;
+        }
+
+        int childCount = tree.getChildCount(node);
+        int[] childIds = new int[childCount];
+        for (int i = 0; i < childCount; i++) {
+            NodeRef child = tree.getChild(node, i);
+            childIds[i] = addClades(tree, child, taxonMap, wordCount);
+            long[] childWords = nodeWords[child.getNumber()];
+            for (int j = 0; j < wordCount; j++) {
+                words[j] |= childWords[j];
+            }
+        }
+
+        int length = wordCount;
+        while (length > 0 && words[length - 1] == 0L) {
+            length--;
+        }
+        double height = tree.getNodeHeight(node);
+        int id = internClade(words, length, hashWords(words, length));
+        cladeCounts[id]++;
+        cladeHeights[id] = height;
+
+        for (int i = 0; i < childCount; i++) {
+            if (childIds[i] >= 0) {
+                int pair = internPair(id, childIds[i]);
+                pairCounts[pair]++;
+                pairHeights[pair] = tree.getNodeHeight(tree.getChild(node, i));
+            }
+        }
+
+        return id;
+    }
+
+    private BitSet getBitsUnlocked(int cladeId) {
+        return BitSet.valueOf(Arrays.copyOfRange(keyWords, keyStart[cladeId], keyStart[cladeId + 1]));
+    }
+
+    private int findClade(long[] words, int length, int hash) {
+        int mask = cladeTable.length - 1;
+        int slot = spread(hash) & mask;
+        int id;
+        while ((id = cladeTable[slot]) != -1) {
+            if (cladeHashes[id] == hash && keyEquals(id, words, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int id, long[] words, int length) {
+        int start = keyStart[id];
+        if (keyStart[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyWords[start + i] != words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int internClade(long[] words, int length, int hash) {
+        int id = findClade(words, length, hash);
+        if (id >= 0) {
+            return id;
+        }
+
+        id = cladeCount;
+        if (id + 1 >= keyStart.length) {
+            growClades();
+        }
+        int start = keyStart[id];
+        if (start + length > keyWords.length) {
+            keyWords = Arrays.copyOf(keyWords, Math.max(start + length, keyWords.length * 2));
+        }
+        System.arraycopy(words, 0, keyWords, start, length);
+        keyStart[id + 1] = start + length;
+
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            size += Long.bitCount(words[i]);
+        }
+        cladeHashes[id] = hash;
+        cladeSizes[id] = size;
+        cladeCounts[id] = 0;
+        firstChildPair[id] = -1;
+        lastChildPair[id] = -1;
+        cladeCount++;
+
+        if (cladeCount * 2 > cladeTable.length) {
+            cladeTable = createTable(cladeTable.length);
+            for (int i = 0; i < cladeCount; i++) {
+                insert(cladeTable, cladeHashes[i], i);
+            }
+        } else {
+            insert(cladeTable, hash, id);
+        }
+        return id;
+    }
+
+    private void growClades() {
+        int capacity = cladeHashes.length * 2;
+        keyStart = Arrays.copyOf(keyStart, capacity + 1);
+        cladeHashes = Arrays.copyOf(cladeHashes, capacity);
+        cladeSizes = Arrays.copyOf(cladeSizes, capacity);
+        cladeCounts = Arrays.copyOf(cladeCounts, capacity);
+        cladeHeights = Arrays.copyOf(cladeHeights, capacity);
+        firstChildPair = Arrays.copyOf(firstChildPair, capacity);
+        lastChildPair = Arrays.copyOf(lastChildPair, capacity);
+    }
+
+    private int findPair(int parentId, int childId) {
+        int mask = pairTable.length - 1;
+        int slot = spread(pairHash(parentId, childId)) & mask;
+        int pair;
+        while ((pair = pairTable[slot]) != -1) {
+            if (pairParents[pair] == parentId && pairChildren[pair] == childId) {
+                return pair;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int internPair(int parentId, int childId) {
+        int pair = findPair(parentId, childId);
+        if (pair >= 0) {
+            return pair;
+        }
+
+        pair = pairCount;
+        if (pair >= pairParents.length) {
+            int capacity = pairParents.length * 2;
+            pairParents = Arrays.copyOf(pairParents, capacity);
+            pairChildren = Arrays.copyOf(pairChildren, capacity);
+            pairCounts = Arrays.copyOf(pairCounts, capacity);
+            pairHeights = Arrays.copyOf(pairHeights, capacity);
+            nextChildPair = Arrays.copyOf(nextChildPair, capacity);
+        }
+        pairParents[pair] = parentId;
+        pairChildren[pair] = childId;
+        pairCounts[pair] = 0;
+        nextChildPair[pair] = -1;
+        if (lastChildPair[parentId] == -1) {
+            firstChildPair[parentId] = pair;
+        } else {
+            nextChildPair[lastChildPair[parentId]] = pair;
+        }
+        lastChildPair[parentId] = pair;
+        pairCount++;
+
+        if (pairCount * 2 > pairTable.length) {
+            pairTable = createTable(pairTable.length);
+            for (int i = 0; i < pairCount; i++) {
+                insert(pairTable, pairHash(pairParents[i], pairChildren[i]), i);
+            }
+        } else {
+            insert(pairTable, pairHash(parentId, childId), pair);
+        }
+        return pair;
+    }
+
+    /**
+     * @return an empty open addressing table with room for at least the given number of entries
+     */
+    private static int[] createTable(int capacity) {
+        int size = 16;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private static void insert(int[] table, int hash, int value) {
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (table[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+    }
+
+    private static int hashWords(long[] words, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + (int) (words[i] ^ (words[i] >>> 32));
+        }
+        return hash;
+    }
+
+    private static int pairHash(int parentId, int childId) {
+        return parentId * 31 + childId * 0x7FEB352D;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long treeCount = 0;
+
+    // the clades: an open addressing table of clade ids and the taxa of each clade as a range of keyWords
+    private int cladeCount = 0;
+    private int[] cladeTable;
+    private int[] keyStart;
+    private long[] keyWords;
+    private int[] cladeHashes;
+    private int[] cladeSizes;
+    private int[] cladeCounts;
+    private double[] cladeHeights;
+    private int[] firstChildPair;
+    private int[] lastChildPair;
+
+    // the parent/child pairs of clades
+    private int pairCount = 0;
+    private int[] pairTable;
+    private int[] pairParents;
+    private int[] pairChildren;
+    private int[] pairCounts;
+    private double[] pairHeights;
+    private int[] nextChildPair;
+
+    // the taxa below each node of the tree being added
+    private long[][] nodeWords = null;
+}
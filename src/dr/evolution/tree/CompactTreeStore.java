@@ -0,0 +1,167 @@
+/*
+ * CompactTreeStore.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import dr.evolution.io.Importer;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds a large sample of trees on the same taxa as primitive arrays rather than as node
+ * objects, and makes a FlexibleTree of one of them when it is asked for.
+ *
+ * Each tree is stored as its nodes in postorder: a code for each node (the index of the taxon
+ * in the taxon list for a tip or minus the number of children for an internal node) and the
+ * node height. This costs 12 bytes per node and gives back the same topology, child order and
+ * node numbering as a tree read with the taxon list numbering. Branch lengths are recalculated
+ * from the heights and any attributes of the trees or nodes are not kept.
+ *
+ * @author Andrew Rambaut
+ */
+public class CompactTreeStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * @param taxa the taxa of the trees which sets the numbering of their tips
+     */
+    public CompactTreeStore(TaxonList taxa) {
+        this.taxa = taxa;
+
+        for (int i = 0; i < taxa.getTaxonCount(); i++) {
+            taxonNumberMap.put(taxa.getTaxon(i), i);
+        }
+
+        // start with space for a few binary trees
+        int nodeCount = 2 * taxa.getTaxonCount() - 1;
+        nodeCodes = new int[INITIAL_CAPACITY * nodeCount];
+        nodeHeights = new double[INITIAL_CAPACITY * nodeCount];
+        treeOffsets = new int[INITIAL_CAPACITY + 1];
+    }
+
+    /**
+     * Add a tree to the end of the store. The tips are matched to the taxon list by their ids.
+     */
+    public void addTree(Tree tree) throws Importer.ImportException {
+        if (tree.getExternalNodeCount() != taxa.getTaxonCount()) {
+            throw new Importer.ImportException("Mismatch in taxa count in tree, " + tree.getId() + ", (" +
+                    tree.getExternalNodeCount() + ") and the taxon list (" + taxa.getTaxonCount() + ")");
+        }
+
+        int offset = treeOffsets[treeCount];
+        if (offset + tree.getNodeCount() > nodeCodes.length) {
+            int length = Math.max(2 * nodeCodes.length, offset + tree.getNodeCount());
+            nodeCodes = Arrays.copyOf(nodeCodes, length);
+            nodeHeights = Arrays.copyOf(nodeHeights, length);
+        }
+        if (treeCount + 1 == treeOffsets.length) {
+            treeOffsets = Arrays.copyOf(treeOffsets, 2 * treeOffsets.length);
+        }
+        if (treeCount == 0) {
+            units = tree.getUnits();
+        }
+
+        // the same traversal as FlexibleTree uses to number the nodes
+        NodeRef root = tree.getRoot();
+        NodeRef node = root;
+        do {
+            node = TreeUtils.postorderSuccessor(tree, node);
+            if (tree.isExternal(node)) {
+                Taxon taxon = tree.getNodeTaxon(node);
+                int index = taxa.getTaxonIndex(taxon.getId());
+                if (index == -1) {
+                    throw new Importer.UnknownTaxonException("Taxon, " + taxon.getId() + ", in tree, " + tree.getId() +
+                            ", is not in the taxon list");
+                }
+                nodeCodes[offset] = index;
+            } else {
+                nodeCodes[offset] = -tree.getChildCount(node);
+            }
+            nodeHeights[offset] = tree.getNodeHeight(node);
+            offset++;
+        } while (node != root);
+
+        treeCount++;
+        treeOffsets[treeCount] = offset;
+    }
+
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * Make a tree from the store.
+     *
+     * @param index the index of the tree in the order it was added
+     * @return a new tree
+     */
+    public Tree getTree(int index) {
+        if (index < 0 || index >= treeCount) {
+            throw new IndexOutOfBoundsException("Tree index " + index + " is out of range (there are " + treeCount + " trees)");
+        }
+
+        // rebuild the tree from the postorder with a stack of the subtrees made so far
+        int offset = treeOffsets[index];
+        int nodeCount = treeOffsets[index + 1] - offset;
+        FlexibleNode[] stack = new FlexibleNode[nodeCount];
+        int top = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            FlexibleNode node = new FlexibleNode();
+            int code = nodeCodes[offset + i];
+            if (code >= 0) {
+                node.setTaxon(taxa.getTaxon(code));
+            } else {
+                top += code;
+                for (int j = 0; j < -code; j++) {
+                    node.addChild(stack[top + j]);
+                }
+            }
+            node.setHeight(nodeHeights[offset + i]);
+            stack[top] = node;
+            top++;
+        }
+
+        FlexibleTree tree = new FlexibleTree(stack[0], true, false, taxonNumberMap);
+        if (units != null) {
+            tree.setUnits(units);
+        }
+        return tree;
+    }
+
+    private final TaxonList taxa;
+    private final Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+
+    private Units.Type units = null;
+    private int treeCount = 0;
+    private int[] nodeCodes;
+    private double[] nodeHeights;
+    private int[] treeOffsets;
+}
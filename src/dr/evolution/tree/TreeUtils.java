@@ -980,7 +980,11 @@ public class TreeUtils {
         }
     }
 
-    private static void writeTreeTraits(StringBuffer buffer, Tree tree, NodeRef node, TreeTraitProvider[] treeTraitProviders, TreeTrait.Intent intent) {
+    /**
+     * Appends the loggable traits of the given intent for a node in the form used in newick
+     * trees ([&name=value,...]). Nothing is appended if there are no such traits.
+     */
+    public static void writeTreeTraits(StringBuffer buffer, Tree tree, NodeRef node, TreeTraitProvider[] treeTraitProviders, TreeTrait.Intent intent) {
         if (treeTraitProviders != null) {
             boolean hasAttribute = false;
             for (TreeTraitProvider ttp : treeTraitProviders) {
@@ -33,6 +33,7 @@ import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.evolution.util.TaxonList;
 import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeChangedEvent;
 import dr.evomodel.tree.TreeModel;
 import dr.inference.model.*;
 
@@ -85,6 +86,13 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
         storedIntervals = new Intervals(tree.getNodeCount());
         eventsKnown = false;
 
+        // the times of the events can be updated as node heights change if all of the tree is used
+        incremental = tree instanceof TreeModel && includedLeafSet == null && excludedLeafSets.length == 0;
+        if (incremental) {
+            changedNodes = new boolean[tree.getNodeCount()];
+            changedNodeList = new int[tree.getNodeCount()];
+        }
+
         this.coalescentEventStatisticValues = new double[getNumberOfCoalescentEvents()];
 
         addStatistic(new DeltaStatistic());
@@ -98,13 +106,50 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
         if (model == tree) {
-            // treeModel has changed so recalculate the intervals
-            eventsKnown = false;
+            if (incremental && eventsKnown && object instanceof Parameter) {
+                // a change to one of the tree's parameters is also sent as a TreeChangedEvent
+            } else if (incremental && eventsKnown && object instanceof TreeChangedEvent) {
+                TreeChangedEvent event = (TreeChangedEvent) object;
+                if (event.isNodeChanged() && event.isHeightChanged()) {
+                    if (event instanceof TreeModel.TreeChangedEvent &&
+                            ((TreeModel.TreeChangedEvent) event).areAllInternalHeightsChanged()) {
+                        checkAllNodes = true;
+                    } else {
+                        // just the height of one node has changed so only its event needs updating
+                        addChangedNode(event.getNode().getNumber());
+                    }
+                } else if (event.isNodeChanged() && event.isTreeChanged()) {
+                    // the topology has changed - this doesn't change the times of the events
+                    // but the heights of nodes may have been swapped (e.g., a change of root)
+                    checkAllNodes = true;
+                } else {
+                    eventsKnown = false;
+                }
+            } else {
+                // treeModel has changed so recalculate the intervals
+                eventsKnown = false;
+            }
         }
 
         likelihoodKnown = false;
     }
 
+    private void addChangedNode(int node) {
+        if (!changedNodes[node]) {
+            changedNodes[node] = true;
+            changedNodeList[changedNodeCount] = node;
+            changedNodeCount++;
+        }
+    }
+
+    private void clearChangedNodes() {
+        for (int i = 0; i < changedNodeCount; i++) {
+            changedNodes[changedNodeList[i]] = false;
+        }
+        changedNodeCount = 0;
+        checkAllNodes = false;
+    }
+
     // **************************************************************
     // VariableListener IMPLEMENTATION
     // **************************************************************
@@ -121,7 +166,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      */
     protected void storeState() {
         // copy the intervals into the storedIntervals
-        storedIntervals.copyIntervals(intervals);
+        if (incremental) {
+            if (eventsKnown) {
+                updateIntervals();
+            }
+            storedIntervals.copyEventsAndIntervals(intervals);
+        } else {
+            storedIntervals.copyIntervals(intervals);
+        }
 
         storedEventsKnown = eventsKnown;
         storedLikelihoodKnown = likelihoodKnown;
@@ -140,6 +192,10 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
         eventsKnown = storedEventsKnown;
         likelihoodKnown = storedLikelihoodKnown;
         logLikelihood = storedLogLikelihood;
+
+        if (incremental) {
+            clearChangedNodes();
+        }
     }
 
     protected final void acceptState() {
@@ -154,9 +210,7 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     }
 
     public double getLogLikelihood() {
-        if (!eventsKnown) {
-            setupIntervals();
-        }
+        checkIntervals();
 
         if (!likelihoodKnown) {
             logLikelihood = calculateLogLikelihood();
@@ -208,9 +262,46 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     }
 
     public IntervalList getIntervals() {
+        checkIntervals();
         return intervals;
     }
 
+    /**
+     * The range of intervals that have changed since clearChangedIntervals() was last called. If
+     * only some node heights have changed since then, these are just the intervals between the
+     * old and new times of those nodes. If the intervals have been set up from scratch, they are
+     * all included.
+     *
+     * @return the first changed interval (or -1 if none have changed)
+     */
+    protected int getFirstChangedInterval() {
+        checkIntervals();
+        return intervals.getFirstChangedInterval();
+    }
+
+    /**
+     * @return the last changed interval (or -1 if none have changed)
+     */
+    protected int getLastChangedInterval() {
+        checkIntervals();
+        return intervals.getLastChangedInterval();
+    }
+
+    protected void clearChangedIntervals() {
+        intervals.clearChangedIntervals();
+    }
+
+    /**
+     * Makes sure the intervals are up to date with the tree.
+     */
+    private void checkIntervals() {
+        if (!eventsKnown) {
+            setupIntervals();
+        } else if (incremental) {
+            updateIntervals();
+        }
+    }
+
     /**
      * Recalculates all the intervals from the tree model.
      */
@@ -223,6 +314,30 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
 
         eventsKnown = true;
         likelihoodKnown = false;
+
+        if (incremental) {
+            clearChangedNodes();
+        }
+    }
+
+    /**
+     * Moves the events of the nodes whose heights have changed.
+     */
+    private void updateIntervals() {
+        if (checkAllNodes) {
+            for (int i = 0; i < tree.getNodeCount(); i++) {
+                double height = tree.getNodeHeight(tree.getNode(i));
+                if (intervals.getEventTime(i) != height) {
+                    intervals.updateEventTime(i, height);
+                }
+            }
+        } else {
+            for (int i = 0; i < changedNodeCount; i++) {
+                int node = changedNodeList[i];
+                intervals.updateEventTime(node, tree.getNodeHeight(tree.getNode(node)));
+            }
+        }
+        clearChangedNodes();
     }
 
 
@@ -235,7 +350,7 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      */
     private void collectTimes(Tree tree, NodeRef node, Set<NodeRef> excludeNodesBelow, Intervals intervals) {
 
-        intervals.addCoalescentEvent(tree.getNodeHeight(node));
+        intervals.addCoalescentEvent(tree.getNodeHeight(node), node.getNumber());
 
         for (int i = 0; i < tree.getChildCount(node); i++) {
             NodeRef child = tree.getChild(node, i);
@@ -248,7 +363,7 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
             }
 
             if (!include || tree.isExternal(child)) {
-                intervals.addSampleEvent(tree.getNodeHeight(child));
+                intervals.addSampleEvent(tree.getNodeHeight(child), child.getNumber());
             } else {
                 collectTimes(tree, child, excludeNodesBelow, intervals);
             }
@@ -257,16 +372,12 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     }
 
     public double getCoalescentInterval(int i) {
-        if (!eventsKnown) {
-            setupIntervals();
-        }
+        checkIntervals();
         return intervals.getInterval(i);
     }
 
     public int getCoalescentIntervalDimension() {
-        if (!eventsKnown) {
-            setupIntervals();
-        }
+        checkIntervals();
         return intervals.getIntervalCount();
     }
 
@@ -275,16 +386,12 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     }
 
     public int getCoalescentIntervalLineageCount(int i) {
-        if (!eventsKnown) {
-            setupIntervals();
-        }
+        checkIntervals();
         return intervals.getLineageCount(i);
     }
 
     public IntervalType getCoalescentIntervalType(int i) {
-        if (!eventsKnown) {
-            setupIntervals();
-        }
+        checkIntervals();
         return intervals.getIntervalType(i);
     }
 
@@ -356,6 +463,16 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     private boolean eventsKnown = false;
     private boolean storedEventsKnown = false;
 
+    /**
+     * Whether the events are moved when node heights change rather than all collected again and
+     * the nodes whose heights have changed since they were last moved.
+     */
+    private final boolean incremental;
+    private boolean[] changedNodes;
+    private int[] changedNodeList;
+    private int changedNodeCount = 0;
+    private boolean checkAllNodes = false;
+
     protected double logLikelihood;
     protected double storedLogLikelihood;
     protected boolean likelihoodKnown = false;
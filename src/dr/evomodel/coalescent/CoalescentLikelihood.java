@@ -27,12 +27,15 @@ package dr.evomodel.coalescent;
 
 import dr.evolution.coalescent.Coalescent;
 import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.coalescent.Intervals;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.evolution.util.TaxonList;
 import dr.evolution.util.Units;
 import dr.evomodelxml.coalescent.CoalescentLikelihoodParser;
+import dr.inference.model.Model;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -75,7 +78,7 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		DemographicFunction demoFunction = demoModel.getDemographicFunction();
 
 		//double lnL =  Coalescent.calculateLogLikelihood(getIntervals(), demoFunction);
-        double lnL =  Coalescent.calculateLogLikelihood(getIntervals(), demoFunction, demoFunction.getThreshold());
+        double lnL =  calculateIntervalLogLikelihoods(demoFunction);
 
 		if (Double.isNaN(lnL) || Double.isInfinite(lnL)) {
 			Logger.getLogger("warning").severe("CoalescentLikelihood for " + demoModel.getId() + " is " + Double.toString(lnL));
@@ -84,6 +87,100 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		return lnL;
 	}
 
+	/**
+	 * Calculates the terms of the log likelihood of the intervals that have changed (or all of
+	 * them if the demographic model has changed) and returns the sum of all the terms. The terms
+	 * are kept in the leaves of a binary tree of partial sums so the sum of the terms is updated
+	 * in O(log n) for each changed interval and is always added up in the same order.
+	 */
+	private double calculateIntervalLogLikelihoods(DemographicFunction demoFunction) {
+
+		Intervals intervals = (Intervals) getIntervals();
+		int intervalCount = intervals.getIntervalCount();
+
+		if (partialSums == null || intervalCount > leafCount) {
+			leafCount = 1;
+			while (leafCount < intervalCount) {
+				leafCount *= 2;
+			}
+			partialSums = new double[2 * leafCount];
+			storedPartialSums = new double[2 * leafCount];
+			partialSumsKnown = false;
+			storedPartialSumsKnown = false;
+		}
+
+		int first = 0;
+		int last = intervalCount - 1;
+		if (partialSumsKnown && intervalCount == this.intervalCount) {
+			first = getFirstChangedInterval();
+			last = getLastChangedInterval();
+		} else {
+			Arrays.fill(partialSums, 0.0);
+		}
+
+		if (first >= 0) {
+			double threshold = demoFunction.getThreshold();
+			for (int i = first; i <= last; i++) {
+				partialSums[leafCount + i] = Coalescent.calculateIntervalLogLikelihood(
+						intervals.getIntervalStartTime(i), intervals.getInterval(i), intervals.getLineageCount(i),
+						intervals.getIntervalType(i), demoFunction, threshold);
+			}
+
+			// add up the partial sums above the changed leaves
+			int from = (leafCount + first) / 2;
+			int to = (leafCount + last) / 2;
+			while (from >= 1) {
+				for (int j = from; j <= to; j++) {
+					partialSums[j] = partialSums[2 * j] + partialSums[2 * j + 1];
+				}
+				from /= 2;
+				to /= 2;
+			}
+		}
+
+		clearChangedIntervals();
+		this.intervalCount = intervalCount;
+		partialSumsKnown = true;
+
+		return partialSums[1];
+	}
+
+	// **************************************************************
+	// Model IMPLEMENTATION
+	// **************************************************************
+
+	protected void handleModelChangedEvent(Model model, Object object, int index) {
+		super.handleModelChangedEvent(model, object, index);
+		if (model == demoModel) {
+			partialSumsKnown = false;
+		}
+	}
+
+	protected void storeState() {
+		super.storeState();
+
+		if (partialSums != null) {
+			System.arraycopy(partialSums, 0, storedPartialSums, 0, partialSums.length);
+		}
+		storedPartialSumsKnown = partialSumsKnown;
+		storedIntervalCount = intervalCount;
+	}
+
+	protected void restoreState() {
+		super.restoreState();
+
+		double[] tmp = storedPartialSums;
+		storedPartialSums = partialSums;
+		partialSums = tmp;
+		partialSumsKnown = storedPartialSumsKnown;
+		intervalCount = storedIntervalCount;
+	}
+
+	public void makeDirty() {
+		super.makeDirty();
+		partialSumsKnown = false;
+	}
+
 	// **************************************************************
 	// Units IMPLEMENTATION
 	// **************************************************************
@@ -113,4 +210,16 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 	/** The demographic model. */
 	private DemographicModel demoModel = null;
 
+	/**
+	 * The log likelihood of each interval (in the leaves from leafCount) and the sums of them
+	 * (the sum of the two children of node i are in node i with the total in node 1).
+	 */
+	private double[] partialSums = null;
+	private double[] storedPartialSums = null;
+	private int leafCount = 0;
+	private int intervalCount = 0;
+	private int storedIntervalCount = 0;
+	private boolean partialSumsKnown = false;
+	private boolean storedPartialSumsKnown = false;
+
 }
\ No newline at end of file
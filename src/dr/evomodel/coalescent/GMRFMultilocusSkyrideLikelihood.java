@@ -28,6 +28,7 @@ package dr.evomodel.coalescent;
 import dr.evolution.coalescent.IntervalType;
 import dr.evolution.coalescent.TreeIntervals;
 import dr.evolution.tree.Tree;
+import dr.evomodel.tree.TreeChangedEvent;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodelxml.coalescent.GMRFSkyrideLikelihoodParser;
 import dr.inference.model.Likelihood;
@@ -430,8 +431,27 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
             TreeModel treeModel = (TreeModel) model;
             int tn = treeList.indexOf(treeModel);
             if (tn >= 0) {
-                //   intervalsList.get(tn).setIntervalsUnknown();  // TODO Why is this slower (?) than remaking whole list?
-                makeTreeIntervalList(treeList, false);
+                TreeIntervals treeIntervals = intervalsList.get(tn);
+                if (object instanceof Parameter) {
+                    // a change to one of the tree's parameters is also sent as a TreeChangedEvent
+                } else if (object instanceof TreeChangedEvent) {
+                    TreeChangedEvent event = (TreeChangedEvent) object;
+                    if (event.isNodeChanged() && event.isHeightChanged()) {
+                        if (event instanceof TreeModel.TreeChangedEvent &&
+                                ((TreeModel.TreeChangedEvent) event).areAllInternalHeightsChanged()) {
+                            treeIntervals.setTreeChanged();
+                        } else {
+                            // just the height of one node has changed so only its intervals need updating
+                            treeIntervals.setNodeHeightChanged(event.getNode());
+                        }
+                    } else if (event.isNodeChanged() && event.isTreeChanged()) {
+                        treeIntervals.setTreeChanged();
+                    } else {
+                        treeIntervals.setIntervalsUnknown();
+                    }
+                } else {
+                    treeIntervals.setIntervalsUnknown();
+                }
                 intervalsKnown = false;
                 likelihoodKnown = false;
             } else {
@@ -68,6 +68,8 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         // For a wrapper model (KroneckerSumSM), most computation is handled in the wrapped classes
         eigenSystem = null;
         q = null;
+
+        addModelListener(transitionMatrixCache);
     }
 
     public BaseSubstitutionModel(String name, DataType dataType, FrequencyModel freqModel) {
@@ -96,6 +98,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
 
             this.freqModel = freqModel;
             addModel(freqModel);
+            freqModel.addModelListener(transitionMatrixCache);
 
             if (!(freqModel instanceof CovarionFrequencyModel)) {
                 checkFrequencies();
@@ -105,6 +108,8 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         q = new double[stateCount][stateCount];
 
         updateMatrix = true;
+
+        addModelListener(transitionMatrixCache);
     }
 
     protected EigenSystem getDefaultEigenSystem(int stateCount) {
@@ -151,6 +156,9 @@ public abstract class BaseSubstitutionModel extends AbstractModel
 
         if (eigenDecomposition != null) {
             storedEigenDecomposition = eigenDecomposition.copy();
+            transitionMatrixCache.store(eigenDecomposition, storedEigenDecomposition);
+        } else {
+            transitionMatrixCache.store(null, null);
         }
     }
 
@@ -170,6 +178,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         storedEigenDecomposition = eigenDecomposition;
         eigenDecomposition = tmp;
 
+        transitionMatrixCache.restore();
     }
 
     protected void acceptState() {
@@ -192,6 +201,16 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         return dataType;
     }
 
+    /**
+     * The matrices returned by getTransitionProbabilities() are cached (until the model changes)
+     * so asking for the same distance again is just a copy.
+     *
+     * @return the cache of transition probability matrices
+     */
+    public TransitionMatrixCache getTransitionMatrixCache() {
+        return transitionMatrixCache;
+    }
+
     /**
      * get the complete transition probability matrix for the given distance
      *
@@ -208,6 +227,11 @@ public abstract class BaseSubstitutionModel extends AbstractModel
             return;
         }
 
+        final int length = stateCount * stateCount;
+        if (transitionMatrixCache.isEnabled() && transitionMatrixCache.getMatrix(eigen, distance, matrix, length)) {
+            return;
+        }
+
         double[] Evec = eigen.getEigenVectors();
         double[] Ievc = eigen.getInverseEigenVectors();
         double[] Eval = eigen.getEigenValues();
@@ -234,6 +258,8 @@ public abstract class BaseSubstitutionModel extends AbstractModel
                 u++;
             }
         }
+
+        transitionMatrixCache.putMatrix(eigen, distance, matrix, length);
     }
 
     /**
@@ -411,4 +437,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
     protected EigenDecomposition eigenDecomposition;
     private EigenDecomposition storedEigenDecomposition;
 
+    private final TransitionMatrixCache transitionMatrixCache =
+            new TransitionMatrixCache(this, TransitionMatrixCache.getDefaultCacheSize());
+
 }
\ No newline at end of file
@@ -82,7 +82,17 @@ public class ComplexSubstitutionModel extends GeneralSubstitutionModel implement
      * @param matrix   an array to store the matrix
      */
     public void getTransitionProbabilities(double distance, double[] matrix) {
-        getTransitionProbabilities(distance, matrix, getEigenDecomposition());
+        EigenDecomposition eigen = getEigenDecomposition();
+        TransitionMatrixCache cache = getTransitionMatrixCache();
+        int length = stateCount * stateCount;
+
+        if (eigen != null && cache.isEnabled() && cache.getMatrix(eigen, distance, matrix, length)) {
+            return;
+        }
+        getTransitionProbabilities(distance, matrix, eigen);
+        if (eigen != null) {
+            cache.putMatrix(eigen, distance, matrix, length);
+        }
     }
 
     protected void getTransitionProbabilities(double distance, double[] matrix, EigenDecomposition eigen) {
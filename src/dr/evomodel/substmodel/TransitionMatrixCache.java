@@ -0,0 +1,297 @@
+/*
+ * TransitionMatrixCache.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.substmodel;
+
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of the transition probability matrices of a substitution
+ * model keyed by the distance and a version of the eigen decomposition they were calculated from.
+ *
+ * The version changes whenever the model (or anything it listens to) fires a change, whenever the
+ * model returns a different eigen decomposition object and whenever the model is restored without
+ * the cache being told what it is being restored to. When the model stores its state the version
+ * of the stored eigen decomposition is kept so that the matrices of a rejected move's previous
+ * state are still there after it is restored.
+ *
+ * @author Andrew Rambaut
+ */
+public class TransitionMatrixCache implements ModelListener {
+
+    private static final long serialVersionUID = -2112796177054059481L;
+
+    public static final String CACHE_SIZE_PROPERTY = "substitution.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * @return the cache size given by the substitution.cache.size property (0 for no caching)
+     */
+    public static int getDefaultCacheSize() {
+        String size = System.getProperty(CACHE_SIZE_PROPERTY);
+        if (size != null) {
+            try {
+                return Math.max(0, Integer.parseInt(size.trim()));
+            } catch (NumberFormatException nfe) {
+                // use the default
+            }
+        }
+        return DEFAULT_CACHE_SIZE;
+    }
+
+    /**
+     * @param model    the model whose matrices are cached
+     * @param capacity the maximum number of matrices kept (0 for no caching)
+     */
+    public TransitionMatrixCache(Model model, int capacity) {
+        this.model = model;
+        this.capacity = capacity;
+        this.matrices = new LinkedHashMap<Key, double[]>(16, 0.75f, true);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Copy a cached matrix into the given array.
+     *
+     * @param eigen    the eigen decomposition the model is currently using
+     * @param distance the expected number of substitutions
+     * @param matrix   an array to store the matrix
+     * @param length   the length of the matrix
+     * @return true if the matrix was in the cache
+     */
+    public synchronized boolean getMatrix(EigenDecomposition eigen, double distance, double[] matrix, int length) {
+        lookupKey.set(checkVersion(eigen), distance);
+        double[] cached = matrices.get(lookupKey);
+        if (cached == null) {
+            missCount++;
+            return false;
+        }
+        System.arraycopy(cached, 0, matrix, 0, length);
+        hitCount++;
+        return true;
+    }
+
+    /**
+     * Add a matrix to the cache, replacing the least recently used one if the cache is full.
+     */
+    public synchronized void putMatrix(EigenDecomposition eigen, double distance, double[] matrix, int length) {
+        if (capacity <= 0) {
+            return;
+        }
+
+        Key key = new Key(checkVersion(eigen), distance);
+        if (matrices.containsKey(key)) {
+            return;
+        }
+
+        double[] cached = null;
+        if (matrices.size() >= capacity) {
+            // reuse the array of the least recently used matrix
+            Iterator<double[]> iterator = matrices.values().iterator();
+            cached = iterator.next();
+            iterator.remove();
+        }
+        if (cached == null || cached.length != length) {
+            cached = new double[length];
+        }
+        System.arraycopy(matrix, 0, cached, 0, length);
+        matrices.put(key, cached);
+    }
+
+    /**
+     * Forget all the matrices of the current eigen decomposition.
+     */
+    public synchronized void invalidate() {
+        newVersion();
+    }
+
+    /**
+     * Called when the model stores its state.
+     *
+     * @param current the eigen decomposition being stored
+     * @param stored  the copy of it that will be restored (or null if nothing is stored)
+     */
+    public synchronized void store(EigenDecomposition current, EigenDecomposition stored) {
+        if (current != null && current == owner && stored != null) {
+            storedVersion = version;
+            storedOwner = stored;
+        } else {
+            storedVersion = NO_VERSION;
+            storedOwner = null;
+        }
+    }
+
+    /**
+     * Called when the model restores the eigen decomposition it stored.
+     */
+    public synchronized void restore() {
+        if (storedVersion != NO_VERSION) {
+            version = storedVersion;
+            owner = storedOwner;
+        } else {
+            owner = null;
+            newVersion();
+        }
+        storedVersion = NO_VERSION;
+        storedOwner = null;
+        restored = true;
+    }
+
+    public synchronized void clear() {
+        matrices.clear();
+        newVersion();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the proportion of requests that were found in the cache
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : 0.0;
+    }
+
+    public synchronized int getSize() {
+        return matrices.size();
+    }
+
+    public synchronized void resetCounts() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    public String toString() {
+        return "transition matrix cache: " + getSize() + " matrices, " + getHitCount() + " hits, " +
+                getMissCount() + " misses (hit rate " + Math.round(getHitRate() * 1000.0) / 10.0 + "%)";
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    public void modelChangedEvent(Model model, Object object, int index) {
+        invalidate();
+    }
+
+    public synchronized void modelRestored(Model model) {
+        if (model == this.model) {
+            // if the model was restored without restore() being called the eigen decomposition
+            // may have been restored in some other way.
+            if (!restored) {
+                newVersion();
+            }
+            restored = false;
+        }
+    }
+
+    private long checkVersion(EigenDecomposition eigen) {
+        if (eigen != owner) {
+            owner = eigen;
+            newVersion();
+        }
+        return version;
+    }
+
+    /**
+     * Start a new version and remove the matrices of any versions that can't come back.
+     */
+    private void newVersion() {
+        versionCount++;
+        version = versionCount;
+        Iterator<Key> iterator = matrices.keySet().iterator();
+        while (iterator.hasNext()) {
+            long keyVersion = iterator.next().version;
+            if (keyVersion != storedVersion) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Key implements Serializable {
+        private static final long serialVersionUID = -1920063666611264853L;
+
+        Key() {
+        }
+
+        Key(long version, double distance) {
+            set(version, distance);
+        }
+
+        void set(long version, double distance) {
+            this.version = version;
+            // +0.0 and -0.0 are the same distance
+            this.distanceBits = Double.doubleToLongBits(distance + 0.0);
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return version == key.version && distanceBits == key.distanceBits;
+        }
+
+        public int hashCode() {
+            long hash = distanceBits * 31 + version;
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        long version;
+        long distanceBits;
+    }
+
+    private static final long NO_VERSION = -1;
+
+    private final Model model;
+    private final int capacity;
+    private final Map<Key, double[]> matrices;
+    private final Key lookupKey = new Key();
+
+    private long versionCount = 0;
+    private long version = 0;
+    private EigenDecomposition owner = null;
+    private long storedVersion = NO_VERSION;
+    private EigenDecomposition storedOwner = null;
+    private boolean restored = false;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+}
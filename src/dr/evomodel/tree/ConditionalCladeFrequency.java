@@ -33,6 +33,7 @@ import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeTrace;
 import dr.evolution.tree.Clade;
+import dr.evolution.tree.CladeIndex;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.SimpleTree;
 import dr.evolution.tree.Tree;
@@ -55,11 +56,7 @@ public class ConditionalCladeFrequency extends
 
     private double EPSILON;
 
-    private long samples = 0;
-
-    private HashMap<BitSet, Clade> cladeProbabilities;
-
-    private HashMap<BitSet, HashMap<BitSet, Clade>> cladeCoProbabilities;
+    private final CladeIndex cladeIndex;
 
     private TreeTrace[] traces;
 
@@ -72,8 +69,7 @@ public class ConditionalCladeFrequency extends
     public ConditionalCladeFrequency(Tree tree, double epsilon) {
 
         // initializing global variables
-        cladeProbabilities = new HashMap<BitSet, Clade>();
-        cladeCoProbabilities = new HashMap<BitSet, HashMap<BitSet, Clade>>();
+        cladeIndex = new CladeIndex();
 
         // setting global variables
         EPSILON = epsilon;
@@ -90,8 +86,7 @@ public class ConditionalCladeFrequency extends
                                      int burnIn, boolean verbose) {
 
         // initializing global variables
-        cladeProbabilities = new HashMap<BitSet, Clade>();
-        cladeCoProbabilities = new HashMap<BitSet, HashMap<BitSet, Clade>>();
+        cladeIndex = new CladeIndex();
 
         // setting global variables
         EPSILON = epsilon;
@@ -230,23 +225,13 @@ public class ConditionalCladeFrequency extends
             // set the occurrences to epsilon
             double tmp = EPSILON;
             double parentOccurrences = 0.0;
-            BitSet parentBits = parent.getBits();
-            if (cladeProbabilities.containsKey(parentBits)) {
+            int parentId = cladeIndex.getCladeId(parent.getBits());
+            if (parentId >= 0) {
                 // if we observed this clade in the trace, add the occurrences to epsilon
-                parentOccurrences += cladeProbabilities.get(parentBits)
-                        .getSampleCount();
-            }
-
-            if (cladeCoProbabilities.containsKey(parentBits)) {
-                // if we observed the parent clade
-                HashMap<BitSet, Clade> conditionalProbs = cladeCoProbabilities
-                        .get(parentBits);
+                parentOccurrences += cladeIndex.getSampleCount(parentId);
 
-                BitSet bits = c.getBits();
-                if (conditionalProbs.containsKey(bits)) {
-                    // if we observed this conditional clade in the trace, add the occurrences to epsilon
-                    tmp += conditionalProbs.get(bits).getSampleCount();
-                }
+                // if we observed this conditional clade in the trace, add the occurrences to epsilon
+                tmp += cladeIndex.getConditionalSampleCount(parentId, cladeIndex.getCladeId(c.getBits()));
             }
             // add epsilon for each clade
             final double splits = Math.pow(2, parent.getSize() - 1) - 1;
@@ -289,27 +274,13 @@ public class ConditionalCladeFrequency extends
             // set the occurrences to epsilon
             double tmp = EPSILON;
             double parentOccurrences = 0.0;
-            BitSet parentBits = parent.getBits();
-            if (cladeProbabilities.containsKey(parentBits)) {
-                // if we observed this clade in the trace, add the
-                // occurrences
-                // to epsilon
-                parentOccurrences += cladeProbabilities.get(parentBits)
-                        .getSampleCount();
-            }
+            int parentId = cladeIndex.getCladeId(parent.getBits());
+            if (parentId >= 0) {
+                // if we observed this clade in the trace, add the occurrences to epsilon
+                parentOccurrences += cladeIndex.getSampleCount(parentId);
 
-            if (cladeCoProbabilities.containsKey(parentBits)) {
-                // if we observed the parent clade
-                HashMap<BitSet, Clade> conditionalProbs = cladeCoProbabilities
-                        .get(parentBits);
-
-                BitSet bits = c.getBits();
-                if (conditionalProbs.containsKey(bits)) {
-                    // if we observed this conditional clade in the trace,
-                    // add
-                    // the occurrences to epsilon
-                    tmp += conditionalProbs.get(bits).getSampleCount();
-                }
+                // if we observed this conditional clade in the trace, add the occurrences to epsilon
+                tmp += cladeIndex.getConditionalSampleCount(parentId, cladeIndex.getCladeId(c.getBits()));
             }
             // add epsilon for each clade
             final double splits = Math.pow(2, parent.getSize() - 1) - 1;
@@ -335,20 +306,18 @@ public class ConditionalCladeFrequency extends
 
         double prob = 0;
 
-        if (cladeCoProbabilities.containsKey(parent.getBits())) {
-            HashMap<BitSet, Clade> childClades = cladeCoProbabilities
-                    .get(parent.getBits());
+        CladeIndex.Children childClades = cladeIndex.getChildren(cladeIndex.getCladeId(parent.getBits()));
+        if (childClades != null) {
             double noChildClades = 0.0;
 
             double sum = 0.0;
-            Set<BitSet> keys = childClades.keySet();
-            for (BitSet child : keys) {
-                Clade tmp = childClades.get(child);
-                if (parent.getSize() > tmp.getSize() + 1) {
-                    sum += (tmp.getSampleCount() + EPSILON) / 2.0;
+            int childCount = childClades.getCount();
+            for (int i = 0; i < childCount; i++) {
+                if (parent.getSize() > childClades.getSize(i) + 1) {
+                    sum += (childClades.getSampleCount(i) + EPSILON) / 2.0;
                     noChildClades += 0.5;
                 } else {
-                    sum += (tmp.getSampleCount() + EPSILON);
+                    sum += (childClades.getSampleCount(i) + EPSILON);
                     noChildClades += 1.0;
                 }
             }
@@ -358,16 +327,15 @@ public class ConditionalCladeFrequency extends
 
             // roulette wheel
             double randomNumber = MathUtils.nextDouble() * sum;
-            for (BitSet child : keys) {
-                Clade tmp = childClades.get(child);
-                if (parent.getSize() > tmp.getSize() + 1) {
-                    randomNumber -= (tmp.getSampleCount() + EPSILON) / 2.0;
+            for (int i = 0; i < childCount; i++) {
+                if (parent.getSize() > childClades.getSize(i) + 1) {
+                    randomNumber -= (childClades.getSampleCount(i) + EPSILON) / 2.0;
                 } else {
-                    randomNumber -= (tmp.getSampleCount() + EPSILON);
+                    randomNumber -= (childClades.getSampleCount(i) + EPSILON);
                 }
                 if (randomNumber < 0) {
-                    children[0] = tmp;
-                    prob = (tmp.getSampleCount() + EPSILON) / sum;
+                    children[0] = new Clade(childClades.getBits(i), childClades.getHeight(i));
+                    prob = (childClades.getSampleCount(i) + EPSILON) / sum;
                     break;
                 }
             }
@@ -391,8 +359,8 @@ public class ConditionalCladeFrequency extends
                             || newChild.cardinality() == parent.getSize());
                     inverseBits = (BitSet) newChild.clone();
                     inverseBits.xor(parent.getBits());
-                } while (childClades.containsKey(newChild)
-                        || childClades.containsKey(inverseBits));
+                } while (childClades.indexOf(cladeIndex.getCladeId(newChild)) >= 0
+                        || childClades.indexOf(cladeIndex.getCladeId(inverseBits)) >= 0);
 
                 Clade randomClade = new Clade(newChild, 0.9999 * parent
                         .getHeight());
@@ -405,8 +373,10 @@ public class ConditionalCladeFrequency extends
             } else {
                 BitSet secondChild = (BitSet) children[0].getBits().clone();
                 secondChild.xor(parent.getBits());
-                children[1] = childClades.get(secondChild);
-                if (children[1] == null) {
+                int second = childClades.indexOf(cladeIndex.getCladeId(secondChild));
+                if (second >= 0) {
+                    children[1] = new Clade(secondChild, childClades.getHeight(second));
+                } else {
                     children[1] = new Clade(secondChild, 0.9999 * parent
                             .getHeight());
                 }
@@ -504,137 +474,24 @@ public class ConditionalCladeFrequency extends
      * @param tree - the tree to be added
      */
     public void addTree(Tree tree) {
-
-        samples++;
-
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getClades(tree, tree.getRoot(), parentClades, clades);
-        // add the clade containing all taxa as well so that it get counted
-        clades.add(parentClades.get(parentClades.size() - 1));
-        parentClades.add(clades.get(clades.size() - 1));
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the
-        // tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            HashMap<BitSet, Clade> coFreqs;
-            // increment the clade occurrences
-            if (cladeProbabilities.containsKey(c.getBits())) {
-                Clade tmp = cladeProbabilities.get(c.getBits());
-                // tmp.addSample();
-                tmp.addHeight(c.getHeight());
-                // add the amount to the current occurences
-                // frequency += cladeProbabilities.get(c);
-            } else {
-                // just to set the first value of the height value list
-                // c.addSample();
-                c.addHeight(c.getHeight());
-                cladeProbabilities.put(c.getBits(), c);
-            }
-
-            // increment the conditional clade occurrences
-            if (!parent.equals(c)) {
-                if (cladeCoProbabilities.containsKey(parent.getBits())) {
-                    coFreqs = cladeCoProbabilities.get(parent.getBits());
-                } else {
-                    // if it's the first time we observe the parent then we need
-                    // a new list for its conditional clades
-                    coFreqs = new HashMap<BitSet, Clade>();
-                    cladeCoProbabilities.put(parent.getBits(), coFreqs);
-                }
-
-                // add the previous observed occurrences for this conditional
-                // clade
-                if (coFreqs.containsKey(c.getBits())) {
-                    Clade tmp = coFreqs.get(c.getBits());
-                    tmp.addHeight(c.getHeight());
-                    // coFrequency += coFreqs.get(c.getBits());
-                } else {
-                    // TODO check this code, especially if the cloning is needed
-                    // and not just the clade could be added
-                    Clade tmp = new Clade((BitSet) c.getBits().clone(), c.getHeight());
-                    tmp.addHeight(c.getHeight());
-                    coFreqs.put(c.getBits(), tmp);
-                }
-            }
-        }
+        addTree(tree, null);
     }
 
     /**
      * increments the number of occurrences for all conditional clades
      *
      * @param tree - the tree to be added
+     * @param taxonMap - the index of each taxon in the clades (or null to use the tip numbers)
      */
     public void addTree(Tree tree, HashMap<String, Integer> taxonMap) {
+        cladeIndex.addTree(tree, taxonMap);
+    }
 
-        samples++;
-
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getClades(tree, tree.getRoot(), parentClades, clades, taxonMap);
-        // add the clade containing all taxa as well so that it get counted
-        clades.add(parentClades.get(parentClades.size() - 1));
-        parentClades.add(clades.get(clades.size() - 1));
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the
-        // tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            HashMap<BitSet, Clade> coFreqs;
-            // increment the clade occurrences
-            if (cladeProbabilities.containsKey(c.getBits())) {
-                Clade tmp = cladeProbabilities.get(c.getBits());
-                // tmp.addSample();
-                tmp.addHeight(c.getHeight());
-                // add the amount to the current occurences
-                // frequency += cladeProbabilities.get(c);
-            } else {
-                // just to set the first value of the height value list
-                // c.addSample();
-                c.addHeight(c.getHeight());
-                cladeProbabilities.put(c.getBits(), c);
-            }
-
-            // increment the conditional clade occurrences
-            if (!parent.equals(c)) {
-                if (cladeCoProbabilities.containsKey(parent.getBits())) {
-                    coFreqs = cladeCoProbabilities.get(parent.getBits());
-                } else {
-                    // if it's the first time we observe the parent then we need
-                    // a new list for its conditional clades
-                    coFreqs = new HashMap<BitSet, Clade>();
-                    cladeCoProbabilities.put(parent.getBits(), coFreqs);
-                }
-
-                // add the previous observed occurrences for this conditional
-                // clade
-                if (coFreqs.containsKey(c.getBits())) {
-                    Clade tmp = coFreqs.get(c.getBits());
-                    tmp.addHeight(c.getHeight());
-                    // coFrequency += coFreqs.get(c.getBits());
-                } else {
-                    // TODO check this code, especially if the cloning is needed
-                    // and not just the clade could be added
-                    Clade tmp = new Clade((BitSet) c.getBits().clone(), c
-                            .getHeight());
-                    tmp.addHeight(c.getHeight());
-                    coFreqs.put(c.getBits(), tmp);
-                }
-            }
-        }
+    /**
+     * @return the index of the clades and conditional clades of the trees added
+     */
+    public CladeIndex getCladeIndex() {
+        return cladeIndex;
     }
 
     /**
@@ -27,6 +27,7 @@ package dr.evomodel.tree;
 
 import dr.evolution.io.Importer;
 import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.CompactTreeStore;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
@@ -49,7 +50,17 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
      * @param startingTree
      */
     public EmpiricalTreeDistributionModel(final Tree[] trees, int startingTree) {
-        this(trees, null, startingTree);
+        this(trees, null, null, startingTree);
+    }
+
+    /**
+     * This constructor takes a compact store of trees and jumps randomly amongst them. Each
+     * tree is only made from the store when it is drawn.
+     * @param treeStore
+     * @param startingTree
+     */
+    public EmpiricalTreeDistributionModel(final CompactTreeStore treeStore, int startingTree) {
+        this(null, treeStore, null, startingTree);
     }
 
     /**
@@ -59,13 +70,14 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
      * @param startingTree
      */
     public EmpiricalTreeDistributionModel(final TreeImporter importer, int startingTree) {
-        this(null, importer, startingTree);
+        this(null, null, importer, startingTree);
     }
 
-    private EmpiricalTreeDistributionModel(final Tree[] trees, final TreeImporter importer, int startingTree) {
+    private EmpiricalTreeDistributionModel(final Tree[] trees, final CompactTreeStore treeStore, final TreeImporter importer, int startingTree) {
         super(EMPIRICAL_TREE_DISTRIBUTION_MODEL);
 
         this.trees = trees;
+        this.treeStore = treeStore;
         this.importer = importer;
         drawTreeIndex(startingTree);
 
@@ -111,6 +123,13 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
                 throw new RuntimeException("EmpiricalTreeDistributionModel unable to load next tree");
             }
             currentTreeIndex += 1;
+        } else if (treeStore != null) {
+            if (treeNumber == -1) {
+                currentTreeIndex = MathUtils.nextInt(treeStore.getTreeCount());
+            } else {
+                currentTreeIndex = treeNumber;
+            }
+            currentTree = treeStore.getTree(currentTreeIndex);
         } else {
             if (treeNumber == -1) {
                 currentTreeIndex = MathUtils.nextInt(trees.length);
@@ -159,7 +178,7 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
     }
 
     public Taxon getNodeTaxon(final NodeRef node) {
-        return trees[currentTreeIndex].getNodeTaxon(node);
+        return currentTree.getNodeTaxon(node);
     }
 
     public boolean hasNodeHeights() {
@@ -269,6 +288,7 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
     public static final String EMPIRICAL_TREE_DISTRIBUTION_MODEL = "empiricalTreeDistributionModel";
 
     private final Tree[] trees;
+    private final CompactTreeStore treeStore;
     private final TreeImporter importer;
     private Tree currentTree;
     private Tree storedCurrentTree;
@@ -28,6 +28,7 @@ package dr.evomodel.tree;
 import dr.app.tools.NexusExporter;
 import dr.evolution.tree.*;
 import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.LogWriterQueue;
 import dr.inference.loggers.MCLogger;
 import dr.util.Keywordable;
 
@@ -206,29 +207,20 @@ public class TreeLogger extends MCLogger {
                     (logEvery < 0 || ((state % logEvery) == 0));
 
         if ( doIt ) {
+            final long time = System.nanoTime();
+
+            LogWriterQueue<TreeEntry> queue = getWriterQueue();
+            if (queue != null) {
+                TreeEntry entry = queue.obtain();
+                entry.capture(state);
+                queue.submit(entry);
+                addChainThreadTime(System.nanoTime() - time);
+                return;
+            }
+
             StringBuffer buffer = new StringBuffer("tree STATE_");
             buffer.append(state);
-            if (treeAttributeProviders != null) {
-                boolean hasAttribute = false;
-                for (TreeAttributeProvider tap : treeAttributeProviders) {
-                    String[] attributeLabel = tap.getTreeAttributeLabel();
-                    String[] attributeValue = tap.getAttributeForTree(tree);
-                    for (int i = 0; i < attributeLabel.length; i++) {
-                        if (!hasAttribute) {
-                            buffer.append(" [&");
-                            hasAttribute = true;
-                        } else {
-                            buffer.append(",");
-                        }
-                        buffer.append(attributeLabel[i]);
-                        buffer.append("=");
-                        buffer.append(attributeValue[i]);
-                    }
-                }
-                if (hasAttribute) {
-                    buffer.append("]");
-                }
-            }
+            appendTreeAttributes(buffer);
 
             buffer.append(" = [&R] ");
 
@@ -243,14 +235,181 @@ public class TreeLogger extends MCLogger {
 
             buffer.append(";");
             logLine(buffer.toString());
+
+            addChainThreadTime(System.nanoTime() - time);
+        }
+    }
+
+    private void appendTreeAttributes(StringBuffer buffer) {
+        if (treeAttributeProviders != null) {
+            boolean hasAttribute = false;
+            for (TreeAttributeProvider tap : treeAttributeProviders) {
+                String[] attributeLabel = tap.getTreeAttributeLabel();
+                String[] attributeValue = tap.getAttributeForTree(tree);
+                for (int i = 0; i < attributeLabel.length; i++) {
+                    if (!hasAttribute) {
+                        buffer.append(" [&");
+                        hasAttribute = true;
+                    } else {
+                        buffer.append(",");
+                    }
+                    buffer.append(attributeLabel[i]);
+                    buffer.append("=");
+                    buffer.append(attributeValue[i]);
+                }
+            }
+            if (hasAttribute) {
+                buffer.append("]");
+            }
         }
     }
 
     public void stopLogging() {
+        // trees still queued must be written before the end of the block
+        flush();
         logLine("End;");
         super.stopLogging();
     }
 
+    @Override
+    protected LogWriterQueue<TreeEntry> createWriterQueue(String name, int capacity) {
+        return new LogWriterQueue<TreeEntry>(name, capacity, new LogWriterQueue.EntryFactory<TreeEntry>() {
+            public TreeEntry createEntry() {
+                return new TreeEntry();
+            }
+        });
+    }
+
+    /**
+     * A snapshot of the tree taken on the chain thread: the topology, node heights, branch rates
+     * and the tree and node attributes (which are formatted when captured as they may depend on
+     * the state of other models). The newick string is built and written on the writer thread
+     * in exactly the form that TreeUtils.newick would produce.
+     */
+    private class TreeEntry implements LogWriterQueue.Entry {
+
+        void capture(long state) {
+            this.state = state;
+
+            final int nodeCount = tree.getNodeCount();
+            if (heights == null || heights.length != nodeCount) {
+                heights = new double[nodeCount];
+                rates = new double[nodeCount];
+                childStart = new int[nodeCount + 1];
+                childList = new int[nodeCount];
+                taxonIds = new String[nodeCount];
+                nodeTraits = new String[nodeCount];
+                branchTraits = new String[nodeCount];
+            }
+
+            StringBuffer buffer = new StringBuffer();
+            appendTreeAttributes(buffer);
+            attributes = buffer.toString();
+
+            root = tree.getRoot().getNumber();
+
+            int k = 0;
+            for (int number = 0; number < nodeCount; number++) {
+                NodeRef node = tree.getNode(number);
+
+                heights[number] = tree.getNodeHeight(node);
+                if (substitutions && node != tree.getRoot()) {
+                    rates[number] = branchRates.getBranchRate(tree, node);
+                }
+
+                if (treeTraitProviders != null) {
+                    nodeTraits[number] = getTraitString(node, TreeTrait.Intent.NODE);
+                    branchTraits[number] = (node != tree.getRoot() ? getTraitString(node, TreeTrait.Intent.BRANCH) : null);
+                }
+
+                childStart[number] = k;
+                if (tree.isExternal(node)) {
+                    taxonIds[number] = tree.getTaxonId(number);
+                } else {
+                    for (int j = 0; j < tree.getChildCount(node); j++) {
+                        childList[k] = tree.getChild(node, j).getNumber();
+                        k++;
+                    }
+                }
+            }
+            childStart[nodeCount] = k;
+        }
+
+        private String getTraitString(NodeRef node, TreeTrait.Intent intent) {
+            StringBuffer buffer = new StringBuffer();
+            TreeUtils.writeTreeTraits(buffer, tree, node, treeTraitProviders, intent);
+            return buffer.length() > 0 ? buffer.toString() : null;
+        }
+
+        public void write() {
+            StringBuffer buffer = new StringBuffer("tree STATE_");
+            buffer.append(state);
+            buffer.append(attributes);
+            buffer.append(" = [&R] ");
+            newick(root, -1, buffer);
+            buffer.append(";");
+            logLine(buffer.toString());
+        }
+
+        private void newick(int node, int parent, StringBuffer buffer) {
+            if (childStart[node] == childStart[node + 1]) {
+                if (substitutions || mapNames) {
+                    buffer.append(idMap.get(taxonIds[node]));
+                } else {
+                    String label = taxonIds[node];
+                    if (label.contains(" ") || label.contains(":") || label.contains(";") || label.contains(",")) {
+                        buffer.append("\"");
+                        buffer.append(label);
+                        buffer.append("\"");
+                    } else {
+                        buffer.append(label);
+                    }
+                }
+            } else {
+                buffer.append("(");
+                for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+                    if (i > childStart[node]) {
+                        buffer.append(",");
+                    }
+                    newick(childList[i], node, buffer);
+                }
+                buffer.append(")");
+            }
+
+            if (nodeTraits[node] != null) {
+                buffer.append(nodeTraits[node]);
+            }
+
+            if (parent != -1) {
+                buffer.append(":");
+                if (branchTraits[node] != null) {
+                    buffer.append(branchTraits[node]);
+                }
+
+                double length = heights[parent] - heights[node];
+                if (substitutions) {
+                    length *= rates[node];
+                }
+                if (format != null) {
+                    buffer.append(format.format(length));
+                } else {
+                    buffer.append(String.valueOf(length));
+                }
+            }
+        }
+
+        private long state;
+        private String attributes;
+        private int root;
+        private double[] heights;
+        private double[] rates;
+        private int[] childStart;
+        private int[] childList;
+        private String[] taxonIds;
+        private String[] nodeTraits;
+        private String[] branchTraits;
+    }
+
     public Tree getTree() {
 		return tree;
 	}
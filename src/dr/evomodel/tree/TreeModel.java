@@ -58,6 +58,9 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
         externalNodeCount = 0;
         internalNodeCount = 0;
         isTreeRandom = true;
+        useJournal = false;
+        journal = null;
+        isJournaled = null;
     }
 
     public TreeModel(Tree tree) {
@@ -103,6 +106,10 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
         nodes = new Node[nodeCount];
         storedNodes = new Node[nodeCount];
 
+        useJournal = Boolean.parseBoolean(System.getProperty(JOURNAL_STORE_PROPERTY, "false"));
+        journal = new int[nodeCount];
+        isJournaled = new boolean[nodeCount];
+
         int i = 0;
         int j = externalNodeCount;
 
@@ -602,7 +609,12 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        if (useJournal) {
+            // the current links become the stored state; only nodes changed from here on are copied
+            clearJournal();
+        } else {
+            copyNodeStructure(storedNodes);
+        }
         storedRootNumber = root.getNumber();
 
     }
@@ -612,9 +624,18 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        if (useJournal) {
+            for (int i = 0; i < journalSize; i++) {
+                final int number = journal[i];
+                copyNodeLinks(storedNodes[number], nodes[number]);
+                isJournaled[number] = false;
+            }
+            journalSize = 0;
+        } else {
+            Node[] tmp = storedNodes;
+            storedNodes = nodes;
+            nodes = tmp;
+        }
 
         root = nodes[storedRootNumber];
     }
@@ -623,7 +644,46 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      * accept the stored state
      */
     protected void acceptState() {
-    } // nothing to do
+        if (useJournal) {
+            clearJournal();
+        }
+    }
+
+    /**
+     * @return true if store/restore only copies the nodes changed since the last store
+     */
+    public boolean isJournaledStoreRestore() {
+        return useJournal;
+    }
+
+    /**
+     * Records the links of a node before its first change since the last store so
+     * that restoreState() can undo just the nodes that were touched.
+     */
+    private void journalNode(Node node) {
+        if (useJournal && node != null && !isJournaled[node.number]) {
+            copyNodeLinks(node, storedNodes[node.number]);
+            isJournaled[node.number] = true;
+            journal[journalSize] = node.number;
+            journalSize++;
+        }
+    }
+
+    private void clearJournal() {
+        for (int i = 0; i < journalSize; i++) {
+            isJournaled[journal[i]] = false;
+        }
+        journalSize = 0;
+    }
+
+    private static void copyNodeLinks(Node source, Node destination) {
+        destination.parent = source.parent;
+        destination.leftChild = source.leftChild;
+        destination.rightChild = source.rightChild;
+        destination.heightParameter = source.heightParameter;
+        destination.rateParameter = source.rateParameter;
+        destination.traitParameters = source.traitParameters;
+    }
 
     /**
      * Copies the node connections from this TreeModel's nodes array to the
@@ -1310,6 +1370,9 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        journalNode(n1);
+        journalNode(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1554,6 +1617,8 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param node new child node
          */
         public void addChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == null) {
                 leftChild = node;
             } else if (rightChild == null) {
@@ -1570,6 +1635,8 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param node child to be removed
          */
         public Node removeChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == node) {
                 leftChild = null;
             } else if (rightChild == node) {
@@ -1587,6 +1654,8 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param n number of child to be removed
          */
         public Node removeChild(int n) {
+            journalNode(this);
+            journalNode(getChild(n));
             Node node;
             if (n == 0) {
                 node = leftChild;
@@ -1693,6 +1762,15 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
     private Node[] nodes = null;
     private Node[] storedNodes = null;
 
+    /**
+     * journaled store/restore: the numbers of the nodes changed since the last store
+     */
+    public static final String JOURNAL_STORE_PROPERTY = "tree.journal.store";
+    private final boolean useJournal;
+    private final int[] journal;
+    private final boolean[] isJournaled;
+    private int journalSize = 0;
+
     /**
      * number of nodes (including root and tips)
      */
@@ -0,0 +1,764 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright (c) 2002-2016 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A pure-Java DataLikelihoodDelegate for discrete data. Partials are held in flat primitive
+ * buffers (laid out category x pattern x state, as in BEAGLE) and double buffered for
+ * store/restore. Because the post-order pruning of one site pattern does not depend on any
+ * other pattern, the patterns are divided into contiguous blocks and each block runs the whole
+ * list of node operations on a shared fork-join pool.
+ *
+ * @author Andrew Rambaut
+ * @author Marc Suchard
+ * @version $Id$
+ */
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    private static final long serialVersionUID = 1741550951382933007L;
+
+    private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
+
+    private static final String THREAD_COUNT_PROPERTY = "thread.count";
+    private static final String MIN_BLOCK_SIZE_PROPERTY = "java.likelihood.block.size";
+
+    // Fewer patterns than this per block and the cost of the hand-off outweighs the work
+    private static final int MIN_PATTERNS_PER_BLOCK = 256;
+
+    // Under the dynamic scheme a pattern at a node is only rescaled when its largest partial drops below this
+    private static final double SCALING_THRESHOLD = 1.0E-100;
+
+    private static ForkJoinPool pool = null;
+
+    // count the number of partial likelihood and matrix updates
+    private long totalMatrixUpdateCount = 0;
+    private long totalPartialsUpdateCount = 0;
+    private long totalEvaluationCount = 0;
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme the partials rescaling scheme
+     * @param delayRescalingUntilUnderflow only start rescaling after the first underflow
+     * @throws DelegateTypeException if the branch model requires matrix convolution
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      boolean delayRescalingUntilUnderflow) throws DelegateTypeException {
+
+        super("JavaDataLikelihoodDelegate");
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        if (branchModel.requiresMatrixConvolution()) {
+            throw new DelegateTypeException();
+        }
+
+        logger.info("\nUsing Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        this.tree = tree;
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+
+        partialsSize = patternCount * stateCount * categoryCount;
+        matrixSize = stateCount * stateCount;
+
+        // one partials buffer for each tip and two for each internal node (for store restore)
+        partialBufferHelper = new BufferIndexHelper(nodeCount, tipCount);
+        // two matrix buffers for each branch (for store restore)
+        matrixBufferHelper = new BufferIndexHelper(nodeCount, 0);
+
+        partials = new double[partialBufferHelper.getBufferCount()][];
+        scaleFactors = new double[partialBufferHelper.getBufferCount()][];
+        for (int i = tipCount; i < partials.length; i++) {
+            partials[i] = new double[partialsSize];
+            scaleFactors[i] = new double[patternCount];
+        }
+        matrices = new double[matrixBufferHelper.getBufferCount()][categoryCount * matrixSize];
+        tmpMatrix = new double[matrixSize];
+
+        tipStates = new int[tipCount][];
+
+        if (patternList instanceof UncertainSiteList || patternList.areUncertain()) {
+            useAmbiguities = true;
+        }
+
+        this.rescalingScheme = rescalingScheme;
+        if (this.rescalingScheme == PartialsRescalingScheme.DEFAULT ||
+                this.rescalingScheme == PartialsRescalingScheme.AUTO) {
+            this.rescalingScheme = PartialsRescalingScheme.DYNAMIC;
+        }
+        if (this.rescalingScheme == PartialsRescalingScheme.DELAYED) {
+            delayRescalingUntilUnderflow = true;
+            this.rescalingScheme = PartialsRescalingScheme.ALWAYS;
+        }
+        useScaleFactors = this.rescalingScheme != PartialsRescalingScheme.NONE && !delayRescalingUntilUnderflow;
+
+        try {
+            for (int i = 0; i < tipCount; i++) {
+                // Find the id of tip i in the patternList
+                String id = tree.getTaxonId(i);
+                int index = patternList.getTaxonIndex(id);
+
+                if (index == -1) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + tree.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                } else {
+                    if (useAmbiguities) {
+                        setPartials(patternList, index, i);
+                    } else {
+                        setStates(patternList, index, i);
+                    }
+                }
+            }
+        } catch (TaxonList.MissingTaxonException mte) {
+            throw new RuntimeException(mte.toString());
+        }
+
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        String tc = System.getProperty(THREAD_COUNT_PROPERTY);
+        if (tc != null && Integer.parseInt(tc) > 0) {
+            threadCount = Integer.parseInt(tc);
+        }
+
+        int minBlockSize = MIN_PATTERNS_PER_BLOCK;
+        String bs = System.getProperty(MIN_BLOCK_SIZE_PROPERTY);
+        if (bs != null) {
+            minBlockSize = Math.max(1, Integer.parseInt(bs));
+        }
+
+        int blockCount = Math.max(1, Math.min(threadCount, patternCount / minBlockSize));
+        blockTasks = new ArrayList<PatternBlockTask>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int start = (int) ((long) patternCount * i / blockCount);
+            int end = (int) ((long) patternCount * (i + 1) / blockCount);
+            blockTasks.add(new PatternBlockTask(start, end));
+        }
+
+        if (blockCount > 1) {
+            synchronized (JavaDataLikelihoodDelegate.class) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(threadCount);
+                }
+            }
+        }
+
+        logger.info("  " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("  With " + patternCount + " unique site patterns in " + blockCount +
+                " block" + (blockCount > 1 ? "s" : "") + ".");
+        logger.info("  Using rescaling scheme : " + this.rescalingScheme.getText() +
+                (delayRescalingUntilUnderflow && this.rescalingScheme != PartialsRescalingScheme.NONE ?
+                        " (delay rescaling until first underflow)" : ""));
+
+        updateSiteModel = true;
+    }
+
+    @Override
+    public String getReport() {
+        return null;
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public final BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    /**
+     * Sets the partials from a sequence in an alignment.
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setPartials(PatternList patternList,
+                             int sequenceIndex,
+                             int nodeIndex) {
+        double[] tipPartials = new double[partialsSize];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, tipPartials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, tipPartials, v, stateCount);
+                v += stateCount;
+
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    tipPartials[v] = stateSet[j] ? 1.0 : 0.0;
+                    v++;
+                }
+            }
+        }
+
+        // if there is more than one category then replicate the partials for each
+        int n = patternCount * stateCount;
+        int k = n;
+        for (int i = 1; i < categoryCount; i++) {
+            System.arraycopy(tipPartials, 0, tipPartials, k, n);
+            k += n;
+        }
+
+        partials[nodeIndex] = tipPartials;
+    }
+
+    /**
+     * Sets the states from a sequence in an alignment. Any ambiguous state is
+     * stored as stateCount and treated as completely unknown.
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setStates(PatternList patternList,
+                           int sequenceIndex,
+                           int nodeIndex) {
+        int[] states = new int[patternCount];
+
+        for (int i = 0; i < patternCount; i++) {
+            int state = patternList.getPatternState(sequenceIndex, i);
+            states[i] = (state < stateCount ? state : stateCount);
+        }
+
+        tipStates[nodeIndex] = states;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
+
+        if (updateSiteModel) {
+            categoryRates = this.siteRateModel.getCategoryRates();
+            if (categoryRates == null) {
+                // If this returns null then there was a numerical error calculating the category rates
+                // (probably a very small alpha) so reject the move.
+                return Double.NEGATIVE_INFINITY;
+            }
+            categoryWeights = this.siteRateModel.getCategoryProportions();
+        }
+
+        frequencies = branchModel.getRootFrequencyModel().getFrequencies();
+
+        // The transition probability matrices are computed on this thread as the substitution models
+        // lazily update their eigen decompositions and are not safe to share between threads.
+        for (BranchOperation op : branchOperations) {
+            updateTransitionMatrix(op.getBranchNumber(), op.getBranchLength());
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalMatrixUpdateCount += branchOperations.size();
+        }
+
+        operationCount = nodeOperations.size();
+        if (operations == null || operations.length < operationCount * OPERATION_TUPLE_SIZE) {
+            operations = new int[Math.max(operationCount, nodeCount) * OPERATION_TUPLE_SIZE];
+        }
+
+        int k = 0;
+        for (NodeOperation op : nodeOperations) {
+            int nodeNum = op.getNodeNumber();
+
+            partialBufferHelper.flipOffset(nodeNum);
+
+            operations[k] = partialBufferHelper.getOffsetIndex(nodeNum);
+            operations[k + 1] = op.getLeftChild();
+            operations[k + 2] = partialBufferHelper.getOffsetIndex(op.getLeftChild());
+            operations[k + 3] = matrixBufferHelper.getOffsetIndex(op.getLeftChild());
+            operations[k + 4] = op.getRightChild();
+            operations[k + 5] = partialBufferHelper.getOffsetIndex(op.getRightChild());
+            operations[k + 6] = matrixBufferHelper.getOffsetIndex(op.getRightChild());
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        rootBufferIndex = partialBufferHelper.getOffsetIndex(rootNodeNumber);
+
+        double logL = 0.0;
+        if (blockTasks.size() == 1) {
+            logL = blockTasks.get(0).call();
+        } else {
+            try {
+                List<Future<Double>> results = pool.invokeAll(blockTasks);
+                // sum in block order so the result does not depend on thread scheduling
+                for (Future<Double> result : results) {
+                    logL += result.get();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Likelihood evaluation interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalEvaluationCount += 1;
+            totalPartialsUpdateCount += operationCount;
+        }
+
+        if (Double.isNaN(logL) || Double.isInfinite(logL)) {
+
+            if (!useScaleFactors && rescalingScheme != PartialsRescalingScheme.NONE) {
+                Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Attempting a rescaling... (" + getId() + ")");
+
+                // once switched on rescaling stays on; the caller will recompute all the partials
+                useScaleFactors = true;
+                throw new LikelihoodUnderflowException();
+            }
+
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        updateSiteModel = false;
+
+        return logL;
+    }
+
+    private void updateTransitionMatrix(int branchNumber, double branchLength) {
+        matrixBufferHelper.flipOffset(branchNumber);
+        double[] matrix = matrices[matrixBufferHelper.getOffsetIndex(branchNumber)];
+
+        int[] order = branchModel.getBranchModelMapping(tree.getNode(branchNumber)).getOrder();
+        SubstitutionModel substitutionModel = branchModel.getSubstitutionModels().get(order[0]);
+
+        for (int l = 0; l < categoryCount; l++) {
+            substitutionModel.getTransitionProbabilities(branchLength * categoryRates[l], tmpMatrix);
+            System.arraycopy(tmpMatrix, 0, matrix, l * matrixSize, matrixSize);
+        }
+    }
+
+    /**
+     * Computes the partials of a child's contribution to its parent for the patterns
+     * [start, end) in every category: the matrix times the child's partials (or states).
+     */
+    private void calculateChildContribution(int childNumber, int childBuffer, double[] matrix,
+                                            double[] contribution, int start, int end) {
+
+        final int[] states = (childNumber < tipCount ? tipStates[childNumber] : null);
+        final double[] childPartials = (states == null ? partials[childBuffer] : null);
+
+        int u = 0;
+        for (int l = 0; l < categoryCount; l++) {
+            final int matrixOffset = l * matrixSize;
+
+            for (int k = start; k < end; k++) {
+
+                if (states != null) {
+                    final int state = states[k];
+
+                    if (state < stateCount) {
+                        int w = matrixOffset + state;
+                        for (int i = 0; i < stateCount; i++) {
+                            contribution[u] = matrix[w];
+                            w += stateCount;
+                            u++;
+                        }
+                    } else {
+                        for (int i = 0; i < stateCount; i++) {
+                            contribution[u] = 1.0;
+                            u++;
+                        }
+                    }
+                } else {
+                    final int v = (l * patternCount + k) * stateCount;
+                    int w = matrixOffset;
+                    for (int i = 0; i < stateCount; i++) {
+                        double sum = 0.0;
+                        for (int j = 0; j < stateCount; j++) {
+                            sum += matrix[w] * childPartials[v + j];
+                            w++;
+                        }
+                        contribution[u] = sum;
+                        u++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs every node operation of the current evaluation over a contiguous block of
+     * patterns and returns the weighted log likelihood of those patterns at the root.
+     */
+    private class PatternBlockTask implements Callable<Double> {
+
+        PatternBlockTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+
+            int blockSize = (end - start) * stateCount * categoryCount;
+            contribution1 = new double[blockSize];
+            contribution2 = new double[blockSize];
+        }
+
+        @Override
+        public Double call() {
+            final int blockPatternCount = end - start;
+
+            for (int op = 0; op < operationCount; op++) {
+                final int x = op * OPERATION_TUPLE_SIZE;
+                final int destination = operations[x];
+
+                calculateChildContribution(operations[x + 1], operations[x + 2],
+                        matrices[operations[x + 3]], contribution1, start, end);
+                calculateChildContribution(operations[x + 4], operations[x + 5],
+                        matrices[operations[x + 6]], contribution2, start, end);
+
+                final double[] destinationPartials = partials[destination];
+
+                int u = 0;
+                for (int l = 0; l < categoryCount; l++) {
+                    int v = (l * patternCount + start) * stateCount;
+                    final int n = blockPatternCount * stateCount;
+                    for (int i = 0; i < n; i++) {
+                        destinationPartials[v] = contribution1[u] * contribution2[u];
+                        u++;
+                        v++;
+                    }
+                }
+
+                if (useScaleFactors) {
+                    scalePartials(destination, operations[x + 2], operations[x + 5]);
+                }
+            }
+
+            return calculateRootLogLikelihood();
+        }
+
+        private void scalePartials(int destination, int childBuffer1, int childBuffer2) {
+            final double[] destinationPartials = partials[destination];
+            final double[] destinationScale = scaleFactors[destination];
+            final double[] scale1 = scaleFactors[childBuffer1];
+            final double[] scale2 = scaleFactors[childBuffer2];
+            final boolean always = (rescalingScheme == PartialsRescalingScheme.ALWAYS);
+
+            for (int k = start; k < end; k++) {
+                double maxPartial = 0.0;
+                for (int l = 0; l < categoryCount; l++) {
+                    int v = (l * patternCount + k) * stateCount;
+                    for (int i = 0; i < stateCount; i++) {
+                        if (destinationPartials[v + i] > maxPartial) {
+                            maxPartial = destinationPartials[v + i];
+                        }
+                    }
+                }
+
+                // the scale factors are cumulative so the root only needs to read its own
+                double logScale = (scale1 != null ? scale1[k] : 0.0) + (scale2 != null ? scale2[k] : 0.0);
+
+                if (maxPartial > 0.0 && (always || maxPartial < SCALING_THRESHOLD)) {
+                    for (int l = 0; l < categoryCount; l++) {
+                        int v = (l * patternCount + k) * stateCount;
+                        for (int i = 0; i < stateCount; i++) {
+                            destinationPartials[v + i] /= maxPartial;
+                        }
+                    }
+                    logScale += Math.log(maxPartial);
+                }
+
+                destinationScale[k] = logScale;
+            }
+        }
+
+        private double calculateRootLogLikelihood() {
+            final double[] rootPartials = partials[rootBufferIndex];
+            final double[] rootScale = scaleFactors[rootBufferIndex];
+
+            double logL = 0.0;
+            for (int k = start; k < end; k++) {
+                double sum = 0.0;
+                for (int l = 0; l < categoryCount; l++) {
+                    int v = (l * patternCount + k) * stateCount;
+                    double categorySum = 0.0;
+                    for (int i = 0; i < stateCount; i++) {
+                        categorySum += frequencies[i] * rootPartials[v + i];
+                    }
+                    sum += categoryWeights[l] * categorySum;
+                }
+
+                double patternLogL = Math.log(sum);
+                if (useScaleFactors && rootScale != null) {
+                    patternLogL += rootScale[k];
+                }
+                logL += patternWeights[k] * patternLogL;
+            }
+            return logL;
+        }
+
+        private final int start;
+        private final int end;
+        private final double[] contribution1;
+        private final double[] contribution2;
+    }
+
+    public void getPartials(int number, double[] destination) {
+        System.arraycopy(partials[partialBufferHelper.getOffsetIndex(number)], 0, destination, 0, partialsSize);
+    }
+
+    @Override
+    public void makeDirty() {
+        updateSiteModel = true;
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model == siteRateModel) {
+            updateSiteModel = true;
+        }
+
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        partialBufferHelper.storeState();
+        matrixBufferHelper.storeState();
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        updateSiteModel = true;
+
+        partialBufferHelper.restoreState();
+        matrixBufferHelper.restoreState();
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        // Do nothing
+    }
+
+    @Override
+    public void setComputePostOrderStatisticsOnly(boolean computePostOrderStatistic) {
+        // Do nothing
+    }
+
+    @Override
+    public boolean providesPostOrderStatisticsOnly() { return false; }
+
+    @Override
+    public int vectorizeNodeOperations(List<ProcessOnTreeDelegate.NodeOperation> nodeOperations, int[] operations) {
+        throw new RuntimeException("Not yet implemented");
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    public final SiteRateModel getSiteRateModel(){
+        return this.siteRateModel;
+    }
+
+    // **************************************************************
+    // INSTANCE PROFILEABLE
+    // **************************************************************
+
+    @Override
+    public long getTotalCalculationCount() {
+        // Can only return one count at the moment so return the number of partials updated
+        return totalPartialsUpdateCount;
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    // destination buffer, left node, left buffer, left matrix, right node, right buffer, right matrix
+    private static final int OPERATION_TUPLE_SIZE = 7;
+
+    private final Tree tree;
+
+    private final int nodeCount;
+    private final int tipCount;
+
+    private final int partialsSize;
+    private final int matrixSize;
+
+    private final BufferIndexHelper partialBufferHelper;
+    private final BufferIndexHelper matrixBufferHelper;
+
+    private final double[][] partials;
+    private final double[][] scaleFactors;
+    private final double[][] matrices;
+    private final double[] tmpMatrix;
+    private final int[][] tipStates;
+
+    private final List<PatternBlockTask> blockTasks;
+
+    private int[] operations;
+    private int operationCount;
+    private int rootBufferIndex;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] frequencies;
+
+    private PartialsRescalingScheme rescalingScheme;
+    private boolean useScaleFactors;
+
+    /**
+     * the patternList
+     */
+    private final PatternList patternList;
+
+    /**
+     * the data type
+     */
+    private final DataType dataType;
+
+    /**
+     * the pattern weights
+     */
+    private final double[] patternWeights;
+
+    /**
+     * the number of patterns
+     */
+    private final int patternCount;
+
+    /**
+     * the number of states in the data
+     */
+    private final int stateCount;
+
+    /**
+     * the branch-site model for these sites
+     */
+    private final BranchModel branchModel;
+
+    /**
+     * the site model for these sites
+     */
+    private final SiteRateModel siteRateModel;
+
+    /**
+     * the number of rate categories
+     */
+    private final int categoryCount;
+
+    /**
+     * Flag to specify that the site model has changed
+     */
+    private boolean updateSiteModel;
+}
@@ -14,6 +14,10 @@ public class PreOrderSettings {
         this.branchInfinitesimalDerivative = branchInfinitesimalDerivative;
     }
 
+    public boolean isUsePreOrder() {
+        return usePreOrder;
+    }
+
     public static PreOrderSettings getDefault() {
         return new PreOrderSettings(false, false, false);
     }
@@ -3,6 +3,8 @@ package dr.evomodel.treedatalikelihood.continuous.cdi;
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 
+import java.util.Arrays;
+
 import static dr.math.matrixAlgebra.missingData.MissingOps.*;
 
 /**
@@ -70,13 +72,14 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
         assert (displacement != null);
         assert (displacement.length >= dimTrait);
 
-        DenseMatrix64F branchExpectationMatrix = new DenseMatrix64F(dimTrait, 1);
-        CommonOps.mult(wrap(actualization, 0, dimTrait, dimTrait),
-                wrap(parentValue, 0, dimTrait, 1),
+        DenseMatrix64F branchExpectationMatrix = matrixNiacc;
+        CommonOps.mult(wrap(actualization, 0, matrixQdi),
+                wrap(parentValue, 0, matrixNi),
                 branchExpectationMatrix);
-        CommonOps.addEquals(branchExpectationMatrix, wrap(displacement, 0, dimTrait, 1));
 
-        unwrap(branchExpectationMatrix, expectation, 0);
+        for (int i = 0; i < dimTrait; ++i) {
+            expectation[i] = branchExpectationMatrix.unsafe_get(i, 0) + displacement[i];
+        }
     }
 
     private static final boolean TIMING = false;
@@ -89,6 +92,23 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
         matrixQdjPjp = new DenseMatrix64F(dimTrait, dimTrait);
 
         matrixNiacc = new DenseMatrix64F(dimTrait, 1);
+
+        // Buffers for the actualizations read during the tree traversals and for the branch
+        // matrices so that neither allocates
+        matrixQdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixQdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixNi = new DenseMatrix64F(dimTrait, 1);
+
+        vectorDiagonalActualizations = new double[dimTrait];
+        matrixInverseSelectionStrength = new DenseMatrix64F(dimProcess, dimProcess);
+        matricesProcess = new DenseMatrix64F[12];
+        for (int i = 0; i < matricesProcess.length; i++) {
+            matricesProcess[i] = new DenseMatrix64F(dimProcess, dimProcess);
+        }
+        columnsProcess = new DenseMatrix64F[3];
+        for (int i = 0; i < columnsProcess.length; i++) {
+            columnsProcess[i] = new DenseMatrix64F(dimProcess, 1);
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -166,41 +186,47 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     private void transformDiagonalMatrixBack(double[] diagonalMatrix, double[] matrixDestination, int matrixOffset,
                                              double[] rotationDouble, int rotationOffset) {
-        DenseMatrix64F matrix = wrapDiagonal(diagonalMatrix, matrixOffset, dimProcess);
-        DenseMatrix64F rotation = wrap(rotationDouble, rotationOffset, dimProcess, dimProcess);
+        DenseMatrix64F matrix = matricesProcess[0];
+        matrix.zero();
+        for (int i = 0; i < dimProcess; ++i) {
+            matrix.unsafe_set(i, i, diagonalMatrix[i]);
+        }
+        DenseMatrix64F rotation = wrap(rotationDouble, rotationOffset, matricesProcess[1]);
         transformMatrixBase(matrix, rotation);
         unwrap(matrix, matrixDestination, matrixOffset);
     }
 
     private DenseMatrix64F getInverseSelectionStrength(double[] diagonalMatrix, double[] rotationDouble) {
-        DenseMatrix64F matrix = wrapDiagonalInverse(diagonalMatrix, 0, dimProcess);
-        DenseMatrix64F rotation = wrap(rotationDouble, 0, dimProcess, dimProcess);
+        DenseMatrix64F matrix = matrixInverseSelectionStrength;
+        matrix.zero();
+        for (int i = 0; i < dimProcess; ++i) {
+            matrix.unsafe_set(i, i, 1 / diagonalMatrix[i]);
+        }
+        DenseMatrix64F rotation = wrap(rotationDouble, 0, matricesProcess[1]);
         transformMatrixBase(matrix, rotation);
         return matrix;
     }
 
     private void transformMatrixBase(DenseMatrix64F matrix, DenseMatrix64F rotation) {
+        final DenseMatrix64F tmp = matricesProcess[2];
         if (isActualizationSymmetric) {
-            transformMatrixBack(matrix, rotation);
+            CommonOps.multTransB(matrix, rotation, tmp);
+            CommonOps.mult(rotation, tmp, matrix);
         } else {
-            transformMatrixBaseGeneral(matrix, rotation);
+            CommonOps.mult(rotation, matrix, tmp);
+            CommonOps.invert(rotation); // Warning: side effect on rotation matrix.
+            CommonOps.mult(tmp, rotation, matrix);
         }
     }
 
-    private void transformMatrixBaseGeneral(DenseMatrix64F matrix, DenseMatrix64F rotation) {
-        DenseMatrix64F tmp = new DenseMatrix64F(dimProcess, dimProcess);
-        CommonOps.mult(rotation, matrix, tmp);
-        CommonOps.invert(rotation); // Warning: side effect on rotation matrix.
-        CommonOps.mult(tmp, rotation, matrix);
-    }
-
     @Override
     void computeOUActualization(final double[] diagonalStrengthOfSelectionMatrix,
                                 final double[] rotation,
                                 final double edgeLength,
                                 final int scaledOffsetDiagonal,
                                 final int scaledOffset) {
-        double[] diagonalActualizations = new double[dimTrait];
+        double[] diagonalActualizations = vectorDiagonalActualizations;
+        Arrays.fill(diagonalActualizations, 0.0);
         computeOUDiagonal1mActualization(diagonalStrengthOfSelectionMatrix, edgeLength, dimProcess,
                 diagonalActualizations, 0);
         oneMinus(diagonalActualizations);
@@ -212,9 +238,9 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                  final int destinationOffset,
                                  final int destinationOffsetDiagonal,
                                  final double edgeLength) {
-        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, dimProcess, dimProcess);
-        DenseMatrix64F variance = wrap(stationaryVariances, sourceOffset, dimProcess, dimProcess);
-        DenseMatrix64F temp = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, matricesProcess[0]);
+        DenseMatrix64F variance = wrap(stationaryVariances, sourceOffset, matricesProcess[1]);
+        DenseMatrix64F temp = matricesProcess[2];
 
         CommonOps.multTransB(variance, actualization, temp);
         CommonOps.multAdd(-1.0, actualization, temp, variance);
@@ -227,10 +253,11 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                          final int offset,
                                          final int actualizationOffset,
                                          final int pio) {
-        DenseMatrix64F actualization = wrap(actualizations, actualizationOffset, dimProcess, dimProcess);
-        DenseMatrix64F optVal = wrap(optimalRates, offset, dimProcess, 1);
-        DenseMatrix64F temp = CommonOps.identity(dimProcess);
-        DenseMatrix64F displacement = new DenseMatrix64F(dimProcess, 1);
+        DenseMatrix64F actualization = wrap(actualizations, actualizationOffset, matricesProcess[0]);
+        DenseMatrix64F optVal = wrap(optimalRates, offset, columnsProcess[1]);
+        DenseMatrix64F temp = matricesProcess[1];
+        CommonOps.setIdentity(temp);
+        DenseMatrix64F displacement = columnsProcess[2];
 
         CommonOps.addEquals(temp, -1.0, actualization);
         CommonOps.mult(temp, optVal, displacement);
@@ -243,9 +270,9 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                                   final int pio,
                                                   double branchLength,
                                                   DenseMatrix64F inverseSelectionStrength) {
-        DenseMatrix64F displacementOU = wrap(displacements, pio, dimProcess, 1);
-        DenseMatrix64F optVal = wrap(optimalRates, offset, dimProcess, 1);
-        DenseMatrix64F displacement = new DenseMatrix64F(dimProcess, 1);
+        DenseMatrix64F displacementOU = wrap(displacements, pio, columnsProcess[0]);
+        DenseMatrix64F optVal = wrap(optimalRates, offset, columnsProcess[1]);
+        DenseMatrix64F displacement = columnsProcess[2];
 
         CommonOps.mult(inverseSelectionStrength, displacementOU, displacement);
         CommonOps.scale(-1.0, displacement);
@@ -259,31 +286,32 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                           final int destinationOffset,
                                           double branchLength,
                                           DenseMatrix64F inverseSelectionStrength) {
-        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, dimProcess, dimProcess);
-        DenseMatrix64F stationaryVariance = wrap(stationaryVariances, sourceOffset, dimProcess, dimProcess);
+        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, matricesProcess[0]);
+        DenseMatrix64F stationaryVariance = wrap(stationaryVariances, sourceOffset, matricesProcess[1]);
 
-        DenseMatrix64F invAS = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F invAS = matricesProcess[2];
         CommonOps.mult(inverseSelectionStrength, stationaryVariance, invAS);
 
         //// Variance YY
-        DenseMatrix64F varianceYY = wrap(variances, destinationOffset, dimProcess, dimProcess);
+        DenseMatrix64F varianceYY = wrap(variances, destinationOffset, matricesProcess[3]);
 
         //// Variance XX
-        DenseMatrix64F varianceXX = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F varianceXX = matricesProcess[4];
         // Variance 1
         CommonOps.multTransB(invAS, inverseSelectionStrength, varianceXX);
-        DenseMatrix64F temp = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F temp = matricesProcess[5];
         CommonOps.multTransB(varianceXX, actualization, temp);
         CommonOps.multAdd(-1.0, actualization, temp, varianceXX);
         // Delta
-        DenseMatrix64F delta = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F delta = matricesProcess[6];
         addTrans(invAS, delta);
         // Variance 2
         CommonOps.addEquals(varianceXX, branchLength, delta);
         // Variance 3
-        DenseMatrix64F temp2 = CommonOps.identity(dimProcess);
+        DenseMatrix64F temp2 = matricesProcess[7];
+        CommonOps.setIdentity(temp2);
         CommonOps.addEquals(temp2, -1.0, actualization);
-        DenseMatrix64F temp3 = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F temp3 = matricesProcess[8];
         CommonOps.mult(temp2, inverseSelectionStrength, temp3);
         CommonOps.mult(temp3, delta, temp2);
         addTrans(temp2, temp);
@@ -291,7 +319,7 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
         CommonOps.addEquals(varianceXX, -1.0, temp);
 
         //// Variance XY
-        DenseMatrix64F varianceXY = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F varianceXY = matricesProcess[9];
         // Variance 1
         CommonOps.multTransB(stationaryVariance, temp3, varianceXY);
         // Variance 2
@@ -301,7 +329,7 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
         CommonOps.addEquals(varianceXY, -1.0, temp2);
 
         //// Variance YX
-        DenseMatrix64F varianceYX = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F varianceYX = matricesProcess[10];
         CommonOps.transpose(varianceXY, varianceYX);
 
         blockUnwrap(varianceYY, varianceXX, varianceXY, varianceYX, variances, destinationOffset);
@@ -311,17 +339,20 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     private void computeIOUActualization(final int scaledOffset,
                                          DenseMatrix64F inverseSelectionStrength) {
         // YY
-        DenseMatrix64F actualizationOU = wrap(actualizations, scaledOffset, dimProcess, dimProcess);
+        DenseMatrix64F actualizationOU = wrap(actualizations, scaledOffset, matricesProcess[0]);
 
         // XX
-        DenseMatrix64F temp = CommonOps.identity(dimProcess);
+        DenseMatrix64F temp = matricesProcess[1];
+        CommonOps.setIdentity(temp);
         CommonOps.addEquals(temp, -1.0, actualizationOU);
-        DenseMatrix64F actualizationIOU = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F actualizationIOU = matricesProcess[2];
         CommonOps.mult(inverseSelectionStrength, temp, actualizationIOU);
 
         // YX and XX
-        DenseMatrix64F actualizationYX = new DenseMatrix64F(dimProcess, dimProcess); // zeros
-        DenseMatrix64F actualizationXX = CommonOps.identity(dimProcess);
+        DenseMatrix64F actualizationYX = matricesProcess[3];
+        actualizationYX.zero();
+        DenseMatrix64F actualizationXX = matricesProcess[4];
+        CommonOps.setIdentity(actualizationXX);
 
         blockUnwrap(actualizationOU, actualizationXX, actualizationIOU, actualizationYX, actualizations, scaledOffset);
     }
@@ -347,21 +378,22 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     private void schurComplementInverse(final DenseMatrix64F A, final DenseMatrix64F D,
                                         final DenseMatrix64F C, final DenseMatrix64F B,
                                         final double[] destination, final int offset) {
-        DenseMatrix64F invA = new DenseMatrix64F(dimProcess, dimProcess);
+        // The blocks are in matricesProcess[3, 4, 9, 10] so the rest are free to use here
+        DenseMatrix64F invA = matricesProcess[0];
         CommonOps.invert(A, invA);
         DenseMatrix64F invMatD = getSchurInverseComplement(invA, D, C, B);
 
-        DenseMatrix64F invAB = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F invAB = matricesProcess[5];
         CommonOps.mult(invA, B, invAB);
-        DenseMatrix64F invMatB = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F invMatB = matricesProcess[6];
         CommonOps.mult(-1.0, invAB, invMatD, invMatB);
 
-        DenseMatrix64F CinvA = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F CinvA = matricesProcess[7];
         CommonOps.mult(C, invA, CinvA);
-        DenseMatrix64F invMatC = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F invMatC = matricesProcess[8];
         CommonOps.mult(-1.0, invMatD, CinvA, invMatC);
 
-        DenseMatrix64F invMatA = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F invMatA = matricesProcess[11];
         CommonOps.mult(-1.0, invMatB, CinvA, invMatA);
         CommonOps.addEquals(invMatA, invA);
 
@@ -370,8 +402,8 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     private DenseMatrix64F getSchurInverseComplement(final DenseMatrix64F invA, final DenseMatrix64F D,
                                         final DenseMatrix64F C, final DenseMatrix64F B) {
-        DenseMatrix64F complement = new DenseMatrix64F(dimProcess, dimProcess);
-        DenseMatrix64F tmp = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F complement = matricesProcess[1];
+        DenseMatrix64F tmp = matricesProcess[2];
         CommonOps.mult(invA, B, tmp);
         CommonOps.mult(-1.0, C, tmp, complement);
         CommonOps.addEquals(complement, D);
@@ -467,21 +499,21 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     @Override
     void actualizePrecision(DenseMatrix64F Pjp, DenseMatrix64F QjPjp, int jbo, int jmo, int jdo) {
-        final DenseMatrix64F Qdj = wrap(actualizations, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdj = wrap(actualizations, jmo, matrixQdj);
         scalePrecision(Qdj, Pjp, QjPjp, Pjp);
     }
 
     @Override
     void actualizeVariance(DenseMatrix64F Vip, int ibo, int imo, int ido) {
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
         final DenseMatrix64F QiVip = matrixQdiPip;
         scaleVariance(Qdi, Vip, QiVip, Vip);
     }
 
     @Override
     void scaleAndDriftMean(int ibo, int imo, int ido) {
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
-        final DenseMatrix64F ni = wrap(preOrderPartials, ibo, dimTrait, 1);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
+        final DenseMatrix64F ni = wrap(preOrderPartials, ibo, matrixNi);
         final DenseMatrix64F niacc = matrixNiacc;
         CommonOps.mult(Qdi, ni, niacc);
         unwrap(niacc, preOrderPartials, ibo);
@@ -496,8 +528,8 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     void computePartialPrecision(int ido, int jdo, int imo, int jmo,
                                  DenseMatrix64F Pip, DenseMatrix64F Pjp, DenseMatrix64F Pk) {
 
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Qdj = wrap(actualizations, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
+        final DenseMatrix64F Qdj = wrap(actualizations, jmo, matrixQdj);
 
         final DenseMatrix64F QdiPip = matrixQdiPip;
         final DenseMatrix64F QdiPipQdi = matrix0;
@@ -547,5 +579,12 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     private DenseMatrix64F matrixQdiPip;
     private DenseMatrix64F matrixQdjPjp;
     private DenseMatrix64F matrixNiacc;
+    private DenseMatrix64F matrixQdi;
+    private DenseMatrix64F matrixQdj;
+    private DenseMatrix64F matrixNi;
+    private double[] vectorDiagonalActualizations;
+    private DenseMatrix64F matrixInverseSelectionStrength;
+    private DenseMatrix64F[] matricesProcess;
+    private DenseMatrix64F[] columnsProcess;
     private final boolean isActualizationSymmetric;
 }
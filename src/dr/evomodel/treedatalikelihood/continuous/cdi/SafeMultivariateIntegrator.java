@@ -2,6 +2,7 @@ package dr.evomodel.treedatalikelihood.continuous.cdi;
 
 import dr.math.matrixAlgebra.WrappedVector;
 import dr.math.matrixAlgebra.missingData.InversionResult;
+import dr.math.matrixAlgebra.missingData.MatrixWorkspace;
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 
@@ -36,6 +37,21 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         vectorDelta = new double[dimTrait];
         vectorPMk = new double[dimTrait];
         matrixQjPjp = new DenseMatrix64F(dimTrait, dimTrait);
+
+        // Buffers for the matrices read from the partials, variances and precisions so that the
+        // tree traversals don't allocate
+        matrixVdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixVdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixVi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPreOrderPk = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPd = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixPdbis = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPTotal = new DenseMatrix64F(dimTrait, dimTrait);
+
+        workspace = new MatrixWorkspace(dimTrait);
     }
 
     private static final boolean TIMING = false;
@@ -182,11 +198,11 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final int jdo = dimTrait * jMatrix;
 
         // Read variance increments along descendant branches of k
-        final DenseMatrix64F Vdi = wrap(variances, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Vdj = wrap(variances, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Vdi = wrap(variances, imo, matrixVdi);
+        final DenseMatrix64F Vdj = wrap(variances, jmo, matrixVdj);
 
 //        final DenseMatrix64F Pdi = wrap(precisions, imo, dimTrait, dimTrait); // TODO Only if needed
-        final DenseMatrix64F Pdj = wrap(precisions, jmo, dimTrait, dimTrait); // TODO Only if needed
+        final DenseMatrix64F Pdj = wrap(precisions, jmo, matrixPdj); // TODO Only if needed
 
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
@@ -200,7 +216,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         for (int trait = 0; trait < numTraits; ++trait) {
 
             // A. Get current precision of k and j
-            final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, matrixPreOrderPk);
 //            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
 
 //            final DenseMatrix64F Vk = wrap(preOrderPartials, kbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
@@ -220,7 +236,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             CommonOps.add(Pk, Pjp, Pip);
 
             final DenseMatrix64F Vip = matrix1;
-            safeInvert2(Pip, Vip, false);
+            safeInvert2(Pip, Vip, false, workspace);
 
             final double[] delta = vectorDelta;
             computeDelta(jbo, jdo, delta);
@@ -231,13 +247,13 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 //                    preOrderPartials, ibo, Vip,
 //                    dimTrait, tmp);
             safeWeightedAverage(
-                    new WrappedVector.Raw(preOrderPartials, kbo, dimTrait),
+                    preOrderPartials, kbo,
                     Pk,
-                    new WrappedVector.Raw(delta, 0, dimTrait),
+                    delta, 0,
                     QjPjp,
-                    new WrappedVector.Raw(preOrderPartials, ibo, dimTrait),
+                    preOrderPartials, ibo,
                     Vip,
-                    dimTrait);
+                    dimTrait, workspace.getVector());
 
             scaleAndDriftMean(ibo, imo, ido);
 
@@ -247,7 +263,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             inflateBranch(Vdi, Vip, Vi);
 
             final DenseMatrix64F Pi = matrixPk;
-            safeInvert2(Vi, Pi, false);
+            safeInvert2(Vi, Pi, false, workspace);
 
             // X. Store precision results for node
             unwrap(Pi, preOrderPartials, ibo + dimTrait);
@@ -333,11 +349,11 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final int jdo = dimTrait * jMatrix;
 
         // Read variance increments along descendant branches of k
-        final DenseMatrix64F Vdi = wrap(variances, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Vdj = wrap(variances, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Vdi = wrap(variances, imo, matrixVdi);
+        final DenseMatrix64F Vdj = wrap(variances, jmo, matrixVdj);
 
-        final DenseMatrix64F Pdi = wrap(precisions, imo, dimTrait, dimTrait); // TODO Only if needed
-        final DenseMatrix64F Pdj = wrap(precisions, jmo, dimTrait, dimTrait); // TODO Only if needed
+        final DenseMatrix64F Pdi = wrap(precisions, imo, matrixPdi); // TODO Only if needed
+        final DenseMatrix64F Pdj = wrap(precisions, jmo, matrixPdj); // TODO Only if needed
 
         if (DEBUG) {
             System.err.println("variance diffusion: " + wrap(inverseDiffusions, precisionOffset, dimProcess, dimProcess));
@@ -481,7 +497,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         }
 
         // A. Get current precision of i and j
-        final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
+        final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, matrixPi);
 
         if (TIMING) {
             endTime("peel1");
@@ -496,25 +512,25 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         if (useVariancei) {
 
             final DenseMatrix64F Vip = matrix0;
-            final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, matrixVi);
             CommonOps.add(Vi, Vdi, Vip);
             if (allZeroOrInfinite(Vip)) {
                 throw new RuntimeException("Zero-length branch on data is not allowed.");
             }
-            ci = safeInvert2(Vip, Pip, getDeterminant);
+            ci = safeInvert2(Vip, Pip, getDeterminant, workspace);
 
         } else {
 
             final DenseMatrix64F tmp1 = matrix0;
             CommonOps.add(Pi, Pdi, tmp1);
             final DenseMatrix64F tmp2 = matrix1;
-            safeInvert2(tmp1, tmp2, false);
+            safeInvert2(tmp1, tmp2, false, workspace);
             CommonOps.mult(tmp2, Pi, tmp1);
             idMinusA(tmp1);
-            if (getDeterminant) ci = safeDeterminant(tmp1, true);
+            if (getDeterminant) ci = safeDeterminant(tmp1, true, workspace);
             CommonOps.mult(Pi, tmp1, Pip);
             if (getDeterminant && getEffectiveDimension(iBuffer) > 0) {
-                InversionResult cP = safeDeterminant(Pi, true);
+                InversionResult cP = safeDeterminant(Pi, true, workspace);
                 ci = mult(ci, cP);
             }
         }
@@ -554,11 +570,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final double[] tmp = vectorPMk;
         weightedSum(partials, ibo, matrixPip, partials, jbo, matrixPjp, dimTrait, tmp);
 
-
-        final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-        final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
-
-        safeSolve(matrixPk, wrapTmp, kPartials, false);
+        safeSolve(matrixPk, tmp, 0, partials, kbo, workspace);
 
         if (TIMING) {
             endTime("peel4");
@@ -584,38 +596,37 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         int rootOffset = dimPartial * rootBufferIndex;
         int priorOffset = dimPartial * priorBufferIndex;
 
-        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimProcess, dimProcess);
+        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, matrixPd);
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
         // TODO For each trait in parallel
         for (int trait = 0; trait < numTraits; ++trait) {
 
-            final DenseMatrix64F PPrior = wrap(partials, priorOffset + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F VPrior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F PPrior = wrap(partials, priorOffset + dimTrait, matrixPdi);
+            final DenseMatrix64F VPrior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, matrixVdi);
 
 
             // TODO Block below is for the conjugate prior ONLY
             {
 
                 if (!isIntegratedProcess) {
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = matrix0;
                     CommonOps.mult(Pd, PPrior, PTmp);
                     PPrior.set(PTmp); // TODO What does this do?
                 } else {
-                    DenseMatrix64F Pdbis = new DenseMatrix64F(dimTrait, dimTrait);
+                    DenseMatrix64F Pdbis = matrixPdbis;
+                    Pdbis.zero();
                     blockUnwrap(Pd, Pdbis.data, 0, 0, 0, dimTrait);
                     blockUnwrap(Pd, Pdbis.data, dimProcess, dimProcess, 0, dimTrait);
 
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = matrix0;
                     CommonOps.mult(Pdbis, PPrior, PTmp);
                     PPrior.set(PTmp);
                 }
             }
 
-            final DenseMatrix64F VTotal = new DenseMatrix64F(dimTrait, dimTrait);
-
-            final DenseMatrix64F PTotal = new DenseMatrix64F(dimTrait, dimTrait);
-            CommonOps.invert(VTotal, PTotal);  // TODO Does this do anything?
+            // PTotal is filled in by increaseVariances()
+            final DenseMatrix64F PTotal = matrixPTotal;
 
             InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true);
 
@@ -706,4 +717,17 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
     private DenseMatrix64F matrixQjPjp;
     private double[] vectorDelta;
     double[] vectorPMk;
+
+    private DenseMatrix64F matrixVdi;
+    private DenseMatrix64F matrixVdj;
+    private DenseMatrix64F matrixPdi;
+    private DenseMatrix64F matrixPdj;
+    private DenseMatrix64F matrixPi;
+    private DenseMatrix64F matrixVi;
+    private DenseMatrix64F matrixPreOrderPk;
+    private DenseMatrix64F matrixPd;
+    private DenseMatrix64F matrixPdbis;
+    private DenseMatrix64F matrixPTotal;
+
+    MatrixWorkspace workspace;
 }
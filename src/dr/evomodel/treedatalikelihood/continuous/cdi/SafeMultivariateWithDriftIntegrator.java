@@ -1,6 +1,5 @@
 package dr.evomodel.treedatalikelihood.continuous.cdi;
 
-import dr.math.matrixAlgebra.WrappedVector;
 import org.ejml.data.DenseMatrix64F;
 
 import static dr.math.matrixAlgebra.missingData.MissingOps.*;
@@ -153,10 +152,7 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
         computeWeightedSum(displacementi, displacementj, dimTrait, tmp);
 
-        final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-        final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
-
-        safeSolve(matrixPk, wrapTmp, kPartials, false);
+        safeSolve(matrixPk, tmp, 0, partials, kbo, workspace);
 
         if (TIMING) {
             endTime("peel4");
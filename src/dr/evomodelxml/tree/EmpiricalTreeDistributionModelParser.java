@@ -29,6 +29,7 @@ import dr.util.FileHelpers;
 import dr.xml.*;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
+import dr.evolution.tree.CompactTreeStore;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.tree.EmpiricalTreeDistributionModel;
@@ -46,6 +47,7 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
     public static final String RATE_ATTRIBUTE_NAME = "rateAttribute";
     public static final String STARTING_TREE = "startingTree";
     public static final String ITERATE = "iterate";
+    public static final String COMPACT = "compact";
 
     public String getParserName() {
         return EmpiricalTreeDistributionModel.EMPIRICAL_TREE_DISTRIBUTION_MODEL;
@@ -67,17 +69,32 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
 
         Logger.getLogger("dr.evomodel").info("Creating the empirical tree distribution model, '" + xo.getId() + "'");
 
+        // store the trees as arrays and only make each one when it is drawn
+        boolean compact = xo.getAttribute(COMPACT, false);
+
         TaxonList taxa = (TaxonList)xo.getChild(TaxonList.class);
 
         final File file = FileHelpers.getFile(fileName);
 
         Tree[] trees = null;
+        CompactTreeStore treeStore = null;
         NexusImporter importer = null;
         try {
             FileReader reader = new FileReader(file);
             importer = new NexusImporter(reader);
             if (!iterate) {
-                trees = importer.importTrees(taxa, true); // Re-order taxon numbers to original TaxonList order
+                if (compact) {
+                    // stream the trees into the store (which numbers the tips in TaxonList order)
+                    treeStore = new CompactTreeStore(taxa);
+                    while (importer.hasTree()) {
+                        treeStore.addTree(importer.importNextTree());
+                    }
+                    if (treeStore.getTreeCount() == 0) {
+                        throw new XMLParseException("No trees found in file, " + fileName);
+                    }
+                } else {
+                    trees = importer.importTrees(taxa, true); // Re-order taxon numbers to original TaxonList order
+                }
                 reader.close();
             }
         } catch (FileNotFoundException e) {
@@ -92,6 +109,9 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         if (iterate) {
             Logger.getLogger("dr.evomodel").info("    Iterate over each tree from file, " + fileName);
             return new EmpiricalTreeDistributionModel(importer, startingTree);
+        } else if (compact) {
+            Logger.getLogger("dr.evomodel").info("    Randomly jump between " + treeStore.getTreeCount() + " compactly stored trees from file, " + fileName);
+            return new EmpiricalTreeDistributionModel(treeStore, startingTree);
         } else {
             Logger.getLogger("dr.evomodel").info("    Randomly jump between " + trees.length + " trees from file, " + fileName);
             return new EmpiricalTreeDistributionModel(trees, startingTree);
@@ -105,6 +125,8 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         return new XMLSyntaxRule[]{
                 AttributeRule.newIntegerRule(STARTING_TREE, true),
                 AttributeRule.newBooleanRule(ITERATE, true),
+                AttributeRule.newBooleanRule(COMPACT, true,
+                        "Hold the trees as arrays and make each tree only when it is drawn (tree and node attributes are not kept)"),
                 new StringAttributeRule(FILE_NAME,
                         "The name of a NEXUS tree file"),
 //                AttributeRule.newIntegerRule(BURNIN, true,
@@ -29,6 +29,7 @@ import dr.evolution.colouring.TreeColouringProvider;
 import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
 import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.LogWriterQueue;
 import dr.inference.loggers.Loggable;
 import dr.inference.loggers.TabDelimitedFormatter;
 import dr.inference.model.Likelihood;
@@ -355,6 +356,10 @@ public class TreeLoggerParser extends LoggerParser {
             logger.setTitle(title);
         }
 
+        if (xo.hasAttribute(FILE_NAME) && LogWriterQueue.isAsynchronousLoggingRequested()) {
+            logger.setAsynchronous(xo.getStringAttribute(FILE_NAME), LogWriterQueue.getRequestedCapacity());
+        }
+
         return logger;
     }
 
@@ -39,6 +39,7 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.PreOrderSettings;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.MultiPartitionDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
@@ -173,15 +174,34 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
         for (int i = 0; i < patternLists.size(); i++) {
 
-            DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                    treeModel,
-                    patternLists.get(i),
-                    branchModels.get(i),
-                    siteRateModels.get(i),
-                    useAmbiguities,
-                    scalingScheme,
-                    delayRescalingUntilUnderflow,
-                    settings);
+            DataLikelihoodDelegate dataLikelihoodDelegate = null;
+
+            if (useJava && !settings.isUsePreOrder()) {
+                try {
+                    dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                            treeModel,
+                            patternLists.get(i),
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            scalingScheme,
+                            delayRescalingUntilUnderflow);
+                } catch (DataLikelihoodDelegate.DelegateTypeException dte) {
+                    // the branch model needs matrix convolution so fall back to BEAGLE
+                }
+            }
+
+            if (dataLikelihoodDelegate == null) {
+                dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                        treeModel,
+                        patternLists.get(i),
+                        branchModels.get(i),
+                        siteRateModels.get(i),
+                        useAmbiguities,
+                        scalingScheme,
+                        delayRescalingUntilUnderflow,
+                        settings);
+            }
 
             treeDataLikelihoods.add(
                     new TreeDataLikelihood(
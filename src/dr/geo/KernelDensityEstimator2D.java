@@ -27,6 +27,7 @@ package dr.geo;
 
 import cern.colt.list.DoubleArrayList;
 import cern.jet.stat.Descriptive;
+import dr.math.FastFourierTransform;
 import dr.math.distributions.NormalDistribution;
 import dr.math.matrixAlgebra.Matrix;
 import dr.math.matrixAlgebra.Vector;
@@ -80,6 +81,14 @@ public class KernelDensityEstimator2D implements ContourMaker {
     }
 
     public KernelDensityEstimator2D(final double[] x, final double[] y, final double[] h, final int n, final double[] lims, boolean bandwdithLimited) {
+        this(x, y, h, n, lims, bandwdithLimited, false);
+    }
+
+    /**
+     * @param binned bin the observations onto a grid and smooth this by FFT convolution rather than
+     *               summing the kernel of every observation at every grid point
+     */
+    public KernelDensityEstimator2D(final double[] x, final double[] y, final double[] h, final int n, final double[] lims, boolean bandwdithLimited, boolean binned) {
         this.x = x;
         this.y = y;
         if (x.length != y.length)
@@ -102,6 +111,8 @@ public class KernelDensityEstimator2D implements ContourMaker {
         else
             setupH();
 
+        this.binned = binned;
+
         doKDE2D();
     }
     
@@ -109,6 +120,10 @@ public class KernelDensityEstimator2D implements ContourMaker {
         this(x,y,null,50,null,limitBandwidth);
     }
 
+    public KernelDensityEstimator2D(final double[] x, final double[] y, boolean limitBandwidth, boolean binned) {
+        this(x,y,null,50,null,limitBandwidth,binned);
+    }
+
     public KernelDensityEstimator2D(final double[] x, final double[] y) {
         this(x,y,null,50,null);
     }
@@ -120,6 +135,12 @@ public class KernelDensityEstimator2D implements ContourMaker {
     public void doKDE2D() {
         gx = makeSequence(lims[0], lims[1], n);
         gy = makeSequence(lims[2], lims[3], n);
+
+        if (binned && n > 1 && h[0] > 0.0 && h[1] > 0.0 && !Double.isInfinite(h[0]) && !Double.isInfinite(h[1])) {
+            z = binnedKDE2D();
+            return;
+        }
+
         double[][] ax = outerMinusScaled(gx, x, h[0]);
         double[][] ay = outerMinusScaled(gy, y, h[1]);
         normalize(ax);
@@ -137,6 +158,138 @@ public class KernelDensityEstimator2D implements ContourMaker {
         }
     }
 
+    /**
+     * Approximates the KDE by linearly binning the observations onto a grid that is finer than the
+     * output grid (so a bandwidth spans several bins) and convolving the bin counts with the kernel
+     * along each axis in turn using FFTs. The kernel is truncated at KERNEL_SUPPORT bandwidths, so the
+     * grid is extended by this much on each side to catch the observations just outside the limits.
+     * This is O(nx + m^2 log m) for an m x m fine grid rather than O(nx n^2).
+     */
+    private double[][] binnedKDE2D() {
+        final int rx = getRefinement(lims[1] - lims[0], h[0]);
+        final int ry = getRefinement(lims[3] - lims[2], h[1]);
+        final double dx = (lims[1] - lims[0]) / ((n - 1) * rx);
+        final double dy = (lims[3] - lims[2]) / ((n - 1) * ry);
+        final int lx = (int) Math.ceil(KERNEL_SUPPORT * h[0] / dx);
+        final int ly = (int) Math.ceil(KERNEL_SUPPORT * h[1] / dy);
+        final int mx = (n - 1) * rx + 1 + 2 * lx;
+        final int my = (n - 1) * ry + 1 + 2 * ly;
+        final double x0 = lims[0] - lx * dx;
+        final double y0 = lims[2] - ly * dy;
+
+        // linear binning: each observation is shared between the four surrounding grid points
+        double[][] counts = new double[mx][my];
+        for (int k = 0; k < nx; k++) {
+            double u = (x[k] - x0) / dx;
+            double v = (y[k] - y0) / dy;
+            if (u >= 0 && u <= mx - 1 && v >= 0 && v <= my - 1) {
+                int i = Math.min((int) u, mx - 2);
+                int j = Math.min((int) v, my - 2);
+                double fu = u - i;
+                double fv = v - j;
+                counts[i][j] += (1.0 - fu) * (1.0 - fv);
+                counts[i + 1][j] += fu * (1.0 - fv);
+                counts[i][j + 1] += (1.0 - fu) * fv;
+                counts[i + 1][j + 1] += fu * fv;
+            } // else more than KERNEL_SUPPORT bandwidths outside the grid
+        }
+
+        // smooth along x for every fine y, keeping the rows of the output grid
+        double[][] smoothed = new double[n][my];
+        int size = getTransformSize(mx);
+        double[] kernel = getKernelTransform(size, lx, dx / h[0]);
+        double[] data = new double[2 * size];
+        for (int j = 0; j < my; j += 2) {
+            // two real columns at a time as the real and imaginary parts
+            Arrays.fill(data, 0.0);
+            for (int i = 0; i < mx; i++) {
+                data[2 * i] = counts[i][j];
+                data[2 * i + 1] = (j + 1 < my ? counts[i][j + 1] : 0.0);
+            }
+            convolve(data, kernel, size);
+            for (int i = 0; i < n; i++) {
+                int index = lx + i * rx;
+                smoothed[i][j] = data[2 * index];
+                if (j + 1 < my) {
+                    smoothed[i][j + 1] = data[2 * index + 1];
+                }
+            }
+        }
+
+        // smooth along y and keep the columns of the output grid
+        double[][] density = new double[n][n];
+        final double scale = nx * h[0] * h[1];
+        size = getTransformSize(my);
+        kernel = getKernelTransform(size, ly, dy / h[1]);
+        data = new double[2 * size];
+        for (int i = 0; i < n; i += 2) {
+            Arrays.fill(data, 0.0);
+            for (int j = 0; j < my; j++) {
+                data[2 * j] = smoothed[i][j];
+                data[2 * j + 1] = (i + 1 < n ? smoothed[i + 1][j] : 0.0);
+            }
+            convolve(data, kernel, size);
+            for (int j = 0; j < n; j++) {
+                int index = ly + j * ry;
+                density[i][j] = Math.max(data[2 * index] / scale, 0.0);
+                if (i + 1 < n) {
+                    density[i + 1][j] = Math.max(data[2 * index + 1] / scale, 0.0);
+                }
+            }
+        }
+
+        return density;
+    }
+
+    /**
+     * @return the number of bins per output grid interval so that the bins are no wider than
+     * BIN_WIDTH bandwidths
+     */
+    private int getRefinement(double range, double bandwidth) {
+        double spacing = range / (n - 1);
+        return (int) Math.max(1, Math.min(MAX_REFINEMENT, Math.ceil(spacing / (BIN_WIDTH * bandwidth))));
+    }
+
+    /**
+     * @return the smallest power of 2 that is at least length (a circular convolution of this size
+     * doesn't wrap around for the points that are kept)
+     */
+    private static int getTransformSize(int length) {
+        int size = 1;
+        while (size < length) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return the (real) Fourier transform of the kernel at offsets -support..support bins, each
+     * delta bandwidths apart, divided by the size so the inverse transform needs no scaling
+     */
+    private static double[] getKernelTransform(int size, int support, double delta) {
+        double[] data = new double[2 * size];
+        for (int l = -support; l <= support; l++) {
+            data[2 * ((l + size) % size)] = NormalDistribution.pdf(l * delta, 0, 1);
+        }
+        FastFourierTransform.fft(data, size, false);
+
+        // the kernel is real and symmetric so its transform is real
+        double[] transform = new double[size];
+        for (int k = 0; k < size; k++) {
+            transform[k] = data[2 * k] / size;
+        }
+        return transform;
+    }
+
+    private static void convolve(double[] data, double[] kernelTransform, int size) {
+        FastFourierTransform.fft(data, size, false);
+        for (int k = 0; k < size; k++) {
+            data[2 * k] *= kernelTransform[k];
+            data[2 * k + 1] *= kernelTransform[k];
+        }
+        FastFourierTransform.fft(data, size, true);
+    }
+
     public double findLevelCorrespondingToMass(double probabilityMass) {
         double level = 0;
         double[] sz = new double[n*n];
@@ -299,5 +452,12 @@ public class KernelDensityEstimator2D implements ContourMaker {
     private double[][] z; // KDE estimate;
 
     private final boolean limitBandwidth;
+    private final boolean binned;
+
+    // the kernel is truncated at this many bandwidths
+    private static final double KERNEL_SUPPORT = 6.0;
+    // the maximum width of a bin in bandwidths
+    private static final double BIN_WIDTH = 0.25;
+    private static final int MAX_REFINEMENT = 16;
 
 }
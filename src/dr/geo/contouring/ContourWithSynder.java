@@ -44,6 +44,10 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
         super(x, y, bandwidthLimit);
     }
 
+    public ContourWithSynder(final double[] x, final double[] y, boolean bandwidthLimit, boolean binned) {
+        super(x, y, bandwidthLimit, binned);
+    }
+
     public ContourWithSynder(final double[] x, final double[] y) {
         super(x, y);
     }
@@ -54,7 +58,7 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
 
     public ContourPath[] getContourPaths(double hpdValue) {
 
-        if (contourPaths == null) {
+        if (contourPaths == null || hpdValue != contourHPDValue) {
 
             double thresholdDensity = findLevelCorrespondingToMass(hpdValue);
 
@@ -78,11 +82,13 @@ public class ContourWithSynder extends KernelDensityEstimator2D  {
                 }
                 contourPaths[i] = new ContourPath(new ContourAttrib(thresholdDensity),1,x,y);
             }
+            contourHPDValue = hpdValue;
         }
 
         return contourPaths;
     }
 
     private ContourPath[] contourPaths = null;
+    private double contourHPDValue;
 
 }
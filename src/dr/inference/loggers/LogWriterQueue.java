@@ -0,0 +1,277 @@
+/*
+ * LogWriterQueue.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of log entries that are written out, in order, by a separate thread.
+ *
+ * The chain thread obtains an entry (recycled from those already written so the snapshot
+ * arrays are reused), fills it in with the values for the current state and submits it.
+ * If the writer has fallen behind so that the queue is full, submit blocks until there
+ * is space: log entries are never dropped. flush() blocks until everything submitted has
+ * been written and close() writes everything and then stops the writer thread.
+ *
+ * @author Andrew Rambaut
+ */
+public class LogWriterQueue<T extends LogWriterQueue.Entry> {
+
+    public static final String ASYNC_LOGGING = "log.async";
+    public static final String ASYNC_LOGGING_QUEUE = "log.async.queue";
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // how often, in milliseconds, a submit blocked on a full queue checks the writer hasn't failed
+    private static final long ERROR_CHECK_INTERVAL = 100;
+
+    /**
+     * An entry in the log that is captured on the chain thread and then written on the writer thread.
+     */
+    public interface Entry {
+        /**
+         * Format and write the entry. This is called on the writer thread.
+         */
+        void write();
+    }
+
+    public interface EntryFactory<T> {
+        T createEntry();
+    }
+
+    /**
+     * @return true if the asynchronous logging has been requested (by the log.async property)
+     */
+    public static boolean isAsynchronousLoggingRequested() {
+        return Boolean.parseBoolean(System.getProperty(ASYNC_LOGGING, "false"));
+    }
+
+    /**
+     * @return the queue capacity requested by the log.async.queue property
+     */
+    public static int getRequestedCapacity() {
+        return Integer.parseInt(System.getProperty(ASYNC_LOGGING_QUEUE, Integer.toString(DEFAULT_CAPACITY)));
+    }
+
+    public LogWriterQueue(String name, int capacity, EntryFactory<T> factory) {
+        this.factory = factory;
+        this.queue = new ArrayBlockingQueue<T>(capacity);
+        this.free = new ArrayBlockingQueue<T>(capacity + 1);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, "log-writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return an entry to be filled in, either a recycled one or a new one
+     */
+    public T obtain() {
+        T entry = free.poll();
+        if (entry == null) {
+            entry = factory.createEntry();
+        }
+        return entry;
+    }
+
+    /**
+     * Queue an entry to be written, blocking if the queue is full.
+     */
+    public void submit(T entry) {
+        checkError();
+        if (closed) {
+            throw new IllegalStateException("The log writer has been closed");
+        }
+
+        synchronized (lock) {
+            pendingCount++;
+        }
+
+        if (!queue.offer(entry)) {
+            long time = System.nanoTime();
+            boolean interrupted = false;
+            boolean queued = false;
+            // wait in short steps so a writer that has stopped with an error can't leave us blocked
+            while (!queued && error == null) {
+                try {
+                    queued = queue.offer(entry, ERROR_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            blockedTime += System.nanoTime() - time;
+            blockedCount++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (!queued) {
+                synchronized (lock) {
+                    pendingCount--;
+                }
+                checkError();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all the entries submitted so far have been written.
+     */
+    public void flush() {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (pendingCount > 0 && error == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * Write all the entries submitted so far and then stop the writer thread, waiting for it to
+     * finish. Nothing more can be submitted after this.
+     */
+    public void close() {
+        try {
+            flush();
+        } finally {
+            closed = true;
+            // the queue is empty so the writer is waiting for the next entry
+            writer.interrupt();
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeEntries() {
+        while (true) {
+            T entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+
+            long time = System.nanoTime();
+            try {
+                entry.write();
+                free.offer(entry);
+            } catch (Throwable t) {
+                // anything (including an Error) must be passed back to the chain rather than
+                // quietly ending this thread and leaving flush() waiting for ever
+                error = t;
+            } finally {
+                writerTime += System.nanoTime() - time;
+
+                synchronized (lock) {
+                    pendingCount--;
+                    if (error == null) {
+                        writtenCount++;
+                    }
+                    lock.notifyAll();
+                }
+            }
+
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void checkError() {
+        if (error != null) {
+            throw new RuntimeException("Error writing log: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * @return the total time in nanoseconds the writer thread has spent formatting and writing
+     */
+    public long getWriterTime() {
+        return writerTime;
+    }
+
+    /**
+     * @return the total time in nanoseconds the chain thread has spent blocked on a full queue
+     */
+    public long getBlockedTime() {
+        return blockedTime;
+    }
+
+    /**
+     * @return the number of times the chain thread has been blocked on a full queue
+     */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public long getWrittenCount() {
+        synchronized (lock) {
+            return writtenCount;
+        }
+    }
+
+    private final EntryFactory<T> factory;
+    private final BlockingQueue<T> queue;
+    private final BlockingQueue<T> free;
+    private final Thread writer;
+
+    private final Object lock = new Object();
+    private long pendingCount = 0;
+    private long writtenCount = 0;
+
+    private volatile long writerTime = 0;
+    private long blockedTime = 0;
+    private long blockedCount = 0;
+
+    private volatile Throwable error = null;
+    private volatile boolean closed = false;
+}
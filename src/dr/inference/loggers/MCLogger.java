@@ -239,53 +239,233 @@ public class MCLogger implements Logger {
 
         if (logEvery > 0 && (state % logEvery == 0)) {
 
+            final long time = System.nanoTime();
+
             final int columnCount = getColumnCount();
 
-            String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+            LogWriterQueue<LogEntry> queue = getWriterQueue();
+            if (queue != null) {
+                LogEntry entry = queue.obtain();
+                entry.capture(state);
+                queue.submit(entry);
+            } else {
+                String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
 
-            values[0] = Long.toString(state);
+                values[0] = Long.toString(state);
 
-            for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
+                for (int i = 0; i < columnCount; i++) {
+                    values[i + 1] = getColumnFormatted(i);
+                }
+
+                if (performanceReport) {
+                    values[columnCount + 1] = getPerformanceReport(state);
+                }
+
+                logValues(values);
+            }
+
+            chainThreadTime += System.nanoTime() - time;
+        }
+
+        if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
+            performanceReportStarted = true;
+        }
+
+    }
+
+    private String getPerformanceReport(long state) {
+        if (performanceReportStarted) {
+
+            long time = System.currentTimeMillis();
+
+            double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
+
+            String timePerMillion = formatter.format(hoursPerMillionStates);
+            String units = " hours/million states";
+            if (hoursPerMillionStates < 0.1) {
+                double minutesPerMillionStates = hoursPerMillionStates * 60;
+                timePerMillion = formatter.format(minutesPerMillionStates);
+                units = " minutes/million states";
+                if (minutesPerMillionStates < 0.1) {
+                    double secondsPerMillionStates = minutesPerMillionStates * 60;
+                    timePerMillion = formatter.format(secondsPerMillionStates);
+                    units = " seconds/million states";
+                }
             }
+            return timePerMillion + units;
+
+        } else {
+            return "-";
+        }
+    }
 
+    /**
+     * Write the log on a separate thread. The values of the columns are captured on the calling
+     * thread when log() is called (as doubles for numerical columns whose isFormattedFromDoubleValue()
+     * is true, otherwise as formatted strings) and queued to be formatted and written. If the queue
+     * becomes full, log() will wait for space.
+     *
+     * @param name     a name for the log (used for the writer thread and the timing report)
+     * @param capacity the number of log lines that can be queued
+     */
+    public void setAsynchronous(String name, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The asynchronous log queue capacity must be at least 1");
+        }
+        closeWriterQueue();
+        this.logName = name;
+        this.writerQueueCapacity = capacity;
+    }
+
+    /**
+     * Create the queue of log entries for asynchronous writing. This is done when the first line
+     * is logged so all the columns have been added. Subclasses that override log() and want to
+     * write asynchronously should override this to return a queue of their own entries (and
+     * then use getWriterQueue() in log()).
+     */
+    protected LogWriterQueue<? extends LogWriterQueue.Entry> createWriterQueue(String name, int capacity) {
+        final int columnCount = getColumnCount();
+        numberColumns = new NumberColumn[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            LogColumn column = getColumn(i);
+            if (column instanceof NumberColumn && ((NumberColumn) column).isFormattedFromDoubleValue()) {
+                numberColumns[i] = (NumberColumn) column;
+            }
+        }
+
+        return new LogWriterQueue<LogEntry>(name, capacity, new LogWriterQueue.EntryFactory<LogEntry>() {
+            public LogEntry createEntry() {
+                return new LogEntry(columnCount);
+            }
+        });
+    }
+
+    /**
+     * @return the queue of log entries to be written or null if this log is not asynchronous
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends LogWriterQueue.Entry> LogWriterQueue<T> getWriterQueue() {
+        if (writerQueue == null && writerQueueCapacity > 0) {
+            writerQueue = createWriterQueue(logName, writerQueueCapacity);
+        }
+        return (LogWriterQueue<T>) writerQueue;
+    }
+
+    public boolean isAsynchronous() {
+        return writerQueueCapacity > 0;
+    }
+
+    /**
+     * Blocks until all the log lines queued for writing have been written.
+     */
+    public void flush() {
+        if (writerQueue != null) {
+            writerQueue.flush();
+        }
+    }
+
+    /**
+     * @return the total time in nanoseconds spent logging on the chain thread
+     * (including any time spent waiting for a full queue).
+     */
+    public long getChainThreadTime() {
+        return chainThreadTime;
+    }
+
+    /**
+     * Add to the time spent logging on the chain thread (for subclasses that override log()).
+     */
+    protected void addChainThreadTime(long time) {
+        chainThreadTime += time;
+    }
+
+    /**
+     * @return the total time in nanoseconds spent formatting and writing on the writer
+     * thread (zero if not asynchronous).
+     */
+    public long getWriterThreadTime() {
+        return writerThreadTime + (writerQueue != null ? writerQueue.getWriterTime() : 0);
+    }
+
+    /**
+     * Write everything queued and stop the writer thread.
+     */
+    private void closeWriterQueue() {
+        if (writerQueue != null) {
+            try {
+                writerQueue.close();
+            } finally {
+                writerThreadTime += writerQueue.getWriterTime();
+                writerQueue = null;
+            }
+        }
+    }
+
+    /**
+     * A line of the log captured on the chain thread. Numerical column values are stored as
+     * doubles to be formatted on the writer thread, others are formatted when captured.
+     */
+    private class LogEntry implements LogWriterQueue.Entry {
+
+        LogEntry(int columnCount) {
+            numbers = new double[columnCount];
+            strings = new String[columnCount];
+        }
+
+        void capture(long state) {
+            this.state = state;
+            for (int i = 0; i < numbers.length; i++) {
+                if (numberColumns[i] != null) {
+                    numbers[i] = numberColumns[i].getDoubleValue();
+                } else {
+                    strings[i] = getColumnFormatted(i);
+                }
+            }
             if (performanceReport) {
-                if (performanceReportStarted) {
-
-                    long time = System.currentTimeMillis();
-
-                    double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
-
-                    String timePerMillion = formatter.format(hoursPerMillionStates);
-                    String units = " hours/million states";
-                    if (hoursPerMillionStates < 0.1) {
-                        double minutesPerMillionStates = hoursPerMillionStates * 60;
-                        timePerMillion = formatter.format(minutesPerMillionStates);
-                        units = " minutes/million states";
-                        if (minutesPerMillionStates < 0.1) {
-                            double secondsPerMillionStates = minutesPerMillionStates * 60;
-                            timePerMillion = formatter.format(secondsPerMillionStates);
-                            units = " seconds/million states";
-                        }
-                    }
-                    values[columnCount + 1] = timePerMillion + units;
+                performance = getPerformanceReport(state);
+            }
+        }
+
+        public void write() {
+            String[] values = new String[numbers.length + (performanceReport ? 2 : 1)];
 
+            values[0] = Long.toString(state);
+
+            for (int i = 0; i < numbers.length; i++) {
+                if (numberColumns[i] != null) {
+                    values[i + 1] = numberColumns[i].getFormatted(numbers[i]);
                 } else {
-                    values[columnCount + 1] = "-";
+                    values[i + 1] = strings[i];
                 }
             }
 
-            logValues(values);
-        }
+            if (performanceReport) {
+                values[numbers.length + 1] = performance;
+            }
 
-        if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
-            performanceReportStarted = true;
+            logValues(values);
         }
 
+        private long state;
+        private final double[] numbers;
+        private final String[] strings;
+        private String performance;
     }
 
     public void stopLogging() {
 
+        if (writerQueue != null) {
+            writerQueue.flush();
+
+            java.util.logging.Logger.getLogger("dr.inference").info(String.format(
+                    "Asynchronous log writing (%s): %.1f ms logging on the chain thread, %.1f ms writing on the writer thread (%d waits for a full queue)",
+                    logName,
+                    chainThreadTime / 1.0E6, writerQueue.getWriterTime() / 1.0E6, writerQueue.getBlockedCount()));
+
+            // a new writer is started if logging starts again
+            closeWriterQueue();
+        }
+
         for (LogFormatter formatter : formatters) {
             formatter.stopLogging();
         }
@@ -304,6 +484,8 @@ public class MCLogger implements Logger {
     }
 
     public void setFormatters(List<LogFormatter> formatters) {
+        // lines already queued must go to the current formatters
+        flush();
         this.formatters = formatters;
     }
 
@@ -315,4 +497,11 @@ public class MCLogger implements Logger {
 
     private final NumberFormat formatter = NumberFormat.getNumberInstance();
 
+    private LogWriterQueue<? extends LogWriterQueue.Entry> writerQueue = null;
+    private int writerQueueCapacity = 0;
+    private long writerThreadTime = 0;
+    private String logName = null;
+    private NumberColumn[] numberColumns = null;
+    private long chainThreadTime = 0;
+
 }
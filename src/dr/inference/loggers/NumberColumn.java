@@ -101,7 +101,7 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 	public int getDecimalPlaces() { return dp; }
 	
 
-    public String formatValue(double value) {
+    public synchronized String formatValue(double value) {
        if (dp < 0 && sf < 0) {
 			// return it at full precision
 			return Double.toString(value);
@@ -142,6 +142,35 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 		return formatValue(getDoubleValue());
 	}
 	
+	/**
+	 * Returns a string for the given value formatted and padded as getFormatted()
+	 * would for the current value. This may be called from another thread.
+	 *
+	 * @return the formatted string.
+	 */
+	public final String getFormatted(double value) {
+		StringBuffer buffer = new StringBuffer(formatValue(value));
+
+		int minimumWidth = getMinimumWidth();
+		if (minimumWidth > 0) {
+			while (buffer.length() < minimumWidth) {
+				buffer.append(' ');
+			}
+		}
+
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns true if the formatted value of this column depends only on getDoubleValue(), so
+	 * the value can be captured as a double when it is logged and formatted later (by
+	 * getFormatted(double)) on another thread. Columns are formatted when they are logged
+	 * unless a subclass overrides this to return true.
+	 */
+	public boolean isFormattedFromDoubleValue() {
+		return false;
+	}
+
 	private int getNumFractionDigits(double value) {
 		value = Math.abs(value);
 		for (int i = 0; i < cutoffTable.length; i++) {
@@ -170,6 +170,9 @@ public final class MarkovChain implements Serializable {
             usingFullEvaluation = false;
         boolean fullEvaluationError = false;
 
+        final MarkovChainMetrics metrics = this.metrics;
+        long time = 0;
+
         while (!pleaseStop && (currentState < (currentLength + length))) {
 
             String diagnosticStart = "";
@@ -192,14 +195,18 @@ public final class MarkovChain implements Serializable {
                         ((CompoundLikelihood) likelihood).getDiagnosis() : "";
             }
 
-            // assert Profiler.startProfile("Store");
+            if (metrics != null) {
+                time = System.nanoTime();
+            }
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
-            // assert Profiler.stopProfile("Store");
+            if (metrics != null) {
+                metrics.record(op, MarkovChainMetrics.Phase.STORE, System.nanoTime() - time);
+            }
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -208,20 +215,25 @@ public final class MarkovChain implements Serializable {
             logr[0] = -Double.MAX_VALUE;
 
             // The new model is proposed
-            // assert Profiler.startProfile("Operate");
 
                 if (DEBUG) {
                     System.out.println("\n>> Iteration: " + currentState);
                     System.out.println("\n&& Operator: " + mcmcOperator.getOperatorName());
                 }
 
+            if (metrics != null) {
+                time = System.nanoTime();
+            }
+
             if (mcmcOperator instanceof GeneralOperator) {
                 hastingsRatio = ((GeneralOperator) mcmcOperator).operate(likelihood);
             } else {
                 hastingsRatio = mcmcOperator.operate();
             }
 
-            // assert Profiler.stopProfile("Operate");
+            if (metrics != null) {
+                metrics.record(op, MarkovChainMetrics.Phase.OPERATE, System.nanoTime() - time);
+            }
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -235,9 +247,6 @@ public final class MarkovChain implements Serializable {
             //    System.err.print("" + currentState + ": ");
             if (operatorSucceeded) {
 
-                // The new model is proposed
-                // assert Profiler.startProfile("Evaluate");
-
                 if (DEBUG) {
                     System.out.println("** Evaluate");
                 }
@@ -251,9 +260,17 @@ public final class MarkovChain implements Serializable {
                     }
                 }
 
+                if (metrics != null) {
+                    time = System.nanoTime();
+                }
+
                 // The new model is evaluated
                 score = evaluate(likelihood);
 
+                if (metrics != null) {
+                    metrics.record(op, MarkovChainMetrics.Phase.EVALUATE, System.nanoTime() - time);
+                }
+
                 if (PROFILE) {
                     long duration = System.currentTimeMillis() - elapsedTime;
                     mcmcOperator.addEvaluationTime(duration);
@@ -369,22 +386,35 @@ public final class MarkovChain implements Serializable {
                             + ", old score = " + oldScore);
                 }
 
+                if (metrics != null) {
+                    time = System.nanoTime();
+                }
+
                 mcmcOperator.accept(deviation);
                 currentModel.acceptModelState();
                 currentScore = score;
 
+                if (metrics != null) {
+                    metrics.record(op, MarkovChainMetrics.Phase.ACCEPT, System.nanoTime() - time);
+                }
+
             } else {
                 if (DEBUG) {
                     System.out.println("** Move rejected: new score = " + score
                             + ", old score = " + oldScore + " (logr = " + logr[0] + ")");
                 }
 
-                mcmcOperator.reject();
-
-                // assert Profiler.startProfile("Restore");
+                if (metrics != null) {
+                    time = System.nanoTime();
+                }
 
+                mcmcOperator.reject();
                 currentModel.restoreModelState();
 
+                if (metrics != null) {
+                    metrics.record(op, MarkovChainMetrics.Phase.RESTORE, System.nanoTime() - time);
+                }
+
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
                     // restored state is fully evaluated and the likelihood compared with
@@ -411,7 +441,6 @@ public final class MarkovChain implements Serializable {
                     }
                 }
             }
-            // assert Profiler.stopProfile("Restore");
 
 
             if (useAdaptation && !disableAdaptation && mcmcOperator instanceof AdaptableMCMCOperator) {
@@ -488,6 +517,18 @@ public final class MarkovChain implements Serializable {
         return currentScore;
     }
 
+    /**
+     * Record the time taken by each phase of each move (and by the likelihoods to evaluate) in
+     * the given metrics. By default (or if null) nothing is recorded.
+     */
+    public void setMetrics(MarkovChainMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public MarkovChainMetrics getMetrics() {
+        return metrics;
+    }
+
     public void pleaseStop() {
         pleaseStop = true;
     }
@@ -596,4 +637,6 @@ public final class MarkovChain implements Serializable {
     }
 
     private final ArrayList<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
+
+    private transient MarkovChainMetrics metrics = null;
 }
@@ -0,0 +1,341 @@
+/*
+ * MarkovChainMetrics.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.operators.OperatorSchedule;
+import dr.util.TimingHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Timings of a Markov chain: a histogram of the time taken by each phase (store, operate,
+ * evaluate, accept or restore) of the moves of each operator and of the time taken by each
+ * likelihood to evaluate. These are recorded by the chain when they are given to it with
+ * MarkovChain.setMetrics() and can be written as CSV or JSON or read through JMX.
+ *
+ * @author Andrew Rambaut
+ */
+public class MarkovChainMetrics implements MarkovChainMetricsMBean {
+
+    public enum Phase {
+        STORE("store"),
+        OPERATE("operate"),
+        EVALUATE("evaluate"),
+        ACCEPT("accept"),
+        RESTORE("restore");
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0};
+
+    /**
+     * @param schedule   the operators of the chain
+     * @param likelihood the likelihood of the chain. The evaluation times of the likelihoods of
+     *                   any compound likelihoods in it are recorded.
+     */
+    public MarkovChainMetrics(OperatorSchedule schedule, Likelihood likelihood) {
+        operatorNames = new String[schedule.getOperatorCount()];
+        operatorHistograms = new TimingHistogram[schedule.getOperatorCount()][Phase.values().length];
+        for (int i = 0; i < operatorNames.length; i++) {
+            operatorNames[i] = schedule.getOperator(i).getOperatorName();
+            for (int j = 0; j < Phase.values().length; j++) {
+                operatorHistograms[i][j] = new TimingHistogram();
+            }
+        }
+
+        addLikelihoods(likelihood);
+    }
+
+    private void addLikelihoods(Likelihood likelihood) {
+        if (likelihood instanceof CompoundLikelihood) {
+            Map<Likelihood, TimingHistogram> histograms = ((CompoundLikelihood) likelihood).recordEvaluationTimes();
+            for (Map.Entry<Likelihood, TimingHistogram> entry : histograms.entrySet()) {
+                Likelihood child = entry.getKey();
+                if (child instanceof CompoundLikelihood) {
+                    addLikelihoods(child);
+                } else {
+                    likelihoodNames.add(child.getId() != null ? child.getId() : child.prettyName());
+                    likelihoodHistograms.add(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the time of a phase of a move.
+     *
+     * @param operatorIndex the index of the operator in the schedule
+     * @param phase         the phase
+     * @param time          the time in nanoseconds
+     */
+    public void record(int operatorIndex, Phase phase, long time) {
+        operatorHistograms[operatorIndex][phase.ordinal()].record(time);
+    }
+
+    public String[] getOperatorNames() {
+        return operatorNames.clone();
+    }
+
+    public long[] getOperatorCounts() {
+        long[] counts = new long[operatorNames.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = operatorHistograms[i][Phase.OPERATE.ordinal()].getCount();
+        }
+        return counts;
+    }
+
+    public long[] getOperatorTimes() {
+        long[] times = new long[operatorNames.length];
+        for (int i = 0; i < times.length; i++) {
+            for (TimingHistogram histogram : operatorHistograms[i]) {
+                times[i] += histogram.getTotal();
+            }
+        }
+        return times;
+    }
+
+    public String[] getLikelihoodNames() {
+        return likelihoodNames.toArray(new String[likelihoodNames.size()]);
+    }
+
+    public long[] getLikelihoodEvaluationCounts() {
+        long[] counts = new long[likelihoodHistograms.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = likelihoodHistograms.get(i).getCount();
+        }
+        return counts;
+    }
+
+    public long[] getLikelihoodTimes() {
+        long[] times = new long[likelihoodHistograms.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = likelihoodHistograms.get(i).getTotal();
+        }
+        return times;
+    }
+
+    public String getCSV() {
+        StringWriter writer = new StringWriter();
+        writeCSV(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    public String getJSON() {
+        StringWriter writer = new StringWriter();
+        writeJSON(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Clears all the timings. If the chain is running some of the timings being recorded at the
+     * time may be kept.
+     */
+    public void reset() {
+        for (TimingHistogram[] histograms : operatorHistograms) {
+            for (TimingHistogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+        for (TimingHistogram histogram : likelihoodHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Write a row for each phase of each operator and each likelihood.
+     */
+    public void writeCSV(PrintWriter writer) {
+        writer.print("type,name,phase,count,total,mean,min");
+        for (double percentile : PERCENTILES) {
+            writer.print(",p" + (int) percentile);
+        }
+        writer.println(",max");
+
+        for (int i = 0; i < operatorNames.length; i++) {
+            for (Phase phase : Phase.values()) {
+                writeCSVRow(writer, "operator", operatorNames[i], phase.toString(), operatorHistograms[i][phase.ordinal()]);
+            }
+        }
+        for (int i = 0; i < likelihoodNames.size(); i++) {
+            writeCSVRow(writer, "likelihood", likelihoodNames.get(i), Phase.EVALUATE.toString(), likelihoodHistograms.get(i));
+        }
+        writer.flush();
+    }
+
+    private static void writeCSVRow(PrintWriter writer, String type, String name, String phase, TimingHistogram histogram) {
+        writer.print(type + "," + quoteCSV(name) + "," + phase + "," + histogram.getCount() + "," + histogram.getTotal() +
+                "," + Math.round(histogram.getMean()) + "," + histogram.getMinimum());
+        for (double percentile : PERCENTILES) {
+            writer.print("," + histogram.getPercentile(percentile));
+        }
+        writer.println("," + histogram.getMaximum());
+    }
+
+    private static String quoteCSV(String text) {
+        if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    public void writeJSON(PrintWriter writer) {
+        writer.println("{");
+        writer.println("  \"units\": \"nanoseconds\",");
+        writer.println("  \"operators\": [");
+        for (int i = 0; i < operatorNames.length; i++) {
+            writer.print("    {\"name\": " + quoteJSON(operatorNames[i]));
+            for (Phase phase : Phase.values()) {
+                writer.print(", \"" + phase + "\": ");
+                writeJSONHistogram(writer, operatorHistograms[i][phase.ordinal()]);
+            }
+            writer.println(i < operatorNames.length - 1 ? "}," : "}");
+        }
+        writer.println("  ],");
+        writer.println("  \"likelihoods\": [");
+        for (int i = 0; i < likelihoodNames.size(); i++) {
+            writer.print("    {\"name\": " + quoteJSON(likelihoodNames.get(i)) + ", \"" + Phase.EVALUATE + "\": ");
+            writeJSONHistogram(writer, likelihoodHistograms.get(i));
+            writer.println(i < likelihoodNames.size() - 1 ? "}," : "}");
+        }
+        writer.println("  ]");
+        writer.println("}");
+        writer.flush();
+    }
+
+    private static void writeJSONHistogram(PrintWriter writer, TimingHistogram histogram) {
+        writer.print("{\"count\": " + histogram.getCount() + ", \"total\": " + histogram.getTotal() +
+                ", \"mean\": " + Math.round(histogram.getMean()) + ", \"min\": " + histogram.getMinimum());
+        for (double percentile : PERCENTILES) {
+            writer.print(", \"p" + (int) percentile + "\": " + histogram.getPercentile(percentile));
+        }
+        writer.print(", \"max\": " + histogram.getMaximum() + "}");
+    }
+
+    private static String quoteJSON(String text) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Write the timings so far to a CSV file and a JSON file (replacing any previous contents).
+     */
+    public void writeFiles(File csvFile, File jsonFile) {
+        try {
+            PrintWriter writer = new PrintWriter(new FileWriter(csvFile));
+            writeCSV(writer);
+            writer.close();
+
+            writer = new PrintWriter(new FileWriter(jsonFile));
+            writeJSON(writer);
+            writer.close();
+        } catch (IOException ioe) {
+            Logger.getLogger("dr.inference").warning("Unable to write the chain timings: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Make the timings available through JMX (under dr.inference:type=MarkovChainMetrics). They
+     * stay registered until unregisterMBean() is called.
+     *
+     * @param name a name for the chain (or null for a generated one)
+     */
+    public void registerMBean(String name) {
+        if (name == null) {
+            name = "chain" + UNNAMED_CHAIN_COUNT.incrementAndGet();
+        }
+        try {
+            ObjectName objectName = new ObjectName("dr.inference:type=MarkovChainMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException jme) {
+            Logger.getLogger("dr.inference").warning("Unable to register the chain timings with JMX: " + jme.getMessage());
+        }
+    }
+
+    /**
+     * Remove the timings from JMX (so the server no longer holds on to the chain's likelihood).
+     */
+    public void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException jme) {
+                Logger.getLogger("dr.inference").warning("Unable to unregister the chain timings from JMX: " + jme.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    private static final AtomicInteger UNNAMED_CHAIN_COUNT = new AtomicInteger();
+
+    private ObjectName objectName = null;
+
+    private final String[] operatorNames;
+    private final TimingHistogram[][] operatorHistograms;
+
+    private final List<String> likelihoodNames = new ArrayList<String>();
+    private final List<TimingHistogram> likelihoodHistograms = new ArrayList<TimingHistogram>();
+}
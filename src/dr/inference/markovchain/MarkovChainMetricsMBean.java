@@ -0,0 +1,62 @@
+/*
+ * MarkovChainMetricsMBean.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+/**
+ * The management interface of MarkovChainMetrics (so a running chain can be watched with
+ * JConsole or any other JMX client). All times are in nanoseconds.
+ *
+ * @author Andrew Rambaut
+ */
+public interface MarkovChainMetricsMBean {
+
+    String[] getOperatorNames();
+
+    /**
+     * @return the number of moves made by each operator
+     */
+    long[] getOperatorCounts();
+
+    /**
+     * @return the total time of all the phases of the moves made by each operator
+     */
+    long[] getOperatorTimes();
+
+    String[] getLikelihoodNames();
+
+    long[] getLikelihoodEvaluationCounts();
+
+    long[] getLikelihoodTimes();
+
+    /**
+     * @return a table of the counts, totals and percentiles of all the timings
+     */
+    String getCSV();
+
+    String getJSON();
+
+    void reset();
+}
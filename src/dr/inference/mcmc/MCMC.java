@@ -32,6 +32,7 @@ import dr.inference.loggers.Loggable;
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.markovchain.MarkovChainMetrics;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.operators.*;
@@ -133,7 +134,12 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     }
 
     public void run() {
-        chain();
+        try {
+            chain();
+        } finally {
+            // however the chain ends, don't leave it held by the MBean server
+            unregisterMetrics();
+        }
     }
 
     /**
@@ -171,6 +177,12 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
+            if (metricsFile != null) {
+                MarkovChainMetrics metrics = new MarkovChainMetrics(schedule, mc.getLikelihood());
+                metrics.registerMBean(getId());
+                mc.setMetrics(metrics);
+            }
+
             mc.addMarkovChainListener(chainListener);
 
             long chainLength = getChainLength();
@@ -195,6 +207,7 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
 
             mc.removeMarkovChainListener(chainListener);
 
+            unregisterMetrics();
         }
         timer.stop();
     }
@@ -246,6 +259,10 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                     logger.log(state);
                 }
             }
+
+            if (metricsEvery > 0 && state > 0 && state % metricsEvery == 0) {
+                writeMetrics();
+            }
         }
 
         /**
@@ -283,11 +300,28 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
+            writeMetrics();
+
             // How should premature finish be flagged?
         }
 
     };
 
+    private void unregisterMetrics() {
+        MarkovChainMetrics metrics = mc.getMetrics();
+        if (metrics != null) {
+            metrics.unregisterMBean();
+        }
+    }
+
+    private void writeMetrics() {
+        MarkovChainMetrics metrics = mc.getMetrics();
+        if (metrics != null && metricsFile != null) {
+            File[] files = getMetricsFiles();
+            metrics.writeFiles(files[0], files[1]);
+        }
+    }
+
     /**
      * @return the likelihood function.
      */
@@ -387,6 +421,28 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         this.operatorAnalysisFile = operatorAnalysisFile;
     }
 
+    /**
+     * Record the timings of the chain (see MarkovChainMetrics), which can then be read through
+     * JMX, and write them to a CSV file and a JSON file at the end of the run.
+     *
+     * @param metricsFile  the file names without the .csv and .json extensions
+     * @param metricsEvery if greater than zero the files are also written every this many states
+     */
+    public void setMetricsFile(File metricsFile, long metricsEvery) {
+        this.metricsFile = metricsFile;
+        this.metricsEvery = metricsEvery;
+    }
+
+    /**
+     * @return the CSV file and the JSON file the timings are written to (or null if there are none)
+     */
+    public File[] getMetricsFiles() {
+        if (metricsFile == null) {
+            return null;
+        }
+        return new File[]{new File(metricsFile.getPath() + ".csv"), new File(metricsFile.getPath() + ".json")};
+    }
+
     public String getId() {
         return id;
     }
@@ -402,6 +458,8 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     protected boolean stopping = false;
     protected boolean showOperatorAnalysis = true;
     protected File operatorAnalysisFile = null;
+    protected File metricsFile = null;
+    protected long metricsEvery = 0;
     protected final dr.util.Timer timer = new dr.util.Timer();
     protected long currentState = 0;
     //private int stepsPerReport = 1000;
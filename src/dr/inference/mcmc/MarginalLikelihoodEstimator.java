@@ -25,13 +25,19 @@
 
 package dr.inference.mcmc;
 
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Model;
+import dr.inference.model.Parameter;
 import dr.inference.model.PathLikelihood;
+import dr.inference.model.Variable;
 import dr.inference.operators.*;
+import dr.math.MathUtils;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -42,7 +48,15 @@ import org.apache.commons.math.distribution.BetaDistributionImpl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Andrew Rambaut
@@ -97,22 +111,10 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         mc.setCurrentLength(burnin);
         scheme.init();
         ((CombinedOperatorSchedule) schedule).reset();
-        for (pathParameter = scheme.nextPathParameter(); pathParameter >= 0; pathParameter = scheme.nextPathParameter()) {
-            pathLikelihood.setPathParameter(pathParameter);
+        for (double pathParameter = scheme.nextPathParameter(); pathParameter >= 0; pathParameter = scheme.nextPathParameter()) {
             reportIteration(pathParameter, chainLength, burnin, scheme.pathSteps, scheme.step);
 
-            for (int i = 0; i < schedule.getOperatorCount(); ++i) {
-                MCMCOperator operator = schedule.getOperator(i);
-                if (operator instanceof PathDependent) {
-                    ((PathDependent)operator).setPathParameter(pathParameter);
-                }
-            }
-
-            long cl = mc.getCurrentLength();
-            mc.setCurrentLength(0);
-            mc.runChain(burnin, false/*, 0*/);
-            mc.setCurrentLength(cl);
-            mc.runChain(chainLength, false);
+            runPathStep(pathParameter, mc.getCurrentLength());
 
             if (SHOW_OPERATOR_ANALYSIS) {
             	OperatorAnalysisPrinter.showOperatorAnalysis(System.out, schedule, false);
@@ -121,6 +123,331 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         }
     }
 
+    /**
+     * Run the steps of the path in groups of threadCount at a time, each step of a group on its
+     * own thread with its own copy of the chain (made by the copy factory) and its own random
+     * number stream. The chains of a group all start from the final state of the last step of
+     * the previous group (the first group from the state of this chain) and the logs of the
+     * steps are written in the same order, and with the same state numbers, as integrate().
+     */
+    public void integrateInParallel(Integrator scheme) {
+        setDefaultBurnin();
+        scheme.init();
+
+        List<Double> pathParameters = new ArrayList<Double>();
+        for (double pathParameter = scheme.nextPathParameter(); pathParameter >= 0; pathParameter = scheme.nextPathParameter()) {
+            pathParameters.add(pathParameter);
+        }
+
+        int chainCount = Math.min(threadCount, pathParameters.size());
+
+        java.util.logging.Logger.getLogger("dr.inference").info("Running " + chainCount + " path steps at a time on separate threads");
+
+        // this chain runs the first step of each group and the copies the rest
+        MarginalLikelihoodEstimator[] chains = new MarginalLikelihoodEstimator[chainCount];
+        chains[0] = this;
+        for (int i = 1; i < chainCount; i++) {
+            chains[i] = copyFactory.createCopy(index);
+            chains[i].burnin = burnin;
+            chains[i].bufferLogs(loggers.size());
+            chains[i].mc.addMarkovChainListener(chains[i].chainListener);
+        }
+        for (MarginalLikelihoodEstimator chain : chains) {
+            ((CombinedOperatorSchedule) chain.schedule).reset();
+        }
+
+        // each step gets its own random number stream derived from the run's seed
+        long seed = MathUtils.getSeed();
+
+        ExecutorService pool = Executors.newFixedThreadPool(chainCount);
+        try {
+            MarginalLikelihoodEstimator previous = this;
+            int step = 0;
+            while (step < pathParameters.size()) {
+                int count = Math.min(chainCount, pathParameters.size() - step);
+
+                // copy the starting state to every chain of the group before any of them runs (the
+                // chain that ran the last step of the previous group is one of them)
+                for (int i = 0; i < count; i++) {
+                    if (chains[i] != previous) {
+                        chains[i].copyState(previous);
+                    }
+                }
+
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (int i = 0; i < count; i++) {
+                    final MarginalLikelihoodEstimator chain = chains[i];
+                    final double pathParameter = pathParameters.get(step + i);
+                    final long startState = burnin + (step + i) * chainLength;
+                    final long streamSeed = MathUtils.getStreamSeed(seed, step + i);
+
+                    reportIteration(pathParameter, chainLength, burnin, scheme.pathSteps, step + i + 1);
+
+                    futures.add(pool.submit(new Callable<Void>() {
+                        public Void call() {
+                            MathUtils.setThreadStream(streamSeed);
+                            try {
+                                chain.runPathStep(pathParameter, startState);
+                            } finally {
+                                MathUtils.clearThreadStream();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException ie) {
+                        throw new RuntimeException("Interrupted while running the path steps");
+                    } catch (ExecutionException ee) {
+                        Throwable cause = ee.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw new RuntimeException(cause);
+                    }
+                }
+
+                // the first step of the group has logged directly so add the rest in order
+                for (int i = 1; i < count; i++) {
+                    chains[i].writeBufferedLogs(loggers);
+                }
+
+                for (int i = 0; i < count; i++) {
+                    if (SHOW_OPERATOR_ANALYSIS) {
+                        OperatorAnalysisPrinter.showOperatorAnalysis(System.out, chains[i].schedule, false);
+                    }
+                    ((CombinedOperatorSchedule) chains[i].schedule).reset();
+                }
+
+                previous = chains[count - 1];
+                step += count;
+            }
+        } finally {
+            pool.shutdown();
+            for (int i = 1; i < chainCount; i++) {
+                chains[i].mc.removeMarkovChainListener(chains[i].chainListener);
+                // stops the writer threads of the copies' loggers if they are asynchronous
+                for (MCLogger logger : chains[i].loggers) {
+                    logger.stopLogging();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run one step of the path: a burnin (which isn't logged) followed by chainLength states
+     * numbered from startState.
+     */
+    private void runPathStep(double pathParameter, long startState) {
+        this.pathParameter = pathParameter;
+        pathLikelihood.setPathParameter(pathParameter);
+
+        for (int i = 0; i < schedule.getOperatorCount(); ++i) {
+            MCMCOperator operator = schedule.getOperator(i);
+            if (operator instanceof PathDependent) {
+                ((PathDependent)operator).setPathParameter(pathParameter);
+            }
+        }
+
+        mc.setCurrentLength(0);
+        mc.runChain(burnin, false/*, 0*/);
+        mc.setCurrentLength(startState);
+        mc.runChain(chainLength, false);
+    }
+
+    /**
+     * Set the state of this chain to that of another made from the same XML: the trees, the values
+     * of the parameters of the models and the tuning of the operators. The models of the two are
+     * matched by the order they are reached from the path likelihood.
+     */
+    private void copyState(MarginalLikelihoodEstimator source) {
+        List<Model> sourceModels = new ArrayList<Model>();
+        List<Parameter> sourceParameters = new ArrayList<Parameter>();
+        collectState(source.pathLikelihood.getModel(), Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()),
+                sourceModels, sourceParameters);
+
+        List<Model> models = new ArrayList<Model>();
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        collectState(pathLikelihood.getModel(), Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()),
+                models, parameters);
+
+        if (models.size() != sourceModels.size() || parameters.size() != sourceParameters.size()) {
+            throw new RuntimeException("The copies of the marginal likelihood estimator have different models");
+        }
+
+        for (int i = 0; i < models.size(); i++) {
+            Model model = models.get(i);
+            Model sourceModel = sourceModels.get(i);
+            if (model.getClass() != sourceModel.getClass()) {
+                throw new RuntimeException("The copies of the marginal likelihood estimator have different models: " +
+                        model.getModelName() + " and " + sourceModel.getModelName());
+            }
+            if (model instanceof TreeModel) {
+                copyTree((TreeModel) sourceModel, (TreeModel) model);
+            }
+        }
+
+        for (int i = 0; i < parameters.size(); i++) {
+            Parameter parameter = parameters.get(i);
+            Parameter sourceParameter = sourceParameters.get(i);
+            if (parameter.getDimension() != sourceParameter.getDimension()) {
+                throw new RuntimeException("The copies of the marginal likelihood estimator have different dimensions for parameter " +
+                        parameter.getParameterName());
+            }
+            for (int dim = 0; dim < parameter.getDimension(); dim++) {
+                parameter.setParameterUntransformedValue(dim, sourceParameter.getParameterUntransformedValue(dim));
+            }
+        }
+
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            MCMCOperator operator = schedule.getOperator(i);
+            if (operator instanceof AdaptableMCMCOperator) {
+                ((AdaptableMCMCOperator) operator).setAdaptableParameter(
+                        ((AdaptableMCMCOperator) source.schedule.getOperator(i)).getAdaptableParameter());
+            }
+        }
+    }
+
+    private static void collectState(Model model, Set<Object> visited, List<Model> models, List<Parameter> parameters) {
+        if (!visited.add(model)) {
+            return;
+        }
+        models.add(model);
+
+        for (int i = 0; i < model.getModelCount(); i++) {
+            collectState(model.getModel(i), visited, models, parameters);
+        }
+
+        // the node heights and rates of trees are copied with their structure
+        if (!(model instanceof TreeModel)) {
+            for (int i = 0; i < model.getVariableCount(); i++) {
+                Variable variable = model.getVariable(i);
+                if (variable instanceof Parameter && visited.add(variable)) {
+                    parameters.add((Parameter) variable);
+                }
+            }
+        }
+    }
+
+    /**
+     * Give a tree the topology and node heights (and rates) of another with the same taxa
+     * keeping the node numbers the same.
+     */
+    private static void copyTree(TreeModel source, TreeModel tree) {
+        if (tree.getNodeCount() != source.getNodeCount()) {
+            throw new RuntimeException("The copies of tree " + tree.getId() + " have different numbers of nodes");
+        }
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            if (!tree.getNodeTaxon(tree.getExternalNode(i)).getId().equals(source.getNodeTaxon(source.getExternalNode(i)).getId())) {
+                throw new RuntimeException("The tips of the copies of tree " + tree.getId() + " are not numbered in the same way");
+            }
+        }
+
+        tree.beginTreeEdit();
+
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef node = tree.getNode(i);
+            while (tree.getChildCount(node) > 0) {
+                tree.removeChild(node, tree.getChild(node, tree.getChildCount(node) - 1));
+            }
+        }
+
+        for (int i = 0; i < source.getNodeCount(); i++) {
+            NodeRef node = source.getNode(i);
+            for (int j = 0; j < source.getChildCount(node); j++) {
+                tree.addChild(tree.getNode(i), tree.getNode(source.getChild(node, j).getNumber()));
+            }
+            tree.setNodeHeight(tree.getNode(i), source.getNodeHeight(node));
+            if (tree.hasRates() && source.hasRates()) {
+                tree.setNodeRate(tree.getNode(i), source.getNodeRate(node));
+            }
+        }
+        tree.setRoot(tree.getNode(source.getRoot().getNumber()));
+
+        tree.endTreeEdit();
+    }
+
+    /**
+     * Send the lines logged by this chain's loggers to be kept rather than written.
+     */
+    private void bufferLogs(int loggerCount) {
+        if (loggers.size() != loggerCount) {
+            throw new RuntimeException("The copies of the marginal likelihood estimator have different numbers of loggers");
+        }
+        for (MCLogger logger : loggers) {
+            List<LogFormatter> formatters = new ArrayList<LogFormatter>();
+            formatters.add(new BufferedLogFormatter());
+            logger.setFormatters(formatters);
+            logger.startLogging();
+        }
+    }
+
+    /**
+     * Write the lines kept by this chain's loggers to the matching loggers of another chain and
+     * forget them.
+     */
+    private void writeBufferedLogs(List<MCLogger> destinations) {
+        for (int i = 0; i < loggers.size(); i++) {
+            loggers.get(i).flush();
+            BufferedLogFormatter buffer = (BufferedLogFormatter) loggers.get(i).getFormatters().get(0);
+
+            MCLogger destination = destinations.get(i);
+            destination.flush();
+            for (LogFormatter formatter : destination.getFormatters()) {
+                buffer.writeTo(formatter);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Keeps the lines and values logged, in order, to be written later.
+     */
+    private static class BufferedLogFormatter implements LogFormatter {
+
+        public void startLogging(String title) {
+        }
+
+        public void logHeading(String heading) {
+        }
+
+        public void logLine(String line) {
+            lines.add(line);
+        }
+
+        public void logLabels(String[] labels) {
+        }
+
+        public void logValues(String[] values) {
+            lines.add(values);
+        }
+
+        public void stopLogging() {
+        }
+
+        void writeTo(LogFormatter formatter) {
+            for (Object line : lines) {
+                if (line instanceof String) {
+                    formatter.logLine((String) line);
+                } else {
+                    formatter.logValues((String[]) line);
+                }
+            }
+        }
+
+        void clear() {
+            lines.clear();
+        }
+
+        private final List<Object> lines = new ArrayList<Object>();
+    }
+
     public abstract class Integrator {
         protected int step;
         protected int pathSteps;
@@ -336,32 +663,44 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 throw new RuntimeException("Illegal path scheme");
         }*/
 
+        Integrator integrator;
         switch (scheme) {
             case FIXED:
-                integrate(new FixedThetaRun(fixedRunValues));
+                integrator = new FixedThetaRun(fixedRunValues);
                 break;
             case LINEAR:
-                integrate(new LinearIntegrator(pathSteps));
+                integrator = new LinearIntegrator(pathSteps);
                 break;
             case GEOMETRIC:
-                integrate(new GeometricIntegrator(pathSteps));
+                integrator = new GeometricIntegrator(pathSteps);
                 break;
             case ONE_SIDED_BETA:
-                integrate(new BetaIntegrator(1.0, betaFactor, pathSteps));
+                integrator = new BetaIntegrator(1.0, betaFactor, pathSteps);
                 break;
             case BETA:
-                integrate(new BetaIntegrator(alphaFactor, betaFactor, pathSteps));
+                integrator = new BetaIntegrator(alphaFactor, betaFactor, pathSteps);
                 break;
             case BETA_QUANTILE:
-                integrate(new BetaQuantileIntegrator(alphaFactor, pathSteps));
+                integrator = new BetaQuantileIntegrator(alphaFactor, pathSteps);
                 break;
             case SIGMOID:
-                integrate(new SigmoidIntegrator(alphaFactor, pathSteps));
+                integrator = new SigmoidIntegrator(alphaFactor, pathSteps);
                 break;
             default:
                 throw new RuntimeException("Illegal path scheme");
         }
 
+        if (threadCount > 1 && copyFactory == null) {
+            java.util.logging.Logger.getLogger("dr.inference").warning("No way of copying the marginal likelihood estimator " +
+                    "is available so the path steps will be run one at a time");
+        }
+
+        if (threadCount > 1 && copyFactory != null) {
+            integrateInParallel(integrator);
+        } else {
+            integrate(integrator);
+        }
+
         mc.removeMarkovChainListener(chainListener);
     }
 
@@ -497,6 +836,40 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         return betaFactor;
     }
 
+    /**
+     * @param threadCount the number of path steps to run at once (each on its own thread)
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Makes the copies of the estimator used to run path steps concurrently. Each copy must have
+     * its own models, likelihoods, operators and loggers built in the same way (and in the same
+     * order) as the original.
+     */
+    public interface CopyFactory {
+        /**
+         * @param index the index of the estimator in the order they were created
+         */
+        MarginalLikelihoodEstimator createCopy(int index);
+    }
+
+    /**
+     * Set the factory for copies of the estimator. Without one the path steps are always run one
+     * at a time. The estimators created after this are numbered from 0 (the index passed to the
+     * factory) so it should be set before the file the copies are made from is parsed.
+     */
+    public static void setCopyFactory(CopyFactory copyFactory) {
+        MarginalLikelihoodEstimator.copyFactory = copyFactory;
+        estimatorCount = 0;
+    }
+
+    private static CopyFactory copyFactory = null;
+
+    // the number of estimators created (other than copies) since the copy factory was set
+    private static int estimatorCount = 0;
+
     //PRIVATE METHODS *****************************************
     public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
@@ -572,7 +945,8 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             for (int i = 0; i < mcmcXML.getChildCount(); ++i) {
                 if (mcmcXML.getChild(i) instanceof MCMC) {
                     MCMC mcmc = (MCMC) mcmcXML.getChild(i);
-                    if (prerunLength > 0) {
+                    // a copy starts from the state of the original so doesn't need equilibrating
+                    if (prerunLength > 0 && !XMLParser.isParsingCopy()) {
                         java.util.logging.Logger.getLogger("dr.inference").info("Path Sampling Marginal Likelihood Estimator:\n\tEquilibrating chain " + mcmc.getId() + " for " + prerunLength + " iterations.");
                         for (Logger log : mcmc.getLoggers()) { // Stop the loggers, so nothing gets written to normal output
                             log.stopLogging();
@@ -594,6 +968,11 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             MarginalLikelihoodEstimator mle = new MarginalLikelihoodEstimator(MARGINAL_LIKELIHOOD_ESTIMATOR, chainLength,
                     burninLength, pathSteps, fixedRunValues, scheme, pathLikelihood, os, loggerList);
 
+            if (!XMLParser.isParsingCopy()) {
+                mle.index = estimatorCount;
+                estimatorCount++;
+            }
+
             if (!xo.getAttribute(SPAWN, true))
                 mle.setSpawnable(false);
 
@@ -605,6 +984,14 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 mle.setBetaFactor(xo.getAttribute(BETA, 0.5));
             }
 
+            if (xo.hasAttribute(THREADS)) {
+                int threadCount = xo.getIntegerAttribute(THREADS);
+                if (threadCount < 1) {
+                    throw new XMLParseException("The number of threads must be at least 1");
+                }
+                mle.setThreadCount(threadCount);
+            }
+
             String alphaBetaText = "";
             if (scheme == PathScheme.ONE_SIDED_BETA) {
                 alphaBetaText += "(1," + mle.getBetaFactor() + ")";
@@ -658,6 +1045,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 AttributeRule.newDoubleArrayRule(FIXED_VALUE, true),
                 AttributeRule.newDoubleRule(ALPHA, true),
                 AttributeRule.newDoubleRule(BETA, true),
+                AttributeRule.newIntegerRule(THREADS, true),
                 new ElementRule(MCMC,
                         new XMLSyntaxRule[]{new ElementRule(MCMC.class, 1, Integer.MAX_VALUE)}, false),
                 //new ElementRule(MCMC.class),
@@ -728,6 +1116,8 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
     private double[] fixedRunValues;
     private final double pathDelta;
     private double pathParameter;
+    private int threadCount = 1;
+    private int index = 0;
 
     private final List<MCLogger> loggers;
 
@@ -748,6 +1138,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
     public static final String BETA = "beta";
     public static final String PRERUN = "prerun";
     public static final String PRINT_OPERATOR_ANALYSIS = "printOperatorAnalysis";
+    public static final String THREADS = "threads";
     
     private static boolean SHOW_OPERATOR_ANALYSIS = false;
 }
\ No newline at end of file
@@ -44,6 +44,7 @@ import dr.util.NumberFormatter;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Phaser;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -98,6 +99,15 @@ public class MCMCMC implements Runnable {
             acceptor.setTemperature(mcmcmcOptions.getChainTemperatures()[i]);
         }
 
+        // Each chain gets its own random number stream derived from the run's seed so
+        // the chains don't contend for the shared generator and a run is reproducible
+        // for a given seed and number of chains. The swap moves are still drawn from
+        // the shared generator by this (the coordinating) thread.
+        streamSeeds = new long[chains.length];
+        long seed = MathUtils.getSeed();
+        for (int i = 0; i < chains.length; i++) {
+            streamSeeds[i] = MathUtils.getStreamSeed(seed, i);
+        }
     }
 
     public void run() {
@@ -139,36 +149,33 @@ public class MCMCMC implements Runnable {
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
-        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
+        // The chains and this coordinating thread meet at the phaser twice per swap
+        // interval: once when the last chain finishes its run, and once when the swaps
+        // have been done and the chains can continue.
+        Phaser phaser = new Phaser(chains.length + 1);
+
+        threads = new MCMCMCRunner[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
+            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false,
+                    streamSeeds[i], phaser);
             threads[i].start();
         }
 
-        while (chains[coldChain].getCurrentLength() < getChainLength()) {
+        long length = 0;
+        while (length < getChainLength()) {
 
             // wait for all the threads to complete their alloted chain length
-            boolean allDone;
-            do {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    //
-                }
+            awaitChains(phaser);
 
-                allDone = true;
-                for (int i = 0; i < chains.length; i++) {
-                    if (!threads[i].isChainDone()) {
-                        allDone = false;
-                    }
-                }
-            } while (!allDone);
+            length += mcmcmcOptions.getSwapChainsEvery();
 
-            if (chains[coldChain].getCurrentLength() < getChainLength()) {
+            if (length < getChainLength()) {
                 int oldColdChain = coldChain;
 
-                // attempt to swap two chains' temperatures
-                coldChain = swapChainTemperatures();
+                // attempt to swap pairs of chains' temperatures
+                for (int i = 0; i < mcmcmcOptions.getSwapPairCount(); i++) {
+                    coldChain = swapChainTemperatures();
+                }
 
                 // if the cold chain was involved in a swap then we need to change the
                 // listener that does the logging and the destinations for the coldChainLoggers.
@@ -191,13 +198,14 @@ public class MCMCMC implements Runnable {
 
                 }
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
-                }
+                // let the chains continue
+                awaitChains(phaser);
             }
 
         }
 
+        joinThreads(threads);
+
         finish();
 
         timer.stop();
@@ -205,14 +213,28 @@ public class MCMCMC implements Runnable {
 
     private void runChains(long length, boolean disableCoerce) {
 
-        Thread[] threads = new Thread[chains.length];
+        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], length, length, false);
+            threads[i] = new MCMCMCRunner(chains[i], length, length, false, streamSeeds[i], null);
             threads[i].start();
         }
 
+        joinThreads(threads);
+    }
+
+    /**
+     * Arrives at the phaser and waits for all the chains to do the same.
+     */
+    private void awaitChains(Phaser phaser) {
+        if (phaser.arriveAndAwaitAdvance() < 0) {
+            // one of the chains has failed and terminated the phaser
+            joinThreads(threads);
+        }
+    }
+
+    private void joinThreads(MCMCMCRunner[] threads) {
         // wait for all threads collected to die
-        for (int i = 0; i < chains.length; i++) {
+        for (int i = 0; i < threads.length; i++) {
             // wait doggedly for thread to die
             while (threads[i].isAlive()) {
                 try {
@@ -221,7 +243,13 @@ public class MCMCMC implements Runnable {
                     // DO NOTHING
                 }
             }
+        }
 
+        for (int i = 0; i < threads.length; i++) {
+            Throwable error = threads[i].getError();
+            if (error != null) {
+                throw new RuntimeException("Chain " + (i + 1) + " failed: " + error.getMessage(), error);
+            }
         }
     }
 
@@ -327,6 +355,29 @@ public class MCMCMC implements Runnable {
         System.out.println();
         System.out.println("Time taken: " + timer.toString());
 
+        if (threads != null) {
+            // the time each chain spent waiting for the others gives an idea whether
+            // there are more chains than available cores (or the chains are unbalanced)
+            System.out.println();
+            System.out.println(
+                    formatter.formatToFieldWidth("Chain", 8) +
+                            formatter.formatToFieldWidth("Temperature", 14) +
+                            formatter.formatToFieldWidth("Busy (s)", 12) +
+                            formatter.formatToFieldWidth("Idle (s)", 12) +
+                            "Idle (%)");
+            for (int i = 0; i < threads.length; i++) {
+                double busy = threads[i].getBusyTime() / 1.0E9;
+                double idle = threads[i].getIdleTime() / 1.0E9;
+                double temperature = ((MCMCCriterion) chains[i].getAcceptor()).getTemperature();
+                System.out.println(
+                        formatter.formatToFieldWidth(Integer.toString(i + 1), 8) +
+                                formatter.formatToFieldWidth(formatter.format(temperature), 14) +
+                                formatter.formatToFieldWidth(formatter.formatDecimal(busy, 2), 12) +
+                                formatter.formatToFieldWidth(formatter.formatDecimal(idle, 2), 12) +
+                                formatter.formatDecimal(busy + idle > 0.0 ? 100.0 * idle / (busy + idle) : 0.0, 1));
+            }
+        }
+
         if (showOperatorAnalysis) {
             System.out.println();
             System.out.println("Operator analysis");
@@ -457,6 +508,8 @@ public class MCMCMC implements Runnable {
     private long currentState = 0;
 
     private final MarkovChain[] chains;
+    private final long[] streamSeeds;
+    private MCMCMCRunner[] threads = null;
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
     private int coldChain;
@@ -39,8 +39,17 @@ package dr.inference.mcmcmc;
 public class MCMCMCOptions {
 
     public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery) {
+        this(temperatures, swapChainsEvery, 1);
+    }
+
+    /**
+     * @param swapPairCount the number of randomly chosen pairs of chains for which a
+     *                      temperature swap is attempted each time the chains stop
+     */
+    public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery, final int swapPairCount) {
         this.temperatures = temperatures;
         this.swapChainsEvery = swapChainsEvery;
+        this.swapPairCount = swapPairCount;
     }
 
 
@@ -52,6 +61,11 @@ public class MCMCMCOptions {
         return swapChainsEvery;
     }
 
+    public int getSwapPairCount() {
+        return swapPairCount;
+    }
+
     private final double[] temperatures;
     private final int swapChainsEvery;
+    private final int swapPairCount;
 }
@@ -26,6 +26,9 @@
 package dr.inference.mcmcmc;
 
 import dr.inference.markovchain.MarkovChain;
+import dr.math.MathUtils;
+
+import java.util.concurrent.Phaser;
 
 /**
  * @author rambaut
@@ -35,55 +38,106 @@ import dr.inference.markovchain.MarkovChain;
 public class MCMCMCRunner extends Thread {
 
     public MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce) {
+        this(markovChain, length, totalLength, disableCoerce, 0, null);
+    }
+
+    /**
+     * @param streamSeed if non-zero the chain draws all its random numbers from its own
+     *                   stream with this seed (see MathUtils.getStreamSeed) rather than
+     *                   contending with the other chains for the shared generator.
+     * @param phaser     if not null, after each run of length states the runner arrives at
+     *                   the phaser to signal it is done and then arrives again and waits for
+     *                   the coordinator to allow it to continue (i.e., once the swaps have been
+     *                   made). If null the chain runs for totalLength without stopping.
+     */
+    public MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce,
+                        long streamSeed, Phaser phaser) {
 
         this.markovChain = markovChain;
         this.length = length;
         this.totalLength = totalLength;
         this.disableCoerce = disableCoerce;
+        this.streamSeed = streamSeed;
+        this.phaser = phaser;
     }
 
 	public void run() {
-        long i = 0;
-        while (i < totalLength) {
-            markovChain.runChain(length, disableCoerce/*, 0*/);
-
-            i += length;
-
-	        chainDone();
-
-	        if (i < totalLength) {
-		        while (isChainDone()) {
-			        try {
-				        synchronized(this) {
-					        wait();
-				        }
-			        } catch (InterruptedException e) {
-				        // continue...
-			        }
-		        }
-	        }
+        if (streamSeed != 0) {
+            MathUtils.setThreadStream(streamSeed);
         }
-	}
 
-	private synchronized void chainDone() {
-		chainDone = true;
+        try {
+            long i = 0;
+            while (i < totalLength) {
+                long start = System.nanoTime();
+                markovChain.runChain(phaser != null ? length : totalLength, disableCoerce/*, 0*/);
+                long end = System.nanoTime();
+                busyTime += end - start;
+
+                if (phaser == null) {
+                    break;
+                }
+
+                i += length;
+
+                // signal that this chain is done and wait for the rest...
+                boolean terminated = phaser.arriveAndAwaitAdvance() < 0;
+                if (!terminated && i < totalLength) {
+                    // ...and then for the coordinator to do the swaps
+                    terminated = phaser.arriveAndAwaitAdvance() < 0;
+                }
+                idleTime += System.nanoTime() - end;
+
+                if (terminated) {
+                    // another chain has failed so stop rather than run on unsynchronised
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            failed(e);
+        } catch (Error e) {
+            failed(e);
+        }
 	}
 
-	public synchronized boolean isChainDone() {
-		return chainDone;
-	}
+    private void failed(Throwable e) {
+        error = e;
+        if (phaser != null) {
+            // release everyone else waiting at the phaser rather than leave them hanging
+            phaser.forceTermination();
+        }
+    }
+
+    /**
+     * @return the exception that stopped this chain or null if it is running or completed normally
+     */
+    public Throwable getError() {
+        return error;
+    }
 
-    public synchronized void continueChain() {
-        this.chainDone = false;
-	    notify();
+    /**
+     * @return the total time in nanoseconds that the chain has spent running
+     */
+    public long getBusyTime() {
+        return busyTime;
     }
 
+    /**
+     * @return the total time in nanoseconds that the chain has spent waiting for the other
+     * chains to finish their runs and for the swaps to be done
+     */
+    public long getIdleTime() {
+        return idleTime;
+    }
 
 	private final MarkovChain markovChain;
 	private final long length;
     private final long totalLength;
     private final boolean disableCoerce;
+    private final long streamSeed;
+    private final Phaser phaser;
 
-	private boolean chainDone;
+    private volatile long busyTime = 0;
+    private volatile long idleTime = 0;
+    private volatile Throwable error = null;
 }
-
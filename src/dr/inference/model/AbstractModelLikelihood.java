@@ -86,5 +86,9 @@ public abstract class AbstractModelLikelihood extends AbstractModel implements L
         public double getDoubleValue() {
             return getLogLikelihood();
         }
+
+        public boolean isFormattedFromDoubleValue() {
+            return true;
+        }
     }
 }
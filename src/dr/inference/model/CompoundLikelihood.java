@@ -27,6 +27,7 @@ package dr.inference.model;
 
 import dr.util.Keywordable;
 import dr.util.NumberFormatter;
+import dr.util.TimingHistogram;
 import dr.xml.Reportable;
 
 import java.util.*;
@@ -76,6 +77,12 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             pool = null;
         }
 
+        if (pool != null) {
+            for (LikelihoodCaller caller : callers) {
+                caller.listenToModels();
+            }
+        }
+
         if (EVALUATION_TIMERS) {
             evaluationTimes = new long[this.likelihoods.size()];
             evaluationCounts = new int[this.likelihoods.size()];
@@ -142,7 +149,9 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                     lateLikelihoods.add(likelihood);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        LikelihoodCaller caller = new LikelihoodCaller(likelihood, index);
+                        likelihoodCallers.add(caller);
+                        callers.add(caller);
                     }
                 }
 
@@ -192,7 +201,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyHistograms);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
@@ -200,22 +209,9 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
         if (pool == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateHistograms);
         } else {
-
-            try {
-                List<Future<Double>> results = pool.invokeAll(likelihoodCallers);
-
-                for (Future<Double> result : results) {
-                    double logL = result.get();
-                    logLikelihood += logL;
-                }
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+            logLikelihood += evaluateLikelihoodCallers();
         }
 
 //        if( DEBUG > 0 ) {
@@ -230,7 +226,56 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    /**
+     * Evaluates the likelihoods that may have changed using the thread pool, heaviest first.
+     * The rest are evaluated on this thread (where they should just return their stored
+     * values) as is a single changed likelihood, avoiding the hand-off to the pool.
+     */
+    private double evaluateLikelihoodCallers() {
+        dirtyCallers.clear();
+        for (LikelihoodCaller caller : callers) {
+            caller.pooled = false;
+            if (caller.isDirty()) {
+                dirtyCallers.add(caller);
+            }
+        }
+
+        try {
+            if (dirtyCallers.size() > 1) {
+                Collections.sort(dirtyCallers, COST_COMPARATOR);
+                for (LikelihoodCaller caller : dirtyCallers) {
+                    caller.pooled = true;
+                }
+                poolEvaluationCount++;
+
+                List<Future<Double>> results = pool.invokeAll(dirtyCallers);
+                for (Future<Double> result : results) {
+                    result.get();
+                }
+            }
+
+            for (LikelihoodCaller caller : callers) {
+                if (!caller.pooled) {
+                    caller.call();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        // summed in the original order so the total doesn't depend on the scheduling
+        double logLikelihood = 0.0;
+        for (LikelihoodCaller caller : callers) {
+            logLikelihood += caller.logLikelihood;
+        }
+        return logLikelihood;
+    }
+
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, TimingHistogram[] histograms) {
         double logLikelihood = 0.0;
         int i = 0;
         for (Likelihood likelihood : likelihoods) {
@@ -238,8 +283,12 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                 // this code is only compiled if EVALUATION_TIMERS is true
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
-                evaluationTimes[i] += System.nanoTime() - time;
+                time = System.nanoTime() - time;
+                evaluationTimes[i] += time;
                 evaluationCounts[i] ++;
+                if (histograms != null) {
+                    histograms[i].record(time);
+                }
 
                 if( l == Double.NEGATIVE_INFINITY )
                     return Double.NEGATIVE_INFINITY;
@@ -261,10 +310,43 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
+    /**
+     * Start recording a histogram of the times taken to evaluate each of the likelihoods (this
+     * includes evaluations that just return a stored value).
+     *
+     * @return the histograms of the likelihoods in the order of getLikelihoods()
+     */
+    public Map<Likelihood, TimingHistogram> recordEvaluationTimes() {
+        if (evaluationHistograms == null) {
+            Map<Likelihood, TimingHistogram> histograms = new LinkedHashMap<Likelihood, TimingHistogram>();
+            for (Likelihood likelihood : likelihoods) {
+                histograms.put(likelihood, new TimingHistogram());
+            }
+
+            earlyHistograms = new TimingHistogram[earlyLikelihoods.size()];
+            for (int i = 0; i < earlyHistograms.length; i++) {
+                earlyHistograms[i] = histograms.get(earlyLikelihoods.get(i));
+            }
+            lateHistograms = new TimingHistogram[lateLikelihoods.size()];
+            for (int i = 0; i < lateHistograms.length; i++) {
+                lateHistograms[i] = histograms.get(lateLikelihoods.get(i));
+            }
+            for (LikelihoodCaller caller : callers) {
+                caller.histogram = histograms.get(caller.likelihood);
+            }
+
+            evaluationHistograms = Collections.unmodifiableMap(histograms);
+        }
+        return evaluationHistograms;
+    }
+
     public void makeDirty() {
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
         }
+        for (LikelihoodCaller caller : callers) {
+            caller.dirty = true;
+        }
     }
 
     public boolean evaluateEarly() {
@@ -357,6 +439,14 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     public int getThreadCount() {
         return threadCount;
     }
+
+    /**
+     * @return the number of evaluations in which more than one likelihood had changed so the
+     * thread pool was used
+     */
+    public long getPoolEvaluationCount() {
+        return poolEvaluationCount;
+    }
     
     public long[] getEvaluationTimes() {
     	return evaluationTimes;
@@ -422,6 +512,10 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             return getLogLikelihood();
         }
 
+        public boolean isFormattedFromDoubleValue() {
+            return true;
+        }
+
         @Override
         public void addKeyword(String keyword) {
             throw new UnsupportedOperationException("Can't add keywords here");
@@ -522,30 +616,101 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     private final ArrayList<Likelihood> lateLikelihoods = new ArrayList<Likelihood>();
 
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
+    private final List<LikelihoodCaller> callers = new ArrayList<LikelihoodCaller>();
+    private final List<LikelihoodCaller> dirtyCallers = new ArrayList<LikelihoodCaller>();
+
+    private long poolEvaluationCount = 0;
+
+    // only recorded once recordEvaluationTimes() has been called
+    private Map<Likelihood, TimingHistogram> evaluationHistograms = null;
+    private TimingHistogram[] earlyHistograms = null;
+    private TimingHistogram[] lateHistograms = null;
+
+    // the most expensive likelihoods are started first
+    private static final Comparator<LikelihoodCaller> COST_COMPARATOR = new Comparator<LikelihoodCaller>() {
+        public int compare(LikelihoodCaller caller1, LikelihoodCaller caller2) {
+            return Double.compare(caller2.cost, caller1.cost);
+        }
+    };
 
-    class LikelihoodCaller implements Callable<Double> {
+    // the weight given to the latest time in the running average of the cost of each likelihood
+    private static final double COST_WEIGHT = 0.1;
+
+    class LikelihoodCaller implements Callable<Double>, ModelListener {
+
+        private static final long serialVersionUID = 3255146778357825552L;
 
         public LikelihoodCaller(Likelihood likelihood, int index) {
             this.likelihood = likelihood;
             this.index = index;
         }
 
+        /**
+         * Listen for changes to the likelihood's model and all its submodels. A likelihood
+         * without a model is always considered to have changed.
+         */
+        void listenToModels() {
+            if (likelihood.getModel() != null) {
+                addListener(likelihood.getModel(), new HashSet<Model>());
+            }
+        }
+
+        private void addListener(Model model, Set<Model> visited) {
+            if (visited.add(model)) {
+                model.addModelListener(this);
+                for (int i = 0; i < model.getModelCount(); i++) {
+                    addListener(model.getModel(i), visited);
+                }
+            }
+        }
+
+        boolean isDirty() {
+            return dirty || likelihood.getModel() == null;
+        }
+
+        public void modelChangedEvent(Model model, Object object, int index) {
+            dirty = true;
+        }
+
+        public void modelRestored(Model model) {
+            dirty = true;
+        }
+
         public Double call() throws Exception {
             if (DEBUG_PARALLEL_EVALUATION) {
                 System.err.print("Invoking thread #" + index + " for " + likelihood.getId() + ": ");
             }
+            final boolean changed = isDirty();
+            // cleared first so any change during the evaluation leaves it dirty
+            dirty = false;
+
+            long time = System.nanoTime();
+            logLikelihood = likelihood.getLogLikelihood();
+            time = System.nanoTime() - time;
+
             if (EVALUATION_TIMERS) {
-                long time = System.nanoTime();
-                double logL = likelihood.getLogLikelihood();
-                evaluationTimes[index] += System.nanoTime() - time;
+                evaluationTimes[index] += time;
                 evaluationCounts[index] ++;
-                return logL;
             }
-            return likelihood.getLogLikelihood();
+            if (histogram != null) {
+                histogram.record(time);
+            }
+            if (changed) {
+                // only the times of actual recalculations go into the cost
+                cost = (cost < 0.0 ? time : cost + COST_WEIGHT * (time - cost));
+            }
+
+            return logLikelihood;
         }
 
         private final Likelihood likelihood;
         private final int index;
+
+        private volatile boolean dirty = true;
+        private boolean pooled = false;
+        private volatile double logLikelihood;
+        private volatile double cost = -1.0;
+        private TimingHistogram histogram = null;
     }
 
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
@@ -210,6 +210,10 @@ public interface Likelihood extends Loggable, Identifiable {
             public double getDoubleValue() {
                 return getLogLikelihood();
             }
+
+            public boolean isFormattedFromDoubleValue() {
+                return true;
+            }
         }
 
         // **************************************************************
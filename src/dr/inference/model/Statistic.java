@@ -199,6 +199,10 @@ public interface Statistic extends Attribute<double[]>, Identifiable, Loggable {
 
             public double getDoubleValue() {
                 return getStatisticValue(dim); }
+
+            public boolean isFormattedFromDoubleValue() {
+                return true;
+            }
         }
     }
 }
@@ -152,6 +152,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim).doubleValue();
             }
+
+            public boolean isFormattedFromDoubleValue() {
+                return true;
+            }
         }
 
         /**
@@ -321,6 +325,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim);
             }
+
+            public boolean isFormattedFromDoubleValue() {
+                return true;
+            }
         }
 
         String id;
@@ -635,6 +643,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim);
             }
+
+            public boolean isFormattedFromDoubleValue() {
+                return true;
+            }
         }
 
         String id;
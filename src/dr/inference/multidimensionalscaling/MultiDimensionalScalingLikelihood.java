@@ -222,6 +222,9 @@ public class MultiDimensionalScalingLikelihood extends AbstractModelLikelihood i
             System.err.println("Attempting to use a native MDS core with flag: " + computeMode + "; may the force be with you ....");
             core = new MassivelyParallelMDSImpl();
             flags = computeMode;
+        } else if (System.getProperty(ParallelMultiDimensionalScalingCoreImpl.THREADS_PROPERTY) != null) {
+            System.err.println("Using a multi-threaded Java MDS core");
+            core = new ParallelMultiDimensionalScalingCoreImpl();
         } else {
             System.err.println("Computer mode found: " + computeMode + " vs. " + r);
             core = new MultiDimensionalScalingCoreImpl();
@@ -0,0 +1,564 @@
+/*
+ * ParallelMultiDimensionalScalingCoreImpl.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import dr.math.distributions.NormalDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A multi-threaded Java MDS core. The observations and increments are kept in flat arrays (a row
+ * per location) and the locations in a flat array of coordinates (a run of all the locations for
+ * each dimension) so the loops over the columns of a row read memory in order. A full
+ * recomputation splits the rows into blocks on the core's own fork-join pool, each block
+ * visiting the columns in tiles so they stay in cache.
+ * The gradient with respect to the locations is found in the same pass once it has been asked
+ * for. A change to a single location is handled, as in MultiDimensionalScalingCoreImpl, by
+ * recomputing its row of increments on the calling thread.
+ *
+ * This core is used (when no native core has been asked for with mds.required.flags) if the
+ * mds.java.threads property is set to the number of threads (0 for one per processor).
+ *
+ * Missing (NaN) observations make no contribution to the likelihood (neither to the sum of
+ * increments nor to the normalising constant) or to the gradient.
+ *
+ * @author Andrew Rambaut
+ * @author Marc Suchard
+ * @version $Id$
+ */
+public class ParallelMultiDimensionalScalingCoreImpl implements MultiDimensionalScalingCore {
+
+    public static final String THREADS_PROPERTY = "mds.java.threads";
+
+    // Fewer locations than this per block and the cost of the hand-off outweighs the work
+    private static final int MIN_LOCATIONS_PER_BLOCK = 64;
+
+    // The number of columns of a block visited for each of its rows before moving on
+    private static final int DEFAULT_TILE_SIZE = 512;
+
+    public ParallelMultiDimensionalScalingCoreImpl() {
+        this(getDefaultThreadCount());
+    }
+
+    public ParallelMultiDimensionalScalingCoreImpl(int threadCount) {
+        this(threadCount, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param threadCount the number of threads to use for a full recomputation
+     * @param tileSize    the number of columns visited for each row of a block before moving on
+     */
+    public ParallelMultiDimensionalScalingCoreImpl(int threadCount, int tileSize) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("The thread count must be at least 1");
+        }
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("The tile size must be at least 1");
+        }
+        this.threadCount = threadCount;
+        this.tileSize = tileSize;
+    }
+
+    private static int getDefaultThreadCount() {
+        String r = System.getProperty(THREADS_PROPERTY);
+        if (r != null) {
+            try {
+                int threadCount = Integer.parseInt(r.trim());
+                if (threadCount > 0) {
+                    return threadCount;
+                }
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + THREADS_PROPERTY + "' environmental property");
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+        this.observationCount = (locationCount * (locationCount - 1)) / 2;
+
+        observations = new double[locationCount * locationCount];
+        increments = new double[locationCount * locationCount];
+        storedIncrements = new double[locationCount];
+        hasStoredIncrements = false;
+        incrementsKnown = false;
+        sumOfIncrementsKnown = false;
+
+        isLeftTruncated = (flags & MultiDimensionalScalingCore.LEFT_TRUNCATION) != 0;
+
+        updatedLocation = -1;
+
+        coordinates = new double[embeddingDimension * locationCount];
+        storedCoordinates = new double[embeddingDimension * locationCount];
+        rowBuffers = new RowBuffers(embeddingDimension, tileSize);
+
+        rowSums = new double[locationCount];
+        gradient = new double[locationCount * embeddingDimension];
+        gradientRequested = false;
+        gradientKnown = false;
+
+        int blockCount = Math.max(1, Math.min(threadCount, locationCount / MIN_LOCATIONS_PER_BLOCK));
+        blockTasks = new ArrayList<RowBlockTask>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int start = (int) ((long) locationCount * i / blockCount);
+            int end = (int) ((long) locationCount * (i + 1) / blockCount);
+            blockTasks.add(new RowBlockTask(start, end));
+        }
+
+        if (blockCount > 1 && pool == null) {
+            pool = new ForkJoinPool(threadCount);
+        }
+    }
+
+    @Override
+    public void setPairwiseData(double[] observations) {
+        if (observations.length != (locationCount * locationCount)) {
+            throw new RuntimeException("Observation data is not the correct dimension");
+        }
+
+        System.arraycopy(observations, 0, this.observations, 0, observations.length);
+
+        hasMissing = false;
+        for (double observation : observations) {
+            hasMissing |= Double.isNaN(observation);
+        }
+
+        // only the pairs that have been observed contribute to the normalising constant
+        observationCount = 0;
+        for (int i = 0; i < locationCount; i++) {
+            for (int j = i + 1; j < locationCount; j++) {
+                if (!Double.isNaN(observations[i * locationCount + j])) {
+                    observationCount++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public double[] getPairwiseData() {
+        double[] data = new double[locationCount * locationCount];
+        System.arraycopy(observations, 0, data, 0, data.length);
+        return data;
+    }
+
+    @Override
+    public int getInternalDimension() {
+        return embeddingDimension;
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        precision = parameters[0];
+
+        // Handle truncations
+        if (isLeftTruncated) {
+            incrementsKnown = false;
+            sumOfIncrementsKnown = false;
+        }
+        gradientKnown = false;
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (updatedLocation != -1 || locationIndex == -1) {
+            // more than one location updated - do a full re-computation
+            incrementsKnown = false;
+            hasStoredIncrements = false;
+        }
+
+        if (locationIndex != -1) {
+            updatedLocation = locationIndex;
+
+            if (location.length != embeddingDimension) {
+                throw new RuntimeException("Location is not the correct dimension");
+            }
+
+            for (int k = 0; k < embeddingDimension; k++) {
+                coordinates[k * locationCount + locationIndex] = location[k];
+            }
+
+        } else {
+            if (location.length != embeddingDimension * locationCount) {
+                throw new RuntimeException("Location is the not correct dimension");
+            }
+
+            int offset = 0;
+            for (int i = 0; i < locationCount; ++i) {
+                for (int k = 0; k < embeddingDimension; k++) {
+                    coordinates[k * locationCount + i] = location[offset + k];
+                }
+                offset += embeddingDimension;
+            }
+        }
+
+        sumOfIncrementsKnown = false;
+        gradientKnown = false;
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        if (!sumOfIncrementsKnown) {
+
+            if (!incrementsKnown) {
+                computeSumOfIncrements();
+            } else {
+                updateSumOfIncrements();
+            }
+            sumOfIncrementsKnown = true;
+        }
+
+        double logLikelihood = 0.5 * (Math.log(precision) - Math.log(2 * Math.PI)) * observationCount;
+
+        if (isLeftTruncated) {
+            logLikelihood -= sumOfIncrements; // If truncated, then values on difference scale
+        } else {
+            logLikelihood -= 0.5 * precision * sumOfIncrements;
+        }
+
+        return logLikelihood;
+    }
+
+    @Override
+    public void storeState() {
+        // Handle residuals
+        storedSumOfIncrements = sumOfIncrements;
+        hasStoredIncrements = false;
+
+        // Handle locations
+        System.arraycopy(coordinates, 0, storedCoordinates, 0, coordinates.length);
+        updatedLocation = -1;
+
+        // Handle precision
+        storedPrecision = precision;
+    }
+
+    @Override
+    public void restoreState() {
+        // Handle residuals
+        sumOfIncrements = storedSumOfIncrements;
+        sumOfIncrementsKnown = true;
+
+        if (hasStoredIncrements) {
+            System.arraycopy(storedIncrements, 0, increments, updatedLocation * locationCount, locationCount);
+            incrementsKnown = true;
+            hasStoredIncrements = false;
+        } else {
+            incrementsKnown = false;
+        }
+
+        // Handle locations
+        double[] tmp1 = storedCoordinates;
+        storedCoordinates = coordinates;
+        coordinates = tmp1;
+
+        // Handle precision
+        precision = storedPrecision;
+
+        gradientKnown = false;
+    }
+
+    @Override
+    public void acceptState() {
+        if (hasStoredIncrements) {
+            final int offset = updatedLocation * locationCount;
+            for (int j = 0; j < locationCount; ++j) {
+                increments[j * locationCount + updatedLocation] = increments[offset + j];
+            }
+            hasStoredIncrements = false;
+        }
+    }
+
+    @Override
+    public void getGradient(double[] location) {
+        if (location.length != gradient.length) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        if (!gradientKnown) {
+            // from now on the gradient is found with every full recomputation
+            gradientRequested = true;
+            computeSumOfIncrements();
+            sumOfIncrementsKnown = true;
+        }
+
+        System.arraycopy(gradient, 0, location, 0, gradient.length);
+    }
+
+    @Override
+    public void makeDirty() {
+        sumOfIncrementsKnown = false;
+        incrementsKnown = false;
+        hasStoredIncrements = false;
+        gradientKnown = false;
+    }
+
+    private void computeSumOfIncrements() {
+
+        if (blockTasks.size() == 1) {
+            blockTasks.get(0).call();
+        } else {
+            try {
+                List<Future<Void>> results = pool.invokeAll(blockTasks);
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("MDS likelihood evaluation interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        // sum the rows in order so the result does not depend on the number of blocks
+        sumOfIncrements = 0.0;
+        for (int i = 0; i < locationCount; i++) {
+            sumOfIncrements += rowSums[i];
+        }
+        sumOfIncrements /= 2;
+
+        incrementsKnown = true;
+        sumOfIncrementsKnown = true;
+        hasStoredIncrements = false;
+        gradientKnown = gradientRequested;
+    }
+
+    private void updateSumOfIncrements() {
+
+        final int i = updatedLocation;
+
+        System.arraycopy(increments, i * locationCount, storedIncrements, 0, locationCount);
+        hasStoredIncrements = true;
+
+        double oldSum = 0.0;
+        for (int j = 0; j < locationCount; j++) {
+            oldSum += storedIncrements[j];
+        }
+
+        // Do not write transposed values until the state is accepted
+        final double oneOverSd = Math.sqrt(precision);
+        double newSum = 0.0;
+        for (int tileStart = 0; tileStart < locationCount; tileStart += tileSize) {
+            newSum += computeRow(i, tileStart, Math.min(tileStart + tileSize, locationCount), oneOverSd,
+                    rowBuffers, false);
+        }
+        sumOfIncrements += newSum - oldSum;
+    }
+
+    /**
+     * Computes the increments of the pairs (i, j) for j from 'from' to 'to' (exclusive, at most
+     * tileSize columns). If withGradient, the derivatives of the contributions of these pairs to
+     * the log likelihood with respect to location i are added to the gradient of the buffers.
+     *
+     * @return the sum of the increments
+     */
+    private double computeRow(final int i, final int from, final int to, final double oneOverSd,
+                              final RowBuffers buffers, final boolean withGradient) {
+        final int n = locationCount;
+        final int length = to - from;
+        final double[] coordinates = this.coordinates;
+        final double[] observations = this.observations;
+        final double[] increments = this.increments;
+        final double[] distances = buffers.distances;
+        final double[] factors = buffers.factors;
+        final boolean hasMissing = this.hasMissing;
+        final double scale = 0.5 * precision;
+        final int rowOffset = i * n;
+
+        for (int j = 0; j < length; j++) {
+            distances[j] = 0.0;
+        }
+        for (int k = 0; k < embeddingDimension; k++) {
+            final int offset = k * n + from;
+            final double x = coordinates[k * n + i];
+            for (int j = 0; j < length; j++) {
+                final double difference = x - coordinates[offset + j];
+                distances[j] += difference * difference;
+            }
+        }
+
+        double sum = 0.0;
+        for (int j = 0; j < length; j++) {
+            final double observation = observations[rowOffset + from + j];
+            if (hasMissing && Double.isNaN(observation)) {
+                increments[rowOffset + from + j] = 0.0;
+                factors[j] = 0.0;
+                continue;
+            }
+
+            final double distance = Math.sqrt(distances[j]);
+            final double residual = distance - observation;
+            double increment = residual * residual;
+
+            double derivative = precision * residual; // of minus the log likelihood with respect to the distance
+            if (isLeftTruncated) {
+                increment = scale * increment;
+                if (i != from + j) {
+                    final double z = distance * oneOverSd;
+                    final double logCdf = NormalDistribution.standardCDF(z, true);
+                    increment += logCdf;
+                    derivative += oneOverSd * Math.exp(-0.5 * z * z - LOG_SQRT_2_PI - logCdf);
+                }
+            }
+
+            increments[rowOffset + from + j] = increment;
+            sum += increment;
+
+            if (withGradient) {
+                factors[j] = (distance > 0.0 ? -derivative / distance : 0.0);
+            }
+        }
+
+        if (withGradient) {
+            final double[] gradient = buffers.gradient;
+            for (int k = 0; k < embeddingDimension; k++) {
+                final int offset = k * n + from;
+                final double x = coordinates[k * n + i];
+                double factorSum = 0.0;
+                double weightedSum = 0.0;
+                for (int j = 0; j < length; j++) {
+                    factorSum += factors[j];
+                    weightedSum += factors[j] * coordinates[offset + j];
+                }
+                gradient[k] += x * factorSum - weightedSum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The scratch space of the rows being computed by one thread.
+     */
+    private static class RowBuffers {
+        RowBuffers(int embeddingDimension, int tileSize) {
+            distances = new double[tileSize];
+            factors = new double[tileSize];
+            gradient = new double[embeddingDimension];
+        }
+
+        final double[] distances;
+        final double[] factors;
+        final double[] gradient;
+    }
+
+    /**
+     * Computes the increments (and the gradient, if asked for) of a block of rows.
+     */
+    private class RowBlockTask implements Callable<Void> {
+
+        RowBlockTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.buffers = new RowBuffers(embeddingDimension, tileSize);
+        }
+
+        public Void call() {
+            final int dim = embeddingDimension;
+            final double oneOverSd = Math.sqrt(precision);
+            final boolean withGradient = gradientRequested;
+
+            for (int i = start; i < end; i++) {
+                rowSums[i] = 0.0;
+            }
+            if (withGradient) {
+                for (int v = start * dim; v < end * dim; v++) {
+                    gradient[v] = 0.0;
+                }
+            }
+
+            for (int tileStart = 0; tileStart < locationCount; tileStart += tileSize) {
+                final int tileEnd = Math.min(tileStart + tileSize, locationCount);
+
+                for (int i = start; i < end; i++) {
+                    if (withGradient) {
+                        for (int k = 0; k < dim; k++) {
+                            buffers.gradient[k] = 0.0;
+                        }
+                    }
+
+                    rowSums[i] += computeRow(i, tileStart, tileEnd, oneOverSd, buffers, withGradient);
+
+                    if (withGradient) {
+                        for (int k = 0; k < dim; k++) {
+                            gradient[i * dim + k] += buffers.gradient[k];
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private final int start;
+        private final int end;
+        private final RowBuffers buffers;
+    }
+
+    private static final double LOG_SQRT_2_PI = 0.5 * Math.log(2 * Math.PI);
+
+    private final int threadCount;
+    private final int tileSize;
+    // each core has its own pool so it gets the number of threads it was made with
+    private ForkJoinPool pool = null;
+    private List<RowBlockTask> blockTasks;
+
+    private int embeddingDimension;
+    private boolean isLeftTruncated = false;
+    private int locationCount;
+    private int observationCount;
+    private double precision;
+    private double storedPrecision;
+
+    private int updatedLocation = -1;
+
+    private double[] observations;
+    private boolean hasMissing = false;
+    private double[] coordinates;
+    private double[] storedCoordinates;
+
+    private boolean incrementsKnown = false;
+
+    private boolean sumOfIncrementsKnown = false;
+    private double[] increments;
+    private double[] rowSums;
+    private RowBuffers rowBuffers;
+
+    private double[] storedIncrements;
+    private boolean hasStoredIncrements = false;
+
+    private double sumOfIncrements;
+    private double storedSumOfIncrements;
+
+    private double[] gradient;
+    private boolean gradientRequested = false;
+    private boolean gradientKnown = false;
+}
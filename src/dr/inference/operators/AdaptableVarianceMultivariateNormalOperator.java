@@ -37,6 +37,7 @@ import dr.math.MathUtils;
 import dr.math.matrixAlgebra.CholeskyDecomposition;
 import dr.math.matrixAlgebra.IllegalDimension;
 import dr.math.matrixAlgebra.SymmetricMatrix;
+import dr.math.matrixAlgebra.UpdatableCholeskyDecomposition;
 import dr.util.Transform;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
@@ -61,6 +62,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
     public static final String FORM_XTX = "formXtXInverse";
     public static final String COEFFICIENT = "coefficient";
     public static final String SKIP_RANK_CHECK = "skipRankCheck";
+    public static final String CHOLESKY_UPDATE = "choleskyUpdate";
 
     public static final String TRANSFORM = "transform";
     public static final String TYPE = "type";
@@ -87,8 +89,29 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
     private double[] epsilon;
     private double[][] proposal;
 
+    // when choleskyUpdate is set the factors of the empirical and initial matrices are kept
+    // separately and the factor of the empirical matrix is updated in O(dim^2) rather than
+    // decomposing the proposal matrix in O(dim^3) at every update.
+    private final boolean choleskyUpdate;
+    private UpdatableCholeskyDecomposition empiricalFactor;
+    private UpdatableCholeskyDecomposition initialFactor;
+    private boolean empiricalFactorKnown = false;
+    private double[] deviation;
+
     public AdaptableVarianceMultivariateNormalOperator(Parameter parameter, Transform[] transformations, int[] transformationSizes, double[] transformationSums, double scaleFactor, double[][] inMatrix,
                                                        double weight, double beta, int initial, int burnin, int every, AdaptationMode mode, boolean isVarianceMatrix, boolean skipRankCheck) {
+        this(parameter, transformations, transformationSizes, transformationSums, scaleFactor, inMatrix, weight, beta, initial, burnin, every, mode, isVarianceMatrix, skipRankCheck, false);
+    }
+
+    /**
+     * @param choleskyUpdate update the Cholesky factor of the empirical covariance matrix with each new
+     *                       sample rather than decomposing the proposal matrix again. The proposal is then
+     *                       drawn as the sum of draws using the factors of the empirical and initial matrices
+     *                       (so the random numbers used differ from the default).
+     */
+    public AdaptableVarianceMultivariateNormalOperator(Parameter parameter, Transform[] transformations, int[] transformationSizes, double[] transformationSums, double scaleFactor, double[][] inMatrix,
+                                                       double weight, double beta, int initial, int burnin, int every, AdaptationMode mode, boolean isVarianceMatrix, boolean skipRankCheck,
+                                                       boolean choleskyUpdate) {
 
         super(mode);
         this.scaleFactor = scaleFactor;
@@ -138,11 +161,27 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
         } catch (IllegalDimension illegalDimension) {
             throw new RuntimeException("Unable to decompose matrix in AdaptableVarianceMultivariateNormalOperator");
         }
+
+        this.choleskyUpdate = choleskyUpdate;
+        if (choleskyUpdate) {
+            empiricalFactor = new UpdatableCholeskyDecomposition(dim);
+            initialFactor = new UpdatableCholeskyDecomposition(dim);
+            if (!initialFactor.decompose(matrix)) {
+                throw new RuntimeException("Unable to decompose matrix in AdaptableVarianceMultivariateNormalOperator");
+            }
+            deviation = new double[dim];
+        }
     }
 
     public AdaptableVarianceMultivariateNormalOperator(Parameter parameter, Transform[] transformations, int[] transformationSizes, double[] transformationSums, double scaleFactor,
                                                        MatrixParameter varMatrix, double weight, double beta, int initial, int burnin, int every, AdaptationMode mode, boolean isVariance, boolean skipRankCheck) {
-        this(parameter, transformations, transformationSizes, transformationSums, scaleFactor, varMatrix.getParameterAsMatrix(), weight, beta, initial, burnin, every, mode, isVariance, skipRankCheck);
+        this(parameter, transformations, transformationSizes, transformationSums, scaleFactor, varMatrix.getParameterAsMatrix(), weight, beta, initial, burnin, every, mode, isVariance, skipRankCheck, false);
+    }
+
+    public AdaptableVarianceMultivariateNormalOperator(Parameter parameter, Transform[] transformations, int[] transformationSizes, double[] transformationSums, double scaleFactor,
+                                                       MatrixParameter varMatrix, double weight, double beta, int initial, int burnin, int every, AdaptationMode mode, boolean isVariance, boolean skipRankCheck,
+                                                       boolean choleskyUpdate) {
+        this(parameter, transformations, transformationSizes, transformationSums, scaleFactor, varMatrix.getParameterAsMatrix(), weight, beta, initial, burnin, every, mode, isVariance, skipRankCheck, choleskyUpdate);
     }
 
     private double[][] formXtXInverse(double[][] X) {
@@ -264,6 +303,19 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
                                 empirical[j][i] = empirical[i][j];
                             }
                         }
+
+                        if (empiricalFactorKnown) {
+                            // C_n = ((n - 2) / (n - 1)) C_(n-1) + (1 / n) (x - m)(x - m)' where m is the old mean
+                            final double s = Math.sqrt(updates);
+                            for (int i = 0; i < dim; i++) {
+                                deviation[i] = (transformedX[i] - oldMeans[i]) / s;
+                            }
+                            empiricalFactor.scale((updates - 2.0) / (updates - 1.0));
+                            if (!empiricalFactor.update(deviation)) {
+                                // decompose the empirical matrix again when it is next needed
+                                empiricalFactorKnown = false;
+                            }
+                        }
                     }
 
                     if (DEBUG) {
@@ -308,6 +360,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
                         empirical[i][j] = 0.0;
                     }
                 }
+                empiricalFactorKnown = false;
 
             }
 
@@ -334,72 +387,77 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
                     proposal[i][j] = matrix[i][j];
                 }
             }
+            empiricalFactorKnown = false;
 
         }
 
-        for (int i = 0; i < dim; i++) {
-            epsilon[i] = scaleFactor * MathUtils.nextGaussian();
-        }
+        if (choleskyUpdate) {
+            drawFromFactors(transformedX);
+        } else {
+            for (int i = 0; i < dim; i++) {
+                epsilon[i] = scaleFactor * MathUtils.nextGaussian();
+            }
 
-        if (iterations > initial) {
+            if (iterations > initial) {
 
-            if (DEBUG) {
-                System.err.println("  iterations > initial");
-            }
+                if (DEBUG) {
+                    System.err.println("  iterations > initial");
+                }
 
-            if (iterations % every == 0) {
-                // TODO: For speed, it may not be necessary to update decomposition each and every iteration
-                //double start = System.nanoTime();
+                if (iterations % every == 0) {
+                    // TODO: For speed, it may not be necessary to update decomposition each and every iteration
+                    //double start = System.nanoTime();
 
-                // double[][] proposal = new double[dim][dim];
-                for (int i = 0; i < dim; i++) {
-                    for (int j = i; j < dim; j++) { // symmetric matrix
-                        proposal[j][i] = proposal[i][j] = (1 - beta) * // constantFactor *  /* auto-tuning using scaleFactor */
-                                empirical[i][j] + beta * matrix[i][j];
+                    // double[][] proposal = new double[dim][dim];
+                    for (int i = 0; i < dim; i++) {
+                        for (int j = i; j < dim; j++) { // symmetric matrix
+                            proposal[j][i] = proposal[i][j] = (1 - beta) * // constantFactor *  /* auto-tuning using scaleFactor */
+                                    empirical[i][j] + beta * matrix[i][j];
+                        }
                     }
-                }
 
-                // not necessary for first test phase, but will need to be performed when covariance matrix is being updated
-                try {
-                    cholesky = (new CholeskyDecomposition(proposal)).getL();
-                } catch (IllegalDimension illegalDimension) {
-                    throw new RuntimeException("Unable to decompose matrix in AdaptableVarianceMultivariateNormalOperator");
+                    // not necessary for first test phase, but will need to be performed when covariance matrix is being updated
+                    try {
+                        cholesky = (new CholeskyDecomposition(proposal)).getL();
+                    } catch (IllegalDimension illegalDimension) {
+                        throw new RuntimeException("Unable to decompose matrix in AdaptableVarianceMultivariateNormalOperator");
+                    }
+
+                    //double end = System.nanoTime();
+                    //double baseResult = end - start;
+                    //System.err.println("Cholesky decomposition took: " + baseResult);
                 }
 
-                //double end = System.nanoTime();
-                //double baseResult = end - start;
-                //System.err.println("Cholesky decomposition took: " + baseResult);
             }
 
-        }
-
-        if (DEBUG) {
-            System.err.println("  Drawing new values");
-        }
-
-        /*for (int i = 0; i < dim; i++) {
-            for (int j = i; j < dim; j++) {
-                transformedX[i] += cholesky[j][i] * epsilon[j];
-                // caution: decomposition returns lower triangular
+            if (DEBUG) {
+                System.err.println("  Drawing new values");
             }
-            if (MULTI) {
-                parameter.setParameterValueQuietly(i, transformations[i].inverse(transformedX[i]));
-            } else {
-                if (transformationSizes[i] > 1) {
-                    throw new RuntimeException("Transformations on more than 1 parameter value should be set quietly");
+
+            /*for (int i = 0; i < dim; i++) {
+                for (int j = i; j < dim; j++) {
+                    transformedX[i] += cholesky[j][i] * epsilon[j];
+                    // caution: decomposition returns lower triangular
+                }
+                if (MULTI) {
+                    parameter.setParameterValueQuietly(i, transformations[i].inverse(transformedX[i]));
                 } else {
-                    parameter.setParameterValue(i, transformations[i].inverse(transformedX[i]));
+                    if (transformationSizes[i] > 1) {
+                        throw new RuntimeException("Transformations on more than 1 parameter value should be set quietly");
+                    } else {
+                        parameter.setParameterValue(i, transformations[i].inverse(transformedX[i]));
+                    }
                 }
-            }
-            //this should be correct
-            //logJacobian += transformations[i].getLogJacobian(parameter.getParameterValue(i)) - transformations[i].getLogJacobian(x[i]);
-            logJacobian += transformations[i].getLogJacobian(x[i]) - transformations[i].getLogJacobian(parameter.getParameterValue(i));
-        }*/
+                //this should be correct
+                //logJacobian += transformations[i].getLogJacobian(parameter.getParameterValue(i)) - transformations[i].getLogJacobian(x[i]);
+                logJacobian += transformations[i].getLogJacobian(x[i]) - transformations[i].getLogJacobian(parameter.getParameterValue(i));
+            }*/
 
-        for (int i = 0; i < dim; i++) {
-            for (int j = i; j < dim; j++) {
-                transformedX[i] += cholesky[j][i] * epsilon[j];
-                // caution: decomposition returns lower triangular
+            for (int i = 0; i < dim; i++) {
+                for (int j = i; j < dim; j++) {
+                    transformedX[i] += cholesky[j][i] * epsilon[j];
+                    // caution: decomposition returns lower triangular
+                }
             }
         }
 
@@ -483,6 +541,40 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
 
     }
 
+    /**
+     * Add a draw from a normal with covariance scaleFactor^2 * ((1 - beta) * empirical + beta * matrix)
+     * (or scaleFactor^2 * matrix during the initial period) as the sum of independent draws using the
+     * factor of each matrix. The factor of the empirical matrix is only decomposed from scratch the first
+     * time it is needed and if an update fails.
+     */
+    private void drawFromFactors(double[] transformedX) {
+        if (iterations > initial) {
+            if (!empiricalFactorKnown) {
+                if (!empiricalFactor.decompose(empirical)) {
+                    throw new RuntimeException("Unable to decompose matrix in AdaptableVarianceMultivariateNormalOperator");
+                }
+                empiricalFactorKnown = true;
+            }
+
+            for (int i = 0; i < dim; i++) {
+                epsilon[i] = MathUtils.nextGaussian();
+            }
+            empiricalFactor.multiply(epsilon, scaleFactor * Math.sqrt(1.0 - beta), transformedX);
+
+            if (beta > 0.0) {
+                for (int i = 0; i < dim; i++) {
+                    epsilon[i] = MathUtils.nextGaussian();
+                }
+                initialFactor.multiply(epsilon, scaleFactor * Math.sqrt(beta), transformedX);
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                epsilon[i] = MathUtils.nextGaussian();
+            }
+            initialFactor.multiply(epsilon, scaleFactor, transformedX);
+        }
+    }
+
     public String toString() {
         return AVMVN_OPERATOR + "(" + parameter.getParameterName() + ")";
     }
@@ -515,6 +607,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
             this.iterations = lowestNumberOfSamples;
             this.updates = lowestNumberOfSamples;
             this.beta = 0.0;
+            this.empiricalFactorKnown = false;
             //set means based on provided samples, but take into account transformation(s)
             for (int i = 0; i < parameterSamples.size(); i++) {
                 for (int j = 0; j < lowestNumberOfSamples; j++) {
@@ -839,9 +932,10 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
 			"   Guy Baele, Philippe Lemey, Marc A. Suchard. 2016. In preparation.");*/
 
             boolean skipRankCheck = xo.getAttribute(SKIP_RANK_CHECK, false);
+            boolean choleskyUpdate = xo.getAttribute(CHOLESKY_UPDATE, false);
 
             return new AdaptableVarianceMultivariateNormalOperator(parameter, transformations, transformationSizes, transformationSums, scaleFactor, varMatrix, weight, beta, initial, burnin, every,
-                    mode, !formXtXInverse, skipRankCheck);
+                    mode, !formXtXInverse, skipRankCheck, choleskyUpdate);
         }
 
         //************************************************************************
@@ -871,6 +965,7 @@ public class AdaptableVarianceMultivariateNormalOperator extends AbstractAdaptab
                 AttributeRule.newBooleanRule(AUTO_OPTIMIZE, true),
                 AttributeRule.newBooleanRule(FORM_XTX, true),
                 AttributeRule.newBooleanRule(SKIP_RANK_CHECK, true),
+                AttributeRule.newBooleanRule(CHOLESKY_UPDATE, true),
                 new ElementRule(Parameter.class, 0, Integer.MAX_VALUE),
                 new ElementRule(Transform.ParsedTransform.class, 0, Integer.MAX_VALUE)
         };
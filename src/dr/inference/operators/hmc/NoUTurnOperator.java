@@ -53,7 +53,9 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
     }
 
     private final Options options = new Options();
-    
+
+    private final TrajectoryWorkspace workspace = new TrajectoryWorkspace();
+
     public NoUTurnOperator(AdaptationMode mode, double weight, GradientWrtParameterProvider gradientProvider,
                            Parameter parameter, Transform transform, Parameter mask,
                            HamiltonianMonteCarloOperator.Options runtimeOptions,
@@ -94,7 +96,8 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
 
     private double[] takeOneStep(long m, double[] initialPosition) {
 
-        double[] endPosition = Arrays.copyOf(initialPosition, initialPosition.length);
+        double[] endPosition = workspace.endPosition;
+        System.arraycopy(initialPosition, 0, endPosition, 0, dim);
 //        final double[][] mass = massProvider.getMass();
         final WrappedVector initialMomentum = mask(preconditioning.drawInitialMomentum(), mask);
 
@@ -102,17 +105,15 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
 
         double logSliceU = Math.log(MathUtils.nextDouble()) + initialJointDensity;
 
-        TreeState trajectoryTree = new TreeState(initialPosition, initialMomentum.getBuffer(), 1, true);
+        TreeState trajectoryTree = workspace.trajectoryTree;
+        trajectoryTree.set(initialPosition, initialMomentum.getBuffer(), 1, true, 0.0, 0);
             // Trajectory of Hamiltonian dynamics endowed with a binary tree structure.
 
         int height = 0;
 
         while (trajectoryTree.flagContinue) {
 
-            double[] tmp = updateTrajectoryTree(trajectoryTree, height, logSliceU, initialJointDensity);
-            if (tmp != null) {
-                endPosition = tmp;
-            }
+            updateTrajectoryTree(trajectoryTree, height, logSliceU, initialJointDensity, endPosition);
 
             height++;
 
@@ -126,38 +127,41 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         return endPosition;
     }
 
-    private double[] updateTrajectoryTree(TreeState trajectoryTree, int depth, double logSliceU, double initialJointDensity) {
-
-        double[] endPosition = null;
+    private void updateTrajectoryTree(TreeState trajectoryTree, int depth, double logSliceU, double initialJointDensity,
+                                      double[] endPosition) {
 
         final double uniform1 = MathUtils.nextDouble();
         int direction = (uniform1 < 0.5) ? -1 : 1;
 
-        TreeState nextTrajectoryTree = buildTree(
-                trajectoryTree.getPosition(direction), trajectoryTree.getMomentum(direction),
-                direction, logSliceU, depth, stepSizeInformation.getStepSize(), initialJointDensity);
+        TreeState nextTrajectoryTree = workspace.getTree(depth);
+        buildTree(trajectoryTree.getPosition(direction), trajectoryTree.getMomentum(direction),
+                direction, logSliceU, depth, stepSizeInformation.getStepSize(), initialJointDensity, nextTrajectoryTree);
 
         if (nextTrajectoryTree.flagContinue) {
 
             final double uniform = MathUtils.nextDouble();
             final double acceptProb = (double) nextTrajectoryTree.numNodes / (double) trajectoryTree.numNodes;
             if (uniform < acceptProb) {
-                endPosition = nextTrajectoryTree.getSample();
+                System.arraycopy(nextTrajectoryTree.getSample(), 0, endPosition, 0, dim);
             }
         }
 
         trajectoryTree.mergeNextTree(nextTrajectoryTree, direction);
-
-        return endPosition;
     }
 
-    private TreeState buildTree(double[] position, double[] momentum, int direction,
-                                double logSliceU, int height, double stepSize, double initialJointDensity) {
+    /**
+     * Build a tree of the given height starting from position and momentum, putting it in result.
+     * The subtrees that are merged into result are built in the workspace trees of lower heights
+     * so these can't be the source of position and momentum.
+     */
+    private void buildTree(double[] position, double[] momentum, int direction,
+                           double logSliceU, int height, double stepSize, double initialJointDensity,
+                           TreeState result) {
 
         if (height == 0) {
-            return buildBaseCase(position, momentum, direction, logSliceU, stepSize, initialJointDensity);
+            buildBaseCase(position, momentum, direction, logSliceU, stepSize, initialJointDensity, result);
         } else {
-            return buildRecursiveCase(position, momentum, direction, logSliceU, height, stepSize, initialJointDensity);
+            buildRecursiveCase(position, momentum, direction, logSliceU, height, stepSize, initialJointDensity, result);
         }
     }
 
@@ -165,12 +169,14 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         throw new RuntimeException("Numerical instability; need to handle"); // TODO
     }
 
-    private TreeState buildBaseCase(double[] inPosition, double[] inMomentum, int direction,
-                                    double logSliceU, double stepSize, double initialJointDensity) {
+    private void buildBaseCase(double[] inPosition, double[] inMomentum, int direction,
+                               double logSliceU, double stepSize, double initialJointDensity, TreeState result) {
 
-        // Make deep copy of position and momentum
-        double[] position = Arrays.copyOf(inPosition, inPosition.length);
-        WrappedVector momentum = new WrappedVector.Raw(Arrays.copyOf(inMomentum, inMomentum.length));
+        // Copy position and momentum into the end of the result so the frog can jump in place
+        double[] position = result.getPosition(direction);
+        WrappedVector momentum = result.getMomentumVector(direction);
+        System.arraycopy(inPosition, 0, position, 0, dim);
+        System.arraycopy(inMomentum, 0, momentum.getBuffer(), 0, dim);
 
         leapFrogEngine.setParameter(position);
 
@@ -193,25 +199,26 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
 
         leapFrogEngine.setParameter(inPosition);
 
-        return new TreeState(position, momentum.getBuffer(), numNodes, flagContinue, acceptProb, numAcceptProbStates);
+        result.set(position, momentum.getBuffer(), numNodes, flagContinue, acceptProb, numAcceptProbStates);
     }
 
-    private TreeState buildRecursiveCase(double[] inPosition, double[] inMomentum, int direction,
-                                         double logSliceU, int height, double stepSize, double initialJointDensity) {
+    private void buildRecursiveCase(double[] inPosition, double[] inMomentum, int direction,
+                                    double logSliceU, int height, double stepSize, double initialJointDensity,
+                                    TreeState subtree) {
 
-        TreeState subtree = buildTree(inPosition, inMomentum, direction, logSliceU,
+        buildTree(inPosition, inMomentum, direction, logSliceU,
                 height - 1, // Recursion
-                stepSize, initialJointDensity);
+                stepSize, initialJointDensity, subtree);
 
         if (subtree.flagContinue) {
 
-            TreeState nextSubtree = buildTree(subtree.getPosition(direction), subtree.getMomentum(direction), direction,
-                    logSliceU, height - 1, stepSizeInformation.getStepSize(), initialJointDensity);
+            TreeState nextSubtree = workspace.getTree(height - 1);
+            buildTree(subtree.getPosition(direction), subtree.getMomentum(direction), direction,
+                    logSliceU, height - 1, stepSizeInformation.getStepSize(), initialJointDensity, nextSubtree);
 
             subtree.mergeNextTree(nextSubtree, direction);
 
         }
-        return subtree;
     }
 
     private void doLeap(final double[] position,
@@ -286,36 +293,23 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
                                                 double[] positionPlus, double[] positionMinus,
                                                 double[] momentumPlus, double[] momentumMinus) {
 
-        double[] positionDifference = subtractArray(positionPlus, positionMinus);
-
-        return flagContinue &&
-                getDotProduct(positionDifference, momentumMinus) >= 0 &&
-                getDotProduct(positionDifference, momentumPlus) >= 0;
-    }
-
-    private static double getDotProduct(double[] x, double[] y) {
-
-        assert (x.length == y.length);
-        final int dim = x.length;
-
-        double total = 0.0;
-        for (int i = 0; i < dim; i++) {
-            total += x[i] * y[i];
+        if (!flagContinue) {
+            return false;
         }
-        return total;
-    }
-
-    private static double[] subtractArray(double[] a, double[] b) {
 
-        assert (a.length == b.length);
-        final int dim = a.length;
+        assert (positionPlus.length == positionMinus.length);
+        final int dim = positionPlus.length;
 
-        double[] result = new double[dim];
+        // the dot products of the difference in position with each momentum, without forming the difference
+        double totalMinus = 0.0;
+        double totalPlus = 0.0;
         for (int i = 0; i < dim; i++) {
-            result[i] = a[i] - b[i];
+            final double difference = positionPlus[i] - positionMinus[i];
+            totalMinus += difference * momentumMinus[i];
+            totalPlus += difference * momentumPlus[i];
         }
 
-        return result;
+        return totalMinus >= 0 && totalPlus >= 0;
     }
 
     private  double getJointProbability(GradientWrtParameterProvider gradientProvider, WrappedVector momentum) {
@@ -327,22 +321,54 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
                 - leapFrogEngine.getParameterLogJacobian();
     }
 
+    /**
+     * The trees used while building a trajectory, allocated once and reused for every iteration.
+     * A tree of height h is built in place with the trees of lower heights holding the subtrees
+     * merged into it, so one tree per height (plus the whole trajectory) is all that is needed.
+     */
+    private class TrajectoryWorkspace {
+
+        private TreeState getTree(int height) {
+            if (height >= trees.length) {
+                trees = Arrays.copyOf(trees, height + 1);
+            }
+            if (trees[height] == null) {
+                trees[height] = new TreeState(dim);
+            }
+            return trees[height];
+        }
+
+        private final TreeState trajectoryTree = new TreeState(dim);
+        private final double[] endPosition = new double[dim];
+        private TreeState[] trees = new TreeState[options.maxHeight + 1];
+    }
+
     private class TreeState {
 
-        private TreeState(double[] position, double[] moment,
-                         int numNodes, boolean flagContinue) {
-            this(position, moment, numNodes, flagContinue, 0.0, 0);
+        private TreeState(int dim) {
+            this.position = new double[3][dim];
+            this.momentum = new double[3][dim];
+            this.momentumVector = new WrappedVector[3];
+
+            for (int i = 0; i < 3; ++i) {
+                this.momentumVector[i] = new WrappedVector.Raw(momentum[i]);
+            }
         }
 
-        private TreeState(double[] position, double[] moment,
+        /**
+         * Set both ends and the sample to the given position and momentum.
+         */
+        private void set(double[] position, double[] moment,
                          int numNodes, boolean flagContinue,
                          double cumAcceptProb, int numAcceptProbStates) {
-            this.position = new double[3][];
-            this.momentum = new double[3][];
 
             for (int i = 0; i < 3; ++i) {
-                this.position[i] = position;
-                this.momentum[i] = moment;
+                if (this.position[i] != position) {
+                    System.arraycopy(position, 0, this.position[i], 0, position.length);
+                }
+                if (this.momentum[i] != moment) {
+                    System.arraycopy(moment, 0, this.momentum[i], 0, moment.length);
+                }
             }
 
             // Recursion variables
@@ -362,6 +388,10 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
             return momentum[getIndex(direction)];
         }
 
+        private WrappedVector getMomentumVector(int direction) {
+            return momentumVector[getIndex(direction)];
+        }
+
         private double[] getSample() {
             /*
             Returns a state chosen uniformly from the acceptable states along a hamiltonian dynamics trajectory tree.
@@ -371,11 +401,11 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
         }
 
         private void setPosition(int direction, double[] position) {
-            this.position[getIndex(direction)] = position;
+            System.arraycopy(position, 0, this.position[getIndex(direction)], 0, position.length);
         }
 
         private void setMomentum(int direction, double[] momentum) {
-            this.momentum[getIndex(direction)] = momentum;
+            System.arraycopy(momentum, 0, this.momentum[getIndex(direction)], 0, momentum.length);
         }
 
         private void setSample(double[] position) { setPosition(0, position); }
@@ -409,6 +439,7 @@ public class NoUTurnOperator extends HamiltonianMonteCarloOperator implements Ge
 
         final private double[][] position;
         final private double[][] momentum;
+        final private WrappedVector[] momentumVector;
 
         private int numNodes;
         private boolean flagContinue;
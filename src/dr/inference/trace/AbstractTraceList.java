@@ -25,8 +25,6 @@
 
 package dr.inference.trace;
 
-import java.util.List;
-
 /**
  * @author Alexei Drummond
  */
@@ -52,7 +50,7 @@ public abstract class AbstractTraceList extends FilteredTraceList {
         int start = (int) (getBurnIn() / getStepSize());
 
         Trace trace = getTrace(index);
-        List<Double> values = trace.getValues(start, trace.getValueCount(), super.filtered);
+        double[] values = trace.getValuesArray(start, trace.getValueCount(), super.filtered);
 
         if (trace.getTraceType() == TraceType.CATEGORICAL) {
             trace.setTraceStatistics(new TraceCorrelation(values, trace.getCategoryLabelMap(), trace.getCategoryOrder(), getStepSize(), trace.isConstant()));
@@ -0,0 +1,294 @@
+/*
+ * LogFileTraceCache.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A binary cache of the traces read from a log file, kept beside the log (with the extension
+ * '.cache' appended). The header holds the states, the names and types of the traces and their
+ * summary state. This is followed by one column of doubles for each trace which are memory
+ * mapped when the cache is read so opening a large log again doesn't need to parse it or hold
+ * it all on the heap. The cache is only used if the log has the same length and modification
+ * time as when the cache was written.
+ *
+ * @author Andrew Rambaut
+ */
+public class LogFileTraceCache {
+
+    public static final String TRACE_CACHE = "trace.cache";
+    public static final String CACHE_EXTENSION = ".cache";
+
+    private static final int MAGIC = 0x42545243; // 'BTRC'
+    private static final int VERSION = 1;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * @return true if the use of trace caches has been requested (by the trace.cache property)
+     */
+    public static boolean isCacheRequested() {
+        return Boolean.parseBoolean(System.getProperty(TRACE_CACHE, "false"));
+    }
+
+    public static File getCacheFile(File logFile) {
+        return new File(logFile.getPath() + CACHE_EXTENSION);
+    }
+
+    public LogFileTraceCache(File logFile) {
+        this.logFile = logFile;
+        this.cacheFile = getCacheFile(logFile);
+    }
+
+    /**
+     * Read the cache if it exists and matches the log file.
+     *
+     * @return true if the traces and states were read, false if there is no valid cache
+     * @throws IOException if the cache couldn't be read
+     */
+    public boolean read() throws IOException {
+        if (!cacheFile.exists()) {
+            return false;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        final long dataOffset;
+        final List<String> names = new ArrayList<String>();
+        final List<TraceType> types = new ArrayList<TraceType>();
+        final List<Boolean> constants = new ArrayList<Boolean>();
+        final List<Double> constantValues = new ArrayList<Double>();
+        final List<Set<Integer>> uniqueValues = new ArrayList<Set<Integer>>();
+        final List<List<String>> categoryValues = new ArrayList<List<String>>();
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int headerLength = in.readInt();
+            dataOffset = align(12 + headerLength);
+
+            if (in.readLong() != logFile.length() || in.readLong() != logFile.lastModified()) {
+                // the log has changed since the cache was written
+                return false;
+            }
+
+            firstState = in.readLong();
+            secondState = in.readLong();
+            lastState = in.readLong();
+            stepSize = in.readLong();
+
+            int traceCount = in.readInt();
+            valueCount = in.readInt();
+
+            for (int i = 0; i < traceCount; i++) {
+                names.add(in.readUTF());
+                try {
+                    types.add(TraceType.valueOf(in.readUTF()));
+                } catch (IllegalArgumentException iae) {
+                    return false;
+                }
+                constants.add(in.readBoolean());
+                constantValues.add(in.readDouble());
+
+                int uniqueCount = in.readInt();
+                Set<Integer> unique = new TreeSet<Integer>();
+                for (int j = 0; j < uniqueCount; j++) {
+                    unique.add(in.readInt());
+                }
+                uniqueValues.add(unique);
+
+                int categoryCount = in.readInt();
+                List<String> categories = new ArrayList<String>();
+                for (int j = 0; j < categoryCount; j++) {
+                    categories.add(in.readUTF());
+                }
+                categoryValues.add(categories);
+            }
+        } catch (EOFException eofe) {
+            return false;
+        } finally {
+            in.close();
+        }
+
+        final long columnLength = (long) valueCount * 8;
+        final RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            if (channel.size() < dataOffset + columnLength * names.size()) {
+                return false;
+            }
+
+            // the mapped buffers stay valid after the channel is closed
+            traces = new ArrayList<Trace>();
+            for (int i = 0; i < names.size(); i++) {
+                DoubleBuffer values = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dataOffset + columnLength * i, columnLength).asDoubleBuffer();
+                traces.add(new Trace(names.get(i), types.get(i), values, constants.get(i), constantValues.get(i),
+                        uniqueValues.get(i), categoryValues.get(i)));
+            }
+        } finally {
+            file.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the cache for the traces that have been read from the log file. This is written
+     * to a temporary file which then replaces any existing cache.
+     *
+     * @throws IOException if the cache couldn't be written
+     */
+    public void write(long firstState, long secondState, long lastState, long stepSize, List<Trace> traces) throws IOException {
+        final int valueCount = (traces.size() > 0 ? traces.get(0).getValueCount() : 0);
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(header);
+        out.writeLong(logFile.length());
+        out.writeLong(logFile.lastModified());
+        out.writeLong(firstState);
+        out.writeLong(secondState);
+        out.writeLong(lastState);
+        out.writeLong(stepSize);
+        out.writeInt(traces.size());
+        out.writeInt(valueCount);
+        for (Trace trace : traces) {
+            if (trace.getValueCount() != valueCount) {
+                throw new IOException("Trace " + trace.getName() + " has a different number of values");
+            }
+            out.writeUTF(trace.getName());
+            out.writeUTF(trace.getTraceType().name());
+            out.writeBoolean(trace.isConstant());
+            out.writeDouble(trace.getConstantValue());
+            out.writeInt(trace.getUniqueValues().size());
+            for (Integer value : trace.getUniqueValues()) {
+                out.writeInt(value);
+            }
+            out.writeInt(trace.getCategoryValues().size());
+            for (String value : trace.getCategoryValues()) {
+                out.writeUTF(value);
+            }
+        }
+        out.close();
+
+        final File tempFile = new File(cacheFile.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(tempFile);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(header.size());
+            buffer.flip();
+            writeFully(channel, buffer);
+            writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+            buffer.clear();
+            buffer.position((int) (align(12 + header.size()) - (12 + header.size())));
+            buffer.flip();
+            writeFully(channel, buffer);
+
+            // then each trace as a column
+            for (Trace trace : traces) {
+                DoubleBuffer values = trace.getValueBuffer();
+                while (values.hasRemaining()) {
+                    buffer.clear();
+                    DoubleBuffer doubles = buffer.asDoubleBuffer();
+                    int count = Math.min(values.remaining(), doubles.capacity());
+                    DoubleBuffer chunk = values.duplicate();
+                    chunk.limit(chunk.position() + count);
+                    doubles.put(chunk);
+                    values.position(values.position() + count);
+                    buffer.limit(count * 8);
+                    writeFully(channel, buffer);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            tempFile.delete();
+            throw new IOException("Unable to replace the existing trace cache, " + cacheFile.getName());
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to rename the trace cache, " + tempFile.getName());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // the columns start on an 8 byte boundary
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    public List<Trace> getTraces() {
+        return traces;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    public long getFirstState() {
+        return firstState;
+    }
+
+    public long getSecondState() {
+        return secondState;
+    }
+
+    public long getLastState() {
+        return lastState;
+    }
+
+    public long getStepSize() {
+        return stepSize;
+    }
+
+    private final File logFile;
+    private final File cacheFile;
+
+    private List<Trace> traces = null;
+    private int valueCount = 0;
+    private long firstState;
+    private long secondState;
+    private long lastState;
+    private long stepSize;
+}
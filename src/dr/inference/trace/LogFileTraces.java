@@ -202,15 +202,46 @@ public class LogFileTraces extends AbstractTraceList {
     /**
      * Read through <code>File</code> created from a log file,
      * fill in <code>traces</code> list, and set <code>TraceType</code>.
+     * If the trace.cache property is set, the traces are read from
+     * the binary cache beside the log file if it is up to date or
+     * the cache is written after reading the log file.
      *
      * @param file <code>File</code>
      * @throws TraceException
      * @throws IOException
      */
     public void loadTraces(File file) throws TraceException, IOException {
+        LogFileTraceCache cache = null;
+        if (LogFileTraceCache.isCacheRequested()) {
+            cache = new LogFileTraceCache(file);
+            try {
+                if (cache.read()) {
+                    traces.addAll(cache.getTraces());
+                    firstState = cache.getFirstState();
+                    secondState = cache.getSecondState();
+                    lastState = cache.getLastState();
+                    stepSize = cache.getStepSize();
+                    burnIn = lastState / 10;
+                    return;
+                }
+            } catch (IOException ioe) {
+                System.err.println("Unable to read the trace cache, " + cache.getCacheFile().getName() +
+                        ": " + ioe.getMessage());
+            }
+        }
+
         final Reader reader = new FileReader(file);
         loadTraces(reader);
         reader.close();
+
+        if (cache != null) {
+            try {
+                cache.write(firstState, secondState, lastState, stepSize, traces);
+            } catch (IOException ioe) {
+                System.err.println("Unable to write the trace cache, " + cache.getCacheFile().getName() +
+                        ": " + ioe.getMessage());
+            }
+        }
     }
 
     /**
@@ -28,6 +28,7 @@ package dr.inference.trace;
 import dr.stats.FrequencyCounter;
 import dr.util.Pair;
 
+import java.nio.DoubleBuffer;
 import java.util.*;
 
 /**
@@ -46,8 +47,14 @@ public class Trace {
 
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
 
+    private static final int INITIAL_CAPACITY = 1024;
+
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    // the values are held in a primitive array or, if loaded from a trace cache, in a
+    // read-only (memory mapped) buffer.
+    private double[] values = new double[INITIAL_CAPACITY];
+    private DoubleBuffer valueBuffer = null;
+    private int valueCount = 0;
     private String name;
 
     private boolean isConstant = true;
@@ -69,6 +76,28 @@ public class Trace {
         setTraceType(traceType);
     }
 
+    /**
+     * Create a trace with the given values and summary state (as read from a trace cache).
+     */
+    Trace(String name, TraceType traceType, DoubleBuffer valueBuffer, boolean isConstant, double constantValue,
+          Set<Integer> uniqueValues, List<String> categoryValues) {
+        this.name = name;
+        setTraceType(traceType);
+        this.values = null;
+        this.valueBuffer = valueBuffer;
+        this.valueCount = valueBuffer.limit();
+        this.isConstant = isConstant;
+        this.constantValue = constantValue;
+        this.uniqueValues.addAll(uniqueValues);
+        for (String value : categoryValues) {
+            categoryValueList.add(value);
+            if (categoryLabelMap == null) {
+                categoryLabelMap = new HashMap<Integer, String>();
+            }
+            categoryLabelMap.put(categoryValueList.size() - 1, value);
+        }
+    }
+
     /**
      * @param value the valued to be added
      */
@@ -85,7 +114,20 @@ public class Trace {
             constantValue = value;
         }
 
-        values.add(value);
+        addValue(value);
+    }
+
+    private void addValue(double value) {
+        if (values == null) {
+            // copy the values out of the read-only buffer
+            values = new double[Math.max(INITIAL_CAPACITY, valueCount * 2)];
+            valueBuffer.get(values, 0, valueCount);
+            valueBuffer = null;
+        } else if (valueCount == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valueCount] = value;
+        valueCount++;
     }
 
     /**
@@ -115,7 +157,7 @@ public class Trace {
             constantValue = d;
         }
 
-        values.add(d);
+        addValue(d);
     }
 
     /**
@@ -202,7 +244,7 @@ public class Trace {
 
 
     public int getValueCount() {
-        return values.size();
+        return valueCount;
     }
 
     public int getUniqueValueCount() {
@@ -210,11 +252,14 @@ public class Trace {
     }
 
     public double getValue(int index) {
-        return values.get(index);
+        if (index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return (values != null ? values[index] : valueBuffer.get(index));
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) getValue(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -233,7 +278,8 @@ public class Trace {
 
             Double min = Double.MAX_VALUE;
             Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            for (int i = 0; i < valueCount; i++) {
+                double value = getValue(i);
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -256,24 +302,64 @@ public class Trace {
     }
 
     public List<Double> getValues(int fromIndex, int toIndex, boolean[] filtered) {
+        double[] valuesArray = getValuesArray(fromIndex, toIndex, filtered);
+        List<Double> valuesList = new ArrayList<Double>(valuesArray.length);
+        for (double value : valuesArray) {
+            valuesList.add(value);
+        }
+        return valuesList;
+    }
+
+    /**
+     * @param fromIndex low endpoint (inclusive) of the values.
+     * @param toIndex   high endpoint (exclusive) of the values.
+     * @param filtered  flags for values to be excluded (or null)
+     * @return a copy of the values (which are selected values if filter applied)
+     */
+    public double[] getValuesArray(int fromIndex, int toIndex, boolean[] filtered) {
         if (toIndex > getValueCount() || fromIndex > toIndex) {
             throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
                     + "; List size = " + getValueCount() + "; in Trace " + name);
         }
 
         if (filtered == null || filtered.length < 1) {
-            return values.subList(fromIndex, toIndex);
+            double[] valuesArray = new double[toIndex - fromIndex];
+            if (values != null) {
+                System.arraycopy(values, fromIndex, valuesArray, 0, valuesArray.length);
+            } else {
+                DoubleBuffer buffer = valueBuffer.duplicate();
+                buffer.position(fromIndex);
+                buffer.get(valuesArray);
+            }
+            return valuesArray;
         } else {
-            List<Double> valuesList = new ArrayList<Double>();
+            int count = 0;
             for (int i = fromIndex; i < toIndex; i++) {
-                if (!filtered[i])
-                    valuesList.add(values.get(i));
+                if (!filtered[i]) count++;
             }
-            if (valuesList.size() < 1)
+            if (count < 1)
                 throw new RuntimeException("There is no value left after all filters are applied !");
 
-            return valuesList;
+            double[] valuesArray = new double[count];
+            int k = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (!filtered[i]) {
+                    valuesArray[k] = getValue(i);
+                    k++;
+                }
+            }
+            return valuesArray;
+        }
+    }
+
+    /**
+     * @return a read-only buffer of all the values (which may be memory mapped from a trace cache)
+     */
+    public DoubleBuffer getValueBuffer() {
+        if (values != null) {
+            return DoubleBuffer.wrap(values, 0, valueCount).slice().asReadOnlyBuffer();
         }
+        return valueBuffer.asReadOnlyBuffer();
     }
 
     public String getName() {
@@ -296,6 +382,20 @@ public class Trace {
         return isConstant;
     }
 
+    // the state that is saved to a trace cache along with the values
+
+    double getConstantValue() {
+        return constantValue;
+    }
+
+    Set<Integer> getUniqueValues() {
+        return uniqueValues;
+    }
+
+    List<String> getCategoryValues() {
+        return categoryValueList;
+    }
+
     //******************** TraceCorrelation ****************************
     private TraceCorrelation traceStatistics;
 
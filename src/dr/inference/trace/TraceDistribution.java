@@ -51,6 +51,21 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, TraceType traceType, boolean isConstant) {
+        this(toArray(values), traceType, isConstant);
+    }
+
+    public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+        this(toArray(values), categoryLabelMap, categoryOrder, isConstant);
+    }
+
+    public TraceDistribution(double[] values, TraceType traceType) {
+        this(values, traceType, false);
+    }
+
+    /**
+     * @param values the values (which are not modified so may be shared with the caller)
+     */
+    public TraceDistribution(double[] values, TraceType traceType, boolean isConstant) {
         this.traceType = traceType;
         this.isConstant = isConstant;
 
@@ -59,7 +74,7 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+    public TraceDistribution(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
         this.traceType = TraceType.CATEGORICAL;
         this.categoryLabelMap = categoryLabelMap;
         this.categoryOrder = categoryOrder;
@@ -67,8 +82,16 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    private void initStatistics(List<Double> values, double proportion) {
-        if (values.size() < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
+    static double[] toArray(List<Double> valueList) {
+        double[] values = new double[valueList.size()];
+        for (int i = 0; i < valueList.size(); i++) {
+            values[i] = valueList.get(i);
+        }
+        return values;
+    }
+
+    private void initStatistics(double[] values, double proportion) {
+        if (values.length < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
 
         if (traceType.isNumber()) {
             analyseDistributionNumeric(values, proportion);
@@ -170,14 +193,9 @@ public class TraceDistribution {
 
     /**
      * The major method to analyse traces in numeric values including Double, Integer
-     * @param valueList the values to analyze
+     * @param values the values to analyze
      */
-    private void analyseDistributionNumeric(List<Double> valueList, double proportion) {
-        double[] values = new double[valueList.size()];
-        for (int i = 0; i < valueList.size(); i++) {
-            values[i] = valueList.get(i);
-        }
-
+    private void analyseDistributionNumeric(double[] values, double proportion) {
         size = values.length;
 
         if (!isConstant) {
@@ -262,10 +280,10 @@ public class TraceDistribution {
 
 
     // init FrequencyCounter used for Integer and String
-    private void analyseDistributionDiscrete(List<Double> valueList, double proportion) {
-        List<Integer> integerValues = new ArrayList<Integer>();
-        for (Double value : valueList) {
-            integerValues.add(value.intValue());
+    private void analyseDistributionDiscrete(double[] values, double proportion) {
+        List<Integer> integerValues = new ArrayList<Integer>(values.length);
+        for (double value : values) {
+            integerValues.add((int) value);
         }
 
         if (size == 0) {
@@ -159,6 +159,13 @@ public class MCMCParser extends AbstractXMLObjectParser {
             mcmc.setOperatorAnalysisFile(XMLParser.getLogFile(xo, OPERATOR_ANALYSIS));
         }
 
+        if (xo.hasAttribute(METRICS)) {
+            mcmc.setMetricsFile(XMLParser.getLogFileStem(xo, METRICS), xo.getAttribute(METRICS_EVERY, 0L));
+            for (File file : mcmc.getMetricsFiles()) {
+                XMLParser.checkLogFileOverwrite(xo, file);
+            }
+        }
+
 
         Logger[] loggerArray = new Logger[loggers.size()];
         loggers.toArray(loggerArray);
@@ -292,6 +299,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(SPAWN, true),
             AttributeRule.newStringRule(NAME, true),
             AttributeRule.newStringRule(OPERATOR_ANALYSIS, true),
+            AttributeRule.newStringRule(METRICS, true, "A file name stem for CSV and JSON files of the time taken by each operator and likelihood"),
+            AttributeRule.newLongIntegerRule(METRICS_EVERY, true, "How often (in states) to rewrite the timing files (by default only at the end)"),
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
@@ -313,6 +322,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
     public static final String TEMPERATURE = "temperature";
     public static final String SPAWN = "spawn";
     public static final String OPERATOR_ANALYSIS = "operatorAnalysis";
+    public static final String METRICS = "metrics";
+    public static final String METRICS_EVERY = "metricsEvery";
 
     public static final long DEFAULT_FULL_EVALUATION_COUNT = 1000;
 
@@ -139,6 +139,10 @@ public class LoggerParser extends AbstractXMLObjectParser {
             }
         }
 
+        if (xo.hasAttribute(FILE_NAME) && LogWriterQueue.isAsynchronousLoggingRequested()) {
+            logger.setAsynchronous(xo.getStringAttribute(FILE_NAME), LogWriterQueue.getRequestedCapacity());
+        }
+
         return logger;
     }
 
@@ -54,6 +54,14 @@ public class MathUtils {
 	 */
 	private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
 
+	/**
+	 * An optional generator private to the current thread. When one is bound (see
+	 * setThreadStream) all the static methods below draw from it without locking,
+	 * otherwise they fall back to the shared, synchronized instance above. Threads
+	 * that never bind a stream therefore see exactly the same sequence as before.
+	 */
+	private static final ThreadLocal<MersenneTwisterFast> threadRandom = new ThreadLocal<MersenneTwisterFast>();
+
 	// Chooses one category if a cumulative probability distribution is given
 	public static int randomChoice(double[] cf) {
 
@@ -168,12 +176,64 @@ public class MathUtils {
 
 	}
 
+	// ===================== Per-thread random number streams ===========
+
+	/**
+	 * Derives the seed of an independent stream from a master seed (usually the
+	 * -seed given to BEAST) and a stream index, using the SplitMix64 finalizer so
+	 * that neighbouring indices give unrelated generator states. The result is
+	 * always a positive int as MersenneTwisterFast only uses 32 bits of its seed.
+	 *
+	 * @param masterSeed  the seed of the run
+	 * @param streamIndex the index of the stream (e.g., the chain number)
+	 * @return the seed for the stream
+	 */
+	public static long getStreamSeed(long masterSeed, int streamIndex) {
+		long z = masterSeed + (streamIndex + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+
+		long seed = z & 0x7FFFFFFFL;
+		return (seed == 0 ? 1 : seed);
+	}
+
+	/**
+	 * Binds a new generator with the given seed to the calling thread. All subsequent
+	 * calls to the static methods of this class from this thread use it without
+	 * synchronization until clearThreadStream is called.
+	 *
+	 * @param seed the seed of the thread's stream (see getStreamSeed)
+	 */
+	public static void setThreadStream(long seed) {
+		threadRandom.set(new MersenneTwisterFast(seed));
+	}
+
+	/**
+	 * Unbinds the calling thread's stream so that it goes back to the shared generator.
+	 */
+	public static void clearThreadStream() {
+		threadRandom.remove();
+	}
+
+	/**
+	 * @return true if the calling thread is drawing from its own stream
+	 */
+	public static boolean hasThreadStream() {
+		return threadRandom.get() != null;
+	}
+
 	// ===================== (Synchronized) Static access methods to the private random instance ===========
+	// If the calling thread has its own stream it is used instead and no lock is taken.
 
 	/**
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long getSeed() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.getSeed();
+		}
 		synchronized (random) {
 			return random.getSeed();
 		}
@@ -183,6 +243,11 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void setSeed(long seed) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.setSeed(seed);
+			return;
+		}
 		synchronized (random) {
 			random.setSeed(seed);
 		}
@@ -192,6 +257,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static byte nextByte() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextByte();
+		}
 		synchronized (random) {
 			return random.nextByte();
 		}
@@ -201,6 +270,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static boolean nextBoolean() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextBoolean();
+		}
 		synchronized (random) {
 			return random.nextBoolean();
 		}
@@ -210,6 +283,11 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void nextBytes(byte[] bs) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.nextBytes(bs);
+			return;
+		}
 		synchronized (random) {
 			random.nextBytes(bs);
 		}
@@ -219,6 +297,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static char nextChar() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextChar();
+		}
 		synchronized (random) {
 			return random.nextChar();
 		}
@@ -228,6 +310,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextGaussian() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextGaussian();
+		}
 		synchronized (random) {
 			return random.nextGaussian();
 		}
@@ -237,6 +323,10 @@ public class MathUtils {
 	//Variance = alpha / (lambda*lambda)
 
 	public static double nextGamma(double alpha, double lambda) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextGamma(alpha, lambda);
+		}
 		synchronized (random) {
 			return random.nextGamma(alpha, lambda);
 		}
@@ -258,6 +348,10 @@ public class MathUtils {
 	 * @return a pseudo random double precision floating point number in [01)
 	 */
 	public static double nextDouble() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextDouble();
+		}
 		synchronized (random) {
 			return random.nextDouble();
 		}
@@ -274,26 +368,32 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextExponential(double lambda) {
-		synchronized (random) {
-			return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
-		}
+		return -1.0 * Math.log(1 - nextDouble()) / lambda;
 	}
 
 	/**
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextInverseGaussian(double mu, double lambda) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return nextInverseGaussian(stream, mu, lambda);
+		}
 		synchronized (random) {
-			/* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
-			double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
-			double y = v * v;
-			double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
-			double test = MathUtils.nextDouble();  // sample from a uniform distribution between 0 and 1
-			if (test <= (mu) / (mu + x)) {
-				return x;
-			} else {
-				return (mu * mu) / x;
-			}
+			return nextInverseGaussian(random, mu, lambda);
+		}
+	}
+
+	private static double nextInverseGaussian(MersenneTwisterFast random, double mu, double lambda) {
+		/* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
+		double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
+		double y = v * v;
+		double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
+		double test = random.nextDouble();  // sample from a uniform distribution between 0 and 1
+		if (test <= (mu) / (mu + x)) {
+			return x;
+		} else {
+			return (mu * mu) / x;
 		}
 	}
 
@@ -302,6 +402,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static float nextFloat() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextFloat();
+		}
 		synchronized (random) {
 			return random.nextFloat();
 		}
@@ -311,6 +415,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long nextLong() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextLong();
+		}
 		synchronized (random) {
 			return random.nextLong();
 		}
@@ -320,6 +428,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static short nextShort() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextShort();
+		}
 		synchronized (random) {
 			return random.nextShort();
 		}
@@ -329,6 +441,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextInt();
+		}
 		synchronized (random) {
 			return random.nextInt();
 		}
@@ -338,6 +454,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt(int n) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.nextInt(n);
+		}
 		synchronized (random) {
 			return random.nextInt(n);
 		}
@@ -356,6 +476,11 @@ public class MathUtils {
 	 * Shuffles an array.
 	 */
 	public static void shuffle(int[] array) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.shuffle(array);
+			return;
+		}
 		synchronized (random) {
 			random.shuffle(array);
 		}
@@ -365,6 +490,11 @@ public class MathUtils {
 	 * Shuffles an array. Shuffles numberOfShuffles times
 	 */
 	public static void shuffle(int[] array, int numberOfShuffles) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.shuffle(array, numberOfShuffles);
+			return;
+		}
 		synchronized (random) {
 			random.shuffle(array, numberOfShuffles);
 		}
@@ -376,6 +506,10 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] shuffled(int l) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.shuffled(l);
+		}
 		synchronized (random) {
 			return random.shuffled(l);
 		}
@@ -383,8 +517,14 @@ public class MathUtils {
 
 
 	public static int[] sampleIndicesWithReplacement(int length) {
+		int[] result = new int[length];
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			for (int i = 0; i < length; i++)
+				result[i] = stream.nextInt(length);
+			return result;
+		}
 		synchronized (random) {
-			int[] result = new int[length];
 			for (int i = 0; i < length; i++)
 				result[i] = random.nextInt(length);
 			return result;
@@ -395,6 +535,11 @@ public class MathUtils {
 	 * Permutes an array.
 	 */
 	public static void permute(int[] array) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.permute(array);
+			return;
+		}
 		synchronized (random) {
 			random.permute(array);
 		}
@@ -406,6 +551,10 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] permuted(int l) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.permuted(l);
+		}
 		synchronized (random) {
 			return random.permuted(l);
 		}
@@ -451,12 +600,21 @@ public class MathUtils {
 	}
 
 	public static int[] getRandomState() {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			return stream.getRandomState();
+		}
 		synchronized (random) {
 			return random.getRandomState();
 		}
 	}
 
 	public static void setRandomState(int[] rngState) {
+		final MersenneTwisterFast stream = threadRandom.get();
+		if (stream != null) {
+			stream.setRandomState(rngState);
+			return;
+		}
 		synchronized (random) {
 			random.setRandomState(rngState);
 		}
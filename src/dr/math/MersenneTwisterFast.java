@@ -131,7 +131,7 @@ class MersenneTwisterFast implements Serializable {
 	 *
 	 * @param seed generator starting number, often the time of day.
 	 */
-	private MersenneTwisterFast(long seed) {
+	MersenneTwisterFast(long seed) {
 		if (seed == 0) {
 			setSeed(GOOD_SEED);
 		} else {
@@ -0,0 +1,197 @@
+/*
+ * UpdatableCholeskyDecomposition.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.matrixAlgebra;
+
+/**
+ * A lower triangular Cholesky factor, L, of a symmetric positive semi-definite matrix, A = LL',
+ * that can be changed in O(n^2) operations when A is scaled or has a rank-one matrix added to it,
+ * rather than decomposing A again in O(n^3).
+ *
+ * The factor is held in a single array, column by column (the same layout as
+ * CholeskyDecomposition.getUpperTriangular()), so that the updates and products run along
+ * contiguous memory.
+ *
+ * @author Andrew Rambaut
+ */
+public class UpdatableCholeskyDecomposition {
+
+    /**
+     * Pivots smaller than this, relative to the diagonal of the matrix, are taken to be zero
+     * so that singular matrices (e.g., a covariance estimated from fewer samples than its
+     * dimension) can be decomposed.
+     */
+    private static final double SINGULAR_TOLERANCE = 1.0E-12;
+
+    public UpdatableCholeskyDecomposition(int n) {
+        this.n = n;
+        this.L = new double[n * (n + 1) / 2];
+    }
+
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * Decompose A from scratch. Only the lower triangle of A is used.
+     *
+     * @return false if the decomposition failed (i.e., A wasn't finite)
+     */
+    public boolean decompose(double[][] A) {
+        for (int j = 0; j < n; j++) {
+            int offset = columnOffset(j) - j;
+            for (int i = j; i < n; i++) {
+                L[offset + i] = A[i][j];
+            }
+        }
+
+        for (int k = 0; k < n; k++) {
+            final int kOffset = columnOffset(k) - k;
+            double pivot = L[kOffset + k];
+
+            if (Double.isNaN(pivot) || Double.isInfinite(pivot)) {
+                return false;
+            }
+
+            if (pivot <= SINGULAR_TOLERANCE * Math.abs(A[k][k])) {
+                // a zero pivot: the rest of the column must be (numerically) zero as well
+                for (int i = k; i < n; i++) {
+                    L[kOffset + i] = 0.0;
+                }
+                continue;
+            }
+
+            double lkk = Math.sqrt(pivot);
+            L[kOffset + k] = lkk;
+            for (int i = k + 1; i < n; i++) {
+                L[kOffset + i] /= lkk;
+            }
+
+            // subtract the outer product of this column from the trailing matrix
+            for (int j = k + 1; j < n; j++) {
+                final double ljk = L[kOffset + j];
+                if (ljk != 0.0) {
+                    final int jOffset = columnOffset(j) - j;
+                    for (int i = j; i < n; i++) {
+                        L[jOffset + i] -= L[kOffset + i] * ljk;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the factor to zero (i.e., the decomposition of a matrix of zeros).
+     */
+    public void clear() {
+        java.util.Arrays.fill(L, 0.0);
+    }
+
+    /**
+     * Change the factor to that of c * A (c >= 0).
+     */
+    public void scale(double c) {
+        final double s = Math.sqrt(c);
+        for (int i = 0; i < L.length; i++) {
+            L[i] *= s;
+        }
+    }
+
+    /**
+     * Change the factor to that of A + xx' using a sequence of Givens rotations. This is
+     * stable and, unlike a downdate, can't make the matrix indefinite so it works for a
+     * singular A as well.
+     *
+     * @param x the vector, which is overwritten
+     * @return false if the update failed (i.e., x wasn't finite)
+     */
+    public boolean update(double[] x) {
+        for (int k = 0; k < n; k++) {
+            final double xk = x[k];
+            if (xk == 0.0) {
+                continue;
+            }
+            final int kOffset = columnOffset(k) - k;
+            final double lkk = L[kOffset + k];
+            final double r = Math.sqrt(lkk * lkk + xk * xk);
+            if (Double.isNaN(r) || Double.isInfinite(r)) {
+                return false;
+            }
+            final double c = lkk / r;
+            final double s = xk / r;
+            L[kOffset + k] = r;
+            for (int i = k + 1; i < n; i++) {
+                final double lik = L[kOffset + i];
+                final double xi = x[i];
+                L[kOffset + i] = c * lik + s * xi;
+                x[i] = c * xi - s * lik;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add c * Lz to y.
+     */
+    public void multiply(double[] z, double c, double[] y) {
+        for (int k = 0; k < n; k++) {
+            final double zk = c * z[k];
+            if (zk != 0.0) {
+                final int kOffset = columnOffset(k) - k;
+                for (int i = k; i < n; i++) {
+                    y[i] += L[kOffset + i] * zk;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the element of L in row i and column j
+     */
+    public double get(int i, int j) {
+        return (i < j ? 0.0 : L[columnOffset(j) + i - j]);
+    }
+
+    /**
+     * @return a copy of L as a square matrix
+     */
+    public double[][] getL() {
+        double[][] result = new double[n][n];
+        for (int j = 0; j < n; j++) {
+            for (int i = j; i < n; i++) {
+                result[i][j] = L[columnOffset(j) + i - j];
+            }
+        }
+        return result;
+    }
+
+    private int columnOffset(int j) {
+        return j * n - (j * (j - 1)) / 2;
+    }
+
+    private final int n;
+    private final double[] L;
+}
@@ -0,0 +1,234 @@
+/*
+ * MatrixWorkspace.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.matrixAlgebra.missingData;
+
+import org.ejml.alg.dense.decomposition.lu.LUDecompositionAlt_D64;
+import org.ejml.alg.dense.linsol.lu.LinearSolverLu_D64;
+import org.ejml.alg.dense.linsol.svd.SolvePseudoInverseSvd;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.DecompositionFactory;
+import org.ejml.factory.LinearSolverFactory;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition;
+import org.ejml.interfaces.linsol.LinearSolver;
+
+/**
+ * The scratch matrices, index buffers and decompositions used by the workspace versions of the
+ * MissingOps inversions and solves of matrices of up to a given dimension. Everything is made
+ * the first time it is needed (the sub-matrices of partially observed matrices being made for
+ * each size as it turns up) and is then reused so repeated calls don't allocate.
+ *
+ * A workspace is not thread-safe and should be owned by one integrator (or one thread).
+ *
+ * @author Andrew Rambaut
+ */
+public class MatrixWorkspace {
+
+    public MatrixWorkspace(int dim) {
+        this.dim = dim;
+
+        nonZeroFiniteIndices = new int[dim];
+        zeroIndices = new int[dim];
+        infiniteIndices = new int[dim];
+
+        subMatrices = new DenseMatrix64F[dim + 1];
+        subInverses = new DenseMatrix64F[dim + 1];
+        copies = new DenseMatrix64F[dim + 1];
+        @SuppressWarnings("unchecked")
+        LinearSolver<DenseMatrix64F>[] solvers = (LinearSolver<DenseMatrix64F>[]) new LinearSolver<?>[dim + 1];
+        symmPosDefSolvers = solvers;
+        luDecompositions = new LUDecompositionAlt_D64[dim + 1];
+        luSolvers = new LinearSolverLu_D64[dim + 1];
+
+        vector = new double[dim];
+        columnB = new DenseMatrix64F(dim, 1);
+        columnX = new DenseMatrix64F(dim, 1);
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    /**
+     * Sort the diagonal entries of a matrix into non-zero finite, zero and infinite (as
+     * PermutationIndices does) keeping the indices of each.
+     */
+    void permute(DenseMatrix64F matrix) {
+        final int n = matrix.getNumCols();
+        assert (n == matrix.getNumRows() && n <= dim);
+
+        nonZeroFiniteCount = 0;
+        zeroCount = 0;
+        infiniteCount = 0;
+        for (int i = 0; i < n; ++i) {
+            double diagonal = matrix.unsafe_get(i, i);
+            if (Double.isInfinite(diagonal)) {
+                infiniteIndices[infiniteCount++] = i;
+            } else if (diagonal == 0.0) {
+                zeroIndices[zeroCount++] = i;
+            } else {
+                nonZeroFiniteIndices[nonZeroFiniteCount++] = i;
+            }
+        }
+    }
+
+    int getNumberOfNonZeroFiniteDiagonals() {
+        return nonZeroFiniteCount;
+    }
+
+    int getNumberOfZeroDiagonals() {
+        return zeroCount;
+    }
+
+    int getNumberOfInfiniteDiagonals() {
+        return infiniteCount;
+    }
+
+    int[] getNonZeroFiniteIndices() {
+        return nonZeroFiniteIndices;
+    }
+
+    int[] getZeroIndices() {
+        return zeroIndices;
+    }
+
+    int[] getInfiniteIndices() {
+        return infiniteIndices;
+    }
+
+    /**
+     * @return a square matrix of the given size for the observed part of a matrix
+     */
+    DenseMatrix64F getSubMatrix(int size) {
+        if (subMatrices[size] == null) {
+            subMatrices[size] = new DenseMatrix64F(size, size);
+        }
+        return subMatrices[size];
+    }
+
+    /**
+     * @return a square matrix of the given size for the inverse of the observed part of a matrix
+     */
+    DenseMatrix64F getSubInverse(int size) {
+        if (subInverses[size] == null) {
+            subInverses[size] = new DenseMatrix64F(size, size);
+        }
+        return subInverses[size];
+    }
+
+    /**
+     * @return a copy of the matrix for solvers that modify their input
+     */
+    DenseMatrix64F getCopy(DenseMatrix64F matrix) {
+        final int size = matrix.getNumCols();
+        if (copies[size] == null) {
+            copies[size] = new DenseMatrix64F(size, size);
+        }
+        copies[size].set(matrix);
+        return copies[size];
+    }
+
+    LinearSolver<DenseMatrix64F> getSymmPosDefSolver(int size) {
+        if (symmPosDefSolvers[size] == null) {
+            symmPosDefSolvers[size] = LinearSolverFactory.symmPosDef(size);
+        }
+        return symmPosDefSolvers[size];
+    }
+
+    LUDecompositionAlt_D64 getLUDecomposition(int size) {
+        if (luDecompositions[size] == null) {
+            luDecompositions[size] = new LUDecompositionAlt_D64();
+            luSolvers[size] = new LinearSolverLu_D64(luDecompositions[size]);
+        }
+        return luDecompositions[size];
+    }
+
+    LinearSolverLu_D64 getLUSolver(int size) {
+        getLUDecomposition(size);
+        return luSolvers[size];
+    }
+
+    LinearSolver<DenseMatrix64F> getPseudoInverseSolver() {
+        if (pseudoInverseSolver == null) {
+            pseudoInverseSolver = LinearSolverFactory.pseudoInverse(true);
+            ((SolvePseudoInverseSvd) pseudoInverseSolver).setThreshold(PSEUDO_INVERSE_THRESHOLD);
+        }
+        return pseudoInverseSolver;
+    }
+
+    SingularValueDecomposition<DenseMatrix64F> getSingularValueDecomposition() {
+        if (svd == null) {
+            svd = DecompositionFactory.svd(dim, dim, false, false, false);
+        }
+        return svd;
+    }
+
+    /**
+     * @return a vector of length dim
+     */
+    public double[] getVector() {
+        return vector;
+    }
+
+    /**
+     * @return a column vector of the given length (at most dim) for the right hand side of a solve
+     */
+    DenseMatrix64F getColumnB(int length) {
+        columnB.reshape(length, 1, false);
+        return columnB;
+    }
+
+    /**
+     * @return a column vector of the given length (at most dim) for the solution of a solve
+     */
+    DenseMatrix64F getColumnX(int length) {
+        columnX.reshape(length, 1, false);
+        return columnX;
+    }
+
+    static final double PSEUDO_INVERSE_THRESHOLD = 1e-8;
+
+    private final int dim;
+
+    private final int[] nonZeroFiniteIndices;
+    private final int[] zeroIndices;
+    private final int[] infiniteIndices;
+    private int nonZeroFiniteCount;
+    private int zeroCount;
+    private int infiniteCount;
+
+    private final DenseMatrix64F[] subMatrices;
+    private final DenseMatrix64F[] subInverses;
+    private final DenseMatrix64F[] copies;
+    private final LinearSolver<DenseMatrix64F>[] symmPosDefSolvers;
+    private final LUDecompositionAlt_D64[] luDecompositions;
+    private final LinearSolverLu_D64[] luSolvers;
+    private LinearSolver<DenseMatrix64F> pseudoInverseSolver;
+    private SingularValueDecomposition<DenseMatrix64F> svd;
+
+    private final double[] vector;
+    private final DenseMatrix64F columnB;
+    private final DenseMatrix64F columnX;
+}
@@ -39,6 +39,12 @@ public class MissingOps {
         return DenseMatrix64F.wrap(numRows, numCols, buffer);
     }
 
+    public static DenseMatrix64F wrap(final double[] source, final int offset,
+                                      final DenseMatrix64F destination) {
+        System.arraycopy(source, offset, destination.getData(), 0, destination.getNumElements());
+        return destination;
+    }
+
     public static DenseMatrix64F wrap(MatrixParameterInterface A) {
         return wrap(A.getParameterValues(), 0, A.getRowDimension(), A.getColumnDimension());
     }
@@ -115,9 +121,12 @@ public class MissingOps {
 
     public static void gatherRowsAndColumns(final DenseMatrix64F source, final DenseMatrix64F destination,
                                             final int[] rowIndices, final int[] colIndices) {
+        gatherRowsAndColumns(source, destination, rowIndices, rowIndices.length, colIndices, colIndices.length);
+    }
 
-        final int rowLength = rowIndices.length;
-        final int colLength = colIndices.length;
+    private static void gatherRowsAndColumns(final DenseMatrix64F source, final DenseMatrix64F destination,
+                                             final int[] rowIndices, final int rowLength,
+                                             final int[] colIndices, final int colLength) {
         final double[] out = destination.getData();
 
         int index = 0;
@@ -144,12 +153,17 @@ public class MissingOps {
 
     public static void scatterRowsAndColumns(final DenseMatrix64F source, final DenseMatrix64F destination,
                                              final int[] rowIdices, final int[] colIndices, final boolean clear) {
+        scatterRowsAndColumns(source, destination, rowIdices, rowIdices.length, colIndices, colIndices.length, clear);
+    }
+
+    private static void scatterRowsAndColumns(final DenseMatrix64F source, final DenseMatrix64F destination,
+                                              final int[] rowIdices, final int rowLength,
+                                              final int[] colIndices, final int colLength,
+                                              final boolean clear) {
         if (clear) {
             Arrays.fill(destination.getData(), 0.0);
         }
 
-        final int rowLength = rowIdices.length;
-        final int colLength = colIndices.length;
         final double[] in = source.getData();
 
         int index = 0;
@@ -362,6 +376,33 @@ public class MissingOps {
         }
     }
 
+    public static double invertAndGetDeterminant(DenseMatrix64F mat, DenseMatrix64F result, boolean log,
+                                                 MatrixWorkspace workspace) {
+
+        final int numCol = mat.getNumCols();
+        if (numCol <= 5) {
+            return invertAndGetDeterminant(mat, result, log);
+        }
+
+        if (numCol != mat.getNumRows()) {
+            throw new IllegalArgumentException("Must be a square matrix.");
+        }
+
+        LUDecompositionAlt_D64 alg = workspace.getLUDecomposition(numCol);
+        LinearSolverLu_D64 solver = workspace.getLUSolver(numCol);
+        if (solver.modifiesA()) {
+            mat = workspace.getCopy(mat);
+        }
+
+        if (!solver.setA(mat)) {
+            return Double.NaN;
+        }
+
+        solver.invert(result);
+
+        return log ? computeLogDeterminant(alg) : alg.computeDeterminant().real;
+    }
+
     private static double computeLogDeterminant(LUDecompositionAlt_D64 alg) {
         int n = alg.getLU().getNumCols();
         if (n != alg.getLU().getNumRows()) {
@@ -378,6 +419,10 @@ public class MissingOps {
     }
 
     public static InversionResult safeDeterminant(DenseMatrix64F source, boolean invert) {
+        return safeDeterminant(source, invert, (MatrixWorkspace) null);
+    }
+
+    public static InversionResult safeDeterminant(DenseMatrix64F source, boolean invert, MatrixWorkspace workspace) {
         final int finiteCount = countFiniteNonZeroDiagonals(source);
 
         InversionResult result;
@@ -395,7 +440,11 @@ public class MissingOps {
 //                throw new RuntimeException("Unable to perform SVD");
 //            }
 
-            SingularValueDecomposition<DenseMatrix64F> svd = DecompositionFactory.svd(source.getNumRows(), source.getNumCols(), false, false, false);
+            SingularValueDecomposition<DenseMatrix64F> svd =
+                    (workspace != null && source.getNumRows() == workspace.getDimension() &&
+                            source.getNumCols() == workspace.getDimension()) ?
+                            workspace.getSingularValueDecomposition() :
+                            DecompositionFactory.svd(source.getNumRows(), source.getNumCols(), false, false, false);
             if (!svd.decompose(source)) {
                 if (SingularOps.rank(svd) == 0)
                     return new InversionResult(NOT_OBSERVED, 0, Double.NEGATIVE_INFINITY, true);
@@ -446,6 +495,39 @@ public class MissingOps {
         return ir;
     }
 
+    public static InversionResult safeSolve(DenseMatrix64F A,
+                                            double[] b, int bOffset,
+                                            double[] x, int xOffset,
+                                            MatrixWorkspace workspace) {
+        final int dim = A.getNumCols();
+
+        final DenseMatrix64F B = wrap(b, bOffset, workspace.getColumnB(dim));
+        final DenseMatrix64F X = workspace.getColumnX(dim);
+
+        InversionResult ir = safeSolve(A, B, X, workspace);
+
+        System.arraycopy(X.getData(), 0, x, xOffset, dim);
+
+        return ir;
+    }
+
+    public static InversionResult safeSolve(DenseMatrix64F A, DenseMatrix64F B, DenseMatrix64F X,
+                                            MatrixWorkspace workspace) {
+
+        final int finiteCount = countFiniteNonZeroDiagonals(A);
+
+        if (finiteCount == 0) {
+            Arrays.fill(X.getData(), 0);
+            return new InversionResult(NOT_OBSERVED, 0, Double.NEGATIVE_INFINITY, true);
+        }
+
+        LinearSolver<DenseMatrix64F> solver = workspace.getPseudoInverseSolver();
+        solver.setA(A);
+        solver.solve(B, X);
+
+        return new InversionResult(A.getNumCols() == 0 ? FULLY_OBSERVED : PARTIALLY_OBSERVED, 0, 0, true);
+    }
+
     public static InversionResult safeSolve(DenseMatrix64F A, DenseMatrix64F B, DenseMatrix64F X, boolean getLogDeterminant) {
 
         final int finiteCount = countFiniteNonZeroDiagonals(A);
@@ -537,26 +619,31 @@ public class MissingOps {
     //TODO: Just have one safeInvert function after checking to make sure it doesn't break anything
     // TODO: change all inversion to return logDeterminant
     public static InversionResult safeInvert2(DenseMatrix64F source, DenseMatrix64F destination, boolean getLogDeterminant) {
+        return safeInvert2(source, destination, getLogDeterminant, new MatrixWorkspace(source.getNumCols()));
+    }
+
+    public static InversionResult safeInvert2(DenseMatrix64F source, DenseMatrix64F destination, boolean getLogDeterminant,
+                                              MatrixWorkspace workspace) {
 
         final int dim = source.getNumCols();
-        final PermutationIndices permutationIndices = new PermutationIndices(source);
-        final int finiteNonZeroCount = permutationIndices.getNumberOfNonZeroFiniteDiagonals();
+        workspace.permute(source);
+        final int finiteNonZeroCount = workspace.getNumberOfNonZeroFiniteDiagonals();
 
         double logDet = 0;
 
         if (finiteNonZeroCount == dim) {
             if (getLogDeterminant) {
-                logDet = invertAndGetDeterminant(source, destination, true);
+                logDet = invertAndGetDeterminant(source, destination, true, workspace);
             } else {
 //                CommonOps.invert(source, destination);
-                symmPosDefInvert(source, destination);
+                symmPosDefInvert(source, destination, workspace);
             }
             return new InversionResult(FULLY_OBSERVED, dim, logDet, true);
         } else {
             if (finiteNonZeroCount == 0) {
                 Arrays.fill(destination.getData(), 0);
                 //TODO: should NOT_OBSERVED vs FULLY_OBSERVED depend on whether this is a variance vs precision matrix?
-                int infCount = permutationIndices.getNumberOfInfiniteDiagonals();
+                int infCount = workspace.getNumberOfInfiniteDiagonals();
 
                 if (infCount == dim) { //All infinity on diagonals of original matrix
 
@@ -564,7 +651,7 @@ public class MissingOps {
 
                 } else {
 
-                    int zeroCount = permutationIndices.getNumberOfZeroDiagonals();
+                    int zeroCount = workspace.getNumberOfZeroDiagonals();
 
                     if (zeroCount == dim) { //All zero on diagonals of original matrix
                         for (int i = 0; i < dim; i++) {
@@ -573,10 +660,9 @@ public class MissingOps {
                         return new InversionResult(FULLY_OBSERVED, dim, Double.POSITIVE_INFINITY, true);
 
                     } else { //Both zeros and infinities (but no non-zero finite entries) on diagonal
-                        int[] zeroInds = permutationIndices.getZeroIndices();
-                        int[] infInds = permutationIndices.getInfiniteIndices();
-                        for (int i : zeroInds) {
-                            destination.set(i, i, Double.POSITIVE_INFINITY);
+                        int[] zeroInds = workspace.getZeroIndices();
+                        for (int i = 0; i < zeroCount; i++) {
+                            destination.set(zeroInds[i], zeroInds[i], Double.POSITIVE_INFINITY);
                         }
                         //TODO: not sure what to do here with regard to dimension (it could be zeroCount or infCount
                         //TODO: depending on whether this is a variance or precision matrix respectively.
@@ -588,23 +674,26 @@ public class MissingOps {
 
             } else {
 
-                final int[] finiteIndices = permutationIndices.getNonZeroFiniteIndices();
-                final int[] zeroIndices = permutationIndices.getZeroIndices();
+                final int[] finiteIndices = workspace.getNonZeroFiniteIndices();
+                final int[] zeroIndices = workspace.getZeroIndices();
+                final int zeroCount = workspace.getNumberOfZeroDiagonals();
 
-                final DenseMatrix64F subSource = new DenseMatrix64F(finiteNonZeroCount, finiteNonZeroCount);
-                gatherRowsAndColumns(source, subSource, finiteIndices, finiteIndices);
+                final DenseMatrix64F subSource = workspace.getSubMatrix(finiteNonZeroCount);
+                gatherRowsAndColumns(source, subSource, finiteIndices, finiteNonZeroCount,
+                        finiteIndices, finiteNonZeroCount);
 
-                final DenseMatrix64F inverseSubSource = new DenseMatrix64F(finiteNonZeroCount, finiteNonZeroCount);
+                final DenseMatrix64F inverseSubSource = workspace.getSubInverse(finiteNonZeroCount);
                 if (getLogDeterminant) {
-                    logDet = invertAndGetDeterminant(subSource, inverseSubSource, true);
+                    logDet = invertAndGetDeterminant(subSource, inverseSubSource, true, workspace);
                 } else {
 //                    CommonOps.invert(subSource, inverseSubSource);
-                    symmPosDefInvert(subSource, inverseSubSource);
+                    symmPosDefInvert(subSource, inverseSubSource, workspace);
                 }
 
-                scatterRowsAndColumns(inverseSubSource, destination, finiteIndices, finiteIndices, true);
+                scatterRowsAndColumns(inverseSubSource, destination, finiteIndices, finiteNonZeroCount,
+                        finiteIndices, finiteNonZeroCount, true);
 
-                for (int i = 0; i < zeroIndices.length; i++) {
+                for (int i = 0; i < zeroCount; i++) {
                     int index = zeroIndices[i];
                     destination.set(index, index, Double.POSITIVE_INFINITY);
                 }
@@ -624,6 +713,16 @@ public class MissingOps {
         }
     }
 
+    public static void symmPosDefInvert(DenseMatrix64F P, DenseMatrix64F P_inv, MatrixWorkspace workspace) {
+        LinearSolver<DenseMatrix64F> solver = workspace.getSymmPosDefSolver(P.getNumCols());
+        DenseMatrix64F Pbis = workspace.getCopy(P);
+        if (!solver.setA(Pbis)) {
+            CommonOps.invert(P, P_inv);
+        } else {
+            solver.invert(P_inv);
+        }
+    }
+
     public static void safeMult(DenseMatrix64F sourceA, DenseMatrix64F sourceB, DenseMatrix64F destination) {
 
         final int dim = sourceA.getNumCols();
@@ -726,6 +825,47 @@ public class MissingOps {
         }
     }
 
+    public static void safeWeightedAverage(final double[] mi, final int miOffset,
+                                           final DenseMatrix64F Pi,
+                                           final double[] mj, final int mjOffset,
+                                           final DenseMatrix64F Pj,
+                                           final double[] mk, final int mkOffset,
+                                           final DenseMatrix64F Vk,
+                                           final int dimTrait,
+                                           final double[] tmp) {
+        for (int g = 0; g < dimTrait; ++g) {
+            double sum = 0.0;
+            boolean iInf = Double.isInfinite(Pi.unsafe_get(g, g));
+            boolean jInf = Double.isInfinite(Pj.unsafe_get(g, g));
+            if (iInf && jInf) {
+                throw new IllegalArgumentException("Both precision matrices are infinite in dimension " + g);
+            } else if (iInf) {
+                sum = mi[miOffset + g];
+            } else if (jInf) {
+                sum = mj[mjOffset + g];
+            } else {
+                for (int h = 0; h < dimTrait; ++h) {
+                    sum += Pi.unsafe_get(g, h) * mi[miOffset + h];
+                    sum += Pj.unsafe_get(g, h) * mj[mjOffset + h];
+                }
+            }
+
+            tmp[g] = sum;
+        }
+
+        for (int g = 0; g < dimTrait; ++g) {
+            double sum = 0.0;
+            if (Vk.unsafe_get(g, g) == 0.0) {
+                sum = tmp[g];
+            } else {
+                for (int h = 0; h < dimTrait; ++h) {
+                    sum += Vk.unsafe_get(g, h) * tmp[h];
+                }
+            }
+            mk[mkOffset + g] = sum;
+        }
+    }
+
     public static void weightedAverage(final ReadableVector mi,
                                        final DenseMatrix64F Pi,
                                        final ReadableVector mj,
@@ -989,10 +1129,16 @@ public class MissingOps {
     }
 
     public static void forceSymmetric(DenseMatrix64F P) {
-        DenseMatrix64F Ptrans = new DenseMatrix64F(P);
-        CommonOps.transpose(P, Ptrans);
-        CommonOps.addEquals(P, Ptrans);
-        CommonOps.scale(0.5, P);
+        // (P + P^t) / 2 in place
+        final int dim = P.getNumRows();
+        for (int i = 0; i < dim; ++i) {
+            P.unsafe_set(i, i, (P.unsafe_get(i, i) + P.unsafe_get(i, i)) * 0.5);
+            for (int j = i + 1; j < dim; ++j) {
+                final double x = (P.unsafe_get(i, j) + P.unsafe_get(j, i)) * 0.5;
+                P.unsafe_set(i, j, x);
+                P.unsafe_set(j, i, x);
+            }
+        }
     }
 
     public static void symmetricMult(DenseMatrix64F Q, DenseMatrix64F P, DenseMatrix64F QtPQ) {
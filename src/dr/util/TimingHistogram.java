@@ -0,0 +1,150 @@
+/*
+ * TimingHistogram.java
+ *
+ * Copyright (c) 2002-2018 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of times in nanoseconds with buckets that get wider as the times get longer (in
+ * the manner of an HDR histogram). Times below 16ns have a bucket each and above that each
+ * power of two is split into 16 buckets so a percentile is accurate to about 6% whatever the
+ * scale. Recording a time is a few arithmetic operations and an array increment.
+ *
+ * A histogram is meant to be recorded by a single thread. Other threads may read it while it is
+ * being recorded but then the values may be slightly out of date with each other.
+ *
+ * @author Andrew Rambaut
+ */
+public class TimingHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // the longest time that gets a bucket of its own (about 39 hours)
+    private static final int MAX_EXPONENT = 47;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    public void record(long time) {
+        if (time < 0) {
+            time = 0;
+        }
+        counts[getBucket(time)]++;
+        count++;
+        total += time;
+        if (time > maximum) {
+            maximum = time;
+        }
+        if (count == 1 || time < minimum) {
+            minimum = time;
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        minimum = 0;
+        maximum = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded times
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) total / count : 0.0;
+    }
+
+    public long getMinimum() {
+        return minimum;
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @param percentile the percentile (between 0 and 100)
+     * @return the largest time in the bucket of the given percentile (but no more than the
+     * longest time recorded)
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.max(minimum, Math.min(maximum, getBucketLimit(i)));
+            }
+        }
+        return maximum;
+    }
+
+    private static int getBucket(long time) {
+        if (time < SUB_BUCKET_COUNT) {
+            return (int) time;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(time);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // the top bits of the time below the leading one
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (time >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT * (shift + 1) + subBucket;
+    }
+
+    /**
+     * @return the largest time that goes in the bucket
+     */
+    private static long getBucketLimit(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long minimum = 0;
+    private long maximum = 0;
+}
@@ -74,33 +74,121 @@ public class XMLParser {
 
         for (String parserName : parserNames) {
             XMLObjectParser oldParser = parserStore.get(parserName);
-            if (oldParser != null) {
+            DeferredParser oldDeferredParser = deferredParserStore.get(parserName);
+            if (oldParser != null || oldDeferredParser != null) {
                 if (!canReplace) {
                     throw new IllegalArgumentException("New parser (" + parser.getParserName()
                             + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
-                            + oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}");
+                            + (oldParser != null ?
+                            oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}" :
+                            parserName + ") in {" + oldDeferredParser.getClassName() + "}"));
                 } else {
                     replaced = true;
                 }
             }
+            deferredParserStore.remove(parserName);
             parserStore.put(parserName, parser);
         }
 
         return replaced;
     }
 
+    /**
+     * Add a parser that is only known by its element names and where it is to be found (from an
+     * index made when BEAST was built). Its class is loaded, and the parser made, the first time
+     * one of its elements is looked up, so classes of parsers that are not used are never loaded.
+     *
+     * @param parserNames the element names of the parser
+     * @param className   the name of the class that is the parser or has it as a static field
+     * @param fieldName   the name of the static field or null if the class is the parser
+     * @param canReplace  can this parser replace an existing one with the same name
+     * @return true if an existing parser was replaced
+     */
+    public boolean addDeferredXMLObjectParser(String[] parserNames, String className, String fieldName, boolean canReplace) {
+
+        boolean replaced = false;
+        DeferredParser parser = new DeferredParser(parserNames, className, fieldName);
+
+        for (String parserName : parserNames) {
+            XMLObjectParser oldParser = parserStore.get(parserName);
+            DeferredParser oldDeferredParser = deferredParserStore.get(parserName);
+            if (oldParser != null || oldDeferredParser != null) {
+                if (!canReplace) {
+                    throw new IllegalArgumentException("New parser (" + parserName
+                            + ") in {" + className + "} cannot replace existing parser ("
+                            + (oldParser != null ?
+                            oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}" :
+                            parserName + ") in {" + oldDeferredParser.getClassName() + "}"));
+                } else {
+                    replaced = true;
+                }
+            }
+            parserStore.remove(parserName);
+            deferredParserStore.put(parserName, parser);
+        }
+
+        return replaced;
+    }
+
     public Iterator getParserNames() {
+        loadDeferredParsers();
         return parserStore.keySet().iterator();
     }
 
     public XMLObjectParser getParser(String name) {
-        return parserStore.get(name);
+        XMLObjectParser parser = parserStore.get(name);
+        if (parser == null && deferredParserStore.containsKey(name)) {
+            parser = loadDeferredParser(name);
+        }
+        return parser;
     }
 
     public Iterator getParsers() {
+        loadDeferredParsers();
         return parserStore.values().iterator();
     }
 
+    /**
+     * @return the number of parsers whose classes have not yet been loaded
+     */
+    public int getDeferredParserCount() {
+        return new HashSet<DeferredParser>(deferredParserStore.values()).size();
+    }
+
+    private void loadDeferredParsers() {
+        while (!deferredParserStore.isEmpty()) {
+            loadDeferredParser(deferredParserStore.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Load the deferred parser for the given element name and put it in place of the deferred
+     * parser for all its names. If it fails to load then its names are dropped (as they would be
+     * if it had failed to load when the parsers were read in).
+     */
+    private XMLObjectParser loadDeferredParser(String name) {
+        DeferredParser deferredParser = deferredParserStore.get(name);
+
+        XMLObjectParser parser = null;
+        try {
+            parser = deferredParser.load();
+        } catch (Exception e) {
+            System.err.println("\nFailed to load parser: " + e.getMessage());
+            System.err.println("class = " + deferredParser.getClassName() + "\n");
+        }
+
+        for (String parserName : deferredParser.getParserNames()) {
+            if (deferredParserStore.get(parserName) == deferredParser) {
+                deferredParserStore.remove(parserName);
+                if (parser != null) {
+                    parserStore.put(parserName, parser);
+                }
+            }
+        }
+
+        return parser;
+    }
+
     public Iterator getThreads() {
         return threads.iterator();
     }
@@ -130,6 +218,24 @@ public class XMLParser {
             org.xml.sax.SAXException,
             dr.xml.XMLParseException,
             javax.xml.parsers.ParserConfigurationException {
+        return parse(reader, target, 0);
+    }
+
+    /**
+     * As parse(Reader, Class) but returns the object of the given class that comes after index
+     * others of that class.
+     *
+     * @param reader the reader
+     * @param target the target class
+     * @param index  the number of objects of the target class to parse before the one returned
+     */
+    public Object parse(Reader reader, Class target, int index)
+            throws java.io.IOException,
+            org.xml.sax.SAXException,
+            dr.xml.XMLParseException,
+            javax.xml.parsers.ParserConfigurationException {
+
+        targetIndex = index;
 
         InputSource in = new InputSource(reader);
         javax.xml.parsers.DocumentBuilderFactory documentBuilderFactory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
@@ -245,7 +351,7 @@ public class XMLParser {
                 throw new XMLParseException("Object with idref=" + idref + " has not been parsed.");
             }
 
-            XMLObjectParser parser = parserStore.get(e.getTagName());
+            XMLObjectParser parser = getParser(e.getTagName());
             boolean classMatch = parser != null && parser.getReturnType().isAssignableFrom(restoredXMLObject.getNativeObject().getClass());
 
             if (!e.getTagName().equals(restoredXMLObject.getName()) && !classMatch) {
@@ -277,7 +383,7 @@ public class XMLParser {
 
             XMLObject xo = new XMLObject(e, parent);
 
-            final XMLObjectParser parser = doParse ? parserStore.get(xo.getName()) : null;
+            final XMLObjectParser parser = doParse ? getParser(xo.getName()) : null;
 
             String id = null;
             NodeList nodes = e.getChildNodes();
@@ -299,7 +405,10 @@ public class XMLParser {
                         if (target != null && xoc instanceof XMLObject) {
                             Object obj = ((XMLObject) xoc).getNativeObject();
                             if (obj != null && target.isInstance(obj)) {
-                                return obj;
+                                if (targetIndex == 0) {
+                                    return obj;
+                                }
+                                targetIndex--;
                             }
                         }
 
@@ -332,7 +441,10 @@ public class XMLParser {
                     addCitable((Citable)obj);
                 }
 
-                if (obj instanceof Likelihood) {
+                if (isParsingCopy()) {
+                    // copies are left out of the sets of everything created so they aren't reported
+                    // as unused (or kept for the rest of the run) in place of the originals
+                } else if (obj instanceof Likelihood) {
                     Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood) obj);
                 } else if (obj instanceof Model) {
                     Model.FULL_MODEL_SET.add((Model) obj);
@@ -454,6 +566,15 @@ public class XMLParser {
     public static PrintWriter getFilePrintWriter(XMLObject xo, String parserName, String attributeName) throws XMLParseException {
 
         if (xo.hasAttribute(attributeName)) {
+            if (isParsingCopy()) {
+                // the original objects are writing to this file so discard anything written
+                return new PrintWriter(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                });
+            }
+
             File logFile = getLogFile(xo, attributeName);
 
             try {
@@ -469,6 +590,23 @@ public class XMLParser {
 
     public static File getLogFile(XMLObject xo, String attributeName) throws XMLParseException {
         final File logFile = getFileHandle(xo, attributeName);
+        checkLogFileOverwrite(xo, logFile);
+        return logFile;
+    }
+
+    /**
+     * Get the file named by an attribute without checking whether it already exists (e.g., a stem
+     * to which extensions are added, in which case checkLogFileOverwrite should be called for each
+     * of the files that will be written).
+     */
+    public static File getLogFileStem(XMLObject xo, String attributeName) throws XMLParseException {
+        return getFileHandle(xo, attributeName);
+    }
+
+    /**
+     * @throws XMLParseException if the log file already exists and overwriting has not been allowed
+     */
+    public static void checkLogFileOverwrite(XMLObject xo, File logFile) throws XMLParseException {
         boolean allowOverwrite = false;
 
         if (xo.hasAttribute(LoggerParser.ALLOW_OVERWRITE_LOG)) {
@@ -480,16 +618,35 @@ public class XMLParser {
             allowOverwrite = Boolean.parseBoolean(System.getProperty("log.allow.overwrite", "false"));
         }
 
-        if (logFile.exists() && !allowOverwrite) {
+        if (logFile.exists() && !allowOverwrite && !isParsingCopy()) {
             throw new XMLParseException("\nThe log file " + logFile.getName() + " already exists in the working directory." +
                     "\nTo allow it to be overwritten, use the '-overwrite' command line option when running" +
                     "\nBEAST or select the option in the Run Options dialog box as appropriate.");
         }
+    }
 
+    /**
+     * Set whether the current thread is parsing a file again to make copies of objects that have
+     * already been created from it (e.g., extra chains to be run alongside the original). While it
+     * is, anything written to the output files named in the XML is discarded so the files of the
+     * original objects are left alone, and the objects made are not added to the sets of all
+     * likelihoods, models and parameters (e.g., Likelihood.FULL_LIKELIHOOD_SET).
+     */
+    public static void setParsingCopy(boolean parsingCopy) {
+        PARSING_COPY.set(parsingCopy);
+    }
 
-        return logFile;
+    public static boolean isParsingCopy() {
+        return PARSING_COPY.get();
     }
 
+    private static final ThreadLocal<Boolean> PARSING_COPY = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
     public Map<String, XMLObject> getObjectStore() {
         return objectStore;
     }
@@ -594,9 +751,11 @@ public class XMLParser {
 
     //    private final Hashtable<String, XMLObject> store = new Hashtable<String, XMLObject>();
     private final Map<String, XMLObjectParser> parserStore = new TreeMap<String, XMLObjectParser>(new ParserComparator());
+    private final Map<String, DeferredParser> deferredParserStore = new TreeMap<String, DeferredParser>(new ParserComparator());
     private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
     private boolean concurrent = false;
+    private int targetIndex = 0;
     private XMLObject root = null;
 
     private boolean verbose = false;
@@ -630,6 +789,39 @@ public class XMLParser {
 
     }
 
+    /**
+     * A parser that has not been loaded yet: the name of its class and, if the class isn't itself
+     * the parser, the static field of the class holding it.
+     */
+    private static class DeferredParser {
+
+        DeferredParser(String[] parserNames, String className, String fieldName) {
+            this.parserNames = parserNames;
+            this.className = className;
+            this.fieldName = fieldName;
+        }
+
+        String[] getParserNames() {
+            return parserNames;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        XMLObjectParser load() throws Exception {
+            Class<?> parserClass = Class.forName(className);
+            if (fieldName == null) {
+                return (XMLObjectParser) parserClass.getDeclaredConstructor().newInstance();
+            }
+            return (XMLObjectParser) parserClass.getDeclaredField(fieldName).get(null);
+        }
+
+        private final String[] parserNames;
+        private final String className;
+        private final String fieldName;
+    }
+
     class ParserComparator implements Comparator<String> {
         public int compare(String o1, String o2) {
             String name1 = o1.toUpperCase();
@@ -0,0 +1,99 @@
+package test.dr.app.beast;
+
+import dr.app.beast.ParserIndexBuilder;
+import dr.evolution.util.Taxa;
+import dr.evoxml.TaxaParser;
+import dr.evoxml.TaxonParser;
+import dr.xml.XMLObject;
+import dr.xml.XMLParser;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Checks the index made of a parsers file by ParserIndexBuilder and that deferred parsers are
+ * only loaded when their elements are used (and then parse as the parsers themselves would).
+ *
+ * @author Andrew Rambaut
+ */
+public class ParserIndexTest extends TestCase {
+
+    public ParserIndexTest(String name) {
+        super(name);
+    }
+
+    public void testIndex() throws Exception {
+        File parsersFile = File.createTempFile("test", "_parsers.properties");
+        parsersFile.deleteOnExit();
+        FileWriter writer = new FileWriter(parsersFile);
+        writer.write("# test parsers\n");
+        writer.write("dr.evoxml.TaxonParser\n");
+        writer.write("\n");
+        writer.write("dr.evomodel.treelikelihood.SplitBySiteTraitLogger\n");
+        writer.write("dr.evoxml.NoSuchParser\n");
+        writer.close();
+
+        StringWriter index = new StringWriter();
+        ParserIndexBuilder.buildIndex(parsersFile, index);
+        String[] lines = index.toString().split("\n");
+
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("# " + parsersFile.getName() + " "));
+        assertEquals("dr.evoxml.TaxonParser\ttaxon", lines[1]);
+        assertEquals("dr.evomodel.treelikelihood.SplitBySiteTraitLogger#PARSER\tsplitTraitBySite", lines[2]);
+        // a class that can't be loaded is listed without names (to be loaded, and reported, at start up)
+        assertEquals("dr.evoxml.NoSuchParser", lines[3]);
+    }
+
+    public void testDeferredParsers() throws Exception {
+        XMLParser parser = new XMLParser(false, false, false, null);
+        parser.addDeferredXMLObjectParser(new String[]{"taxa"}, "dr.evoxml.TaxaParser", null, false);
+        parser.addDeferredXMLObjectParser(new String[]{"taxon"}, "dr.evoxml.TaxonParser", null, false);
+        parser.addDeferredXMLObjectParser(new String[]{"splitTraitBySite"},
+                "dr.evomodel.treelikelihood.SplitBySiteTraitLogger", "PARSER", false);
+        assertEquals(3, parser.getDeferredParserCount());
+
+        Map<String, XMLObject> store = parser.parse(new StringReader(
+                "<beast><taxa id=\"taxa\"><taxon id=\"A\"/><taxon id=\"B\"/></taxa></beast>"), false);
+
+        assertEquals(1, parser.getDeferredParserCount());
+        assertTrue(parser.getParser("TAXA") instanceof TaxaParser);
+        assertTrue(parser.getParser("taxon") instanceof TaxonParser);
+        assertEquals(2, ((Taxa) store.get("taxa").getNativeObject()).getTaxonCount());
+
+        // looking up the parsers by name loads the rest
+        assertNotNull(parser.getParser("splitTraitBySite"));
+        assertEquals(0, parser.getDeferredParserCount());
+    }
+
+    public void testReplace() throws Exception {
+        XMLParser parser = new XMLParser(false, false, false, null);
+        parser.addXMLObjectParser(new TaxonParser());
+        try {
+            parser.addDeferredXMLObjectParser(new String[]{"taxon"}, "dr.evoxml.TaxonParser", null, false);
+            fail("a deferred parser replaced an existing parser");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+
+        parser.addDeferredXMLObjectParser(new String[]{"taxa"}, "dr.evoxml.TaxaParser", null, false);
+        try {
+            parser.addXMLObjectParser(new TaxaParser(), false);
+            fail("a parser replaced an existing deferred parser");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+
+        assertTrue(parser.addDeferredXMLObjectParser(new String[]{"taxon"}, "dr.evoxml.TaxonParser", null, true));
+        assertEquals(2, parser.getDeferredParserCount());
+
+        // a deferred parser that can't be loaded is dropped
+        parser.addDeferredXMLObjectParser(new String[]{"noSuchParser"}, "dr.evoxml.NoSuchParser", null, false);
+        assertNull(parser.getParser("noSuchParser"));
+        assertEquals(2, parser.getDeferredParserCount());
+    }
+}
@@ -0,0 +1,115 @@
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.CheckpointState;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.evolution.CoalescentTrees;
+
+import java.io.*;
+
+/**
+ * Checks that a state written in the binary checkpoint format reads back identically
+ * (as compared through the text format) and that corruption is detected.
+ *
+ * @author Andrew Rambaut
+ */
+public class CheckpointStateTest extends TestCase {
+
+    private SimpleOperatorSchedule schedule;
+
+    public CheckpointStateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+
+        MathUtils.setSeed(666);
+
+        TreeModel treeModel = new TreeModel("treeModel", CoalescentTrees.simulateTree(50));
+
+        Parameter rates = new Parameter.Default("branchRates", 98, 1.0);
+        for (int i = 0; i < rates.getDimension(); i++) {
+            rates.setParameterValue(i, MathUtils.nextDouble());
+        }
+        new TreeParameterModel(treeModel, rates, false);
+
+        ScaleOperator scale = new ScaleOperator(new Parameter.Default("kappa", 2.0), 0.75,
+                AdaptationMode.ADAPTATION_ON, 1.0);
+        scale.setAcceptCount(123);
+        scale.setRejectCount(456);
+
+        schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(scale);
+        schedule.addOperator(new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0));
+    }
+
+    public void tearDown() throws Exception {
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+        super.tearDown();
+    }
+
+    private static String toText(CheckpointState checkpoint) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        checkpoint.writeText(out);
+        out.close();
+        return bytes.toString();
+    }
+
+    private static byte[] toBinary(CheckpointState checkpoint, boolean compress) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        checkpoint.writeBinary(bytes, compress);
+        return bytes.toByteArray();
+    }
+
+    public void testRoundTrip() throws IOException {
+        CheckpointState checkpoint = CheckpointState.capture(schedule, 1000000, -1234.5678);
+        String expected = toText(checkpoint);
+
+        for (boolean compress : new boolean[]{false, true}) {
+            byte[] binary = toBinary(checkpoint, compress);
+            CheckpointState loaded = CheckpointState.readBinary(new ByteArrayInputStream(binary));
+
+            assertEquals(1000000, loaded.getState());
+            assertEquals(-1234.5678, loaded.getLnL(), 0.0);
+            assertEquals(expected, toText(loaded));
+        }
+    }
+
+    public void testCompressedIsSmaller() throws IOException {
+        CheckpointState checkpoint = CheckpointState.capture(schedule, 1000, 0.0);
+        int textLength = toText(checkpoint).length();
+        int binaryLength = toBinary(checkpoint, false).length;
+        int compressedLength = toBinary(checkpoint, true).length;
+
+        assertTrue(binaryLength < textLength);
+        assertTrue(compressedLength < binaryLength);
+    }
+
+    public void testCorruptionDetected() throws IOException {
+        byte[] binary = toBinary(CheckpointState.capture(schedule, 1000, 0.0), false);
+
+        // change a bit in the last trait value (just before the 8 byte checksum)
+        binary[binary.length - 10] ^= 0x01;
+
+        try {
+            CheckpointState.readBinary(new ByteArrayInputStream(binary));
+            fail("corrupt checkpoint was read without error");
+        } catch (IOException ioe) {
+            assertTrue(ioe.getMessage().contains("checksum"));
+        }
+    }
+}
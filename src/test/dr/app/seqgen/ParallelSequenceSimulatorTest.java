@@ -0,0 +1,201 @@
+package test.dr.app.seqgen;
+
+import dr.app.seqgen.ParallelSequenceSimulator;
+import dr.app.seqgen.SequenceSimulator;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.Tree;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evoxml.NewickParser;
+import dr.evoxml.TaxaParser;
+import dr.evoxml.TaxonParser;
+import dr.inference.model.Parameter;
+import dr.inference.model.ParameterParser;
+import dr.oldevomodel.sitemodel.GammaSiteModel;
+import dr.oldevomodel.sitemodel.SiteModel;
+import dr.oldevomodel.substmodel.FrequencyModel;
+import dr.oldevomodel.substmodel.HKY;
+import dr.oldevomodelxml.sitemodel.GammaSiteModelParser;
+import dr.oldevomodelxml.substmodel.FrequencyModelParser;
+import dr.oldevomodelxml.substmodel.HKYParser;
+import dr.xml.XMLObject;
+import dr.xml.XMLParser;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the replicates simulated by ParallelSequenceSimulator do not depend on the number
+ * of threads, that the partitions are concatenated, that the XML element writes the replicates and that the simulated differences between
+ * two sequences are as expected under Jukes-Cantor.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParallelSequenceSimulatorTest extends TestCase {
+
+    public ParallelSequenceSimulatorTest(String name) {
+        super(name);
+    }
+
+    public void testThreads() throws Exception {
+        List<SequenceSimulator> partitions = new ArrayList<SequenceSimulator>();
+        partitions.add(new SequenceSimulator(createTree("((A:0.1,B:0.2):0.05,(C:0.3,D:0.1):0.1);"),
+                createSiteModel(2.0), new DefaultBranchRateModel(), 700));
+        partitions.add(new SequenceSimulator(createTree("((A:0.2,C:0.2):0.1,(B:0.1,D:0.4):0.1);"),
+                createSiteModel(5.0), new DefaultBranchRateModel(), 300));
+
+        File directory = createTempDirectory();
+        try {
+            String stem1 = new File(directory, "one").getPath();
+            String stem4 = new File(directory, "four").getPath();
+            new ParallelSequenceSimulator(partitions, 1).simulate(10, 1234, stem1);
+            new ParallelSequenceSimulator(partitions, 4).simulate(10, 1234, stem4);
+
+            ParallelSequenceSimulator simulator = new ParallelSequenceSimulator(partitions, 2);
+            assertEquals(1000, simulator.getSiteCount());
+            for (int r = 0; r < 10; r++) {
+                String replicate1 = read(stem1 + "_" + (r + 1) + ".fasta");
+                assertEquals(replicate1, read(stem4 + "_" + (r + 1) + ".fasta"));
+
+                StringWriter writer = new StringWriter();
+                simulator.simulateReplicate(r, 1234, writer);
+                assertEquals(replicate1, writer.toString());
+
+                String[] lines = replicate1.split("\n");
+                assertEquals(8, lines.length);
+                assertEquals(">A", lines[0]);
+                assertEquals(1000, lines[1].length());
+            }
+
+            // a different seed gives different replicates
+            StringWriter writer = new StringWriter();
+            simulator.simulateReplicate(0, 4321, writer);
+            assertFalse(writer.toString().equals(read(stem1 + "_1.fasta")));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    public void testJukesCantor() throws Exception {
+        final double distance = 0.3;
+        final int siteCount = 50000;
+        SequenceSimulator partition = new SequenceSimulator(
+                createTree("(A:" + (distance / 2) + ",B:" + (distance / 2) + ");"),
+                createSiteModel(1.0), new DefaultBranchRateModel(), siteCount);
+
+        StringWriter writer = new StringWriter();
+        new ParallelSequenceSimulator(Arrays.asList(partition), 1).simulateReplicate(0, 666, writer);
+        String[] lines = writer.toString().split("\n");
+
+        int differences = 0;
+        for (int i = 0; i < siteCount; i++) {
+            if (lines[1].charAt(i) != lines[3].charAt(i)) {
+                differences++;
+            }
+        }
+        double expected = 0.75 * (1.0 - Math.exp(-4.0 * distance / 3.0));
+        double sd = Math.sqrt(expected * (1.0 - expected) / siteCount);
+        assertEquals(expected, (double) differences / siteCount, 4 * sd);
+    }
+
+    public void testAncestralSequence() throws Exception {
+        SequenceSimulator partition = new SequenceSimulator(createTree("((A:1e-12,B:1e-12):1e-12,C:2e-12);"),
+                createSiteModel(2.0), new DefaultBranchRateModel(), 12);
+        Sequence ancestralSequence = new Sequence();
+        ancestralSequence.appendSequenceString("ACGTTGCAACGT");
+        partition.setAncestralSequence(ancestralSequence);
+
+        StringWriter writer = new StringWriter();
+        new ParallelSequenceSimulator(Arrays.asList(partition), 1).simulateReplicate(3, 1, writer);
+        assertEquals(">A\nACGTTGCAACGT\n>B\nACGTTGCAACGT\n>C\nACGTTGCAACGT\n", writer.toString());
+    }
+
+    public void testParser() throws Exception {
+        File directory = createTempDirectory();
+        try {
+            String stem = new File(directory, "xml").getPath();
+
+            XMLParser parser = new XMLParser(false, false, false, null);
+            parser.addXMLObjectParser(new TaxonParser());
+            parser.addXMLObjectParser(new TaxaParser());
+            parser.addXMLObjectParser(new NewickParser());
+            parser.addXMLObjectParser(new ParameterParser());
+            parser.addXMLObjectParser(new FrequencyModelParser());
+            parser.addXMLObjectParser(new HKYParser());
+            parser.addXMLObjectParser(new GammaSiteModelParser());
+            parser.addXMLObjectParser(ParallelSequenceSimulator.PARSER);
+
+            Map<String, XMLObject> store = parser.parse(new StringReader("<beast>" +
+                    "<taxa id=\"taxa\"><taxon id=\"A\"/><taxon id=\"B\"/><taxon id=\"C\"/><taxon id=\"D\"/></taxa>" +
+                    "<newick id=\"tree\">((A:0.1,B:0.2):0.05,(C:0.3,D:0.1):0.1);</newick>" +
+                    "<siteModel id=\"siteModel\"><substitutionModel><HKYModel>" +
+                    "<frequencies><frequencyModel dataType=\"nucleotide\"><frequencies>" +
+                    "<parameter value=\"0.25 0.25 0.25 0.25\"/></frequencies></frequencyModel></frequencies>" +
+                    "<kappa><parameter value=\"2.0\"/></kappa></HKYModel></substitutionModel></siteModel>" +
+                    "<parallelSequenceSimulator replications=\"3\" seed=\"1234\" threads=\"2\" fileStem=\"" + stem + "\">" +
+                    "<partition sequenceLength=\"500\"><tree idref=\"tree\"/><siteModel idref=\"siteModel\"/></partition>" +
+                    "</parallelSequenceSimulator>" +
+                    "</beast>"), true);
+
+            // the same partition simulated directly on one thread
+            ParallelSequenceSimulator simulator = new ParallelSequenceSimulator(Arrays.asList(
+                    new SequenceSimulator((Tree) store.get("tree").getNativeObject(),
+                            (SiteModel) store.get("siteModel").getNativeObject(), new DefaultBranchRateModel(), 500)), 1);
+            for (int r = 0; r < 3; r++) {
+                StringWriter writer = new StringWriter();
+                simulator.simulateReplicate(r, 1234, writer);
+                assertEquals(writer.toString(), read(stem + "_" + (r + 1) + ".fasta"));
+            }
+            assertFalse(new File(stem + "_4.fasta").exists());
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static Tree createTree(String newick) throws Exception {
+        return new NewickImporter(newick).importTree(null);
+    }
+
+    private static SiteModel createSiteModel(double kappa) {
+        Parameter freqs = new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25});
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, freqs);
+        return new GammaSiteModel(new HKY(new Parameter.Default(1, kappa), f));
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("replicates", "");
+        directory.delete();
+        directory.mkdir();
+        return directory;
+    }
+
+    private static String read(String fileName) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        return builder.toString();
+    }
+}
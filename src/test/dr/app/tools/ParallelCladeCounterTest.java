@@ -0,0 +1,100 @@
+package test.dr.app.tools;
+
+import dr.app.tools.ParallelCladeCounter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.evolution.CoalescentTrees;
+
+import java.util.*;
+
+/**
+ * Checks the clade and subclade counts from ParallelCladeCounter against a simple
+ * single threaded count using BitSets.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParallelCladeCounterTest extends TestCase {
+
+    private List<Tree> trees;
+
+    public ParallelCladeCounterTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // 70 taxa so the clades need two words, added in a different order for each tree
+        List<Taxon> taxonList = CoalescentTrees.createTaxa(70).asList();
+
+        trees = new ArrayList<Tree>();
+        for (int i = 0; i < 200; i++) {
+            Collections.shuffle(taxonList, new Random(i));
+            // a few distinct trees so there are repeated clades
+            MathUtils.setSeed(1 + i % 7);
+            trees.add(CoalescentTrees.simulateTree(new Taxa(taxonList)));
+        }
+    }
+
+    private BitSet countClades(Tree tree, NodeRef node, Map<BitSet, Integer> counts, Set<List<BitSet>> subclades) {
+        BitSet bits = new BitSet();
+        if (tree.isExternal(node)) {
+            bits.set(trees.get(0).getTaxonIndex(tree.getNodeTaxon(node).getId()));
+        } else {
+            BitSet left = countClades(tree, tree.getChild(node, 0), counts, subclades);
+            BitSet right = countClades(tree, tree.getChild(node, 1), counts, subclades);
+            bits.or(left);
+            bits.or(right);
+            if (left.nextSetBit(0) < right.nextSetBit(0)) {
+                subclades.add(Arrays.asList(bits, left, right));
+            } else {
+                subclades.add(Arrays.asList(bits, right, left));
+            }
+        }
+        Integer count = counts.get(bits);
+        counts.put(bits, count == null ? 1 : count + 1);
+        return bits;
+    }
+
+    public void testCladeCounts() {
+        final Map<BitSet, Integer> expectedCounts = new HashMap<BitSet, Integer>();
+        final Set<List<BitSet>> expectedSubclades = new HashSet<List<BitSet>>();
+        for (Tree tree : trees) {
+            countClades(tree, tree.getRoot(), expectedCounts, expectedSubclades);
+        }
+
+        for (int threadCount : new int[]{1, 3}) {
+            ParallelCladeCounter counter = new ParallelCladeCounter(threadCount);
+            for (Tree tree : trees) {
+                counter.add(tree);
+            }
+
+            final Map<BitSet, Integer> counts = new HashMap<BitSet, Integer>();
+            final Set<List<BitSet>> subclades = new HashSet<List<BitSet>>();
+            final int[] tipCount = new int[1];
+            counter.getClades(new ParallelCladeCounter.CladeHandler() {
+                public void addClade(BitSet bits, int count, Taxon taxon) {
+                    assertNull(counts.put(bits, count));
+                    if (taxon != null) {
+                        assertEquals(1, bits.cardinality());
+                        tipCount[0]++;
+                    }
+                }
+
+                public void addSubclades(BitSet bits, BitSet left, BitSet right) {
+                    assertTrue(counts.containsKey(left) && counts.containsKey(right));
+                    subclades.add(Arrays.asList(bits, left, right));
+                }
+            });
+
+            assertEquals(trees.size(), counter.getTreeCount());
+            assertEquals(70, tipCount[0]);
+            assertEquals(expectedCounts, counts);
+            assertEquals(expectedSubclades, subclades);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package test.dr.benchmark;
+
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableVarianceMultivariateNormalOperator;
+import dr.inference.operators.AdaptationMode;
+import dr.util.Transform;
+
+/**
+ * A step of the adaptable variance multivariate normal operator on a parameter with a value for
+ * each branch of the tree, once it is adapting, either decomposing the proposal matrix at every
+ * update or updating the Cholesky factor of the empirical matrix.
+ *
+ * @author Andrew Rambaut
+ */
+public class AdaptableVarianceMultivariateNormalOperatorBenchmark extends Benchmark {
+
+    private static final double BETA = 0.05;
+
+    public AdaptableVarianceMultivariateNormalOperatorBenchmark(boolean choleskyUpdate) {
+        super(choleskyUpdate ? "avmvnCholeskyUpdate" : "avmvnDecompose", Dimension.TAXA);
+        this.choleskyUpdate = choleskyUpdate;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        int dimension = 2 * taxonCount - 2;
+        Parameter parameter = new Parameter.Default("x", dimension, 0.0);
+
+        Transform[] transforms = new Transform[dimension];
+        int[] transformSizes = new int[dimension];
+        double[] transformSums = new double[dimension];
+        double[][] matrix = new double[dimension][dimension];
+        for (int i = 0; i < dimension; i++) {
+            transforms[i] = Transform.NONE;
+            transformSizes[i] = 1;
+            matrix[i][i] = 1.0 / dimension;
+        }
+
+        // adapting after the first dimension steps, updating the covariance at every step
+        operator = new AdaptableVarianceMultivariateNormalOperator(parameter, transforms, transformSizes, transformSums,
+                1.0, matrix, 1.0, BETA, dimension, 0, 1, AdaptationMode.ADAPTATION_OFF, true, true, choleskyUpdate);
+
+        // get through the initial period so every timed step is an adapting one
+        for (int i = 0; i < dimension + 10; i++) {
+            operator.doOperation();
+        }
+    }
+
+    public double run() {
+        return operator.doOperation();
+    }
+
+    private final boolean choleskyUpdate;
+
+    private AdaptableVarianceMultivariateNormalOperator operator;
+}
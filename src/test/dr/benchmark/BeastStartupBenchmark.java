@@ -0,0 +1,210 @@
+package test.dr.benchmark;
+
+import dr.app.beast.BeastParser;
+import dr.app.beast.BeastVersion;
+import dr.app.util.Arguments;
+import dr.xml.XMLParser;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times how long BEAST takes to start up on some XML files: making the BeastParser (as BeastMain
+ * does) and then parsing the XML file (making all its objects but not running the chain). Each
+ * run is in a new JVM, as start up depends on how many classes have to be loaded, and each XML
+ * file is run with the parsers deferred using the parser indices (if they have been made by the
+ * 'parser-index' target) and with all the parsers loaded up front (-Dparser.index=false).
+ *
+ * This is run by the 'benchmark-startup' target in build.xml, e.g.,
+ * ant benchmark-startup -Dbenchmark.args="-repeats 10 -java examples/Benchmarks/benchmark2.xml"
+ *
+ * @author Andrew Rambaut
+ */
+public class BeastStartupBenchmark {
+
+    private static final String[] DEFAULT_FILES = new String[]{
+            "examples/CodonModels/lysozymeSmall_GY94.xml",
+            "examples/TestXML/testBPOwithMask.xml",
+            "examples/TestXML/testIOUDiffusion.xml",
+            "examples/TestXML/testJointTipAges.xml"
+    };
+
+    private static final String CHILD = "child";
+
+    /**
+     * Run BEAST's start up on an XML file in this JVM, printing the time taken to make the parser,
+     * to parse the file and since the JVM started (all in milliseconds) and the number of classes loaded.
+     */
+    private static void runChild(String fileName) throws Exception {
+        long startTime = System.nanoTime();
+
+        List<String> additionalParsers = new ArrayList<String>();
+        additionalParsers.add("beagle");
+        XMLParser parser = new BeastParser(new String[]{fileName}, additionalParsers, false, false, false,
+                new BeastVersion());
+
+        long parserTime = System.nanoTime();
+
+        Reader reader = new BufferedReader(new FileReader(fileName));
+        parser.parse(reader, false);
+        reader.close();
+
+        long parseTime = System.nanoTime();
+        long sinceStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        System.out.println(CHILD + " " + (parserTime - startTime) / 1.0E6 + " " + (parseTime - parserTime) / 1.0E6 + " " +
+                sinceStart + " " + ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+    }
+
+    /**
+     * Run BEAST's start up on an XML file in a new JVM (in a scratch directory for any log files).
+     *
+     * @return the parser, parse and total times and the number of classes loaded
+     */
+    private static double[] startUp(File file, boolean useIndex, boolean useJava) throws IOException, InterruptedException {
+        File directory = File.createTempFile("startup", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Can't make scratch directory: " + directory);
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(getClassPath());
+        command.add("-D" + BeastParser.PARSER_INDEX_PROPERTY + "=" + useIndex);
+        command.add("-Dlog.allow.overwrite=true");
+        if (useJava) {
+            command.add("-Djava.only=true");
+        }
+        command.add(BeastStartupBenchmark.class.getName());
+        command.add("-" + CHILD);
+        command.add(file.getAbsolutePath());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(directory);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+
+        double[] result = null;
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(CHILD + " ")) {
+                String[] values = line.split(" ");
+                result = new double[values.length - 1];
+                for (int i = 1; i < values.length; i++) {
+                    result[i - 1] = Double.parseDouble(values[i]);
+                }
+            } else {
+                output.append(line).append("\n");
+            }
+        }
+        int exitValue = process.waitFor();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+
+        if (exitValue != 0 || result == null) {
+            throw new RuntimeException("Start up failed on " + file + ":\n" + output);
+        }
+        return result;
+    }
+
+    /**
+     * @return this JVM's class path with absolute paths (as the new JVMs run in other directories)
+     */
+    private static String getClassPath() {
+        StringBuilder classPath = new StringBuilder();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+            classPath.append(new File(path).getAbsolutePath());
+        }
+        return classPath.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Locale.setDefault(Locale.US);
+
+        if (args.length == 2 && args[0].equals("-" + CHILD)) {
+            runChild(args[1]);
+            // some parsers start threads
+            System.exit(0);
+        }
+
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.IntegerOption("repeats", 1, Integer.MAX_VALUE, "the number of times to start up on each file [default 5]"),
+                        new Arguments.Option("java", "use the Java likelihood core rather than BEAGLE (as BEAST's -java option)"),
+                        new Arguments.Option("csv", "write the results as comma separated values"),
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println(ae.getMessage());
+            arguments.printUsage("beaststartupbenchmark", "[<xml-file>...]");
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            arguments.printUsage("beaststartupbenchmark", "[<xml-file>...]");
+            System.exit(0);
+        }
+
+        int repeatCount = arguments.hasOption("repeats") ? arguments.getIntegerOption("repeats") : 5;
+        List<String> fileNames = Arrays.asList(arguments.getLeftoverArguments());
+        if (fileNames.isEmpty()) {
+            fileNames = Arrays.asList(DEFAULT_FILES);
+        }
+        boolean useJava = arguments.hasOption("java");
+        boolean csv = arguments.hasOption("csv");
+
+        if (csv) {
+            System.out.println("file,parsers,parser_ms,parse_ms,startup_ms,classes");
+        } else {
+            System.out.println(String.format("%-24s%10s%16s%16s%16s%10s", "file", "parsers", "parser ms", "parse ms", "startup ms", "classes"));
+        }
+
+        for (String fileName : fileNames) {
+            File file = new File(fileName);
+            for (boolean useIndex : new boolean[]{false, true}) {
+                // a first start up to warm the file system cache
+                startUp(file, useIndex, useJava);
+
+                double[][] results = new double[repeatCount][];
+                for (int i = 0; i < repeatCount; i++) {
+                    results[i] = startUp(file, useIndex, useJava);
+                }
+
+                double[] mean = new double[results[0].length];
+                for (double[] result : results) {
+                    for (int j = 0; j < mean.length; j++) {
+                        mean[j] += result[j] / repeatCount;
+                    }
+                }
+
+                String parsers = (useIndex ? "deferred" : "loaded");
+                if (csv) {
+                    System.out.println(String.format("%s,%s,%.1f,%.1f,%.1f,%.0f",
+                            file.getName(), parsers, mean[0], mean[1], mean[2], mean[3]));
+                } else {
+                    System.out.println(String.format("%-24s%10s%16.1f%16.1f%16.1f%10.0f",
+                            file.getName(), parsers, mean[0], mean[1], mean[2], mean[3]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package test.dr.benchmark;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.tree.TreeModel;
+import dr.math.MathUtils;
+import test.dr.evolution.CoalescentTrees;
+
+/**
+ * A micro-benchmark of a single operation. The suite calls setUp for each combination of the
+ * parameters the benchmark uses and then times repeated calls to run. run returns a value that
+ * depends on the work done so it can't be optimised away.
+ *
+ * @author Andrew Rambaut
+ */
+public abstract class Benchmark {
+
+    public enum Dimension {
+        TAXA("taxa"),
+        PATTERNS("patterns"),
+        STATES("states");
+
+        Dimension(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    protected Benchmark(String name, Dimension... dimensions) {
+        this.name = name;
+        this.dimensions = dimensions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the parameters that this benchmark varies with
+     */
+    public Dimension[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Set up the benchmark. The parameters this benchmark doesn't use can be ignored.
+     */
+    public abstract void setUp(int taxonCount, int patternCount, int stateCount);
+
+    /**
+     * Perform one operation.
+     */
+    public abstract double run();
+
+    /**
+     * @return a coalescent tree with the given number of tips (the same for each call)
+     */
+    protected static Tree simulateTree(int taxonCount) {
+        MathUtils.setSeed(666);
+
+        return CoalescentTrees.simulateTree(taxonCount);
+    }
+
+    /**
+     * Move the height of a random internal node (other than the root) to a new value between
+     * its children and its parent, as a node height operator would.
+     */
+    protected static void changeNodeHeight(TreeModel treeModel) {
+        NodeRef node;
+        do {
+            node = treeModel.getInternalNode(MathUtils.nextInt(treeModel.getInternalNodeCount()));
+        } while (treeModel.isRoot(node));
+
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        double upper = treeModel.getNodeHeight(treeModel.getParent(node));
+        treeModel.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private final String name;
+    private final Dimension[] dimensions;
+}
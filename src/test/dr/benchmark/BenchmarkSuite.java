@@ -0,0 +1,217 @@
+package test.dr.benchmark;
+
+import dr.app.util.Arguments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the micro-benchmarks of the core MCMC calculations over a grid of taxon, pattern and
+ * state counts. Each benchmark is warmed up and then timed over a number of iterations of a
+ * fixed length, reporting the mean and standard deviation of the time per operation in the
+ * same way as JMH's average time mode.
+ *
+ * This is run by the 'benchmark' target in build.xml, e.g.,
+ * ant benchmark -Dbenchmark.args="-taxa 64,256 -filter coalescent"
+ *
+ * @author Andrew Rambaut
+ */
+public class BenchmarkSuite {
+
+    public static List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ParameterStoreRestoreBenchmark());
+        benchmarks.add(new TreeModelStoreRestoreBenchmark(false));
+        benchmarks.add(new TreeModelStoreRestoreBenchmark(true));
+        benchmarks.add(new LikelihoodCoreBenchmark(false));
+        benchmarks.add(new LikelihoodCoreBenchmark(true));
+        benchmarks.add(new TransitionProbabilityBenchmark());
+        benchmarks.add(new TreeIntervalsBenchmark());
+        benchmarks.add(new CoalescentLikelihoodBenchmark());
+        benchmarks.add(new MCLoggerBenchmark());
+        benchmarks.add(new LogWriterBenchmark(false));
+        benchmarks.add(new LogWriterBenchmark(true));
+        benchmarks.add(new CheckpointBenchmark(true, false));
+        benchmarks.add(new CheckpointBenchmark(false, false));
+        benchmarks.add(new CheckpointBenchmark(false, true));
+        benchmarks.add(new AdaptableVarianceMultivariateNormalOperatorBenchmark(false));
+        benchmarks.add(new AdaptableVarianceMultivariateNormalOperatorBenchmark(true));
+        benchmarks.add(new NoUTurnOperatorBenchmark());
+        benchmarks.add(new ContinuousTraitLikelihoodBenchmark(false));
+        benchmarks.add(new ContinuousTraitLikelihoodBenchmark(true));
+        benchmarks.add(new MultiDimensionalScalingBenchmark(false));
+        benchmarks.add(new MultiDimensionalScalingBenchmark(true));
+        return benchmarks;
+    }
+
+    public BenchmarkSuite(int warmupCount, int iterationCount, long iterationTime) {
+        this.warmupCount = warmupCount;
+        this.iterationCount = iterationCount;
+        this.iterationTime = iterationTime;
+    }
+
+    /**
+     * Run a benchmark for every combination of the values of the parameters it uses.
+     */
+    public void run(Benchmark benchmark, int[] taxonCounts, int[] patternCounts, int[] stateCounts, boolean csv) {
+        boolean usesTaxa = false, usesPatterns = false, usesStates = false;
+        for (Benchmark.Dimension dimension : benchmark.getDimensions()) {
+            usesTaxa |= dimension == Benchmark.Dimension.TAXA;
+            usesPatterns |= dimension == Benchmark.Dimension.PATTERNS;
+            usesStates |= dimension == Benchmark.Dimension.STATES;
+        }
+
+        for (int taxonCount : (usesTaxa ? taxonCounts : new int[]{taxonCounts[0]})) {
+            for (int patternCount : (usesPatterns ? patternCounts : new int[]{patternCounts[0]})) {
+                for (int stateCount : (usesStates ? stateCounts : new int[]{stateCounts[0]})) {
+                    benchmark.setUp(taxonCount, patternCount, stateCount);
+                    double[] result = measure(benchmark);
+
+                    String taxa = (usesTaxa ? Integer.toString(taxonCount) : "-");
+                    String patterns = (usesPatterns ? Integer.toString(patternCount) : "-");
+                    String states = (usesStates ? Integer.toString(stateCount) : "-");
+                    if (csv) {
+                        System.out.println(benchmark.getName() + "," + taxa + "," + patterns + "," + states + "," +
+                                String.format(Locale.US, "%.3f,%.3f", result[0], result[1]));
+                    } else {
+                        System.out.println(String.format(Locale.US, "%-32s%8s%10s%8s%16.3f ± %.3f",
+                                benchmark.getName(), taxa, patterns, states, result[0], result[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the mean and standard deviation over the iterations of the time per operation in microseconds
+     */
+    private double[] measure(Benchmark benchmark) {
+        for (int i = 0; i < warmupCount; i++) {
+            iteration(benchmark);
+        }
+
+        double[] times = new double[iterationCount];
+        double mean = 0.0;
+        for (int i = 0; i < iterationCount; i++) {
+            times[i] = iteration(benchmark);
+            mean += times[i];
+        }
+        mean /= iterationCount;
+
+        double variance = 0.0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean);
+        }
+        variance = (iterationCount > 1 ? variance / (iterationCount - 1) : 0.0);
+
+        return new double[]{mean, Math.sqrt(variance)};
+    }
+
+    /**
+     * Call the operation repeatedly for the iteration time (checking the clock every so often).
+     *
+     * @return the time per operation in microseconds
+     */
+    private double iteration(Benchmark benchmark) {
+        final long endTime = System.nanoTime() + iterationTime * 1000000L;
+        long operationCount = 0;
+        int batchSize = 1;
+
+        long startTime = System.nanoTime();
+        long time;
+        do {
+            for (int i = 0; i < batchSize; i++) {
+                sink += benchmark.run();
+            }
+            operationCount += batchSize;
+            time = System.nanoTime();
+            if (batchSize < 1024) {
+                batchSize *= 2;
+            }
+        } while (time < endTime);
+
+        return (time - startTime) / 1000.0 / operationCount;
+    }
+
+    private static int[] parseCounts(Arguments arguments, String label, int[] defaultCounts) throws Arguments.ArgumentException {
+        if (!arguments.hasOption(label)) {
+            return defaultCounts;
+        }
+        String[] values = arguments.getStringOption(label).split(",");
+        int[] counts = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                counts[i] = Integer.parseInt(values[i].trim());
+            } catch (NumberFormatException nfe) {
+                throw new Arguments.ArgumentException("Bad value for -" + label + ": " + values[i]);
+            }
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) {
+        Locale.setDefault(Locale.US);
+
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("taxa", "list", "the numbers of taxa (comma separated)"),
+                        new Arguments.StringOption("patterns", "list", "the numbers of site patterns (comma separated)"),
+                        new Arguments.StringOption("states", "list", "the numbers of character states (comma separated)"),
+                        new Arguments.IntegerOption("warmup", 0, Integer.MAX_VALUE, "the number of warm up iterations [default 3]"),
+                        new Arguments.IntegerOption("iterations", 1, Integer.MAX_VALUE, "the number of measured iterations [default 5]"),
+                        new Arguments.IntegerOption("time", 1, Integer.MAX_VALUE, "the length of each iteration in milliseconds [default 500]"),
+                        new Arguments.StringOption("filter", "name", "only run the benchmarks whose names contain this"),
+                        new Arguments.Option("csv", "write the results as comma separated values"),
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        int[] taxonCounts, patternCounts, stateCounts;
+        try {
+            arguments.parseArguments(args);
+
+            taxonCounts = parseCounts(arguments, "taxa", new int[]{32, 256});
+            patternCounts = parseCounts(arguments, "patterns", new int[]{100, 1000});
+            stateCounts = parseCounts(arguments, "states", new int[]{4, 20});
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println(ae.getMessage());
+            arguments.printUsage("benchmarksuite", "");
+            System.exit(1);
+            return;
+        }
+
+        if (arguments.hasOption("help")) {
+            arguments.printUsage("benchmarksuite", "");
+            System.exit(0);
+        }
+
+        BenchmarkSuite suite = new BenchmarkSuite(
+                arguments.hasOption("warmup") ? arguments.getIntegerOption("warmup") : 3,
+                arguments.hasOption("iterations") ? arguments.getIntegerOption("iterations") : 5,
+                arguments.hasOption("time") ? arguments.getIntegerOption("time") : 500);
+        String filter = (arguments.hasOption("filter") ? arguments.getStringOption("filter").toLowerCase() : null);
+        boolean csv = arguments.hasOption("csv");
+
+        if (csv) {
+            System.out.println("benchmark,taxa,patterns,states,us/op,error");
+        } else {
+            System.out.println(String.format("%-32s%8s%10s%8s%16s", "benchmark", "taxa", "patterns", "states", "us/op"));
+        }
+        for (Benchmark benchmark : getBenchmarks()) {
+            if (filter == null || benchmark.getName().toLowerCase().contains(filter)) {
+                suite.run(benchmark, taxonCounts, patternCounts, stateCounts, csv);
+            }
+        }
+
+        // so the results of the operations are used
+        if (suite.sink == 0.12345) {
+            System.out.println();
+        }
+    }
+
+    private final int warmupCount;
+    private final int iterationCount;
+    private final long iterationTime;
+
+    private double sink = 0.0;
+}
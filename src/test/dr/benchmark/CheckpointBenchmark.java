@@ -0,0 +1,100 @@
+package test.dr.benchmark;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.app.checkpoint.CheckpointState;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Capturing the state of a tree with a rate for each branch, saving it to a checkpoint file and
+ * loading it back, in the text format or the binary format (optionally compressed).
+ *
+ * @author Andrew Rambaut
+ */
+public class CheckpointBenchmark extends Benchmark {
+
+    private static final PrintStream NULL_STREAM = new PrintStream(new OutputStream() {
+        public void write(int b) {
+        }
+    });
+
+    public CheckpointBenchmark(boolean text, boolean compress) {
+        super(text ? "checkpointText" : (compress ? "checkpointBinaryGzip" : "checkpointBinary"), Dimension.TAXA);
+        this.text = text;
+        this.compress = compress;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+
+        TreeModel treeModel = new TreeModel("treeModel", simulateTree(taxonCount));
+
+        Parameter rates = new Parameter.Default("branchRates", taxonCount * 2 - 2, 1.0);
+        for (int i = 0; i < rates.getDimension(); i++) {
+            rates.setParameterValue(i, MathUtils.nextDouble());
+        }
+        new TreeParameterModel(treeModel, rates, false);
+
+        Parameter kappa = new Parameter.Default("kappa", 2.0, 0.0, Double.POSITIVE_INFINITY);
+
+        SimpleOperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new ScaleOperator(kappa, 0.75, AdaptationMode.ADAPTATION_ON, 1.0));
+        schedule.addOperator(new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0));
+        this.schedule = schedule;
+
+        // the format is chosen when the checkpointer is made
+        System.setProperty(BeastCheckpointer.SAVE_STATE_TEXT, Boolean.toString(text));
+        System.setProperty(BeastCheckpointer.SAVE_STATE_COMPRESS, Boolean.toString(compress));
+        try {
+            checkpointer = new BeastCheckpointer();
+        } finally {
+            System.clearProperty(BeastCheckpointer.SAVE_STATE_TEXT);
+            System.clearProperty(BeastCheckpointer.SAVE_STATE_COMPRESS);
+        }
+
+        try {
+            if (file == null) {
+                file = File.createTempFile("checkpoint", ".state");
+                file.deleteOnExit();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to create the checkpoint file: " + ioe.getMessage());
+        }
+    }
+
+    public double run() {
+        checkpointer.writeStateToFile(file, CheckpointState.capture(schedule, 1000, -1234.5));
+
+        // TreeModel.adoptTreeStructure is rather chatty
+        PrintStream out = System.out;
+        System.setOut(NULL_STREAM);
+        try {
+            checkpointer.readStateFromFile(file, schedule, lnL);
+        } finally {
+            System.setOut(out);
+        }
+        return file.length() + lnL[0];
+    }
+
+    private final boolean text;
+    private final boolean compress;
+
+    private OperatorSchedule schedule;
+    private BeastCheckpointer checkpointer;
+    private File file = null;
+    private final double[] lnL = new double[1];
+}
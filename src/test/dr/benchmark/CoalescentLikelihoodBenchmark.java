@@ -0,0 +1,39 @@
+package test.dr.benchmark;
+
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evolution.tree.TreeUtils;
+import dr.inference.model.Parameter;
+
+/**
+ * The constant population size coalescent likelihood after a node height has changed.
+ *
+ * @author Andrew Rambaut
+ */
+public class CoalescentLikelihoodBenchmark extends Benchmark {
+
+    public CoalescentLikelihoodBenchmark() {
+        super("coalescentLikelihood", Dimension.TAXA);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        treeModel = new TreeModel("tree", simulateTree(taxonCount));
+        ConstantPopulationModel populationModel = new ConstantPopulationModel(
+                new Parameter.Default("popSize", 1, 1.0), Units.Type.YEARS);
+        try {
+            likelihood = new CoalescentLikelihood(treeModel, null, null, populationModel);
+        } catch (TreeUtils.MissingTaxonException mte) {
+            throw new RuntimeException(mte);
+        }
+    }
+
+    public double run() {
+        changeNodeHeight(treeModel);
+        return likelihood.getLogLikelihood();
+    }
+
+    private TreeModel treeModel;
+    private CoalescentLikelihood likelihood;
+}
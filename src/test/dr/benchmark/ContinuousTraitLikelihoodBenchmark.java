@@ -0,0 +1,114 @@
+package test.dr.benchmark;
+
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.continuous.MultivariateElasticModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.ConjugateRootTraitPrior;
+import dr.evomodel.treedatalikelihood.continuous.ContinuousDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.continuous.ContinuousRateTransformation;
+import dr.evomodel.treedatalikelihood.continuous.ContinuousTraitDataModel;
+import dr.evomodel.treedatalikelihood.continuous.DiffusionProcessDelegate;
+import dr.evomodel.treedatalikelihood.continuous.HomogeneousDiffusionModelDelegate;
+import dr.evomodel.treedatalikelihood.continuous.OUDiffusionModelDelegate;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The full recalculation of the likelihood of multivariate continuous traits (the dimension of
+ * the traits being the number of states) with some missing values, under Brownian motion (with
+ * SafeMultivariateIntegrator) or a full Ornstein-Uhlenbeck process (with
+ * SafeMultivariateActualizedWithDriftIntegrator).
+ *
+ * @author Andrew Rambaut
+ */
+public class ContinuousTraitLikelihoodBenchmark extends Benchmark {
+
+    public ContinuousTraitLikelihoodBenchmark(boolean ou) {
+        super(ou ? "continuousTraitLikelihoodOU" : "continuousTraitLikelihoodBM", Dimension.TAXA, Dimension.STATES);
+        this.ou = ou;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        final int dimTrait = stateCount;
+
+        TreeModel treeModel = new TreeModel("tree", simulateTree(taxonCount));
+
+        Parameter[] traits = new Parameter[taxonCount];
+        List<Integer> missingIndices = new ArrayList<Integer>();
+        for (int i = 0; i < taxonCount; i++) {
+            double[] values = new double[dimTrait];
+            for (int j = 0; j < dimTrait; j++) {
+                values[j] = MathUtils.nextGaussian();
+                if (MathUtils.nextDouble() < 0.1) {
+                    missingIndices.add(i * dimTrait + j);
+                }
+            }
+            traits[i] = new Parameter.Default(treeModel.getTaxonId(i), values);
+        }
+        ContinuousTraitDataModel dataModel = new ContinuousTraitDataModel("dataModel",
+                new CompoundParameter("trait", traits), missingIndices, true, dimTrait, PrecisionType.FULL);
+
+        MultivariateDiffusionModel diffusionModel = new MultivariateDiffusionModel(
+                new MatrixParameter("precisionMatrix", createMatrix(dimTrait, 1.0, 0.1)));
+
+        Parameter rootMean = new Parameter.Default(dimTrait, 0.0);
+        ConjugateRootTraitPrior rootPrior = new ConjugateRootTraitPrior(rootMean, new Parameter.Default(10.0));
+
+        BranchRateModel rateModel = new DefaultBranchRateModel();
+        ContinuousRateTransformation rateTransformation = new ContinuousRateTransformation.Default(
+                treeModel, false, false);
+
+        DiffusionProcessDelegate diffusionProcessDelegate;
+        if (ou) {
+            List<BranchRateModel> optimalTraitsModels = new ArrayList<BranchRateModel>();
+            for (int i = 0; i < dimTrait; i++) {
+                optimalTraitsModels.add(new StrictClockBranchRates(new Parameter.Default("rate." + i, 1, 0.0)));
+            }
+            // off-diagonal strengths of selection so the actualization is a full matrix
+            MatrixParameter strengthOfSelection = new MatrixParameter("strengthOfSelectionMatrix",
+                    createMatrix(dimTrait, 2.0, 0.2));
+            diffusionProcessDelegate = new OUDiffusionModelDelegate(treeModel, diffusionModel,
+                    optimalTraitsModels, new MultivariateElasticModel(strengthOfSelection));
+        } else {
+            diffusionProcessDelegate = new HomogeneousDiffusionModelDelegate(treeModel, diffusionModel);
+        }
+
+        ContinuousDataLikelihoodDelegate likelihoodDelegate = new ContinuousDataLikelihoodDelegate(treeModel,
+                diffusionProcessDelegate, dataModel, rootPrior, rateTransformation, rateModel, true);
+        likelihood = new TreeDataLikelihood(likelihoodDelegate, treeModel, rateModel);
+    }
+
+    /**
+     * @return the columns of a symmetric, diagonally dominant matrix (with distinct diagonal
+     * values so the eigenvalues are distinct)
+     */
+    private static Parameter[] createMatrix(int dim, double diagonal, double offDiagonal) {
+        Parameter[] columns = new Parameter[dim];
+        for (int i = 0; i < dim; i++) {
+            double[] values = new double[dim];
+            for (int j = 0; j < dim; j++) {
+                values[j] = (i == j ? diagonal * (1.0 + (double) i / dim) : offDiagonal / dim);
+            }
+            columns[i] = new Parameter.Default(values);
+        }
+        return columns;
+    }
+
+    public double run() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    private final boolean ou;
+    private TreeDataLikelihood likelihood;
+}
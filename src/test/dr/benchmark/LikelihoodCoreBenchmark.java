@@ -0,0 +1,103 @@
+package test.dr.benchmark;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.math.MathUtils;
+import dr.oldevomodel.treelikelihood.GeneralLikelihoodCore;
+import dr.oldevomodel.treelikelihood.LikelihoodCore;
+import dr.oldevomodel.treelikelihood.NucleotideLikelihoodCore;
+
+/**
+ * The partials calculation of a likelihood core for every internal node of the tree in post-order
+ * with 4 rate categories. The nucleotide core uses tip states and the general core uses tip partials
+ * for any number of states.
+ *
+ * @author Andrew Rambaut
+ */
+public class LikelihoodCoreBenchmark extends Benchmark {
+
+    private static final int CATEGORY_COUNT = 4;
+
+    public LikelihoodCoreBenchmark(boolean nucleotide) {
+        super(nucleotide ? "nucleotideLikelihoodCore" : "generalLikelihoodCore",
+                nucleotide ? new Dimension[]{Dimension.TAXA, Dimension.PATTERNS} :
+                        new Dimension[]{Dimension.TAXA, Dimension.PATTERNS, Dimension.STATES});
+        this.nucleotide = nucleotide;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        if (nucleotide) {
+            stateCount = 4;
+            core = new NucleotideLikelihoodCore();
+        } else {
+            core = new GeneralLikelihoodCore(stateCount);
+        }
+
+        Tree tree = simulateTree(taxonCount);
+        core.initialize(tree.getNodeCount(), patternCount, CATEGORY_COUNT, true);
+
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            if (nucleotide) {
+                int[] states = new int[patternCount];
+                for (int j = 0; j < patternCount; j++) {
+                    states[j] = MathUtils.nextInt(stateCount);
+                }
+                core.setNodeStates(i, states);
+            } else {
+                double[] partials = new double[patternCount * stateCount];
+                for (int j = 0; j < patternCount; j++) {
+                    partials[j * stateCount + MathUtils.nextInt(stateCount)] = 1.0;
+                }
+                core.setNodePartials(i, partials);
+            }
+        }
+
+        double[] matrix = new double[stateCount * stateCount];
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            if (i >= tree.getExternalNodeCount()) {
+                core.createNodePartials(i);
+            }
+            for (int j = 0; j < CATEGORY_COUNT; j++) {
+                for (int k = 0; k < matrix.length; k++) {
+                    matrix[k] = MathUtils.nextDouble() / stateCount;
+                }
+                core.setNodeMatrix(i, j, matrix);
+            }
+        }
+
+        operations = new int[tree.getInternalNodeCount() * 3];
+        operationCount = 0;
+        addOperations(tree, tree.getRoot());
+
+        rootPartials = new double[patternCount * stateCount * CATEGORY_COUNT];
+        rootIndex = tree.getRoot().getNumber();
+    }
+
+    private void addOperations(Tree tree, NodeRef node) {
+        if (!tree.isExternal(node)) {
+            NodeRef child1 = tree.getChild(node, 0);
+            NodeRef child2 = tree.getChild(node, 1);
+            addOperations(tree, child1);
+            addOperations(tree, child2);
+            operations[operationCount++] = child1.getNumber();
+            operations[operationCount++] = child2.getNumber();
+            operations[operationCount++] = node.getNumber();
+        }
+    }
+
+    public double run() {
+        for (int i = 0; i < operationCount; i += 3) {
+            core.calculatePartials(operations[i], operations[i + 1], operations[i + 2]);
+        }
+        core.getPartials(rootIndex, rootPartials);
+        return rootPartials[0];
+    }
+
+    private final boolean nucleotide;
+
+    private LikelihoodCore core;
+    private int[] operations;
+    private int operationCount;
+    private double[] rootPartials;
+    private int rootIndex;
+}
@@ -0,0 +1,83 @@
+package test.dr.benchmark;
+
+import dr.evomodel.tree.TreeLogger;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.loggers.LogWriterQueue;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * The time on the chain thread of logging a parameter with a value for each branch and the tree
+ * to files, either written synchronously or handed to a writer thread.
+ *
+ * @author Andrew Rambaut
+ */
+public class LogWriterBenchmark extends Benchmark {
+
+    public LogWriterBenchmark(boolean asynchronous) {
+        super(asynchronous ? "asynchronousLogWriter" : "logWriter", Dimension.TAXA);
+        this.asynchronous = asynchronous;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        stopLogging();
+
+        treeModel = new TreeModel("tree", simulateTree(taxonCount));
+        parameter = new Parameter.Default("rates", 2 * taxonCount - 2, 1.0);
+
+        try {
+            logFile = File.createTempFile("benchmark", ".log");
+            treeFile = File.createTempFile("benchmark", ".trees");
+            logFile.deleteOnExit();
+            treeFile.deleteOnExit();
+            logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new FileWriter(logFile))), 1, false);
+            treeLogger = new TreeLogger(treeModel,
+                    new TabDelimitedFormatter(new PrintWriter(new FileWriter(treeFile))), 1, true, true, true);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to create the log files: " + ioe.getMessage());
+        }
+        logger.add(parameter);
+        if (asynchronous) {
+            logger.setAsynchronous(logFile.getName(), LogWriterQueue.DEFAULT_CAPACITY);
+            treeLogger.setAsynchronous(treeFile.getName(), LogWriterQueue.DEFAULT_CAPACITY);
+        }
+
+        logger.startLogging();
+        treeLogger.startLogging();
+        state = 0;
+    }
+
+    public double run() {
+        parameter.setParameterValueQuietly(MathUtils.nextInt(parameter.getDimension()), MathUtils.nextDouble());
+        logger.log(state);
+        treeLogger.log(state);
+        state++;
+        return state;
+    }
+
+    private void stopLogging() {
+        if (logger != null) {
+            logger.stopLogging();
+            treeLogger.stopLogging();
+            logFile.delete();
+            treeFile.delete();
+        }
+    }
+
+    private final boolean asynchronous;
+
+    private TreeModel treeModel;
+    private Parameter parameter;
+    private File logFile;
+    private File treeFile;
+    private MCLogger logger = null;
+    private TreeLogger treeLogger = null;
+    private long state;
+}
@@ -0,0 +1,57 @@
+package test.dr.benchmark;
+
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Formatting a line of the log of a parameter with a value for each branch of the tree
+ * (written to a writer that discards it).
+ *
+ * @author Andrew Rambaut
+ */
+public class MCLoggerBenchmark extends Benchmark {
+
+    public MCLoggerBenchmark() {
+        super("mcLogger", Dimension.TAXA);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        parameter = new Parameter.Default("rates", 2 * taxonCount - 2, 1.0);
+        for (int i = 0; i < parameter.getDimension(); i++) {
+            parameter.setParameterValueQuietly(i, MathUtils.nextDouble());
+        }
+
+        Writer writer = new Writer() {
+            public void write(char[] buffer, int offset, int length) {
+                characterCount += length;
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(writer)), 1, false);
+        logger.add(parameter);
+        logger.startLogging();
+        state = 0;
+    }
+
+    public double run() {
+        parameter.setParameterValueQuietly(MathUtils.nextInt(parameter.getDimension()), MathUtils.nextDouble());
+        logger.log(state);
+        state++;
+        return characterCount;
+    }
+
+    private Parameter parameter;
+    private MCLogger logger;
+    private long state;
+    private long characterCount = 0;
+}
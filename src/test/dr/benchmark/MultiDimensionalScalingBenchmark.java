@@ -0,0 +1,69 @@
+package test.dr.benchmark;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.inference.multidimensionalscaling.ParallelMultiDimensionalScalingCoreImpl;
+import dr.math.MathUtils;
+
+/**
+ * The full recalculation of the MDS log likelihood of a location for each taxon in 2 dimensions
+ * by the single-threaded Java core, or the log likelihood and its gradient by the multi-threaded
+ * Java core.
+ *
+ * @author Andrew Rambaut
+ */
+public class MultiDimensionalScalingBenchmark extends Benchmark {
+
+    private static final int MDS_DIMENSION = 2;
+
+    public MultiDimensionalScalingBenchmark(boolean parallel) {
+        super(parallel ? "parallelMultiDimensionalScaling" : "multiDimensionalScaling", Dimension.TAXA);
+        this.parallel = parallel;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        MathUtils.setSeed(666);
+
+        core = parallel ? new ParallelMultiDimensionalScalingCoreImpl() : new MultiDimensionalScalingCoreImpl();
+        core.initialize(MDS_DIMENSION, taxonCount, 0);
+
+        double[] locations = new double[taxonCount * MDS_DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = MathUtils.nextGaussian();
+        }
+
+        double[] observations = new double[taxonCount * taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = i + 1; j < taxonCount; j++) {
+                double distance = 0.0;
+                for (int k = 0; k < MDS_DIMENSION; k++) {
+                    double difference = locations[i * MDS_DIMENSION + k] - locations[j * MDS_DIMENSION + k];
+                    distance += difference * difference;
+                }
+                observations[i * taxonCount + j] = observations[j * taxonCount + i] =
+                        Math.sqrt(distance) + 0.1 * MathUtils.nextGaussian();
+            }
+        }
+
+        core.setPairwiseData(observations);
+        core.setParameters(new double[]{10.0});
+        core.updateLocation(-1, locations);
+
+        gradient = parallel ? new double[locations.length] : null;
+    }
+
+    public double run() {
+        core.makeDirty();
+        double logLikelihood = core.calculateLogLikelihood();
+        if (gradient != null) {
+            core.getGradient(gradient);
+            logLikelihood += gradient[0];
+        }
+        return logLikelihood;
+    }
+
+    private final boolean parallel;
+
+    private MultiDimensionalScalingCore core;
+    private double[] gradient;
+}
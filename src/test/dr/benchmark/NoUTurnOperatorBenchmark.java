@@ -0,0 +1,115 @@
+package test.dr.benchmark;
+
+import dr.inference.hmc.GradientWrtParameterProvider;
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.hmc.HamiltonianMonteCarloOperator;
+import dr.inference.operators.hmc.MassPreconditioner;
+import dr.inference.operators.hmc.NoUTurnOperator;
+
+/**
+ * An iteration of the No-U-Turn sampler on independent standard normals, one for each branch of
+ * the tree. The gradient is as cheap as possible so the time is mostly spent in the operator.
+ *
+ * @author Andrew Rambaut
+ */
+public class NoUTurnOperatorBenchmark extends Benchmark {
+
+    public NoUTurnOperatorBenchmark() {
+        super("noUTurnOperator", Dimension.TAXA);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        parameter = new Parameter.Default("x", 2 * taxonCount - 2, 0.5);
+        likelihood = new NormalLikelihood(parameter);
+        HamiltonianMonteCarloOperator.Options options = new HamiltonianMonteCarloOperator.Options(
+                0.0, 10, 0.0, 0, 0, 0, 0, 0.0, 10, 0.1, 0.8);
+        operator = new NoUTurnOperator(AdaptationMode.ADAPTATION_OFF, 1.0, likelihood, parameter,
+                null, null, options, MassPreconditioner.Type.NONE);
+    }
+
+    public double run() {
+        return operator.doOperation(likelihood);
+    }
+
+    /**
+     * Independent standard normals on each dimension of the parameter.
+     */
+    private static class NormalLikelihood extends AbstractModelLikelihood implements GradientWrtParameterProvider {
+
+        NormalLikelihood(Parameter parameter) {
+            super("normal");
+            this.parameter = parameter;
+            addVariable(parameter);
+        }
+
+        public Likelihood getLikelihood() {
+            return this;
+        }
+
+        public Parameter getParameter() {
+            return parameter;
+        }
+
+        public int getDimension() {
+            return parameter.getDimension();
+        }
+
+        public double[] getGradientLogDensity() {
+            double[] gradient = new double[parameter.getDimension()];
+            for (int i = 0; i < gradient.length; i++) {
+                gradient[i] = -parameter.getParameterValue(i);
+            }
+            return gradient;
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            if (!likelihoodKnown) {
+                logLikelihood = 0.0;
+                for (int i = 0; i < parameter.getDimension(); i++) {
+                    double x = parameter.getParameterValue(i);
+                    logLikelihood -= 0.5 * x * x;
+                }
+                likelihoodKnown = true;
+            }
+            return logLikelihood;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+        }
+
+        protected void restoreState() {
+            likelihoodKnown = false;
+        }
+
+        protected void acceptState() {
+        }
+
+        private final Parameter parameter;
+        private boolean likelihoodKnown = false;
+        private double logLikelihood;
+    }
+
+    private Parameter parameter;
+    private NormalLikelihood likelihood;
+    private NoUTurnOperator operator;
+}
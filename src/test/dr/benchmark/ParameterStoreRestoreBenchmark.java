@@ -0,0 +1,30 @@
+package test.dr.benchmark;
+
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * Store, change and restore of a parameter with a value for each branch of the tree.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParameterStoreRestoreBenchmark extends Benchmark {
+
+    public ParameterStoreRestoreBenchmark() {
+        super("parameterStoreRestore", Dimension.TAXA);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        parameter = new Parameter.Default("rates", 2 * taxonCount - 2, 1.0);
+    }
+
+    public double run() {
+        parameter.storeParameterValues();
+        int index = MathUtils.nextInt(parameter.getDimension());
+        parameter.setParameterValue(index, MathUtils.nextDouble());
+        parameter.restoreParameterValues();
+        return parameter.getParameterValue(index);
+    }
+
+    private Parameter parameter;
+}
@@ -0,0 +1,62 @@
+package test.dr.benchmark;
+
+import dr.evolution.datatype.GeneralDataType;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.GeneralSubstitutionModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * The transition probabilities of a general reversible substitution model for each branch of
+ * the tree after one of the rates has changed (so including the eigen decomposition).
+ *
+ * @author Andrew Rambaut
+ */
+public class TransitionProbabilityBenchmark extends Benchmark {
+
+    public TransitionProbabilityBenchmark() {
+        super("transitionProbabilities", Dimension.TAXA, Dimension.STATES);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        String[] stateCodes = new String[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            stateCodes[i] = "s" + i;
+        }
+        GeneralDataType dataType = new GeneralDataType(stateCodes);
+
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 1.0 / stateCount;
+        }
+        FrequencyModel frequencyModel = new FrequencyModel(dataType, frequencies);
+
+        rates = new Parameter.Default("rates", stateCount * (stateCount - 1) / 2, 1.0);
+        for (int i = 0; i < rates.getDimension(); i++) {
+            rates.setParameterValueQuietly(i, 0.5 + MathUtils.nextDouble());
+        }
+        substitutionModel = new GeneralSubstitutionModel("general", dataType, frequencyModel, rates, -1);
+
+        branchLengths = new double[2 * taxonCount - 2];
+        for (int i = 0; i < branchLengths.length; i++) {
+            branchLengths[i] = MathUtils.nextExponential(10.0);
+        }
+        matrix = new double[stateCount * stateCount];
+    }
+
+    public double run() {
+        rates.setParameterValue(MathUtils.nextInt(rates.getDimension()), 0.5 + MathUtils.nextDouble());
+
+        double sum = 0.0;
+        for (double branchLength : branchLengths) {
+            substitutionModel.getTransitionProbabilities(branchLength, matrix);
+            sum += matrix[0];
+        }
+        return sum;
+    }
+
+    private Parameter rates;
+    private GeneralSubstitutionModel substitutionModel;
+    private double[] branchLengths;
+    private double[] matrix;
+}
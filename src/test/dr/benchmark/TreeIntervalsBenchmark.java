@@ -0,0 +1,30 @@
+package test.dr.benchmark;
+
+import dr.evolution.coalescent.TreeIntervals;
+import dr.evomodel.tree.TreeModel;
+
+/**
+ * Recalculation of the coalescent intervals of a tree after a node height has changed.
+ *
+ * @author Andrew Rambaut
+ */
+public class TreeIntervalsBenchmark extends Benchmark {
+
+    public TreeIntervalsBenchmark() {
+        super("treeIntervals", Dimension.TAXA);
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        treeModel = new TreeModel("tree", simulateTree(taxonCount));
+        intervals = new TreeIntervals(treeModel);
+    }
+
+    public double run() {
+        changeNodeHeight(treeModel);
+        intervals.setIntervalsUnknown();
+        return intervals.getIntervalCount() + intervals.getInterval(0);
+    }
+
+    private TreeModel treeModel;
+    private TreeIntervals intervals;
+}
@@ -0,0 +1,37 @@
+package test.dr.benchmark;
+
+import dr.evomodel.tree.TreeModel;
+
+/**
+ * Store, change of a node height and restore of a TreeModel (i.e., a rejected proposal), with
+ * the node states either copied in full or journaled (only the nodes changed are restored).
+ *
+ * @author Andrew Rambaut
+ */
+public class TreeModelStoreRestoreBenchmark extends Benchmark {
+
+    public TreeModelStoreRestoreBenchmark(boolean journal) {
+        super(journal ? "treeModelJournalStoreRestore" : "treeModelStoreRestore", Dimension.TAXA);
+        this.journal = journal;
+    }
+
+    public void setUp(int taxonCount, int patternCount, int stateCount) {
+        // the store is chosen when the TreeModel is made
+        System.setProperty(TreeModel.JOURNAL_STORE_PROPERTY, Boolean.toString(journal));
+        try {
+            treeModel = new TreeModel("tree", simulateTree(taxonCount));
+        } finally {
+            System.clearProperty(TreeModel.JOURNAL_STORE_PROPERTY);
+        }
+    }
+
+    public double run() {
+        treeModel.storeModelState();
+        changeNodeHeight(treeModel);
+        treeModel.restoreModelState();
+        return treeModel.getNodeHeight(treeModel.getRoot());
+    }
+
+    private final boolean journal;
+    private TreeModel treeModel;
+}
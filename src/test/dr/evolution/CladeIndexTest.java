@@ -0,0 +1,164 @@
+package test.dr.evolution;
+
+import dr.evolution.tree.CladeIndex;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the clade and conditional clade counts of a CladeIndex against counts kept in maps of
+ * BitSets, with trees added from one thread and from several at once.
+ *
+ * @author Andrew Rambaut
+ */
+public class CladeIndexTest extends TestCase {
+
+    public CladeIndexTest(String name) {
+        super(name);
+    }
+
+    public void testFewTaxa() {
+        // few enough taxa for the clades to be seen many times
+        checkCounts(createTrees(6, 500, 111));
+    }
+
+    public void testManyTaxa() {
+        // more taxa than fit in one word of the bit sets
+        checkCounts(createTrees(150, 50, 222));
+    }
+
+    public void testConcurrentInsertion() throws InterruptedException {
+        final List<Tree> trees = createTrees(8, 200, 333);
+        final CladeIndex index = new CladeIndex(16);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (Tree tree : trees) {
+                        index.addTree(tree, null);
+                        // look up a clade while the others are adding trees
+                        index.getSampleCount(index.getCladeId(getBits(tree, tree.getRoot())));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Counts counts = new Counts(trees);
+        assertEquals(threads.length * trees.size(), index.getTreeCount());
+        assertEquals(counts.cladeCounts.size(), index.getCladeCount());
+        for (Map.Entry<BitSet, Integer> entry : counts.cladeCounts.entrySet()) {
+            assertEquals(threads.length * entry.getValue(), index.getSampleCount(index.getCladeId(entry.getKey())));
+        }
+        for (Map.Entry<List<BitSet>, Integer> entry : counts.pairCounts.entrySet()) {
+            int parentId = index.getCladeId(entry.getKey().get(0));
+            int childId = index.getCladeId(entry.getKey().get(1));
+            assertEquals(threads.length * entry.getValue(), index.getConditionalSampleCount(parentId, childId));
+        }
+    }
+
+    private static void checkCounts(List<Tree> trees) {
+        CladeIndex index = new CladeIndex(16);
+        for (Tree tree : trees) {
+            index.addTree(tree, null);
+        }
+        Counts counts = new Counts(trees);
+
+        assertEquals(trees.size(), index.getTreeCount());
+        assertEquals(counts.cladeCounts.size(), index.getCladeCount());
+        assertEquals(counts.pairCounts.size(), index.getConditionalCladeCount());
+
+        for (Map.Entry<BitSet, Integer> entry : counts.cladeCounts.entrySet()) {
+            int id = index.getCladeId(entry.getKey());
+            assertTrue(id >= 0);
+            assertEquals(entry.getKey(), index.getBits(id));
+            assertEquals(entry.getKey().cardinality(), index.getSize(id));
+            assertEquals((int) entry.getValue(), index.getSampleCount(id));
+        }
+
+        for (Map.Entry<List<BitSet>, Integer> entry : counts.pairCounts.entrySet()) {
+            int parentId = index.getCladeId(entry.getKey().get(0));
+            int childId = index.getCladeId(entry.getKey().get(1));
+            assertEquals((int) entry.getValue(), index.getConditionalSampleCount(parentId, childId));
+
+            CladeIndex.Children children = index.getChildren(parentId);
+            int i = children.indexOf(childId);
+            assertTrue(i >= 0);
+            assertEquals(entry.getKey().get(1), children.getBits(i));
+            assertEquals((int) entry.getValue(), children.getSampleCount(i));
+        }
+
+        // a clade that has never been seen
+        BitSet bits = new BitSet();
+        bits.set(0);
+        bits.set(trees.get(0).getExternalNodeCount() + 10);
+        assertEquals(-1, index.getCladeId(bits));
+        assertEquals(0, index.getSampleCount(-1));
+    }
+
+    private static List<Tree> createTrees(int taxonCount, int treeCount, long seed) {
+        MathUtils.setSeed(seed);
+
+        Taxa taxa = CoalescentTrees.createTaxa(taxonCount);
+
+        List<Tree> trees = new ArrayList<Tree>();
+        for (int i = 0; i < treeCount; i++) {
+            trees.add(CoalescentTrees.simulateTree(taxa));
+        }
+        return trees;
+    }
+
+    private static BitSet getBits(Tree tree, NodeRef node) {
+        BitSet bits = new BitSet();
+        if (tree.isExternal(node)) {
+            bits.set(node.getNumber());
+        } else {
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                bits.or(getBits(tree, tree.getChild(node, i)));
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * The counts of the clades of two or more taxa and of each of their children of two or more taxa.
+     */
+    private static class Counts {
+        Counts(List<Tree> trees) {
+            for (Tree tree : trees) {
+                for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                    NodeRef node = tree.getInternalNode(i);
+                    BitSet bits = getBits(tree, node);
+                    increment(cladeCounts, bits);
+                    for (int j = 0; j < tree.getChildCount(node); j++) {
+                        NodeRef child = tree.getChild(node, j);
+                        if (!tree.isExternal(child)) {
+                            increment(pairCounts, Arrays.asList(bits, getBits(tree, child)));
+                        }
+                    }
+                }
+            }
+        }
+
+        private static <T> void increment(Map<T, Integer> counts, T key) {
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+
+        final Map<BitSet, Integer> cladeCounts = new HashMap<BitSet, Integer>();
+        final Map<List<BitSet>, Integer> pairCounts = new HashMap<List<BitSet>, Integer>();
+    }
+}
@@ -0,0 +1,48 @@
+package test.dr.evolution;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+
+/**
+ * Taxa and random coalescent trees for the tests and benchmarks that just need a tree to work
+ * on. The trees are drawn with MathUtils so the caller sets the seed.
+ *
+ * @author Andrew Rambaut
+ */
+public class CoalescentTrees {
+
+    private CoalescentTrees() {
+    }
+
+    /**
+     * @return taxa named taxon0, taxon1, ...
+     */
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+        return taxa;
+    }
+
+    /**
+     * @return a tree of the given taxa simulated under a constant population size of 1
+     */
+    public static Tree simulateTree(TaxonList taxa) {
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(1.0);
+        return new CoalescentSimulator().simulateTree(taxa, constant);
+    }
+
+    /**
+     * @return a tree of taxa named as by createTaxa simulated under a constant population size of 1
+     */
+    public static Tree simulateTree(int taxonCount) {
+        return simulateTree(createTaxa(taxonCount));
+    }
+}
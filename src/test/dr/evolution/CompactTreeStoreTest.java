@@ -0,0 +1,113 @@
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.CompactTreeStore;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the trees made by a CompactTreeStore are the same as the trees read with the
+ * numbering of a taxon list.
+ *
+ * @author Andrew Rambaut
+ */
+public class CompactTreeStoreTest extends TestCase {
+
+    private static final int TAXON_COUNT = 20;
+    private static final int TREE_COUNT = 100;
+
+    public CompactTreeStoreTest(String name) {
+        super(name);
+    }
+
+    public void testTrees() throws Exception {
+        Random random = new Random(666);
+
+        // the taxon list is in a different order to the file
+        List<Taxon> taxonList = CoalescentTrees.createTaxa(TAXON_COUNT).asList();
+        Collections.reverse(taxonList);
+        Taxa taxa = new Taxa(taxonList);
+
+        String nexus = createNexus(random);
+        Tree[] trees = new NexusImporter(new StringReader(nexus)).importTrees(taxa, true);
+
+        CompactTreeStore store = new CompactTreeStore(taxa);
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        while (importer.hasTree()) {
+            store.addTree(importer.importNextTree());
+        }
+
+        assertEquals(trees.length, store.getTreeCount());
+        for (int k = 0; k < trees.length; k++) {
+            Tree expected = trees[k];
+            Tree tree = store.getTree(k);
+
+            assertEquals(expected.getNodeCount(), tree.getNodeCount());
+            assertEquals(expected.getExternalNodeCount(), tree.getExternalNodeCount());
+            assertEquals(expected.getRoot().getNumber(), tree.getRoot().getNumber());
+
+            for (int i = 0; i < expected.getNodeCount(); i++) {
+                NodeRef expectedNode = expected.getNode(i);
+                NodeRef node = tree.getNode(i);
+                assertEquals(i, node.getNumber());
+                assertSame(expected.getNodeTaxon(expectedNode), tree.getNodeTaxon(node));
+                assertEquals(expected.getNodeHeight(expectedNode), tree.getNodeHeight(node), 1E-12);
+                assertEquals(expected.getBranchLength(expectedNode), tree.getBranchLength(node), 1E-12);
+                assertEquals(expected.getChildCount(expectedNode), tree.getChildCount(node));
+                for (int j = 0; j < expected.getChildCount(expectedNode); j++) {
+                    assertEquals(expected.getChild(expectedNode, j).getNumber(), tree.getChild(node, j).getNumber());
+                }
+            }
+        }
+    }
+
+    public void testUnknownTaxon() throws Exception {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            taxa.addTaxon(new Taxon("other" + i));
+        }
+
+        NexusImporter importer = new NexusImporter(new StringReader(createNexus(new Random(666))));
+        CompactTreeStore store = new CompactTreeStore(taxa);
+        try {
+            store.addTree(importer.importNextTree());
+            fail("expected an unknown taxon");
+        } catch (Importer.UnknownTaxonException ute) {
+            assertEquals(0, store.getTreeCount());
+        }
+    }
+
+    /**
+     * Random trees with branch lengths and some polytomies.
+     */
+    private static String createNexus(Random random) {
+        StringBuilder nexus = new StringBuilder("#NEXUS\nBegin trees;\n");
+        for (int t = 0; t < TREE_COUNT; t++) {
+            List<String> nodes = new ArrayList<String>();
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                nodes.add("taxon" + i + ":" + random.nextDouble());
+            }
+            while (nodes.size() > 1) {
+                int childCount = Math.min(nodes.size(), random.nextInt(10) == 0 ? 3 : 2);
+                StringBuilder node = new StringBuilder("(");
+                for (int j = 0; j < childCount; j++) {
+                    node.append(j > 0 ? "," : "").append(nodes.remove(random.nextInt(nodes.size())));
+                }
+                nodes.add(node.append("):").append(random.nextDouble()).toString());
+            }
+            String root = nodes.get(0);
+            nexus.append("tree STATE_").append(t).append(" = ").append(root.substring(0, root.lastIndexOf(':'))).append(";\n");
+        }
+        return nexus.append("End;\n").toString();
+    }
+}
@@ -0,0 +1,232 @@
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SiteList;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the site patterns of an alignment are the same as those found by comparing each
+ * site with every pattern found so far.
+ *
+ * @author Andrew Rambaut
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final String STATES = "ACGT";
+
+    public SitePatternsTest(String name) {
+        super(name);
+    }
+
+    public void testPatterns() {
+        SimpleAlignment alignment = createAlignment(new Random(123), 20, 500, 4);
+
+        for (boolean strip : new boolean[]{true, false}) {
+            for (boolean unique : new boolean[]{true, false}) {
+                SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, strip, unique);
+                assertPatterns(alignment, patterns, 0, alignment.getSiteCount() - 1, 1, null, strip, unique);
+
+                patterns = new SitePatterns(alignment, null, 2, 400, 3, strip, unique);
+                assertPatterns(alignment, patterns, 2, 400, 3, null, strip, unique);
+            }
+        }
+
+        int[] constantSiteCounts = {100, 200, 300, 400};
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true, true, constantSiteCounts);
+        assertPatterns(alignment, patterns, 0, alignment.getSiteCount() - 1, 1, constantSiteCounts, true, true);
+    }
+
+    public void testMask() {
+        SimpleAlignment alignment = createAlignment(new Random(456), 10, 300, 2);
+        Random random = new Random(789);
+        boolean[] mask = new boolean[alignment.getSiteCount()];
+        List<Integer> sites = new ArrayList<Integer>();
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = random.nextBoolean();
+            if (mask[i]) {
+                sites.add(i);
+            }
+        }
+
+        SitePatterns patterns = new SitePatterns(alignment, mask, true, true);
+        Reference reference = new Reference(alignment, true, true);
+        for (int i = 0; i < sites.size(); i++) {
+            assertEquals(reference.addSite(sites.get(i)), patterns.getPatternIndex(i));
+        }
+        reference.assertSame(patterns);
+    }
+
+    public void testThreads() {
+        // large enough to be read on more than one thread
+        SimpleAlignment alignment = createAlignment(new Random(321), 200, 6000, 200);
+
+        try {
+            SitePatterns.setThreadCount(1);
+            SitePatterns patterns1 = new SitePatterns(alignment, null, 0, -1, 1);
+            SitePatterns.setThreadCount(4);
+            SitePatterns patterns4 = new SitePatterns(alignment, null, 0, -1, 1);
+
+            assertEquals(patterns1.getPatternCount(), patterns4.getPatternCount());
+            for (int i = 0; i < patterns1.getPatternCount(); i++) {
+                assertEquals(patterns1.getPatternWeight(i), patterns4.getPatternWeight(i));
+                assertTrue(Arrays.equals(patterns1.getPattern(i), patterns4.getPattern(i)));
+            }
+            for (int i = 0; i < patterns1.getSiteCount(); i++) {
+                assertEquals(patterns1.getPatternIndex(i), patterns4.getPatternIndex(i));
+            }
+            assertPatterns(alignment, patterns4, 0, alignment.getSiteCount() - 1, 1, null, true, true);
+        } finally {
+            SitePatterns.setThreadCount(0);
+        }
+    }
+
+    public void testThreadCountProperty() {
+        String threads = System.getProperty(SitePatterns.THREADS_PROPERTY);
+        String threadCount = System.getProperty("thread.count");
+        try {
+            System.clearProperty(SitePatterns.THREADS_PROPERTY);
+            System.setProperty("thread.count", "3");
+            assertEquals(3, SitePatterns.getThreadCount());
+
+            System.setProperty(SitePatterns.THREADS_PROPERTY, "2");
+            assertEquals(2, SitePatterns.getThreadCount());
+
+            SitePatterns.setThreadCount(5);
+            assertEquals(5, SitePatterns.getThreadCount());
+            SitePatterns.setThreadCount(0);
+            assertEquals(2, SitePatterns.getThreadCount());
+        } finally {
+            SitePatterns.setThreadCount(0);
+            restoreProperty(SitePatterns.THREADS_PROPERTY, threads);
+            restoreProperty("thread.count", threadCount);
+        }
+    }
+
+    private static void restoreProperty(String name, String value) {
+        if (value == null) {
+            System.clearProperty(name);
+        } else {
+            System.setProperty(name, value);
+        }
+    }
+
+    /**
+     * Create an alignment of related sequences with some gaps and ambiguities, some invariant
+     * sites and sequences of different lengths.
+     */
+    private static SimpleAlignment createAlignment(Random random, int taxonCount, int siteCount, int shortCount) {
+        char[] ancestor = new char[siteCount];
+        for (int i = 0; i < siteCount; i++) {
+            ancestor[i] = STATES.charAt(random.nextInt(4));
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < taxonCount; i++) {
+            StringBuilder builder = new StringBuilder();
+            // the last sequences are shorter so the ends are padded with gaps
+            int length = (i < taxonCount - shortCount ? siteCount : siteCount - 1 - random.nextInt(10));
+            for (int j = 0; j < length; j++) {
+                char state = ancestor[j];
+                if (j % 7 == 0) {
+                    // an all gap or ambiguous site
+                    state = (j % 14 == 0 ? '-' : 'N');
+                } else if (j % 3 != 0) {
+                    double u = random.nextDouble();
+                    if (u < 0.05) {
+                        state = STATES.charAt(random.nextInt(4));
+                    } else if (u < 0.06) {
+                        state = "-NRY?".charAt(random.nextInt(5));
+                    }
+                }
+                builder.append(state);
+            }
+            Sequence sequence = new Sequence(new Taxon("taxon" + i), builder.toString());
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+        return alignment;
+    }
+
+    private static void assertPatterns(SiteList siteList, SitePatterns patterns, int from, int to, int every,
+                                       int[] constantSiteCounts, boolean strip, boolean unique) {
+        Reference reference = new Reference(siteList, strip, unique);
+        if (constantSiteCounts != null) {
+            for (int i = 0; i < constantSiteCounts.length; i++) {
+                int[] pattern = new int[siteList.getPatternLength()];
+                Arrays.fill(pattern, i);
+                reference.addPattern(pattern, constantSiteCounts[i]);
+            }
+        }
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
+            assertEquals(reference.addSite(i), patterns.getPatternIndex(site));
+            site++;
+        }
+        reference.assertSame(patterns);
+    }
+
+    /**
+     * The patterns found by comparing each site with all the patterns so far.
+     */
+    private static class Reference {
+        Reference(SiteList siteList, boolean strip, boolean unique) {
+            this.siteList = siteList;
+            this.strip = strip;
+            this.unique = unique;
+        }
+
+        int addSite(int site) {
+            int[] pattern = siteList.getSitePattern(site);
+            boolean invariant = true;
+            boolean ambiguous = false;
+            for (int state : pattern) {
+                invariant &= (state == pattern[0]);
+                ambiguous |= siteList.getDataType().isGapState(state) ||
+                        siteList.getDataType().isAmbiguousState(state) ||
+                        siteList.getDataType().isUnknownState(state);
+            }
+            if (strip && invariant && ambiguous) {
+                return -1;
+            }
+            return addPattern(pattern, 1);
+        }
+
+        int addPattern(int[] pattern, double weight) {
+            if (unique) {
+                for (int i = 0; i < patterns.size(); i++) {
+                    if (Arrays.equals(patterns.get(i), pattern)) {
+                        weights.set(i, weights.get(i) + weight);
+                        return i;
+                    }
+                }
+            }
+            patterns.add(pattern);
+            weights.add(weight);
+            return patterns.size() - 1;
+        }
+
+        void assertSame(SitePatterns sitePatterns) {
+            assertEquals(patterns.size(), sitePatterns.getPatternCount());
+            for (int i = 0; i < patterns.size(); i++) {
+                assertTrue(Arrays.equals(patterns.get(i), sitePatterns.getPattern(i)));
+                assertEquals(weights.get(i), sitePatterns.getPatternWeight(i));
+            }
+        }
+
+        private final SiteList siteList;
+        private final boolean strip;
+        private final boolean unique;
+        private final List<int[]> patterns = new ArrayList<int[]>();
+        private final List<Double> weights = new ArrayList<Double>();
+    }
+}
@@ -0,0 +1,163 @@
+package test.dr.evolution.io;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks that trees read by worker threads are the same, and in the same order, as those read
+ * by a single thread.
+ *
+ * @author Andrew Rambaut
+ */
+public class NexusImporterTest extends TestCase {
+
+    private static final int TAXON_COUNT = 12;
+    private static final int TREE_COUNT = 200;
+
+    public NexusImporterTest(String name) {
+        super(name);
+    }
+
+    public void testParallelTrees() throws Exception {
+        for (boolean translate : new boolean[]{true, false}) {
+            String nexus = createNexus(TREE_COUNT, translate, null);
+            for (boolean ignoreMetaComments : new boolean[]{true, false}) {
+                List<String> expected = readTrees(nexus, 1, ignoreMetaComments);
+                assertEquals(TREE_COUNT, expected.size());
+
+                for (int threadCount : new int[]{2, 3, 8}) {
+                    assertEquals("trees read with " + threadCount + " threads", expected, readTrees(nexus, threadCount, ignoreMetaComments));
+                }
+            }
+        }
+    }
+
+    public void testParallelError() throws Exception {
+        String nexus = createNexus(20, true, "foo bar;\n");
+
+        // the trees before the error are returned first
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        importer.setThreadCount(4);
+        int count = 0;
+        try {
+            while (importer.hasTree()) {
+                importer.importNextTree();
+                count++;
+            }
+            fail("expected an unknown command");
+        } catch (Importer.BadFormatException bfe) {
+            assertEquals(20, count);
+        }
+    }
+
+    /**
+     * A TREES block with (optionally translated) quoted taxon labels, annotations on the trees and
+     * nodes, comments containing semicolons, and (optionally) an extra command at the end.
+     */
+    private static String createNexus(int treeCount, boolean translate, String extraCommand) {
+        Random random = new Random(666);
+        StringBuilder nexus = new StringBuilder("#NEXUS\n\nBegin taxa;\n\tDimensions ntax=" + TAXON_COUNT + ";\n\tTaxlabels\n");
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            nexus.append("\t\t").append(getTaxonLabel(i)).append("\n");
+        }
+        nexus.append("\t\t;\nEnd;\n\nBegin trees;\n");
+        if (translate) {
+            nexus.append("\tTranslate\n");
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                nexus.append("\t\t").append(i + 1).append(" ").append(getTaxonLabel(i)).append(i < TAXON_COUNT - 1 ? ",\n" : "\n");
+            }
+            nexus.append("\t\t;\n");
+        }
+
+        for (int t = 0; t < treeCount; t++) {
+            List<String> nodes = new ArrayList<String>();
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                nodes.add((translate ? Integer.toString(i + 1) : getTaxonLabel(i)) + "[&rate=" + random.nextDouble() + ",location={" + random.nextInt(100) + "," + random.nextInt(100) + "}]:" + random.nextDouble());
+            }
+            while (nodes.size() > 1) {
+                String left = nodes.remove(random.nextInt(nodes.size()));
+                String right = nodes.remove(random.nextInt(nodes.size()));
+                String node = "(" + left + "," + right + ")";
+                if (random.nextBoolean()) {
+                    node += "[&state=\"a;b\",posterior=" + random.nextDouble() + "]";
+                }
+                nodes.add(node + ":" + random.nextDouble());
+            }
+            String root = nodes.get(0);
+            root = root.substring(0, root.lastIndexOf(':'));
+            nexus.append("tree STATE_").append(t * 1000).append(" [&lnP=").append(-random.nextDouble() * 1000)
+                    .append(",joint=-1.0] = [&R] [a comment; with a semicolon] ").append(root).append(";\n");
+        }
+        if (extraCommand != null) {
+            nexus.append(extraCommand);
+        }
+        nexus.append("End;\n");
+        return nexus.toString();
+    }
+
+    private static String getTaxonLabel(int i) {
+        return (i % 3 == 0 ? "'taxon " + i + "; quoted'" : "taxon_" + i);
+    }
+
+    private static List<String> readTrees(String nexus, int threadCount, boolean ignoreMetaComments) throws Exception {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus), ignoreMetaComments);
+        importer.setThreadCount(threadCount);
+        List<String> trees = new ArrayList<String>();
+        while (importer.hasTree()) {
+            Tree tree = importer.importNextTree();
+            StringBuilder builder = new StringBuilder(tree.getId());
+            appendAttributes(builder, tree.getAttributeNames(), tree, null);
+            appendNode(builder, tree, tree.getRoot());
+            trees.add(builder.toString());
+        }
+        assertNull(importer.importNextTree());
+        return trees;
+    }
+
+    private static void appendNode(StringBuilder builder, Tree tree, NodeRef node) {
+        if (tree.isExternal(node)) {
+            builder.append(tree.getNodeTaxon(node).getId()).append("/").append(node.getNumber());
+        } else {
+            builder.append("(");
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                if (i > 0) {
+                    builder.append(",");
+                }
+                appendNode(builder, tree, tree.getChild(node, i));
+            }
+            builder.append(")");
+        }
+        appendAttributes(builder, tree.getNodeAttributeNames(node), tree, node);
+        builder.append(":").append(tree.getBranchLength(node));
+    }
+
+    private static void appendAttributes(StringBuilder builder, Iterator<?> names, Tree tree, NodeRef node) {
+        if (names == null) {
+            return;
+        }
+        TreeSet<String> sorted = new TreeSet<String>();
+        while (names.hasNext()) {
+            sorted.add((String) names.next());
+        }
+        for (String name : sorted) {
+            Object value = (node == null ? tree.getAttribute(name) : tree.getNodeAttribute(node, name));
+            builder.append("[").append(name).append("=");
+            if (value instanceof Object[]) {
+                builder.append(java.util.Arrays.toString((Object[]) value));
+            } else {
+                builder.append(value);
+            }
+            builder.append("]");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.Coalescent;
+import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.coalescent.IntervalType;
+import dr.evolution.coalescent.TreeIntervals;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.DemographicModel;
+import dr.evomodel.coalescent.ExponentialGrowthModel;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.evolution.CoalescentTrees;
+
+import java.util.HashSet;
+
+/**
+ * Checks that the coalescent likelihood, which only recalculates the intervals between the old
+ * and new heights of the nodes that have changed, is the same as the likelihood of intervals
+ * calculated from scratch as the tree is changed and states are stored, restored and accepted.
+ * The same is checked for the tree intervals that move the nodes whose heights have changed.
+ *
+ * @author Andrew Rambaut
+ */
+public class CoalescentLikelihoodTest extends TestCase {
+
+    public CoalescentLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void testIncrementalIntervals() throws Exception {
+        MathUtils.setSeed(123);
+
+        TreeModel treeModel = createTreeModel();
+
+        // a demographic function that changes with time so the start times of the intervals matter
+        Parameter popSize = new Parameter.Default(2.0);
+        Parameter growthRate = new Parameter.Default(0.5);
+        DemographicModel demoModel = new ExponentialGrowthModel(popSize, growthRate, Units.Type.YEARS, true);
+        CoalescentLikelihood likelihood = new CoalescentLikelihood(treeModel, null, null, demoModel);
+
+        ExchangeOperator narrow = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        // subtree slide can move the root and so swaps the root parameter objects
+        SubtreeSlideOperator slide = new SubtreeSlideOperator(treeModel, 1.0, 0.1, true,
+                false, false, false, AdaptationMode.ADAPTATION_OFF, 0.234);
+
+        assertLikelihood(likelihood, treeModel, demoModel);
+
+        for (int i = 0; i < 500; i++) {
+            likelihood.storeModelState();
+
+            int choice = MathUtils.nextInt(5);
+            if (choice == 0) {
+                narrow.doOperation();
+            } else if (choice == 1) {
+                slide.doOperation();
+            } else if (choice == 2) {
+                popSize.setParameterValue(0, popSize.getParameterValue(0) * Math.exp(MathUtils.nextDouble() - 0.5));
+            } else {
+                moveNodeHeight(treeModel);
+                if (choice == 4) {
+                    moveNodeHeight(treeModel);
+                }
+            }
+
+            assertLikelihood(likelihood, treeModel, demoModel);
+
+            if (MathUtils.nextBoolean()) {
+                likelihood.restoreModelState();
+            } else {
+                likelihood.acceptModelState();
+            }
+
+            assertLikelihood(likelihood, treeModel, demoModel);
+        }
+    }
+
+    public void testIncrementalTreeIntervals() throws Exception {
+        MathUtils.setSeed(456);
+
+        TreeModel treeModel = createTreeModel();
+
+        // the intervals are told about the changes in the same way as the skygrid likelihood does
+        final TreeIntervals intervals = new TreeIntervals(treeModel);
+        treeModel.addModelListener(new ModelListener() {
+            public void modelChangedEvent(Model model, Object object, int index) {
+                if (object instanceof TreeModel.TreeChangedEvent) {
+                    TreeModel.TreeChangedEvent event = (TreeModel.TreeChangedEvent) object;
+                    if (event.isNodeChanged() && event.isHeightChanged()) {
+                        intervals.setNodeHeightChanged(event.getNode());
+                    } else if (event.isNodeChanged() && event.isTreeChanged()) {
+                        intervals.setTreeChanged();
+                    } else {
+                        intervals.setIntervalsUnknown();
+                    }
+                }
+            }
+
+            public void modelRestored(Model model) {
+            }
+        });
+
+        ExchangeOperator narrow = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        SubtreeSlideOperator slide = new SubtreeSlideOperator(treeModel, 1.0, 0.1, true,
+                false, false, false, AdaptationMode.ADAPTATION_OFF, 0.234);
+
+        assertIntervals(intervals, treeModel);
+
+        for (int i = 0; i < 500; i++) {
+            treeModel.storeModelState();
+            intervals.storeState();
+
+            int choice = MathUtils.nextInt(4);
+            if (choice == 0) {
+                narrow.doOperation();
+            } else if (choice == 1) {
+                slide.doOperation();
+            } else {
+                moveNodeHeight(treeModel);
+                if (choice == 3) {
+                    moveNodeHeight(treeModel);
+                }
+            }
+
+            assertIntervals(intervals, treeModel);
+
+            if (MathUtils.nextBoolean()) {
+                treeModel.restoreModelState();
+                intervals.restoreState();
+            } else {
+                treeModel.acceptModelState();
+            }
+
+            assertIntervals(intervals, treeModel);
+        }
+    }
+
+    private static void assertIntervals(TreeIntervals intervals, TreeModel treeModel) {
+        TreeIntervals expected = new TreeIntervals(treeModel);
+        assertEquals(expected.getIntervalCount(), intervals.getIntervalCount());
+        for (int i = 0; i < expected.getIntervalCount(); i++) {
+            assertEquals(expected.getInterval(i), intervals.getInterval(i), 1E-12);
+            assertEquals(expected.getLineageCount(i), intervals.getLineageCount(i));
+            assertEquals(expected.getIntervalType(i), intervals.getIntervalType(i));
+            // the contemporaneous tips can be in any order so only the coalescent intervals are
+            // checked for the same lineages
+            if (expected.getIntervalType(i) == IntervalType.COALESCENT) {
+                assertEquals(expected.getCoalescentNode(i), intervals.getCoalescentNode(i));
+                assertEquals(new HashSet(expected.getLineages(i)), new HashSet(intervals.getLineages(i)));
+            }
+        }
+    }
+
+    /**
+     * A tree of 30 contemporaneous taxa simulated under a constant population size.
+     */
+    private static TreeModel createTreeModel() {
+        return new TreeModel("tree", CoalescentTrees.simulateTree(30));
+    }
+
+    /**
+     * Move a node to a random height between its oldest child and its parent (which will often
+     * change the order of the node heights).
+     */
+    private static void moveNodeHeight(TreeModel treeModel) {
+        NodeRef node = treeModel.getNode(treeModel.getExternalNodeCount() +
+                MathUtils.nextInt(treeModel.getInternalNodeCount()));
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        double upper = treeModel.isRoot(node) ? lower * 1.5 + 0.1 : treeModel.getNodeHeight(treeModel.getParent(node));
+        treeModel.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private static void assertLikelihood(CoalescentLikelihood likelihood, TreeModel treeModel, DemographicModel demoModel) {
+        DemographicFunction demoFunction = demoModel.getDemographicFunction();
+        double expected = Coalescent.calculateLogLikelihood(new TreeIntervals(treeModel), demoFunction,
+                demoFunction.getThreshold());
+        assertEquals(expected, likelihood.getLogLikelihood(), Math.abs(expected) * 1E-10);
+    }
+}
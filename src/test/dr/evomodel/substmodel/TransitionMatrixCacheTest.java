@@ -0,0 +1,97 @@
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.TransitionMatrixCache;
+import dr.evomodel.substmodel.nucleotide.GTR;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the cached transition probability matrices of a substitution model are the same
+ * as freshly calculated ones as the model is changed, stored and restored.
+ *
+ * @author Andrew Rambaut
+ */
+public class TransitionMatrixCacheTest extends TestCase {
+
+    private static final double[] PI = {0.1, 0.2, 0.3, 0.4};
+    private static final double[] DISTANCES = {0.01, 0.1, 0.5, 1.0, 0.1};
+
+    public TransitionMatrixCacheTest(String name) {
+        super(name);
+    }
+
+    public void testHKY() {
+        Parameter kappa = new Parameter.Default(2.0);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, PI));
+        TransitionMatrixCache cache = hky.getTransitionMatrixCache();
+
+        double[][] matrices = getMatrices(hky);
+        // the second 0.1 is the only hit
+        assertEquals(1, cache.getHitCount());
+        assertMatricesEqual(matrices, getMatrices(hky));
+        assertEquals(1 + DISTANCES.length, cache.getHitCount());
+
+        // a rejected move
+        hky.storeModelState();
+        kappa.setParameterValue(0, 5.0);
+        double[][] changed = getMatrices(hky);
+        assertMatricesEqual(getMatrices(new HKY(5.0, new FrequencyModel(Nucleotides.INSTANCE, PI))), changed);
+        hky.restoreModelState();
+
+        long hits = cache.getHitCount();
+        assertMatricesEqual(matrices, getMatrices(hky));
+        assertEquals(hits + DISTANCES.length, cache.getHitCount());
+
+        // an accepted move
+        hky.storeModelState();
+        kappa.setParameterValue(0, 5.0);
+        assertMatricesEqual(changed, getMatrices(hky));
+        hky.acceptModelState();
+        assertMatricesEqual(changed, getMatrices(hky));
+    }
+
+    public void testGTR() {
+        Parameter rates = new Parameter.Default(new double[]{1.0, 2.0, 1.0, 1.0, 2.0, 1.0});
+        Parameter frequencies = new Parameter.Default(PI);
+        GTR gtr = new GTR(rates, new FrequencyModel(Nucleotides.INSTANCE, frequencies));
+
+        double[][] matrices = getMatrices(gtr);
+
+        gtr.storeModelState();
+        rates.setParameterValue(1, 4.0);
+        double[][] changed = getMatrices(gtr);
+        assertFalse(matrices[0][1] == changed[0][1]);
+        gtr.restoreModelState();
+        assertMatricesEqual(matrices, getMatrices(gtr));
+
+        // a change to the frequencies
+        gtr.storeModelState();
+        frequencies.setParameterValue(0, 0.2);
+        frequencies.setParameterValue(3, 0.3);
+        changed = getMatrices(gtr);
+        GTR expected = new GTR(new Parameter.Default(new double[]{1.0, 2.0, 1.0, 1.0, 2.0, 1.0}),
+                new FrequencyModel(Nucleotides.INSTANCE, new double[]{0.2, 0.2, 0.3, 0.3}));
+        assertMatricesEqual(getMatrices(expected), changed);
+        gtr.restoreModelState();
+        assertMatricesEqual(matrices, getMatrices(gtr));
+    }
+
+    private static double[][] getMatrices(dr.evomodel.substmodel.SubstitutionModel model) {
+        double[][] matrices = new double[DISTANCES.length][16];
+        for (int i = 0; i < DISTANCES.length; i++) {
+            model.getTransitionProbabilities(DISTANCES[i], matrices[i]);
+        }
+        return matrices;
+    }
+
+    private static void assertMatricesEqual(double[][] expected, double[][] matrices) {
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals(expected[i][j], matrices[i][j], 1E-10);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package test.dr.evomodel.tree;
+
+import dr.evolution.tree.TreeTraitProvider;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.tree.TreeLogger;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.evolution.CoalescentTrees;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Checks that logs and trees written asynchronously are identical to those written
+ * synchronously, including when the queue is small enough for the chain to wait and for
+ * columns that are not formatted from their double value.
+ *
+ * @author Andrew Rambaut
+ */
+public class AsynchronousLoggerTest extends TestCase {
+
+    private static final int LOG_COUNT = 200;
+
+    public AsynchronousLoggerTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+    }
+
+    public void tearDown() throws Exception {
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+        super.tearDown();
+    }
+
+    /**
+     * Runs a short sequence of tree moves and parameter changes and returns the parameter
+     * log and the tree log as strings.
+     */
+    private String[] runLogs(int capacity, boolean mapNames) {
+        MathUtils.setSeed(42);
+
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < 30; i++) {
+            taxa.addTaxon(new Taxon(i % 3 == 0 ? "taxon " + i : "taxon" + i));
+        }
+        TreeModel treeModel = new TreeModel("treeModel", CoalescentTrees.simulateTree(taxa));
+
+        final Parameter rates = new Parameter.Default("rate", treeModel.getNodeCount(), 1.0);
+        TreeParameterModel rateModel = new TreeParameterModel(treeModel, rates, true);
+
+        final Parameter parameter = new Parameter.Default("parameter", 10, 1.0);
+        parameter.setParameterValue(0, Double.NaN);
+
+        StringWriter log = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(log)), 10, false);
+        logger.add(parameter);
+        // formatted from state other than its double value, so it must be formatted when logged
+        logger.addColumn(new NumberColumn("rate0") {
+            public double getDoubleValue() {
+                return parameter.getParameterValue(1);
+            }
+
+            protected String getFormattedValue() {
+                return formatValue(rates.getParameterValue(0));
+            }
+        });
+
+        StringWriter trees = new StringWriter();
+        TreeLogger treeLogger = new TreeLogger(treeModel, null, null, new TreeTraitProvider[]{new TreeTraitProvider.Helper(rateModel)},
+                new TabDelimitedFormatter(new PrintWriter(trees)), 10, true, true, mapNames, null, null);
+
+        if (capacity > 0) {
+            logger.setAsynchronous("log", capacity);
+            treeLogger.setAsynchronous("trees", capacity);
+        }
+
+        SubtreeSlideOperator operator = new SubtreeSlideOperator(treeModel, 1.0, 0.1, true, false, false, false,
+                AdaptationMode.ADAPTATION_OFF, 0.23);
+
+        logger.startLogging();
+        treeLogger.startLogging();
+        for (long state = 0; state <= LOG_COUNT * 10; state++) {
+            operator.doOperation();
+            for (int i = 1; i < parameter.getDimension(); i++) {
+                parameter.setParameterValue(i, MathUtils.nextGaussian() * Math.pow(10, i - 5));
+            }
+            rates.setParameterValue(MathUtils.nextInt(rates.getDimension()), MathUtils.nextDouble());
+
+            logger.log(state);
+            treeLogger.log(state);
+        }
+        logger.stopLogging();
+        treeLogger.stopLogging();
+
+        return new String[]{log.toString(), trees.toString()};
+    }
+
+    public void testAsynchronousLogsIdentical() {
+        for (boolean mapNames : new boolean[]{true, false}) {
+            String[] expected = runLogs(0, mapNames);
+
+            assertTrue(expected[1].contains("[&rate="));
+
+            for (int capacity : new int[]{1, 4, 1000}) {
+                String[] logs = runLogs(capacity, mapNames);
+                assertEquals(expected[0], logs[0]);
+                assertEquals(expected[1], logs[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package test.dr.evomodel.tree;
+
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.AdaptationMode;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.evolution.CoalescentTrees;
+
+/**
+ * Checks that the journaled store/restore of TreeModel leaves the tree in exactly the
+ * same state as the full-copy store/restore.
+ *
+ * @author Andrew Rambaut
+ */
+public class TreeModelJournalTest extends TestCase {
+
+    private Tree tree;
+
+    public TreeModelJournalTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(123);
+
+        tree = CoalescentTrees.simulateTree(25);
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty(TreeModel.JOURNAL_STORE_PROPERTY);
+        super.tearDown();
+    }
+
+    private TreeModel createTreeModel(boolean journal) {
+        System.setProperty(TreeModel.JOURNAL_STORE_PROPERTY, Boolean.toString(journal));
+        TreeModel treeModel = new TreeModel("tree", tree);
+        assertEquals(journal, treeModel.isJournaledStoreRestore());
+        return treeModel;
+    }
+
+    private String[] run(TreeModel treeModel, int proposals) {
+        MathUtils.setSeed(456);
+
+        ExchangeOperator narrow = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        ExchangeOperator wide = new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0);
+        // subtree slide can move the root and so swaps the root parameter objects
+        SubtreeSlideOperator slide = new SubtreeSlideOperator(treeModel, 1.0, 1.0, true,
+                false, false, false, AdaptationMode.ADAPTATION_OFF, 0.234);
+
+        String[] states = new String[proposals];
+        for (int i = 0; i < proposals; i++) {
+            treeModel.storeModelState();
+
+            String before = TreeUtils.newick(treeModel);
+
+            int choice = MathUtils.nextInt(3);
+            if (choice == 0) {
+                narrow.doOperation();
+            } else if (choice == 1) {
+                wide.doOperation();
+            } else {
+                slide.doOperation();
+            }
+
+            if (MathUtils.nextDouble() < 0.3) {
+                treeModel.acceptModelState();
+            } else {
+                treeModel.restoreModelState();
+                assertEquals("restored tree", before, TreeUtils.newick(treeModel));
+            }
+
+            states[i] = TreeUtils.newick(treeModel);
+        }
+        return states;
+    }
+
+    public void testJournalMatchesCopy() {
+        String[] copy = run(createTreeModel(false), 2000);
+        String[] journal = run(createTreeModel(true), 2000);
+
+        for (int i = 0; i < copy.length; i++) {
+            assertEquals("state " + i, copy[i], journal[i]);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package test.dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Checks the pure-Java delegate against the reference likelihoods in
+ * test.dr.evomodel.treelikelihood.LikelihoodTest.
+ *
+ * @author Marc A. Suchard
+ */
+public class JavaDataLikelihoodDelegateTest extends TraceCorrelationAssert {
+
+    private static final double TOLERANCE = 1E-5;
+
+    public JavaDataLikelihoodDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        treeModel = createPrimateTreeModel();
+
+        // force several pattern blocks so that the threaded path is exercised
+        System.setProperty("java.likelihood.block.size", "10");
+        System.setProperty("thread.count", "4");
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty("java.likelihood.block.size");
+        System.clearProperty("thread.count");
+        super.tearDown();
+    }
+
+    private TreeDataLikelihood createLikelihood(double kappa, Parameter shape, Parameter invar,
+                                                PartialsRescalingScheme scheme) throws Exception {
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, freqs);
+        HKY hky = new HKY(new Parameter.Default(kappa), f);
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteModel",
+                new Parameter.Default(1.0), shape, 4, invar);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        DataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, scheme, false);
+
+        return new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+    }
+
+    public void testLikelihoodHKY85() throws Exception {
+        TreeDataLikelihood likelihood = createLikelihood(29.739445, null, null, PartialsRescalingScheme.NONE);
+
+        assertEquals("treeLikelihoodHKY85", -1825.21317, likelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testLikelihoodHKY85GI() throws Exception {
+        TreeDataLikelihood likelihood = createLikelihood(39.464538,
+                new Parameter.Default(0.587649), new Parameter.Default(0.486548), PartialsRescalingScheme.NONE);
+
+        assertEquals("treeLikelihoodHKY85GI", -1789.63923, likelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testAlwaysRescaling() throws Exception {
+        TreeDataLikelihood likelihood = createLikelihood(39.464538,
+                new Parameter.Default(0.587649), new Parameter.Default(0.486548), PartialsRescalingScheme.ALWAYS);
+
+        assertEquals("treeLikelihoodHKY85GI", -1789.63923, likelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testStoreRestore() throws Exception {
+        TreeDataLikelihood likelihood = createLikelihood(29.739445, null, null, PartialsRescalingScheme.DYNAMIC);
+
+        double logL = likelihood.getLogLikelihood();
+        likelihood.storeModelState();
+
+        Parameter height = treeModel.getRootHeightParameter();
+        height.setParameterValue(0, height.getParameterValue(0) * 1.5);
+        assertFalse(Math.abs(logL - likelihood.getLogLikelihood()) < TOLERANCE);
+
+        likelihood.restoreModelState();
+        assertEquals("restored", logL, likelihood.getLogLikelihood(), TOLERANCE);
+
+        likelihood.makeDirty();
+        assertEquals("recomputed", logL, likelihood.getLogLikelihood(), TOLERANCE);
+    }
+}
@@ -0,0 +1,133 @@
+package test.dr.geo;
+
+import dr.geo.KernelDensityEstimator2D;
+import dr.geo.contouring.ContourPath;
+import dr.geo.contouring.ContourWithSynder;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the binned (FFT) kernel density estimate and the HPD contours made from it against
+ * the exact estimator.
+ *
+ * @author Andrew Rambaut
+ */
+public class KernelDensityEstimator2DTest extends TestCase {
+
+    private static final double[] HPD_VALUES = {0.5, 0.8, 0.95};
+
+    public KernelDensityEstimator2DTest(String name) {
+        super(name);
+    }
+
+    /**
+     * A mixture of two correlated bivariate normals, like the locations of a slice through a
+     * phylogeographic tree sample.
+     */
+    private static double[][] simulate(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] xy = new double[2][count];
+        for (int i = 0; i < count; i++) {
+            double u = random.nextGaussian();
+            double v = random.nextGaussian();
+            if (random.nextDouble() < 0.7) {
+                xy[0][i] = 30.0 + 2.0 * u;
+                xy[1][i] = 100.0 + 1.5 * u + 3.0 * v;
+            } else {
+                xy[0][i] = 36.0 + 1.0 * u;
+                xy[1][i] = 110.0 - 0.5 * v;
+            }
+        }
+        return xy;
+    }
+
+    public void testDensity() {
+        for (int count : new int[]{50, 500, 5000}) {
+            double[][] xy = simulate(count, count);
+            KernelDensityEstimator2D exact = new KernelDensityEstimator2D(xy[0], xy[1], true);
+            KernelDensityEstimator2D binned = new KernelDensityEstimator2D(xy[0], xy[1], true, true);
+
+            assertEquals(exact.getXGrid().length, binned.getXGrid().length);
+            assertEquals(exact.getXGrid()[1], binned.getXGrid()[1], 1E-12);
+            assertEquals(exact.getYGrid()[1], binned.getYGrid()[1], 1E-12);
+
+            double[][] z0 = exact.getKDE();
+            double[][] z1 = binned.getKDE();
+            double max = 0.0;
+            for (double[] row : z0) {
+                for (double value : row) {
+                    max = Math.max(max, value);
+                }
+            }
+            for (int i = 0; i < z0.length; i++) {
+                for (int j = 0; j < z0[i].length; j++) {
+                    assertEquals("density at " + i + "," + j + " of " + count, z0[i][j], z1[i][j], 0.01 * max);
+                }
+            }
+
+            for (double hpd : HPD_VALUES) {
+                double level = exact.findLevelCorrespondingToMass(hpd);
+                assertEquals(level, binned.findLevelCorrespondingToMass(hpd), 0.02 * level);
+            }
+        }
+    }
+
+    public void testContours() {
+        double[][] xy = simulate(2000, 666);
+        ContourWithSynder exact = new ContourWithSynder(xy[0], xy[1], true);
+        ContourWithSynder binned = new ContourWithSynder(xy[0], xy[1], true, true);
+
+        for (double hpd : HPD_VALUES) {
+            ContourPath[] exactPaths = exact.getContourPaths(hpd);
+            ContourPath[] binnedPaths = binned.getContourPaths(hpd);
+
+            assertEquals("number of contours at " + hpd, exactPaths.length, binnedPaths.length);
+
+            double exactArea = getArea(exactPaths);
+            assertEquals("area inside contours at " + hpd, exactArea, getArea(binnedPaths), 0.02 * exactArea);
+
+            // the same proportion of the points are inside the contours
+            double exactInside = getProportionInside(exactPaths, xy);
+            assertEquals(exactInside, getProportionInside(binnedPaths, xy), 0.01);
+        }
+    }
+
+    private static double getArea(ContourPath[] paths) {
+        double area = 0.0;
+        for (ContourPath path : paths) {
+            double[] x = path.getAllX();
+            double[] y = path.getAllY();
+            double pathArea = 0.0;
+            for (int i = 0; i < x.length; i++) {
+                int next = (i + 1) % x.length;
+                pathArea += x[i] * y[next] - x[next] * y[i];
+            }
+            area += Math.abs(pathArea) / 2.0;
+        }
+        return area;
+    }
+
+    private static double getProportionInside(ContourPath[] paths, double[][] xy) {
+        int inside = 0;
+        for (int k = 0; k < xy[0].length; k++) {
+            for (ContourPath path : paths) {
+                if (contains(path.getAllX(), path.getAllY(), xy[0][k], xy[1][k])) {
+                    inside++;
+                    break;
+                }
+            }
+        }
+        return (double) inside / xy[0].length;
+    }
+
+    private static boolean contains(double[] x, double[] y, double px, double py) {
+        boolean contains = false;
+        for (int i = 0, j = x.length - 1; i < x.length; j = i++) {
+            if ((y[i] > py) != (y[j] > py) && px < (x[j] - x[i]) * (py - y[i]) / (y[j] - y[i]) + x[i]) {
+                contains = !contains;
+            }
+        }
+        return contains;
+    }
+}
@@ -0,0 +1,148 @@
+package test.dr.inference.loggers;
+
+import dr.inference.loggers.LogWriterQueue;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that LogWriterQueue writes the entries in order, that a failure on the writer thread
+ * (including an Error) is passed back to the chain thread rather than leaving it blocked and that
+ * the writer thread stops when the log is closed.
+ *
+ * @author Andrew Rambaut
+ */
+public class LogWriterQueueTest extends TestCase {
+
+    public LogWriterQueueTest(String name) {
+        super(name);
+    }
+
+    private static class TestEntry implements LogWriterQueue.Entry {
+        TestEntry(List<Integer> written, int failAt, Throwable failure) {
+            this.written = written;
+            this.failAt = failAt;
+            this.failure = failure;
+        }
+
+        public void write() {
+            if (value == failAt) {
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            written.add(value);
+        }
+
+        private final List<Integer> written;
+        private final int failAt;
+        private final Throwable failure;
+        int value;
+    }
+
+    private static LogWriterQueue<TestEntry> createQueue(final List<Integer> written, final int failAt,
+                                                         final Throwable failure) {
+        return createQueue("test", written, failAt, failure);
+    }
+
+    private static LogWriterQueue<TestEntry> createQueue(String name, final List<Integer> written, final int failAt,
+                                                         final Throwable failure) {
+        return new LogWriterQueue<TestEntry>(name, 2, new LogWriterQueue.EntryFactory<TestEntry>() {
+            public TestEntry createEntry() {
+                return new TestEntry(written, failAt, failure);
+            }
+        });
+    }
+
+    public void testOrder() {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        LogWriterQueue<TestEntry> queue = createQueue(written, -1, null);
+        for (int i = 0; i < 1000; i++) {
+            TestEntry entry = queue.obtain();
+            entry.value = i;
+            queue.submit(entry);
+        }
+        queue.flush();
+
+        assertEquals(1000, written.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) written.get(i));
+        }
+        assertEquals(1000, queue.getWrittenCount());
+    }
+
+    public void testError() {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        LogWriterQueue<TestEntry> queue = createQueue(written, 10, new StackOverflowError());
+
+        // keep submitting well past the failure: a full queue must not block for ever
+        try {
+            for (int i = 0; i < 1000; i++) {
+                TestEntry entry = queue.obtain();
+                entry.value = i;
+                queue.submit(entry);
+            }
+            queue.flush();
+            fail("the writer's error was not reported");
+        } catch (RuntimeException re) {
+            assertTrue(re.getCause() instanceof StackOverflowError);
+        }
+        assertEquals(10, written.size());
+    }
+
+    public void testClose() {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        LogWriterQueue<TestEntry> queue = createQueue("close", written, -1, null);
+        assertTrue(isWriterRunning("close"));
+        for (int i = 0; i < 100; i++) {
+            TestEntry entry = queue.obtain();
+            entry.value = i;
+            queue.submit(entry);
+        }
+        queue.close();
+
+        assertEquals(100, written.size());
+        assertFalse(isWriterRunning("close"));
+        try {
+            queue.submit(queue.obtain());
+            fail("an entry was submitted after the log was closed");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    public void testStopLogging() {
+        StringWriter output = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(output)), 1, false);
+        logger.add(new Parameter.Default("x", 3, 1.0));
+        logger.setAsynchronous("stop", 4);
+
+        logger.startLogging();
+        for (long state = 0; state < 10; state++) {
+            logger.log(state);
+        }
+        assertTrue(isWriterRunning("stop"));
+        logger.stopLogging();
+
+        assertFalse(isWriterRunning("stop"));
+        // the header and a line for every state
+        assertEquals(11, output.toString().split("\n").length);
+    }
+
+    private static boolean isWriterRunning(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("log-writer-" + name) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
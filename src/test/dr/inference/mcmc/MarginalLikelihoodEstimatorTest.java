@@ -0,0 +1,338 @@
+package test.dr.inference.mcmc;
+
+import dr.app.beast.BeastMain;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
+import dr.inference.model.PathLikelihood;
+import dr.evomodelxml.coalescent.CoalescentLikelihoodParser;
+import dr.evomodelxml.coalescent.ConstantPopulationModelParser;
+import dr.evomodelxml.operators.ExchangeOperatorParser;
+import dr.evomodelxml.operators.SubtreeSlideOperatorParser;
+import dr.evomodelxml.tree.TreeModelParser;
+import dr.evoxml.NewickParser;
+import dr.evoxml.TaxaParser;
+import dr.evoxml.TaxonParser;
+import dr.inferencexml.MCMCParser;
+import dr.inferencexml.distribution.DistributionLikelihoodParser;
+import dr.inferencexml.distribution.NormalDistributionModelParser;
+import dr.inferencexml.loggers.LoggerParser;
+import dr.inferencexml.model.CompoundLikelihoodParser;
+import dr.inferencexml.operators.RandomWalkOperatorParser;
+import dr.inferencexml.operators.ScaleOperatorParser;
+import dr.inferencexml.operators.SimpleOperatorScheduleParser;
+import dr.inferencexml.operators.UniformOperatorParser;
+import dr.inference.model.ParameterParser;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that running the path steps of a marginal likelihood estimator concurrently (on copies
+ * made by BeastMain's copy factory) writes the same log rows, in the same order and with the same
+ * state numbers and path parameters, as running them one at a time.
+ *
+ * @author Andrew Rambaut
+ */
+public class MarginalLikelihoodEstimatorTest extends TestCase {
+
+    private static final int PATH_STEPS = 7;
+    private static final int CHAIN_LENGTH = 1000;
+    private static final int LOG_EVERY = 100;
+    private static final int THREADS = 3;
+    private static final int TAXON_COUNT = 20;
+
+    public MarginalLikelihoodEstimatorTest(String name) {
+        super(name);
+    }
+
+    public void testThreads() throws Exception {
+        File directory = File.createTempFile("mle", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            List<String[]> serial = run(directory, "mle1", createXML(1, directory, "mle1"));
+            List<String[]> threaded = run(directory, "mle3", createXML(3, directory, "mle3"));
+
+            // a header and a row every LOG_EVERY states of each step (there is one more step than pathSteps)
+            assertEquals(1 + (PATH_STEPS + 1) * (CHAIN_LENGTH / LOG_EVERY), serial.size());
+            assertEquals(serial.size(), threaded.size());
+
+            assertEquals("state", serial.get(0)[0]);
+            int thetaColumn = -1;
+            for (int i = 0; i < serial.get(0).length; i++) {
+                assertEquals(serial.get(0)[i], threaded.get(0)[i]);
+                if (serial.get(0)[i].equals("pathLikelihood.theta")) {
+                    thetaColumn = i;
+                }
+            }
+            assertTrue(thetaColumn > 0);
+
+            long lastState = -1;
+            for (int i = 1; i < serial.size(); i++) {
+                assertEquals(serial.get(i).length, threaded.get(i).length);
+                // the same state numbers (increasing through the steps) and path parameters
+                assertEquals(serial.get(i)[0], threaded.get(i)[0]);
+                assertTrue(Long.parseLong(serial.get(i)[0]) > lastState);
+                lastState = Long.parseLong(serial.get(i)[0]);
+                assertEquals(serial.get(i)[thetaColumn], threaded.get(i)[thetaColumn]);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Every step of a group run on separate threads should start from the state the chains of the
+     * group were copied from, which (with no burnin) is logged as the first row of each step.
+     */
+    public void testThreadedStepsStartFromCopiedState() throws Exception {
+        File directory = File.createTempFile("mle", "");
+        directory.delete();
+        directory.mkdir();
+        try {
+            List<String[]> rows = run(directory, "tree", createTreeXML(THREADS, directory, "tree"));
+            assertEquals(1 + (PATH_STEPS + 1) * (CHAIN_LENGTH / LOG_EVERY), rows.size());
+
+            // all but the state number: the root height, the other internal node heights and the population size
+            String[] header = rows.get(0);
+            assertEquals("rootHeight", header[1]);
+            assertEquals("popSize", header[header.length - 1]);
+            assertEquals(1 + 1 + (TAXON_COUNT - 2) + 1, header.length);
+
+            String[] initial = null;
+            String[] groupStart = null;
+            for (int step = 0; step <= PATH_STEPS; step++) {
+                String[] start = rows.get(1 + step * (CHAIN_LENGTH / LOG_EVERY));
+                assertEquals(Long.toString((long) step * CHAIN_LENGTH), start[0]);
+
+                if (step == 0) {
+                    initial = start;
+                }
+                if (step % THREADS == 0) {
+                    groupStart = start;
+                    if (step > 0) {
+                        // the chains have moved on from where they started
+                        assertFalse(equalValues(initial, start));
+                    }
+                }
+                assertTrue("step " + step + " didn't start from the state it was copied from",
+                        equalValues(groupStart, start));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * The heights of the internal nodes are compared as a set as each copy of the tree may keep them
+     * in a different order (the node height parameters are swapped when the root changes).
+     */
+    private static boolean equalValues(String[] row1, String[] row2) {
+        int last = row1.length - 1;
+        return row1[1].equals(row2[1]) && row1[last].equals(row2[last]) &&
+                sortedValues(row1, 2, last).equals(sortedValues(row2, 2, last));
+    }
+
+    private static List<Double> sortedValues(String[] row, int from, int to) {
+        List<Double> values = new ArrayList<Double>();
+        for (int i = from; i < to; i++) {
+            values.add(Double.parseDouble(row[i]));
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        MarginalLikelihoodEstimator.setCopyFactory(null);
+    }
+
+    /**
+     * Run the estimator as BeastMain would (with its copy factory) and read back its log.
+     */
+    private static List<String[]> run(File directory, String name, String xml) throws Exception {
+        File logFile = new File(directory, name + ".log");
+        File xmlFile = new File(directory, name + ".xml");
+        Writer writer = new FileWriter(xmlFile);
+        writer.write(xml);
+        writer.close();
+
+        MathUtils.setSeed(666);
+        MarginalLikelihoodEstimator.setCopyFactory(new BeastMain.EstimatorCopyFactory(xmlFile, null, false, false, true) {
+            @Override
+            protected XMLParser createParser() {
+                return MarginalLikelihoodEstimatorTest.createParser();
+            }
+        });
+
+        Reader reader = new FileReader(xmlFile);
+        try {
+            createParser().parse(reader, true);
+        } finally {
+            reader.close();
+        }
+
+        List<String[]> rows = new ArrayList<String[]>();
+        BufferedReader logReader = new BufferedReader(new FileReader(logFile));
+        try {
+            String line;
+            while ((line = logReader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    rows.add(line.split("\t"));
+                }
+            }
+        } finally {
+            logReader.close();
+        }
+        return rows;
+    }
+
+    private static XMLParser createParser() {
+        XMLParser parser = new XMLParser(false, false, true, null);
+        parser.addXMLObjectParser(new ParameterParser());
+        parser.addXMLObjectParser(new TaxonParser());
+        parser.addXMLObjectParser(new TaxaParser());
+        parser.addXMLObjectParser(new NewickParser());
+        parser.addXMLObjectParser(new TreeModelParser());
+        parser.addXMLObjectParser(new ConstantPopulationModelParser());
+        parser.addXMLObjectParser(new CoalescentLikelihoodParser());
+        parser.addXMLObjectParser(new SubtreeSlideOperatorParser());
+        parser.addXMLObjectParser(ExchangeOperatorParser.NARROW_EXCHANGE_OPERATOR_PARSER);
+        parser.addXMLObjectParser(new UniformOperatorParser());
+        parser.addXMLObjectParser(new ScaleOperatorParser());
+        parser.addXMLObjectParser(new NormalDistributionModelParser());
+        parser.addXMLObjectParser(new DistributionLikelihoodParser());
+        parser.addXMLObjectParser(new CompoundLikelihoodParser());
+        parser.addXMLObjectParser(new RandomWalkOperatorParser());
+        parser.addXMLObjectParser(new SimpleOperatorScheduleParser());
+        parser.addXMLObjectParser(new LoggerParser());
+        parser.addXMLObjectParser(new MCMCParser());
+        parser.addXMLObjectParser(PathLikelihood.PARSER);
+        parser.addXMLObjectParser(MarginalLikelihoodEstimator.PARSER);
+        return parser;
+    }
+
+    private static String createXML(int threadCount, File directory, String name) {
+        return "<beast>" +
+                "<distributionLikelihood id=\"density\">" +
+                "<distribution><normalDistributionModel>" +
+                "<mean><parameter id=\"mu\" value=\"0\"/></mean><precision><parameter value=\"1\"/></precision>" +
+                "</normalDistributionModel></distribution>" +
+                "<data><parameter value=\"2\"/></data>" +
+                "</distributionLikelihood>" +
+                "<distributionLikelihood id=\"muPrior\">" +
+                "<distribution><normalDistributionModel>" +
+                "<mean><parameter value=\"0\"/></mean><precision><parameter value=\"1\"/></precision>" +
+                "</normalDistributionModel></distribution>" +
+                "<data><parameter idref=\"mu\"/></data>" +
+                "</distributionLikelihood>" +
+                "<operators id=\"operators\">" +
+                "<randomWalkOperator windowSize=\"0.75\" weight=\"1\"><parameter idref=\"mu\"/></randomWalkOperator>" +
+                "</operators>" +
+                "<mcmc id=\"mcmc\" chainLength=\"100\" autoOptimize=\"true\">" +
+                "<posterior id=\"posterior\">" +
+                "<likelihood id=\"likelihood\"><distributionLikelihood idref=\"density\"/></likelihood>" +
+                "<prior id=\"prior\"><distributionLikelihood idref=\"muPrior\"/></prior>" +
+                "</posterior>" +
+                "<operators idref=\"operators\"/>" +
+                "<log logEvery=\"100\" fileName=\"" + new File(directory, name + ".mcmc.log").getAbsolutePath() + "\">" +
+                "<parameter idref=\"mu\"/>" +
+                "</log>" +
+                "</mcmc>" +
+                "<marginalLikelihoodEstimator chainLength=\"" + CHAIN_LENGTH + "\" pathSteps=\"" + PATH_STEPS + "\" " +
+                "pathScheme=\"oneSidedBeta\" threads=\"" + threadCount + "\">" +
+                "<samplers><mcmc idref=\"mcmc\"/></samplers>" +
+                "<pathLikelihood id=\"pathLikelihood\">" +
+                "<source><posterior idref=\"posterior\"/></source>" +
+                "<destination><prior idref=\"prior\"/></destination>" +
+                "</pathLikelihood>" +
+                "<log logEvery=\"" + LOG_EVERY + "\" fileName=\"" + new File(directory, name + ".log").getAbsolutePath() + "\">" +
+                "<pathLikelihood idref=\"pathLikelihood\"/>" +
+                "<parameter idref=\"mu\"/>" +
+                "</log>" +
+                "</marginalLikelihoodEstimator>" +
+                "</beast>";
+    }
+
+    /**
+     * A coalescent tree of TAXON_COUNT taxa, starting as a ladder, with the operators of a BEAST
+     * run on the tree and population size. There is no burnin so the first row logged by each step
+     * is the state it started from.
+     */
+    private static String createTreeXML(int threadCount, File directory, String name) {
+        StringBuilder taxa = new StringBuilder("<taxa id=\"taxa\">");
+        StringBuilder newick = new StringBuilder();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            taxa.append("<taxon id=\"t").append(i).append("\"/>");
+            if (i == 0) {
+                newick.append("t0:1.0");
+            } else {
+                newick.insert(0, "(").append(",t").append(i).append(":").append(i).append(".0):1.0");
+            }
+        }
+        taxa.append("</taxa>");
+        newick.setLength(newick.length() - ":1.0".length());
+
+        return "<beast>" + taxa +
+                "<newick id=\"startingTree\">" + newick + ";</newick>" +
+                "<treeModel id=\"treeModel\">" +
+                "<newick idref=\"startingTree\"/>" +
+                "<rootHeight><parameter id=\"rootHeight\"/></rootHeight>" +
+                "<nodeHeights internalNodes=\"true\"><parameter id=\"internalHeights\"/></nodeHeights>" +
+                "</treeModel>" +
+                "<constantSize id=\"constant\" units=\"years\">" +
+                "<populationSize><parameter id=\"popSize\" value=\"10\" lower=\"0.0\"/></populationSize>" +
+                "</constantSize>" +
+                "<coalescentLikelihood id=\"coalescent\">" +
+                "<model><constantSize idref=\"constant\"/></model>" +
+                "<populationTree><treeModel idref=\"treeModel\"/></populationTree>" +
+                "</coalescentLikelihood>" +
+                "<distributionLikelihood id=\"popSizePrior\">" +
+                "<distribution><normalDistributionModel>" +
+                "<mean><parameter value=\"10\"/></mean><precision><parameter value=\"1\"/></precision>" +
+                "</normalDistributionModel></distribution>" +
+                "<data><parameter idref=\"popSize\"/></data>" +
+                "</distributionLikelihood>" +
+                "<operators id=\"operators\">" +
+                "<subtreeSlide size=\"1.0\" gaussian=\"true\" weight=\"5\"><treeModel idref=\"treeModel\"/></subtreeSlide>" +
+                "<narrowExchange weight=\"5\"><treeModel idref=\"treeModel\"/></narrowExchange>" +
+                "<uniformOperator weight=\"10\"><parameter idref=\"internalHeights\"/></uniformOperator>" +
+                "<scaleOperator scaleFactor=\"0.75\" weight=\"2\"><parameter idref=\"rootHeight\"/></scaleOperator>" +
+                "<scaleOperator scaleFactor=\"0.75\" weight=\"2\"><parameter idref=\"popSize\"/></scaleOperator>" +
+                "</operators>" +
+                "<mcmc id=\"mcmc\" chainLength=\"100\" autoOptimize=\"true\">" +
+                "<posterior id=\"posterior\">" +
+                "<likelihood id=\"likelihood\"><coalescentLikelihood idref=\"coalescent\"/></likelihood>" +
+                "<prior id=\"prior\"><distributionLikelihood idref=\"popSizePrior\"/></prior>" +
+                "</posterior>" +
+                "<operators idref=\"operators\"/>" +
+                "<log logEvery=\"100\" fileName=\"" + new File(directory, name + ".mcmc.log").getAbsolutePath() + "\">" +
+                "<parameter idref=\"popSize\"/>" +
+                "</log>" +
+                "</mcmc>" +
+                "<marginalLikelihoodEstimator chainLength=\"" + CHAIN_LENGTH + "\" pathSteps=\"" + PATH_STEPS + "\" " +
+                "burnin=\"0\" pathScheme=\"oneSidedBeta\" threads=\"" + threadCount + "\">" +
+                "<samplers><mcmc idref=\"mcmc\"/></samplers>" +
+                "<pathLikelihood id=\"pathLikelihood\">" +
+                "<source><posterior idref=\"posterior\"/></source>" +
+                "<destination><prior idref=\"prior\"/></destination>" +
+                "</pathLikelihood>" +
+                "<log logEvery=\"" + LOG_EVERY + "\" fileName=\"" + new File(directory, name + ".log").getAbsolutePath() + "\">" +
+                "<parameter idref=\"rootHeight\"/>" +
+                "<parameter idref=\"internalHeights\"/>" +
+                "<parameter idref=\"popSize\"/>" +
+                "</log>" +
+                "</marginalLikelihoodEstimator>" +
+                "</beast>";
+    }
+}
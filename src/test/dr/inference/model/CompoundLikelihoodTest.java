@@ -0,0 +1,186 @@
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a threaded CompoundLikelihood only hands the likelihoods that have changed
+ * to the thread pool and that the total is always the same as evaluating them in turn.
+ *
+ * @author Andrew Rambaut
+ */
+public class CompoundLikelihoodTest extends TestCase {
+
+    private static final int LIKELIHOOD_COUNT = 4;
+
+    private List<TestLikelihood> likelihoods;
+    private CompoundLikelihood compoundLikelihood;
+
+    public CompoundLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        likelihoods = new ArrayList<TestLikelihood>();
+        for (int i = 0; i < LIKELIHOOD_COUNT; i++) {
+            likelihoods.add(new TestLikelihood(i));
+        }
+        compoundLikelihood = new CompoundLikelihood(2, new ArrayList<Likelihood>(likelihoods));
+    }
+
+    private double getExpectedLogLikelihood() {
+        double logL = 0.0;
+        for (TestLikelihood likelihood : likelihoods) {
+            logL += likelihood.parameter.getParameterValue(0) + likelihood.subModel.parameter.getParameterValue(0);
+        }
+        return logL;
+    }
+
+    private void resetCounts() {
+        for (TestLikelihood likelihood : likelihoods) {
+            likelihood.calculationCount = 0;
+            likelihood.calculationThread = null;
+        }
+    }
+
+    public void testDirtyLikelihoods() {
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        assertEquals(1, compoundLikelihood.getPoolEvaluationCount());
+
+        // nothing has changed
+        resetCounts();
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        for (TestLikelihood likelihood : likelihoods) {
+            assertEquals(0, likelihood.calculationCount);
+        }
+        assertEquals(1, compoundLikelihood.getPoolEvaluationCount());
+
+        // a single change is calculated on this thread
+        resetCounts();
+        likelihoods.get(2).parameter.setParameterValue(0, 5.0);
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        assertEquals(1, likelihoods.get(2).calculationCount);
+        assertEquals(Thread.currentThread(), likelihoods.get(2).calculationThread);
+        assertEquals(1, compoundLikelihood.getPoolEvaluationCount());
+
+        // a change to a submodel and a change to a likelihood use the pool
+        resetCounts();
+        likelihoods.get(0).subModel.parameter.setParameterValue(0, 3.0);
+        likelihoods.get(3).parameter.setParameterValue(0, 7.0);
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        for (int i = 0; i < LIKELIHOOD_COUNT; i++) {
+            assertEquals(i == 0 || i == 3 ? 1 : 0, likelihoods.get(i).calculationCount);
+        }
+        assertNotSame(Thread.currentThread(), likelihoods.get(0).calculationThread);
+        assertEquals(2, compoundLikelihood.getPoolEvaluationCount());
+
+        // restoring the state makes them dirty again
+        resetCounts();
+        for (TestLikelihood likelihood : likelihoods) {
+            likelihood.storeModelState();
+        }
+        likelihoods.get(1).parameter.setParameterValue(0, -1.0);
+        likelihoods.get(1).subModel.parameter.setParameterValue(0, -2.0);
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        for (TestLikelihood likelihood : likelihoods) {
+            likelihood.restoreModelState();
+        }
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+
+        // and so does making the compound dirty
+        resetCounts();
+        compoundLikelihood.makeDirty();
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood());
+        for (TestLikelihood likelihood : likelihoods) {
+            assertEquals(1, likelihood.calculationCount);
+        }
+    }
+
+    private static class TestModel extends AbstractModel {
+        TestModel(int index) {
+            super("subModel" + index);
+            parameter = new Parameter.Default("subParameter" + index, 1, 1.0 / (index + 1));
+            addVariable(parameter);
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        }
+
+        protected void storeState() {
+        }
+
+        protected void restoreState() {
+        }
+
+        protected void acceptState() {
+        }
+
+        final Parameter parameter;
+    }
+
+    private static class TestLikelihood extends AbstractModelLikelihood {
+        TestLikelihood(int index) {
+            super("likelihood" + index);
+            parameter = new Parameter.Default("parameter" + index, 1, index);
+            subModel = new TestModel(index);
+            addVariable(parameter);
+            addModel(subModel);
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            if (!likelihoodKnown) {
+                calculationCount++;
+                calculationThread = Thread.currentThread();
+                logLikelihood = parameter.getParameterValue(0) + subModel.parameter.getParameterValue(0);
+                likelihoodKnown = true;
+            }
+            return logLikelihood;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+            likelihoodKnown = false;
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+            storedLogLikelihood = logLikelihood;
+        }
+
+        protected void restoreState() {
+            logLikelihood = storedLogLikelihood;
+            likelihoodKnown = true;
+        }
+
+        protected void acceptState() {
+        }
+
+        final Parameter parameter;
+        final TestModel subModel;
+
+        private boolean likelihoodKnown = false;
+        private double logLikelihood;
+        private double storedLogLikelihood;
+
+        volatile int calculationCount = 0;
+        volatile Thread calculationThread = null;
+    }
+}
@@ -0,0 +1,123 @@
+package test.dr.inference.trace;
+
+import dr.inference.trace.LogFileTraceCache;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Checks that traces read from a trace cache are the same as those read from the log file
+ * and that a stale cache is not used.
+ *
+ * @author Andrew Rambaut
+ */
+public class LogFileTraceCacheTest extends TestCase {
+
+    private File logFile;
+
+    public LogFileTraceCacheTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        logFile = File.createTempFile("trace", ".log");
+        writeLog(logFile, 1000);
+        LogFileTraceCache.getCacheFile(logFile).delete();
+    }
+
+    public void tearDown() throws Exception {
+        System.clearProperty(LogFileTraceCache.TRACE_CACHE);
+        LogFileTraceCache.getCacheFile(logFile).delete();
+        logFile.delete();
+        super.tearDown();
+    }
+
+    private void writeLog(File file, int stateCount) throws Exception {
+        Random random = new Random(stateCount);
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        writer.println("# a comment");
+        writer.println("state\treal\tinteger\tcategory\tconstant\tlateReal");
+        for (int i = 0; i < stateCount; i++) {
+            writer.println((i * 100) + "\t" + random.nextGaussian() + "\t" + random.nextInt(5) + "\t" +
+                    (random.nextBoolean() ? "A" : "B") + "\t1.0\t" + (i < stateCount - 1 ? "3" : "3.5"));
+        }
+        writer.close();
+    }
+
+    private LogFileTraces loadTraces() throws Exception {
+        LogFileTraces traces = new LogFileTraces(logFile.getName(), logFile);
+        traces.loadTraces();
+        return traces;
+    }
+
+    public void testCachedTraces() throws Exception {
+        LogFileTraces expected = loadTraces();
+
+        System.setProperty(LogFileTraceCache.TRACE_CACHE, "true");
+        File cacheFile = LogFileTraceCache.getCacheFile(logFile);
+
+        // the first load writes the cache and the second reads it
+        LogFileTraces written = loadTraces();
+        assertTrue(cacheFile.exists());
+        LogFileTraces cached = loadTraces();
+
+        assertEquals(expected.getTraceCount(), cached.getTraceCount());
+        assertEquals(expected.getMaxState(), cached.getMaxState());
+        assertEquals(expected.getStepSize(), cached.getStepSize());
+        assertEquals(expected.getBurnIn(), cached.getBurnIn());
+        assertEquals(expected.getStateCount(), cached.getStateCount());
+
+        for (LogFileTraces traces : new LogFileTraces[]{written, cached}) {
+            for (int i = 0; i < expected.getTraceCount(); i++) {
+                Trace trace = expected.getTrace(i);
+                Trace other = traces.getTrace(i);
+                assertEquals(trace.getName(), other.getName());
+                assertEquals(trace.getTraceType(), other.getTraceType());
+                assertEquals(trace.isConstant(), other.isConstant());
+                assertEquals(trace.getUniqueValueCount(), other.getUniqueValueCount());
+                assertEquals(trace.getCategoryLabelMap(), other.getCategoryLabelMap());
+                assertEquals(trace.getValues(0, trace.getValueCount()), other.getValues(0, other.getValueCount()));
+
+                expected.analyseTrace(i);
+                traces.analyseTrace(i);
+                TraceCorrelation statistics = trace.getTraceStatistics();
+                TraceCorrelation otherStatistics = other.getTraceStatistics();
+                if (trace.getTraceType().isNumber()) {
+                    assertEquals(statistics.getMean(), otherStatistics.getMean());
+                    assertEquals(statistics.getLowerHPD(), otherStatistics.getLowerHPD());
+                    assertEquals(statistics.getUpperHPD(), otherStatistics.getUpperHPD());
+                    assertEquals(statistics.getESS(), otherStatistics.getESS());
+                } else {
+                    assertEquals(statistics.getFrequencyCounter().getUniqueValues(),
+                            otherStatistics.getFrequencyCounter().getUniqueValues());
+                }
+            }
+        }
+
+        assertEquals(TraceType.REAL, cached.getTrace(4).getTraceType());
+        assertEquals(TraceType.CATEGORICAL, cached.getTrace(2).getTraceType());
+    }
+
+    public void testStaleCache() throws Exception {
+        System.setProperty(LogFileTraceCache.TRACE_CACHE, "true");
+        loadTraces();
+
+        // a longer log so the cache no longer matches
+        writeLog(logFile, 1500);
+        LogFileTraces traces = loadTraces();
+        assertEquals(1500, traces.getTrace(0).getValueCount());
+        assertEquals(149900, traces.getMaxState());
+
+        traces = loadTraces();
+        assertEquals(1500, traces.getTrace(0).getValueCount());
+    }
+}
@@ -0,0 +1,82 @@
+package test.dr.math;
+
+import dr.math.MathUtils;
+
+/**
+ * Checks that per-thread random number streams are reproducible, independent of
+ * each other and leave the shared generator untouched.
+ *
+ * @author Andrew Rambaut
+ */
+public class ThreadStreamTest extends MathTestCase {
+
+    private static final int DRAW_COUNT = 10000;
+
+    private static double[] draw(int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = MathUtils.nextDouble();
+        }
+        return values;
+    }
+
+    private static double[] drawInThread(final long streamSeed) throws InterruptedException {
+        final double[][] result = new double[1][];
+        Thread thread = new Thread() {
+            public void run() {
+                MathUtils.setThreadStream(streamSeed);
+                result[0] = draw(DRAW_COUNT);
+                MathUtils.clearThreadStream();
+            }
+        };
+        thread.start();
+        thread.join();
+        return result[0];
+    }
+
+    public void testStreamSeeds() {
+        long seed = 666;
+        for (int i = 0; i < 100; i++) {
+            long streamSeed = MathUtils.getStreamSeed(seed, i);
+            assertTrue(streamSeed > 0 && streamSeed <= Integer.MAX_VALUE);
+            assertEquals(streamSeed, MathUtils.getStreamSeed(seed, i));
+            assertFalse(streamSeed == MathUtils.getStreamSeed(seed, i + 1));
+        }
+    }
+
+    public void testSharedGeneratorUnaffected() throws InterruptedException {
+        MathUtils.setSeed(666);
+        double[] expected = draw(DRAW_COUNT);
+
+        MathUtils.setSeed(666);
+        double[] first = draw(DRAW_COUNT / 2);
+
+        // draws from a thread with its own stream must not advance the shared generator
+        drawInThread(MathUtils.getStreamSeed(666, 0));
+        assertFalse(MathUtils.hasThreadStream());
+
+        double[] second = draw(DRAW_COUNT / 2);
+        for (int i = 0; i < DRAW_COUNT / 2; i++) {
+            assertEquals(expected[i], first[i], 0.0);
+            assertEquals(expected[i + DRAW_COUNT / 2], second[i], 0.0);
+        }
+    }
+
+    public void testStreamsReproducible() throws InterruptedException {
+        long seed0 = MathUtils.getStreamSeed(666, 0);
+        long seed1 = MathUtils.getStreamSeed(666, 1);
+
+        double[] a = drawInThread(seed0);
+        double[] b = drawInThread(seed0);
+        double[] c = drawInThread(seed1);
+
+        int same = 0;
+        for (int i = 0; i < DRAW_COUNT; i++) {
+            assertEquals(a[i], b[i], 0.0);
+            if (a[i] == c[i]) {
+                same++;
+            }
+        }
+        assertTrue(same < 10);
+    }
+}
@@ -0,0 +1,159 @@
+package test.dr.math.matrixAlgebra;
+
+import dr.math.MathUtils;
+import dr.math.matrixAlgebra.CholeskyDecomposition;
+import dr.math.matrixAlgebra.UpdatableCholeskyDecomposition;
+import test.dr.math.MathTestCase;
+
+/**
+ * Checks that a Cholesky factor that is scaled and updated with a sequence of samples is the
+ * same as decomposing the empirical covariance matrix of those samples from scratch.
+ *
+ * @author Andrew Rambaut
+ */
+public class UpdatableCholeskyDecompositionTest extends MathTestCase {
+
+    private static final int DIMENSION = 20;
+    private static final double TOLERANCE = 1.0E-10;
+
+    public UpdatableCholeskyDecompositionTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(666);
+    }
+
+    public void testDecompose() throws Exception {
+        double[][] A = randomMatrix(DIMENSION);
+
+        UpdatableCholeskyDecomposition factor = new UpdatableCholeskyDecomposition(DIMENSION);
+        assertTrue(factor.decompose(A));
+        assertEquals(new CholeskyDecomposition(A).getL(), factor.getL(), TOLERANCE);
+        assertEquals(A, multiply(factor.getL()), TOLERANCE);
+    }
+
+    public void testSingular() {
+        // a covariance of fewer samples than the dimension
+        double[][] A = new double[DIMENSION][DIMENSION];
+        for (int k = 0; k < DIMENSION / 2; k++) {
+            double[] x = randomVector(DIMENSION);
+            for (int i = 0; i < DIMENSION; i++) {
+                for (int j = 0; j < DIMENSION; j++) {
+                    A[i][j] += x[i] * x[j];
+                }
+            }
+        }
+
+        UpdatableCholeskyDecomposition factor = new UpdatableCholeskyDecomposition(DIMENSION);
+        assertTrue(factor.decompose(A));
+        assertEquals(A, multiply(factor.getL()), 1.0E-8);
+    }
+
+    public void testUpdate() throws Exception {
+        double[][] A = randomMatrix(DIMENSION);
+
+        UpdatableCholeskyDecomposition factor = new UpdatableCholeskyDecomposition(DIMENSION);
+        factor.decompose(A);
+
+        for (int k = 0; k < 50; k++) {
+            double c = 0.5 + MathUtils.nextDouble();
+            double[] x = randomVector(DIMENSION);
+            for (int i = 0; i < DIMENSION; i++) {
+                for (int j = 0; j < DIMENSION; j++) {
+                    A[i][j] = c * A[i][j] + x[i] * x[j];
+                }
+            }
+            factor.scale(c);
+            assertTrue(factor.update(x));
+        }
+
+        assertEquals(new CholeskyDecomposition(A).getL(), factor.getL(), TOLERANCE);
+    }
+
+    public void testRunningCovariance() {
+        // the recursion used by AdaptableVarianceMultivariateNormalOperator starting from zero
+        UpdatableCholeskyDecomposition factor = new UpdatableCholeskyDecomposition(DIMENSION);
+        double[][] C = new double[DIMENSION][DIMENSION];
+        double[] mean = new double[DIMENSION];
+
+        for (int n = 1; n <= 100; n++) {
+            double[] x = randomVector(DIMENSION);
+            double[] deviation = new double[DIMENSION];
+            for (int i = 0; i < DIMENSION; i++) {
+                deviation[i] = x[i] - mean[i];
+                mean[i] += deviation[i] / n;
+            }
+            if (n > 1) {
+                for (int i = 0; i < DIMENSION; i++) {
+                    for (int j = 0; j < DIMENSION; j++) {
+                        C[i][j] = C[i][j] * (n - 2.0) / (n - 1.0) + deviation[i] * deviation[j] / n;
+                    }
+                }
+                for (int i = 0; i < DIMENSION; i++) {
+                    deviation[i] /= Math.sqrt(n);
+                }
+                factor.scale((n - 2.0) / (n - 1.0));
+                assertTrue(factor.update(deviation));
+            }
+        }
+
+        assertEquals(C, multiply(factor.getL()), TOLERANCE);
+
+        double[] z = randomVector(DIMENSION);
+        double[] y = new double[DIMENSION];
+        factor.multiply(z, 2.0, y);
+        double[][] L = factor.getL();
+        for (int i = 0; i < DIMENSION; i++) {
+            double expected = 0.0;
+            for (int j = 0; j <= i; j++) {
+                expected += 2.0 * L[i][j] * z[j];
+            }
+            assertEquals(expected, y[i], TOLERANCE);
+        }
+    }
+
+    public void testFailure() {
+        UpdatableCholeskyDecomposition factor = new UpdatableCholeskyDecomposition(3);
+        assertTrue(factor.decompose(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}}));
+        assertFalse(factor.update(new double[]{Double.POSITIVE_INFINITY, 0, 0}));
+    }
+
+    private static double[] randomVector(int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = MathUtils.nextGaussian();
+        }
+        return x;
+    }
+
+    private static double[][] randomMatrix(int n) {
+        double[][] X = new double[2 * n][];
+        for (int k = 0; k < X.length; k++) {
+            X[k] = randomVector(n);
+        }
+        double[][] A = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (double[] x : X) {
+                    A[i][j] += x[i] * x[j];
+                }
+            }
+        }
+        return A;
+    }
+
+    private static double[][] multiply(double[][] L) {
+        int n = L.length;
+        double[][] A = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                for (int k = 0; k < n; k++) {
+                    A[i][j] += L[i][k] * L[j][k];
+                }
+            }
+        }
+        return A;
+    }
+}
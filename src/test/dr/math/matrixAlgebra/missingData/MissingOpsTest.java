@@ -1,11 +1,17 @@
 package test.dr.math.matrixAlgebra.missingData;
 
 import dr.math.matrixAlgebra.missingData.InversionResult;
+import dr.math.matrixAlgebra.missingData.MatrixWorkspace;
 import dr.math.matrixAlgebra.missingData.MissingOps;
 import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Paul Bastide
@@ -76,4 +82,85 @@ public class MissingOpsTest {
             assertEquals(c.getEffectiveDimension(), rank_test, 1e-6);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void workspace() throws Exception {
+        // the same workspace is used for all the sizes and patterns of missing diagonals
+        Random random = new Random(1234);
+        MatrixWorkspace workspace = new MatrixWorkspace(8);
+
+        for (int iteration = 0; iteration < 200; iteration++) {
+            int dim = 1 + random.nextInt(8);
+            DenseMatrix64F source = randomSymmPosDef(dim, random);
+            for (int i = 0; i < dim; i++) {
+                double u = random.nextDouble();
+                if (u < 0.2) {
+                    source.set(i, i, Double.POSITIVE_INFINITY);
+                } else if (u < 0.3) {
+                    source.set(i, i, 0.0);
+                }
+            }
+            boolean getLogDeterminant = random.nextBoolean();
+
+            DenseMatrix64F expected = new DenseMatrix64F(dim, dim);
+            InversionResult expectedResult = MissingOps.safeInvert2(source.copy(), expected, getLogDeterminant);
+            DenseMatrix64F actual = new DenseMatrix64F(dim, dim);
+            InversionResult actualResult = MissingOps.safeInvert2(source.copy(), actual, getLogDeterminant, workspace);
+
+            assertTrue(Arrays.equals(expected.getData(), actual.getData()));
+            assertEquals(expectedResult.getReturnCode(), actualResult.getReturnCode());
+            assertEquals(expectedResult.getEffectiveDimension(), actualResult.getEffectiveDimension());
+            assertEquals(expectedResult.getLogDeterminant(), actualResult.getLogDeterminant(), 0.0);
+        }
+
+        for (int dim = 1; dim <= 8; dim++) {
+            DenseMatrix64F A = randomSymmPosDef(dim, random);
+            double[] b = new double[dim + 2];
+            for (int i = 0; i < b.length; i++) {
+                b[i] = random.nextGaussian();
+            }
+
+            DenseMatrix64F expected = new DenseMatrix64F(dim, 1);
+            MissingOps.safeSolve(A, new DenseMatrix64F(dim, 1, true, Arrays.copyOfRange(b, 2, dim + 2)),
+                    expected, false);
+            double[] actual = new double[dim + 1];
+            MissingOps.safeSolve(A, b, 2, actual, 1, workspace);
+            assertTrue(Arrays.equals(expected.getData(), Arrays.copyOfRange(actual, 1, dim + 1)));
+
+            InversionResult expectedResult = MissingOps.safeDeterminant(A, true);
+            InversionResult actualResult = MissingOps.safeDeterminant(A, true, workspace);
+            assertEquals(expectedResult.getLogDeterminant(), actualResult.getLogDeterminant(), 0.0);
+            assertEquals(expectedResult.getEffectiveDimension(), actualResult.getEffectiveDimension());
+        }
+    }
+
+    @Test
+    public void forceSymmetric() throws Exception {
+        Random random = new Random(666);
+        DenseMatrix64F P = new DenseMatrix64F(5, 5);
+        for (int i = 0; i < P.getNumElements(); i++) {
+            P.set(i, random.nextGaussian());
+        }
+
+        DenseMatrix64F expected = new DenseMatrix64F(5, 5);
+        CommonOps.transpose(P, expected);
+        CommonOps.addEquals(expected, P);
+        CommonOps.scale(0.5, expected);
+
+        MissingOps.forceSymmetric(P);
+        assertTrue(Arrays.equals(expected.getData(), P.getData()));
+    }
+
+    private static DenseMatrix64F randomSymmPosDef(int dim, Random random) {
+        DenseMatrix64F A = new DenseMatrix64F(dim, dim);
+        for (int i = 0; i < A.getNumElements(); i++) {
+            A.set(i, random.nextGaussian());
+        }
+        DenseMatrix64F AAt = new DenseMatrix64F(dim, dim);
+        CommonOps.multTransB(A, A, AAt);
+        for (int i = 0; i < dim; i++) {
+            AAt.add(i, i, 0.1);
+        }
+        return AAt;
+    }
+}
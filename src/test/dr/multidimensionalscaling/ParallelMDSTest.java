@@ -0,0 +1,223 @@
+package test.dr.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.inference.multidimensionalscaling.ParallelMultiDimensionalScalingCoreImpl;
+import test.dr.math.MathTestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the multi-threaded Java MDS core against the single-threaded one through a sequence of
+ * single location and full updates, stores, restores and accepts, and its gradient against
+ * finite differences.
+ *
+ * @author Andrew Rambaut
+ */
+public class ParallelMDSTest extends MathTestCase {
+
+    private static final int MDS_DIMENSION = 2;
+    // enough locations for more than one block of rows
+    private static final int LOCATION_COUNT = 150;
+
+    public ParallelMDSTest(String name) {
+        super(name);
+    }
+
+    public void testLikelihood() {
+        for (boolean truncated : new boolean[]{false, true}) {
+            Random random = new Random(truncated ? 1 : 2);
+            double[] locations = randomLocations(random, LOCATION_COUNT);
+            double[] observations = randomObservations(random, locations, LOCATION_COUNT);
+
+            MultiDimensionalScalingCore[] cores = {
+                    new MultiDimensionalScalingCoreImpl(),
+                    new ParallelMultiDimensionalScalingCoreImpl(1),
+                    new ParallelMultiDimensionalScalingCoreImpl(4),
+                    new ParallelMultiDimensionalScalingCoreImpl(4, 7)
+            };
+            for (MultiDimensionalScalingCore core : cores) {
+                initialize(core, LOCATION_COUNT, truncated, observations, locations, 2.0);
+            }
+            assertSameLikelihood(cores);
+
+            for (int step = 0; step < 50; step++) {
+                for (MultiDimensionalScalingCore core : cores) {
+                    core.storeState();
+                }
+
+                int index = random.nextInt(LOCATION_COUNT);
+                double[] location = new double[MDS_DIMENSION];
+                for (int k = 0; k < MDS_DIMENSION; k++) {
+                    location[k] = locations[index * MDS_DIMENSION + k] + 0.5 * random.nextGaussian();
+                }
+                double precision = 1.0 + random.nextDouble();
+                int move = random.nextInt(3);
+                for (MultiDimensionalScalingCore core : cores) {
+                    if (move == 0) {
+                        core.updateLocation(index, location);
+                    } else if (move == 1) {
+                        core.setParameters(new double[]{precision});
+                    } else {
+                        double[] all = locations.clone();
+                        System.arraycopy(location, 0, all, index * MDS_DIMENSION, MDS_DIMENSION);
+                        core.updateLocation(-1, all);
+                    }
+                }
+                assertSameLikelihood(cores);
+
+                if (random.nextBoolean()) {
+                    for (MultiDimensionalScalingCore core : cores) {
+                        core.acceptState();
+                    }
+                    if (move != 1) {
+                        System.arraycopy(location, 0, locations, index * MDS_DIMENSION, MDS_DIMENSION);
+                    }
+                } else {
+                    for (MultiDimensionalScalingCore core : cores) {
+                        core.restoreState();
+                    }
+                }
+                assertSameLikelihood(cores);
+            }
+
+            // the incrementally updated likelihood against one calculated from scratch
+            for (MultiDimensionalScalingCore core : cores) {
+                double logLikelihood = core.calculateLogLikelihood();
+                core.makeDirty();
+                assertEquals(logLikelihood, core.calculateLogLikelihood(), 1E-8 * Math.abs(logLikelihood));
+            }
+        }
+    }
+
+    public void testGradient() {
+        for (boolean truncated : new boolean[]{false, true}) {
+            Random random = new Random(truncated ? 3 : 4);
+            final int locationCount = 20;
+            double[] locations = randomLocations(random, locationCount);
+            double[] observations = randomObservations(random, locations, locationCount);
+            // some missing observations
+            for (int i = 0; i < 5; i++) {
+                int a = random.nextInt(locationCount);
+                int b = (a + 1 + random.nextInt(locationCount - 1)) % locationCount;
+                observations[a * locationCount + b] = observations[b * locationCount + a] = Double.NaN;
+            }
+
+            MultiDimensionalScalingCore core = new ParallelMultiDimensionalScalingCoreImpl(1);
+            initialize(core, locationCount, truncated, observations, locations, 1.5);
+
+            double[] gradient = new double[locations.length];
+            core.getGradient(gradient);
+
+            final double h = 1E-6;
+            for (int v = 0; v < locations.length; v++) {
+                double[] shifted = locations.clone();
+                shifted[v] += h;
+                core.updateLocation(-1, shifted);
+                double upper = core.calculateLogLikelihood();
+                shifted[v] -= 2 * h;
+                core.updateLocation(-1, shifted);
+                double lower = core.calculateLogLikelihood();
+                assertEquals((upper - lower) / (2 * h), gradient[v], 1E-4 * Math.max(1.0, Math.abs(gradient[v])));
+            }
+
+            // the gradient found in the same pass as the likelihood
+            core.updateLocation(-1, locations);
+            assertTrue(!Double.isNaN(core.calculateLogLikelihood()));
+            double[] again = new double[locations.length];
+            core.getGradient(again);
+            assertEquals(gradient, again, 0.0);
+        }
+    }
+
+    public void testMissing() {
+        for (boolean truncated : new boolean[]{false, true}) {
+            Random random = new Random(truncated ? 6 : 7);
+            final int locationCount = 20;
+            double[] locations = randomLocations(random, locationCount);
+            double[] observations = randomObservations(random, locations, locationCount);
+
+            // all the observations of the last location are missing...
+            final int last = locationCount - 1;
+            for (int j = 0; j < locationCount; j++) {
+                observations[last * locationCount + j] = observations[j * locationCount + last] = Double.NaN;
+            }
+
+            // ...so the likelihood is that of the data without it
+            double[] reducedLocations = new double[last * MDS_DIMENSION];
+            System.arraycopy(locations, 0, reducedLocations, 0, reducedLocations.length);
+            double[] reducedObservations = new double[last * last];
+            for (int i = 0; i < last; i++) {
+                System.arraycopy(observations, i * locationCount, reducedObservations, i * last, last);
+            }
+
+            MultiDimensionalScalingCore core = new ParallelMultiDimensionalScalingCoreImpl(1);
+            MultiDimensionalScalingCore reducedCore = new ParallelMultiDimensionalScalingCoreImpl(1);
+            for (double precision : new double[]{0.5, 2.0}) {
+                initialize(core, locationCount, truncated, observations, locations, precision);
+                initialize(reducedCore, last, truncated, reducedObservations, reducedLocations, precision);
+                double expected = reducedCore.calculateLogLikelihood();
+                assertEquals(expected, core.calculateLogLikelihood(), 1E-10 * Math.abs(expected));
+            }
+        }
+    }
+
+    public void testThreads() {
+        Random random = new Random(5);
+        double[] locations = randomLocations(random, LOCATION_COUNT);
+        double[] observations = randomObservations(random, locations, LOCATION_COUNT);
+
+        MultiDimensionalScalingCore core1 = new ParallelMultiDimensionalScalingCoreImpl(1);
+        MultiDimensionalScalingCore core4 = new ParallelMultiDimensionalScalingCoreImpl(4);
+        initialize(core1, LOCATION_COUNT, true, observations, locations, 2.0);
+        initialize(core4, LOCATION_COUNT, true, observations, locations, 2.0);
+
+        // the rows are summed in order so the number of threads makes no difference
+        assertEquals(core1.calculateLogLikelihood(), core4.calculateLogLikelihood(), 0.0);
+        double[] gradient1 = new double[locations.length];
+        double[] gradient4 = new double[locations.length];
+        core1.getGradient(gradient1);
+        core4.getGradient(gradient4);
+        assertEquals(gradient1, gradient4, 0.0);
+    }
+
+    private static void initialize(MultiDimensionalScalingCore core, int locationCount, boolean truncated,
+                                   double[] observations, double[] locations, double precision) {
+        core.initialize(MDS_DIMENSION, locationCount, truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0);
+        core.setPairwiseData(observations);
+        core.setParameters(new double[]{precision});
+        core.updateLocation(-1, locations);
+        core.makeDirty();
+    }
+
+    private void assertSameLikelihood(MultiDimensionalScalingCore[] cores) {
+        double expected = cores[0].calculateLogLikelihood();
+        for (int i = 1; i < cores.length; i++) {
+            assertEquals(expected, cores[i].calculateLogLikelihood(), 1E-8 * Math.abs(expected));
+        }
+    }
+
+    private static double[] randomLocations(Random random, int locationCount) {
+        double[] locations = new double[locationCount * MDS_DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = random.nextGaussian();
+        }
+        return locations;
+    }
+
+    private static double[] randomObservations(Random random, double[] locations, int locationCount) {
+        double[] observations = new double[locationCount * locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            for (int j = i + 1; j < locationCount; j++) {
+                double distance = 0.0;
+                for (int k = 0; k < MDS_DIMENSION; k++) {
+                    double difference = locations[i * MDS_DIMENSION + k] - locations[j * MDS_DIMENSION + k];
+                    distance += difference * difference;
+                }
+                observations[i * locationCount + j] = observations[j * locationCount + i] =
+                        Math.abs(Math.sqrt(distance) + 0.2 * random.nextGaussian());
+            }
+        }
+        return observations;
+    }
+}
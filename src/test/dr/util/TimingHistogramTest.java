@@ -0,0 +1,62 @@
+package test.dr.util;
+
+import dr.util.TimingHistogram;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Andrew Rambaut
+ */
+public class TimingHistogramTest extends TestCase {
+
+    public TimingHistogramTest(String name) {
+        super(name);
+    }
+
+    public void testSmallTimes() {
+        TimingHistogram histogram = new TimingHistogram();
+        for (long time = 1; time <= 10; time++) {
+            histogram.record(time);
+        }
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(55, histogram.getTotal());
+        assertEquals(5.5, histogram.getMean(), 1E-12);
+        assertEquals(1, histogram.getMinimum());
+        assertEquals(10, histogram.getMaximum());
+
+        // below 16ns every time has its own bucket
+        assertEquals(5, histogram.getPercentile(50.0));
+        assertEquals(9, histogram.getPercentile(90.0));
+        assertEquals(10, histogram.getPercentile(100.0));
+    }
+
+    public void testPercentiles() {
+        Random random = new Random(666);
+        long[] times = new long[100000];
+        TimingHistogram histogram = new TimingHistogram();
+        for (int i = 0; i < times.length; i++) {
+            // times from nanoseconds to seconds
+            times[i] = (long) Math.exp(random.nextDouble() * 20.0);
+            histogram.record(times[i]);
+        }
+        Arrays.sort(times);
+
+        assertEquals(times.length, histogram.getCount());
+        assertEquals(times[0], histogram.getMinimum());
+        assertEquals(times[times.length - 1], histogram.getMaximum());
+
+        for (double percentile : new double[]{1.0, 10.0, 50.0, 90.0, 99.0, 99.9}) {
+            long expected = times[(int) Math.ceil(percentile / 100.0 * times.length) - 1];
+            long value = histogram.getPercentile(percentile);
+            assertTrue("percentile " + percentile, value >= expected);
+            assertTrue("percentile " + percentile, value <= expected + expected / 16 + 1);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50.0));
+    }
+}